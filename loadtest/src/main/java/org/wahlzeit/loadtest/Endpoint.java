@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.loadtest;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The scripted visitor actions, each one request against MainServlet or StaticDataServlet.
+ */
+public enum Endpoint {
+
+	/**
+	 * The show-photo page a guest lands on; its photo ids feed the other endpoints
+	 */
+	BROWSE("browse", 50) {
+		@Override
+		public VisitorSession.Response perform(LoadGenerator generator, VisitorSession session) throws IOException {
+			VisitorSession.Response result = session.get("/index.html");
+			generator.addKnownPhotoIds(result.body);
+			return result;
+		}
+	},
+
+	/**
+	 * FilterPhotosPageHandler, by one of the seeded users or else by tag
+	 */
+	FILTER("filter", 10) {
+		@Override
+		public VisitorSession.Response perform(LoadGenerator generator, VisitorSession session) throws IOException {
+			int seedUsers = generator.getConfig().seedUsers;
+			if (seedUsers > 0) {
+				return session.get("/filter.html?userName=loadtest" + ThreadLocalRandom.current().nextInt(seedUsers));
+			}
+			return session.get("/filter.html?tags=bundestag");
+		}
+	},
+
+	/**
+	 * PraisePhotoFormHandler, for a photo seen before
+	 */
+	PRAISE("praise", 15) {
+		@Override
+		public VisitorSession.Response perform(LoadGenerator generator, VisitorSession session) throws IOException {
+			Map<String, String> fields = new LinkedHashMap<String, String>();
+			fields.put("id", generator.getKnownPhotoId());
+			fields.put("praise", String.valueOf(ThreadLocalRandom.current().nextInt(10) + 1));
+			return session.postForm("/praisePhotoForm.form", fields);
+		}
+
+		@Override
+		public boolean isPhotoRequired() {
+			return true;
+		}
+	},
+
+	/**
+	 * UploadPhotoFormHandler, by a logged in user
+	 */
+	UPLOAD("upload", 1) {
+		@Override
+		public VisitorSession.Response perform(LoadGenerator generator, VisitorSession session) throws IOException {
+			session.ensureLoggedIn();
+			Map<String, String> fields = Collections.singletonMap("tags", "loadtest, " + session.getUserName());
+			return session.postMultipart("/uploadPhotoForm.form", fields, "file", "loadtest.jpg",
+					generator.getUploadImage());
+		}
+
+		@Override
+		public boolean isLoginRequired() {
+			return true;
+		}
+	},
+
+	/**
+	 * StaticDataServlet, the thumbnail of a photo seen before
+	 */
+	THUMBNAIL("thumbnail", 40) {
+		@Override
+		public VisitorSession.Response perform(LoadGenerator generator, VisitorSession session) throws IOException {
+			return session.get(IMAGE_PATH + "?type=image&photoId=" + generator.getKnownPhotoId() + "&size=0");
+		}
+
+		@Override
+		public boolean isPhotoRequired() {
+			return true;
+		}
+	};
+
+	/**
+	 * Where StaticDataServlet serves the photo images, see AbstractWebPartHandler
+	 */
+	public static final String IMAGE_PATH = "/org-wahlzeit-dirkriehle/photos/";
+
+	/**
+	 *
+	 */
+	private final String name;
+	private final int defaultWeight;
+
+	/**
+	 *
+	 */
+	Endpoint(String name, int defaultWeight) {
+		this.name = name;
+		this.defaultWeight = defaultWeight;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public abstract VisitorSession.Response perform(LoadGenerator generator, VisitorSession session)
+			throws IOException;
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean isPhotoRequired() {
+		return false;
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean isLoginRequired() {
+		return false;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getDefaultWeight() {
+		return defaultWeight;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		return name;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public static Endpoint getFromString(String name) {
+		for (Endpoint endpoint : values()) {
+			if (endpoint.name.equals(name)) {
+				return endpoint;
+			}
+		}
+		throw new IllegalArgumentException("unknown endpoint " + name);
+	}
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.loadtest;
+
+import org.wahlzeit.services.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Latencies and failures of one endpoint during the measured part of a run. Latency is taken from the intended
+ * start of a request, so time spent waiting for a free connection counts as well (no coordinated omission).
+ */
+public class EndpointStats {
+
+	/**
+	 *
+	 */
+	protected final Endpoint endpoint;
+	protected final LatencyHistogram latencies = new LatencyHistogram();
+	protected final AtomicLong errors = new AtomicLong();
+	protected final AtomicReference<String> lastFailure = new AtomicReference<String>();
+
+	/**
+	 *
+	 */
+	public EndpointStats(Endpoint endpoint) {
+		this.endpoint = endpoint;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void record(long latencyNanos, String failure) {
+		latencies.recordNanos(latencyNanos);
+		if (failure != null) {
+			errors.incrementAndGet();
+			lastFailure.set(failure);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Endpoint getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getCount() {
+		return latencies.getCount();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getErrors() {
+		return errors.get();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the status or exception of the last failed request, or null if none failed.
+	 */
+	public String getLastFailure() {
+		return lastFailure.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public LatencyHistogram getLatencies() {
+		return latencies;
+	}
+
+}
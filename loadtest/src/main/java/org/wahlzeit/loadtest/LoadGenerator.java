@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.loadtest;
+
+import org.wahlzeit.services.metrics.LatencyHistogram;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Drives a scripted mix of guest browsing, filtering, praising, thumbnail fetches and uploads against a running
+ * Wahlzeit, usually the local dev server started with wahlzeit.loadTest.seedUsers set. Requests arrive at a fixed
+ * rate independent of how fast earlier ones complete (open loop) and are run by a bounded number of threads; latency
+ * percentiles and throughput are reported per endpoint after the warmup.
+ */
+public class LoadGenerator {
+
+	/**
+	 *
+	 */
+	public static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+
+	/**
+	 * Arrivals waiting for a thread beyond this are dropped and counted, so an overloaded server cannot exhaust memory
+	 */
+	protected static final int MAX_BACKLOG = 100000;
+
+	/**
+	 * Photo ids as they appear in the praise form and image links of the pages
+	 */
+	protected static final Pattern PHOTO_ID_PATTERN = Pattern.compile("(?:name=\"id\" value=\"|photoId=)([a-z0-9]+)");
+
+	/**
+	 *
+	 */
+	protected final LoadTestConfig config;
+	protected final Map<Endpoint, EndpointStats> stats = new EnumMap<Endpoint, EndpointStats>(Endpoint.class);
+	protected final Endpoint[] endpointByTicket;
+	protected final BlockingQueue<VisitorSession> guests;
+	protected final BlockingQueue<VisitorSession> uploaders;
+	protected final Set<String> knownPhotoIdSet = ConcurrentHashMap.newKeySet();
+	protected volatile String[] knownPhotoIds = new String[0];
+	protected final AtomicLong dropped = new AtomicLong();
+	protected byte[] uploadImage;
+	protected long measureStartNanos;
+
+	/**
+	 *
+	 */
+	public LoadGenerator(LoadTestConfig config) {
+		this.config = config;
+
+		List<Endpoint> tickets = new ArrayList<Endpoint>();
+		for (Endpoint endpoint : Endpoint.values()) {
+			stats.put(endpoint, new EndpointStats(endpoint));
+			for (int i = 0; i < config.weights.get(endpoint); i++) {
+				tickets.add(endpoint);
+			}
+		}
+		endpointByTicket = tickets.toArray(new Endpoint[0]);
+
+		guests = new ArrayBlockingQueue<VisitorSession>(config.guests);
+		for (int i = 0; i < config.guests; i++) {
+			guests.add(new VisitorSession(config.baseUrl, null));
+		}
+
+		uploaders = new ArrayBlockingQueue<VisitorSession>(config.uploaders);
+		for (int i = 0; i < config.uploaders; i++) {
+			uploaders.add(new VisitorSession(config.baseUrl, "uploader" + i));
+		}
+	}
+
+	/**
+	 *
+	 */
+	public static void main(String[] args) throws Exception {
+		LoadTestConfig config;
+		try {
+			config = LoadTestConfig.fromArgs(args);
+		} catch (IllegalArgumentException ex) {
+			System.err.println(ex.getMessage());
+			config = null;
+		}
+
+		if ((config == null) || !config.isValid()) {
+			System.err.println("usage: LoadGenerator [--baseUrl=http://localhost:8080] [--rate=20] " +
+					"[--arrivals=poisson|uniform] [--durationSeconds=60] [--warmupSeconds=10] [--concurrency=16] " +
+					"[--guests=200] [--uploaders=4] [--seedUsers=10] [--mix=browse=50,filter=10,praise=15,upload=1," +
+					"thumbnail=40] [--uploadFile=photo.jpg] [--report=results.json]");
+			System.exit(1);
+		}
+
+		LoadGenerator generator = new LoadGenerator(config);
+		System.out.println(config.asString());
+		generator.run();
+
+		System.out.print(generator.asText());
+		if (config.reportFile != null) {
+			try (Writer writer = Files.newBufferedWriter(Paths.get(config.reportFile), StandardCharsets.UTF_8)) {
+				writer.write(generator.asJson());
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void run() throws IOException, InterruptedException {
+		uploadImage = loadUploadImage();
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(config.concurrency, config.concurrency,
+				0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+
+		long startNanos = System.nanoTime();
+		measureStartNanos = startNanos + TimeUnit.SECONDS.toNanos(config.warmupSeconds);
+		long endNanos = measureStartNanos + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+		double meanIntervalNanos = TimeUnit.SECONDS.toNanos(1) / config.ratePerSecond;
+
+		for (long next = startNanos; next < endNanos; next += getNextInterval(meanIntervalNanos)) {
+			for (long wait = next - System.nanoTime(); wait > 0; wait = next - System.nanoTime()) {
+				LockSupport.parkNanos(wait);
+			}
+
+			if (executor.getQueue().size() >= MAX_BACKLOG) {
+				if (next >= measureStartNanos) {
+					dropped.incrementAndGet();
+				}
+				continue;
+			}
+
+			long intendedStartNanos = next;
+			Endpoint endpoint = pickEndpoint();
+			executor.execute(() -> perform(endpoint, intendedStartNanos));
+		}
+
+		executor.shutdown();
+		if (!executor.awaitTermination(VisitorSession.READ_TIMEOUT_MILLIS * 2, TimeUnit.MILLISECONDS)) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected long getNextInterval(double meanIntervalNanos) {
+		if (!config.isPoisson) {
+			return Math.max(1, (long) meanIntervalNanos);
+		}
+		double uniform = 1.0 - ThreadLocalRandom.current().nextDouble(); // in (0, 1]
+		return Math.max(1, (long) (-Math.log(uniform) * meanIntervalNanos));
+	}
+
+	/**
+	 * Picks an endpoint by weight; ones that need a photo are replaced by browsing until photos are known
+	 */
+	protected Endpoint pickEndpoint() {
+		Endpoint result = endpointByTicket[ThreadLocalRandom.current().nextInt(endpointByTicket.length)];
+		if (result.isPhotoRequired() && (knownPhotoIds.length == 0)) {
+			result = Endpoint.BROWSE;
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void perform(Endpoint endpoint, long intendedStartNanos) {
+		VisitorSession session = null;
+		String failure = null;
+		try {
+			session = borrowSession(endpoint);
+			VisitorSession.Response response = endpoint.perform(this, session);
+			if (!response.isSuccess()) {
+				failure = "HTTP " + response.status;
+			}
+		} catch (IOException | RuntimeException ex) {
+			failure = ex.toString();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			failure = ex.toString();
+		} finally {
+			if (session != null) {
+				returnSession(endpoint, session);
+			}
+		}
+
+		if (intendedStartNanos >= measureStartNanos) {
+			stats.get(endpoint).record(System.nanoTime() - intendedStartNanos, failure);
+		}
+	}
+
+	/**
+	 * Guests come from the pool, or are new visitors if all are busy; uploaders are waited for
+	 */
+	protected VisitorSession borrowSession(Endpoint endpoint) throws InterruptedException {
+		if (endpoint.isLoginRequired()) {
+			return uploaders.take();
+		}
+
+		VisitorSession result = guests.poll();
+		return (result != null) ? result : new VisitorSession(config.baseUrl, null);
+	}
+
+	/**
+	 *
+	 */
+	protected void returnSession(Endpoint endpoint, VisitorSession session) {
+		if (endpoint.isLoginRequired()) {
+			uploaders.add(session);
+		} else {
+			guests.offer(session); // surplus new visitors are simply dropped
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public LoadTestConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void addKnownPhotoIds(String page) {
+		if (page == null) {
+			return;
+		}
+
+		boolean isChanged = false;
+		Matcher matcher = PHOTO_ID_PATTERN.matcher(page);
+		while (matcher.find()) {
+			isChanged |= knownPhotoIdSet.add(matcher.group(1));
+		}
+
+		if (isChanged) {
+			synchronized (knownPhotoIdSet) {
+				knownPhotoIds = knownPhotoIdSet.toArray(new String[0]);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getKnownPhotoId() {
+		String[] ids = knownPhotoIds;
+		return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public byte[] getUploadImage() {
+		return uploadImage;
+	}
+
+	/**
+	 * Reads the configured file, or generates a photo-sized JPEG
+	 */
+	protected byte[] loadUploadImage() throws IOException {
+		if (config.uploadFile != null) {
+			return Files.readAllBytes(Paths.get(config.uploadFile));
+		}
+
+		BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		for (int y = 0; y < image.getHeight(); y += 8) {
+			graphics.setColor(new Color((y * 255) / image.getHeight(), 96, 160));
+			graphics.fillRect(0, y, image.getWidth(), 8);
+		}
+		graphics.dispose();
+
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", result);
+		return result.toByteArray();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asText() {
+		StringBuilder result = new StringBuilder();
+		result.append(String.format("%-10s %8s %7s %9s %9s", "endpoint", "count", "errors", "req/s", "mean ms"));
+		for (double percentile : PERCENTILES) {
+			result.append(String.format(" %9s", "p" + formatPercentile(percentile)));
+		}
+		result.append(String.format(" %9s%n", "max ms"));
+
+		for (EndpointStats endpointStats : stats.values()) {
+			LatencyHistogram latencies = endpointStats.getLatencies();
+			result.append(String.format("%-10s %8d %7d %9.1f %9.1f", endpointStats.getEndpoint().asString(),
+					endpointStats.getCount(), endpointStats.getErrors(), getThroughput(endpointStats),
+					latencies.getMeanMicros() / 1000.0));
+			for (double percentile : PERCENTILES) {
+				result.append(String.format(" %9.1f", latencies.getValueAtPercentile(percentile) / 1000.0));
+			}
+			result.append(String.format(" %9.1f%n", latencies.getMaxMicros() / 1000.0));
+		}
+
+		result.append(String.format("dropped arrivals: %d%n", dropped.get()));
+		for (EndpointStats endpointStats : stats.values()) {
+			if (endpointStats.getLastFailure() != null) {
+				result.append(String.format("last %s failure: %s%n", endpointStats.getEndpoint().asString(),
+						endpointStats.getLastFailure()));
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns the configuration and, per endpoint, the counts and latencies in microseconds.
+	 */
+	public String asJson() {
+		StringBuilder result = new StringBuilder("{\"config\":{");
+		result.append("\"baseUrl\":\"").append(config.baseUrl).append("\",");
+		result.append("\"rate\":").append(config.ratePerSecond).append(',');
+		result.append("\"arrivals\":\"").append(config.isPoisson ? "poisson" : "uniform").append("\",");
+		result.append("\"durationSeconds\":").append(config.durationSeconds).append(',');
+		result.append("\"concurrency\":").append(config.concurrency).append(',');
+		result.append("\"seedUsers\":").append(config.seedUsers).append("},");
+		result.append("\"dropped\":").append(dropped.get()).append(",\"endpoints\":{");
+
+		boolean isFirst = true;
+		for (EndpointStats endpointStats : stats.values()) {
+			LatencyHistogram latencies = endpointStats.getLatencies();
+			result.append(isFirst ? "" : ",").append('"').append(endpointStats.getEndpoint().asString()).append("\":{");
+			result.append("\"count\":").append(endpointStats.getCount()).append(',');
+			result.append("\"errors\":").append(endpointStats.getErrors()).append(',');
+			result.append("\"throughput\":").append(getThroughput(endpointStats)).append(',');
+			result.append("\"meanMicros\":").append(latencies.getMeanMicros()).append(',');
+			for (double percentile : PERCENTILES) {
+				result.append("\"p").append(formatPercentile(percentile)).append("Micros\":");
+				result.append(latencies.getValueAtPercentile(percentile)).append(',');
+			}
+			result.append("\"maxMicros\":").append(latencies.getMaxMicros()).append('}');
+			isFirst = false;
+		}
+		return result.append("}}\n").toString();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected double getThroughput(EndpointStats endpointStats) {
+		return (double) endpointStats.getCount() / config.durationSeconds;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String formatPercentile(double percentile) {
+		return (percentile == Math.rint(percentile)) ? String.valueOf((int) percentile) : String.valueOf(percentile);
+	}
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.loadtest;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The settings of a load test run, from command line arguments of the form --name=value.
+ */
+public class LoadTestConfig {
+
+	/**
+	 *
+	 */
+	public String baseUrl = "http://localhost:8080";
+
+	/**
+	 * Requests started per second, whether earlier ones have completed or not (open loop)
+	 */
+	public double ratePerSecond = 20.0;
+
+	/**
+	 * Exponentially distributed inter-arrival times if true, evenly spaced ones otherwise
+	 */
+	public boolean isPoisson = true;
+
+	/**
+	 *
+	 */
+	public int durationSeconds = 60;
+	public int warmupSeconds = 10;
+
+	/**
+	 * Number of requests in flight at most; later arrivals wait, and their waiting time counts as latency
+	 */
+	public int concurrency = 16;
+
+	/**
+	 * Number of guest sessions reused by the browsing endpoints, and of logged in sessions used for uploads
+	 */
+	public int guests = 200;
+	public int uploaders = 4;
+
+	/**
+	 * Number of synthetic users the server was seeded with (wahlzeit.loadTest.seedUsers), filtered by name
+	 */
+	public int seedUsers = 10;
+
+	/**
+	 * JPEG file to upload; a generated image is used if not set
+	 */
+	public String uploadFile = null;
+
+	/**
+	 * JSON file the report is written to in addition to standard out, if set
+	 */
+	public String reportFile = null;
+
+	/**
+	 * Relative frequency of the endpoints
+	 */
+	public Map<Endpoint, Integer> weights = new EnumMap<Endpoint, Integer>(Endpoint.class);
+
+	/**
+	 *
+	 */
+	public LoadTestConfig() {
+		for (Endpoint endpoint : Endpoint.values()) {
+			weights.put(endpoint, endpoint.getDefaultWeight());
+		}
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static LoadTestConfig fromArgs(String[] args) {
+		LoadTestConfig result = new LoadTestConfig();
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (!arg.startsWith("--") || (equals == -1)) {
+				throw new IllegalArgumentException("expected --name=value, got " + arg);
+			}
+			result.set(arg.substring(2, equals), arg.substring(equals + 1));
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	protected void set(String name, String value) {
+		switch (name) {
+			case "baseUrl":
+				baseUrl = value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+				break;
+			case "rate":
+				ratePerSecond = Double.parseDouble(value);
+				break;
+			case "arrivals":
+				isPoisson = "poisson".equals(value);
+				break;
+			case "durationSeconds":
+				durationSeconds = Integer.parseInt(value);
+				break;
+			case "warmupSeconds":
+				warmupSeconds = Integer.parseInt(value);
+				break;
+			case "concurrency":
+				concurrency = Integer.parseInt(value);
+				break;
+			case "guests":
+				guests = Integer.parseInt(value);
+				break;
+			case "uploaders":
+				uploaders = Integer.parseInt(value);
+				break;
+			case "seedUsers":
+				seedUsers = Integer.parseInt(value);
+				break;
+			case "uploadFile":
+				uploadFile = value;
+				break;
+			case "report":
+				reportFile = value;
+				break;
+			case "mix":
+				setWeights(value);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option --" + name);
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Parses a mix like "browse=60,filter=15,praise=15,upload=1,thumbnail=40"; endpoints not mentioned get weight 0.
+	 */
+	protected void setWeights(String mix) {
+		for (Endpoint endpoint : Endpoint.values()) {
+			weights.put(endpoint, 0);
+		}
+		for (String entry : mix.split(",")) {
+			String[] nameAndWeight = entry.trim().split("=");
+			if (nameAndWeight.length != 2) {
+				throw new IllegalArgumentException("expected endpoint=weight, got " + entry);
+			}
+			weights.put(Endpoint.getFromString(nameAndWeight[0]), Integer.parseInt(nameAndWeight[1]));
+		}
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean isValid() {
+		int totalWeight = 0;
+		for (int weight : weights.values()) {
+			totalWeight += Math.max(weight, 0);
+		}
+		return (ratePerSecond > 0) && (durationSeconds > 0) && (warmupSeconds >= 0) && (concurrency > 0) &&
+				(guests > 0) && (uploaders > 0) && (totalWeight > 0);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		return "baseUrl=" + baseUrl + " rate=" + ratePerSecond + "/s arrivals=" + (isPoisson ? "poisson" : "uniform") +
+				" duration=" + durationSeconds + "s warmup=" + warmupSeconds + "s concurrency=" + concurrency +
+				" guests=" + guests + " uploaders=" + uploaders + " seedUsers=" + seedUsers + " mix=" + weights;
+	}
+
+}
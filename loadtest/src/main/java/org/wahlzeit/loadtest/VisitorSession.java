@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One simulated visitor, i.e. one HTTP session with its own cookies. Redirects are not followed, so each request
+ * measures exactly one servlet call. Not thread-safe; a session is used by one request at a time.
+ */
+public class VisitorSession {
+
+	/**
+	 *
+	 */
+	protected static final int CONNECT_TIMEOUT_MILLIS = 5000;
+	protected static final int READ_TIMEOUT_MILLIS = 30000;
+
+	/**
+	 *
+	 */
+	protected final String baseUrl;
+	protected final Map<String, String> cookies = new LinkedHashMap<String, String>();
+	protected final String userName;
+	protected boolean isLoggedIn = false;
+
+	/**
+	 * Sessions with a user name log in as that user before their first request
+	 */
+	public VisitorSession(String baseUrl, String userName) {
+		this.baseUrl = baseUrl;
+		this.userName = userName;
+	}
+
+	/**
+	 * The result of a request; the body is only kept for HTML pages
+	 */
+	public static class Response {
+		public final int status;
+		public final String body;
+
+		public Response(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+
+		/**
+		 * @methodtype boolean query
+		 */
+		public boolean isSuccess() {
+			return (status >= 200) && (status < 400);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getUserName() {
+		return userName;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Logs in through the dev server's fake Google login, then lets Wahlzeit create or look up the user.
+	 */
+	public void ensureLoggedIn() throws IOException {
+		if ((userName == null) || isLoggedIn) {
+			return;
+		}
+
+		String email = URLEncoder.encode(userName + "@example.com", "UTF-8");
+		get("/_ah/login?email=" + email + "&action=Login&continue=%2Findex.html");
+		Response response = get("/loginForm.html");
+		if (!response.isSuccess()) {
+			throw new IOException("login as " + userName + " failed with status " + response.status);
+		}
+		isLoggedIn = true;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public Response get(String path) throws IOException {
+		HttpURLConnection connection = openConnection(path);
+		return readResponse(connection);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public Response postForm(String path, Map<String, String> fields) throws IOException {
+		StringBuilder form = new StringBuilder();
+		for (Map.Entry<String, String> field : fields.entrySet()) {
+			if (form.length() > 0) {
+				form.append('&');
+			}
+			form.append(URLEncoder.encode(field.getKey(), "UTF-8")).append('=');
+			form.append(URLEncoder.encode(field.getValue(), "UTF-8"));
+		}
+
+		HttpURLConnection connection = openConnection(path);
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(form.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		return readResponse(connection);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Posts the fields and one file as multipart/form-data, as the upload form does.
+	 */
+	public Response postMultipart(String path, Map<String, String> fields, String fileField, String fileName,
+			byte[] fileData) throws IOException {
+		String boundary = "----wahlzeit" + Long.toHexString(System.nanoTime());
+		ByteArrayOutputStream body = new ByteArrayOutputStream(fileData.length + 1024);
+		for (Map.Entry<String, String> field : fields.entrySet()) {
+			writeAscii(body, "--" + boundary + "\r\n");
+			writeAscii(body, "Content-Disposition: form-data; name=\"" + field.getKey() + "\"\r\n\r\n");
+			body.write(field.getValue().getBytes(StandardCharsets.UTF_8));
+			writeAscii(body, "\r\n");
+		}
+		writeAscii(body, "--" + boundary + "\r\n");
+		writeAscii(body, "Content-Disposition: form-data; name=\"" + fileField + "\"; filename=\"" + fileName + "\"\r\n");
+		writeAscii(body, "Content-Type: image/jpeg\r\n\r\n");
+		body.write(fileData);
+		writeAscii(body, "\r\n--" + boundary + "--\r\n");
+
+		HttpURLConnection connection = openConnection(path);
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setFixedLengthStreamingMode(body.size());
+		connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+		try (OutputStream out = connection.getOutputStream()) {
+			body.writeTo(out);
+		}
+		return readResponse(connection);
+	}
+
+	/**
+	 *
+	 */
+	protected static void writeAscii(ByteArrayOutputStream out, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 *
+	 */
+	protected HttpURLConnection openConnection(String path) throws IOException {
+		HttpURLConnection result = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+		result.setInstanceFollowRedirects(false);
+		result.setUseCaches(false);
+		result.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+		result.setReadTimeout(READ_TIMEOUT_MILLIS);
+		if (!cookies.isEmpty()) {
+			result.setRequestProperty("Cookie", getCookieHeader());
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected String getCookieHeader() {
+		StringBuilder result = new StringBuilder();
+		for (Map.Entry<String, String> cookie : cookies.entrySet()) {
+			if (result.length() > 0) {
+				result.append("; ");
+			}
+			result.append(cookie.getKey()).append('=').append(cookie.getValue());
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Reads the whole response, so the connection can be reused, and remembers the cookies set
+	 */
+	protected Response readResponse(HttpURLConnection connection) throws IOException {
+		int status = connection.getResponseCode();
+		List<String> setCookies = connection.getHeaderFields().get("Set-Cookie");
+		if (setCookies != null) {
+			for (String setCookie : setCookies) {
+				int end = setCookie.indexOf(';');
+				String pair = (end == -1) ? setCookie : setCookie.substring(0, end);
+				int equals = pair.indexOf('=');
+				if (equals > 0) {
+					cookies.put(pair.substring(0, equals).trim(), pair.substring(equals + 1).trim());
+				}
+			}
+		}
+
+		InputStream in = (status >= 400) ? connection.getErrorStream() : connection.getInputStream();
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		if (in != null) {
+			try {
+				byte[] buffer = new byte[8192];
+				for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+					content.write(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+		}
+
+		String contentType = connection.getContentType();
+		boolean isText = (contentType != null) && contentType.startsWith("text/");
+		return new Response(status, isText ? new String(content.toByteArray(), StandardCharsets.UTF_8) : null);
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up shared CartesianCoordinate value objects, one per photo location, after all of them have been created
+ * once; single-threaded and with four threads hitting the shared map. Also converts to spheric coordinates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CoordinateBenchmark {
+
+	@Param({"1000", "100000", "1000000"})
+	public int numberOfPhotos;
+
+	protected double[] xs;
+	protected double[] ys;
+	protected double[] zs;
+
+	/**
+	 * Per thread position in the coordinates
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		protected int next = 0;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		xs = new double[numberOfPhotos];
+		ys = new double[numberOfPhotos];
+		zs = new double[numberOfPhotos];
+
+		Random random = new Random(42);
+		for (int i = 0; i < numberOfPhotos; i++) {
+			xs[i] = random.nextDouble() * 6371.0;
+			ys[i] = random.nextDouble() * 6371.0;
+			zs[i] = random.nextDouble() * 6371.0;
+			CartesianCoordinate.getInstance(xs[i], ys[i], zs[i]);
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected int nextIndex(Cursor cursor) {
+		int result = cursor.next;
+		cursor.next = (result + 1 == numberOfPhotos) ? 0 : result + 1;
+		return result;
+	}
+
+	@Benchmark
+	public CartesianCoordinate getInstance(Cursor cursor) {
+		int i = nextIndex(cursor);
+		return CartesianCoordinate.getInstance(xs[i], ys[i], zs[i]);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public CartesianCoordinate getInstanceShared(Cursor cursor) {
+		int i = nextIndex(cursor);
+		return CartesianCoordinate.getInstance(xs[i], ys[i], zs[i]);
+	}
+
+	@Benchmark
+	public SphericCoordinate asSphericCoordinate(Cursor cursor) {
+		int i = nextIndex(cursor);
+		return CartesianCoordinate.getInstance(xs[i], ys[i], zs[i]).asSphericCoordinate();
+	}
+
+}
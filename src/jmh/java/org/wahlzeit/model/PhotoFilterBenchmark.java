@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filters a synthetic set of displayable photos, without conditions, by one tag and by owner and tag, after a few
+ * hundred photos have been shown already. The PhotoManager's bitmap and tag index are filled directly, so no Photo
+ * objects are needed. Photo i belongs to owner "user(i % 1000)" and carries "tag(i % 100)" and "tag(i % 37)".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class PhotoFilterBenchmark {
+
+	@Param({"1000", "100000", "1000000"})
+	public int numberOfPhotos;
+
+	@Param({"300"})
+	public int numberOfProcessedPhotos;
+
+	protected LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+	protected PhotoFilter unfiltered;
+	protected PhotoFilter byTag;
+	protected PhotoFilter byUserAndTag;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		helper.setUp();
+		PhotoId.setCurrentIdFromInt(PhotoId.ID_START + numberOfPhotos);
+
+		PhotoManager manager = PhotoManager.getInstance();
+		Map<Integer, Set<String>> conditionsByPhoto = new HashMap<Integer, Set<String>>(numberOfPhotos * 2);
+		synchronized (manager.displayablePhotoIds) {
+			manager.displayablePhotoIds.clear();
+			for (int i = 0; i < numberOfPhotos; i++) {
+				int id = PhotoId.ID_START + i;
+				manager.displayablePhotoIds.add(id);
+
+				Set<String> conditions = new HashSet<String>(4);
+				conditions.add("un:user" + (i % 1000));
+				conditions.add("tg:tag" + (i % 100));
+				conditions.add("tg:tag" + (i % 37));
+				conditionsByPhoto.put(id, conditions);
+			}
+		}
+		manager.tagIndex.rebuild(conditionsByPhoto);
+
+		unfiltered = createFilter("", "");
+		byTag = createFilter("", "tag7");
+		byUserAndTag = createFilter("user7", "tag7");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		PhotoManager manager = PhotoManager.getInstance();
+		synchronized (manager.displayablePhotoIds) {
+			manager.displayablePhotoIds.clear();
+		}
+		manager.tagIndex.clear();
+		helper.tearDown();
+	}
+
+	/**
+	 *
+	 */
+	protected PhotoFilter createFilter(String userName, String tags) {
+		PhotoFilter result = new PhotoFilter();
+		result.setUserName(userName);
+		result.setTags(new Tags(tags));
+		for (int i = 0; i < numberOfProcessedPhotos; i++) {
+			result.processedPhotoIds.add(PhotoId.getIdFromInt(PhotoId.ID_START + (i * 7) % numberOfPhotos));
+		}
+		return result;
+	}
+
+	@Benchmark
+	public PhotoIdSet filterUnconditioned() {
+		return unfiltered.getFilteredPhotoIds();
+	}
+
+	@Benchmark
+	public PhotoIdSet filterByTag() {
+		return byTag.getFilteredPhotoIds();
+	}
+
+	@Benchmark
+	public PhotoIdSet filterByUserAndTag() {
+		return byUserAndTag.getFilteredPhotoIds();
+	}
+
+}
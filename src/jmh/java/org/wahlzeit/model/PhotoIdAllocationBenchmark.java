@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out new photo ids and looks up existing ones from several threads at once, as concurrent uploads and page
+ * requests do. Every new id is also looked up, so the id table grows over the measurement.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PhotoIdAllocationBenchmark {
+
+	/**
+	 *
+	 */
+	protected static final int NUMBER_OF_PHOTOS = 100000;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		PhotoId.setCurrentIdFromInt(NUMBER_OF_PHOTOS);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public PhotoId getNextId() {
+		return PhotoId.getNextId();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public PhotoId getIdFromIntShared() {
+		return PhotoId.getIdFromInt(1 + ThreadLocalRandom.current().nextInt(NUMBER_OF_PHOTOS));
+	}
+
+}
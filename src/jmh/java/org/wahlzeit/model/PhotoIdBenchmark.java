@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts photo ids between their int and string forms, and looks up the shared PhotoId objects, cycling through
+ * random ids out of the first numberOfPhotos ones.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class PhotoIdBenchmark {
+
+	@Param({"1000", "100000", "1000000"})
+	public int numberOfPhotos;
+
+	/**
+	 * Number of ids cycled through; a power of two
+	 */
+	protected static final int SAMPLE_SIZE = 4096;
+
+	protected int[] intIds = new int[SAMPLE_SIZE];
+	protected String[] stringIds = new String[SAMPLE_SIZE];
+	protected int next = 0;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		PhotoId.setCurrentIdFromInt(PhotoId.ID_START + numberOfPhotos);
+		Random random = new Random(42);
+		for (int i = 0; i < SAMPLE_SIZE; i++) {
+			intIds[i] = PhotoId.ID_START + random.nextInt(numberOfPhotos);
+			stringIds[i] = PhotoId.getFromInt(intIds[i]);
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected int nextIndex() {
+		next = (next + 1) & (SAMPLE_SIZE - 1);
+		return next;
+	}
+
+	@Benchmark
+	public String getFromInt() {
+		return PhotoId.getFromInt(intIds[nextIndex()]);
+	}
+
+	@Benchmark
+	public int getFromString() {
+		return PhotoId.getFromString(stringIds[nextIndex()]);
+	}
+
+	@Benchmark
+	public PhotoId getIdFromInt() {
+		return PhotoId.getIdFromInt(intIds[nextIndex()]);
+	}
+
+	@Benchmark
+	public PhotoId getIdFromString() {
+		return PhotoId.getIdFromString(stringIds[nextIndex()]);
+	}
+
+}
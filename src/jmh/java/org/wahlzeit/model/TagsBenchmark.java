@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses tag strings as entered in the upload and filter forms, with mixed case, blanks, punctuation and duplicates,
+ * cycling through strings drawn from a vocabulary of 1000 words.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class TagsBenchmark {
+
+	@Param({"1", "8", "32"})
+	public int numberOfTags;
+
+	/**
+	 * Number of strings cycled through; a power of two
+	 */
+	protected static final int SAMPLE_SIZE = 1024;
+
+	protected String[] tagStrings = new String[SAMPLE_SIZE];
+	protected int next = 0;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random random = new Random(42);
+		for (int i = 0; i < SAMPLE_SIZE; i++) {
+			StringBuilder tags = new StringBuilder();
+			for (int j = 0; j < numberOfTags; j++) {
+				if (j > 0) {
+					tags.append(random.nextBoolean() ? ", " : ",");
+				}
+				int word = random.nextInt(1000);
+				tags.append((word % 2 == 0) ? "Bundestag-" : "wahl ").append(word);
+			}
+			tagStrings[i] = tags.toString();
+		}
+	}
+
+	@Benchmark
+	public Set<String> asTagSetFromString() {
+		next = (next + 1) & (SAMPLE_SIZE - 1);
+		return Tags.asTagSetFromString(tagStrings[next]);
+	}
+
+	@Benchmark
+	public Tags createTags() {
+		next = (next + 1) & (SAMPLE_SIZE - 1);
+		return new Tags(tagStrings[next]);
+	}
+
+}
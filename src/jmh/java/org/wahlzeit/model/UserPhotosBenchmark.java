@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorts the photos of a single user by praise, as the user's home page does, for a synthetic user owning
+ * numberOfPhotos photos with random praise; about a tenth of them share their praise, so ties are broken by id.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class UserPhotosBenchmark {
+
+	@Param({"1000", "100000", "1000000"})
+	public int numberOfPhotos;
+
+	protected LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+	protected User user;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		helper.setUp();
+		PhotoId.setCurrentIdFromInt(PhotoId.ID_START + numberOfPhotos);
+
+		user = new User("benchmark", "benchmark", "benchmark@example.com");
+		Random random = new Random(42);
+		for (int i = 0; i < numberOfPhotos; i++) {
+			Photo photo = new Photo(PhotoId.getIdFromInt(PhotoId.ID_START + i));
+			int votes = (i % 10 == 0) ? 0 : random.nextInt(100);
+			for (int j = 0; j < votes; j++) {
+				photo.addToPraise(random.nextInt(10) + 1);
+			}
+			user.addPhoto(photo);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		helper.tearDown();
+	}
+
+	@Benchmark
+	public Photo[] getPhotosReverseOrderedByPraise() {
+		return user.getPhotosReverseOrderedByPraise();
+	}
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wahlzeit.model.Tag;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing dirty entities one by one (as saveAll used to) with the batched ObjectManager.writeObjects, both
+ * against the local datastore stub. Each invocation writes a fresh set of dirty entities.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchWriteBenchmark {
+
+	@Param({"100", "1000", "5000"})
+	public int numberOfObjects;
+
+	@Param({"100", "500"})
+	public int batchSize;
+
+	protected LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+	protected ObjectManager manager = new ObjectManager() {
+		// nothing to add, only the inherited write methods are used
+	};
+	protected List<Tag> objects;
+
+	@Setup(Level.Trial)
+	public void setUpDatastore() {
+		helper.setUp();
+		OfyService.factory();
+		System.setProperty(ObjectManager.WRITE_BATCH_SIZE, String.valueOf(batchSize));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDownDatastore() {
+		helper.tearDown();
+	}
+
+	@Setup(Level.Invocation)
+	public void createDirtyObjects() {
+		objects = new ArrayList<Tag>(numberOfObjects);
+		for (int i = 0; i < numberOfObjects; i++) {
+			objects.add(new Tag("tg:benchmark" + (i % 50), "x" + i));
+		}
+	}
+
+	@Benchmark
+	public void writeOneByOne() {
+		for (Tag object : objects) {
+			manager.writeObject(object);
+		}
+	}
+
+	@Benchmark
+	public void writeBatched() {
+		manager.writeObjects(objects);
+	}
+
+}
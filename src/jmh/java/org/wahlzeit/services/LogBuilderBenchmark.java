@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Builds a typical three-parameter system message for a logger that is switched off for its level, for one that
+ * publishes to a handler doing nothing, and the old way as a string that is logged unconditionally.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class LogBuilderBenchmark {
+
+	protected Logger enabledLogger = Logger.getLogger(LogBuilderBenchmark.class.getName() + ".enabled");
+	protected Logger disabledLogger = Logger.getLogger(LogBuilderBenchmark.class.getName() + ".disabled");
+	protected int photoId = 0;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		enabledLogger.setUseParentHandlers(false);
+		enabledLogger.setLevel(java.util.logging.Level.ALL);
+		enabledLogger.addHandler(new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+				// discard
+			}
+
+			@Override
+			public void flush() {
+				// nothing to flush
+			}
+
+			@Override
+			public void close() {
+				// nothing to close
+			}
+		});
+
+		disabledLogger.setUseParentHandlers(false);
+		disabledLogger.setLevel(java.util.logging.Level.INFO);
+	}
+
+	@Benchmark
+	public void logDisabled() {
+		LogBuilder.createSystemMessage(disabledLogger, java.util.logging.Level.CONFIG).
+				addParameter("photo", photoId++).
+				addParameter("size", "medium").
+				addAction("render photo").log();
+	}
+
+	@Benchmark
+	public void logEnabled() {
+		LogBuilder.createSystemMessage(enabledLogger, java.util.logging.Level.CONFIG).
+				addParameter("photo", photoId++).
+				addParameter("size", "medium").
+				addAction("render photo").log();
+	}
+
+	@Benchmark
+	public void logAsString() {
+		disabledLogger.config(LogBuilder.createSystemMessage().
+				addParameter("photo", photoId++).
+				addParameter("size", "medium").
+				addAction("render photo").toString());
+	}
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.cache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Compares the bounded photo cache with the synchronized HashMap it replaced, for a skewed (Zipf-like) request
+ * mix under 8 to 64 threads. A miss "loads" the value, standing in for the datastore round trip.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PhotoCacheBenchmark {
+
+	/**
+	 *
+	 */
+	protected static final int KEY_SPACE = 100000;
+	protected static final int REQUESTS_PER_THREAD = 1 << 16;
+
+	/**
+	 *
+	 */
+	@State(Scope.Benchmark)
+	public static class CacheState {
+
+		@Param({"synchronizedMap", "lru", "tinylfu"})
+		public String implementation;
+
+		@Param({"10000"})
+		public int maximumSize;
+
+		protected Function<Integer, String> get;
+
+		@Setup
+		public void setUp() {
+			Function<Integer, String> loader = key -> "photo" + key;
+			if ("synchronizedMap".equals(implementation)) {
+				Map<Integer, String> map = Collections.synchronizedMap(new HashMap<Integer, String>());
+				get = key -> map.computeIfAbsent(key, loader);
+			} else {
+				BoundedCache<Integer, String> cache =
+						new BoundedCache<Integer, String>(maximumSize, BoundedCache.createEvictionPolicy(implementation));
+				get = key -> cache.get(key, loader);
+			}
+
+			for (int i = 0; i < maximumSize; i++) {
+				get.apply(i);
+			}
+		}
+	}
+
+	/**
+	 *
+	 */
+	@State(Scope.Thread)
+	public static class RequestState {
+
+		protected int[] keys = new int[REQUESTS_PER_THREAD];
+		protected int index = 0;
+
+		@Setup
+		public void setUp() {
+			Random random = new Random(Thread.currentThread().getId());
+			for (int i = 0; i < keys.length; i++) {
+				// cubing a uniform number skews requests towards the low ids, like popular photos
+				double uniform = random.nextDouble();
+				keys[i] = (int) (uniform * uniform * uniform * KEY_SPACE);
+			}
+		}
+
+		protected Integer nextKey() {
+			index = (index + 1) & (REQUESTS_PER_THREAD - 1);
+			return keys[index];
+		}
+	}
+
+	@Benchmark
+	@Threads(8)
+	public String get8Threads(CacheState cache, RequestState requests) {
+		return cache.get.apply(requests.nextKey());
+	}
+
+	@Benchmark
+	@Threads(32)
+	public String get32Threads(CacheState cache, RequestState requests) {
+		return cache.get.apply(requests.nextKey());
+	}
+
+	@Benchmark
+	@Threads(64)
+	public String get64Threads(CacheState cache, RequestState requests) {
+		return cache.get.apply(requests.nextKey());
+	}
+
+}
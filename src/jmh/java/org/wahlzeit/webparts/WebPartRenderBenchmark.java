@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the show-photo page, assembled from the real templates as ShowPhotoPageHandler does, once through a UTF-8
+ * Writer (as pages were written before) and once to an OutputStream from the pre-encoded template segments.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WebPartRenderBenchmark {
+
+	/**
+	 * Relative to the project directory, where the jmh task runs
+	 */
+	@Param({"src/main/webapp/config/templates/default/en"})
+	public String templatesDir;
+
+	protected WebPartTemplate pageTemplate;
+	protected WebPartTemplate blurpTemplate;
+	protected WebPartTemplate linksTemplate;
+	protected WebPartTemplate filterTemplate;
+	protected WebPartTemplate praiseTemplate;
+	protected WebPartTemplate captionTemplate;
+	protected WebPartTemplate engageTemplate;
+
+	protected WebPart page;
+	protected ByteArrayOutputStream sink = new ByteArrayOutputStream(16 * 1024);
+
+	@Setup
+	public void setUp() throws IOException {
+		pageTemplate = loadTemplate("pages/ShowPhotoPage");
+		blurpTemplate = loadTemplate("infos/BlurpInfo");
+		linksTemplate = loadTemplate("infos/LinksInfo");
+		filterTemplate = loadTemplate("forms/FilterPhotosForm");
+		praiseTemplate = loadTemplate("forms/PraisePhotoForm");
+		captionTemplate = loadTemplate("infos/CaptionInfo");
+		engageTemplate = loadTemplate("forms/EngageGuestForm");
+		page = buildPage();
+	}
+
+	/**
+	 *
+	 */
+	protected WebPartTemplate loadTemplate(String name) throws IOException {
+		WebPartTemplate result = new WebPartTemplate(name);
+		byte[] source = Files.readAllBytes(Paths.get(templatesDir, name + ".html"));
+		result.initialize(new String(source, StandardCharsets.UTF_8));
+		return result;
+	}
+
+	@Benchmark
+	public WebPart buildPage() {
+		WebPart result = new WebPart(pageTemplate);
+		result.addString("title", "Wahlzeit - Bundestag");
+		result.addString("description", "Photo x1b2c of Max Mustermann, Bundestag");
+		result.addString("keywords", "bundestag,cdu,berlin");
+		result.addString("stylesheet", "/wahlzeit.css");
+		result.addString("javascript", "/wahlzeit.js");
+		result.addString("heading", "Wahlzeit");
+		result.addString("menu", "<a href=\"/index.html\">Home</a> | <a href=\"/about.html\">About</a>");
+
+		WebPart filter = new WebPart(filterTemplate);
+		filter.addString("userName", "");
+		filter.addString("tags", "bundestag");
+		result.addWritable("sidebar", new WritableList().
+				append(new WebPart(blurpTemplate)).append(filter).append(new WebPart(linksTemplate)));
+
+		result.addString("mainWidth", "420");
+		result.addString("image", "<img src=\"/photos/?type=image&photoId=x1b2c&size=3\" alt=\"\">");
+		WebPart caption = new WebPart(captionTemplate);
+		caption.addString("caption", "Max Mustermann (CDU), Berlin &uuml;ber die Spree");
+		result.addWritable("caption", caption);
+
+		WebPart praise = new WebPart(praiseTemplate);
+		praise.addString("id", "x1b2c");
+		result.addWritable("praisePhoto", praise);
+
+		WebPart engage = new WebPart(engageTemplate);
+		engage.addString("link", "<a href=\"/x1b2c.html\">/x1b2c.html</a>");
+		engage.addString("id", "x1b2c");
+		result.addWritable("engageGuest", engage);
+
+		result.addString("mission", "Wahlzeit - Wer ist wer im Bundestag?");
+		result.addString("footer", "&copy; 2019 Wahlzeit");
+		result.addString("processingTime", "0.012");
+		return result;
+	}
+
+	@Benchmark
+	public int renderThroughWriter() throws IOException {
+		sink.reset();
+		Writer writer = new OutputStreamWriter(sink, StandardCharsets.UTF_8);
+		page.writeOn(writer);
+		writer.flush();
+		return sink.size();
+	}
+
+	@Benchmark
+	public int renderToStream() throws IOException {
+		sink.reset();
+		page.writeOn(sink);
+		return sink.size();
+	}
+
+}
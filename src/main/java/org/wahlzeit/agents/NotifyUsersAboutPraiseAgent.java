@@ -18,6 +18,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -36,42 +37,51 @@ public class NotifyUsersAboutPraiseAgent extends Agent {
 	/**
 	 * @methodtype command
 	 * 
-	 * Notifies all users that want to get informed if their photos have been praised.
+	 * Notifies all users that want to get informed if their photos have been praised. The photo cache keeps such
+	 * photos until they have been handled here.
 	 */
 	protected void doRun() {
-		Map<PhotoId, Photo> photoCache = ParliamentPhotoManager.getInstance().getPhotoCache();
+		PhotoManager photoManager = getPhotoManager();
+		Map<PhotoId, Photo> photoCache = photoManager.getPhotoCache();
 		Collection<Photo> photos = photoCache.values();
 
 		ArrayList<Photo> arrayListOfPhotos;
 		HashMap<String, ArrayList<Photo>> ownerIdPhotosMap = new HashMap<String, ArrayList<Photo>>();
 		for (Photo photo : photos) {
-			if (photo != null && photo.isVisible() && photo.hasNewPraise()) {
+			if (photo != null && photo.hasPendingPraiseNotification()) {
 				String ownerId = photo.getOwnerId();
 				if (ownerId != null) {
-					log.config(LogBuilder.createSystemMessage().addParameter("ownerId", ownerId).toString());
+					LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("ownerId", ownerId).log();
 					if (ownerIdPhotosMap.containsKey(ownerId)) {
-						log.config(LogBuilder.createSystemMessage().addAction("add to existing owner").toString());
+						LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("add to existing owner").log();
 						arrayListOfPhotos = ownerIdPhotosMap.get(ownerId);
 					} else {
-						log.config(LogBuilder.createSystemMessage().addAction("add to new owner").toString());
+						LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("add to new owner").log();
 						arrayListOfPhotos = new ArrayList<Photo>();
 					}
 					arrayListOfPhotos.add(photo);
 					ownerIdPhotosMap.put(ownerId, arrayListOfPhotos);
 					photo.setNoNewPraise();
-					ParliamentPhotoManager.getInstance().savePhoto(photo);
+					photoManager.savePhoto(photo);
 				}
 			}
 		}
 
-		log.config(LogBuilder.createSystemMessage().addAction("notify owner")
-				.addParameter("number of user to notify", ownerIdPhotosMap.size()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("notify owner")
+				.addParameter("number of user to notify", ownerIdPhotosMap.size()).log();
 
 		for (String ownerId : ownerIdPhotosMap.keySet()) {
 			notifyOwner(ownerId, ownerIdPhotosMap.get(ownerId));
 		}
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	protected PhotoManager getPhotoManager() {
+		return ParliamentPhotoManager.getInstance();
+	}
+
 	/**
 	 * @methotype command
 	 * 
@@ -87,8 +97,8 @@ public class NotifyUsersAboutPraiseAgent extends Agent {
 
 		String emailBody = cfg.getNotifyAboutPraiseEmailBody() + "\n\n";
 
-		log.config(LogBuilder.createSystemMessage().addAction("sending email")
-				.addParameter("recipient", to.asString()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("sending email")
+				.addParameter("recipient", to.asString()).log();
 
 		for (Photo current : allPhotosOfUser) {
 			String id = current.getId().asString();
@@ -98,8 +108,8 @@ public class NotifyUsersAboutPraiseAgent extends Agent {
 			String link = "https://" + appId + ".appspot.com/" + id + ".html\n";
 			emailBody += link;
 
-			log.config(LogBuilder.createSystemMessage().addParameter("appid", appId)
-					.addParameter("link", link).toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("appid", appId)
+					.addParameter("link", link).log();
 
 		}
 		emailBody += "\n";
@@ -23,9 +23,12 @@ package org.wahlzeit.handlers;
 import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.metrics.MetricsRegistry;
+import org.wahlzeit.services.metrics.RequestPhase;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -63,14 +66,14 @@ public abstract class AbstractWebFormHandler extends AbstractWebPartHandler impl
 	public final String handlePost(UserSession us, Map args) {
 		String emailAddress = us.getClient().getEmailAddress().asString();
 		if (!hasAccessRights(us, args)) {
-			log.warning(LogBuilder.createSystemMessage().
-					addParameter("insufficient rights for POST from", emailAddress).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("insufficient rights for POST from", emailAddress).log();
 			return getIllegalAccessErrorPage(us);
 		}
 
 		if (!isWellFormedPost(us, args)) {
-			log.warning(LogBuilder.createSystemMessage().
-					addParameter("received ill-formed POST from", emailAddress).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("received ill-formed POST from", emailAddress).log();
 			return getIllegalArgumentErrorPage(us);
 		}
 
@@ -78,7 +81,8 @@ public abstract class AbstractWebFormHandler extends AbstractWebPartHandler impl
 			// may throw Exception
 			return doHandlePost(us, args);
 		} catch (Throwable t) {
-			log.warning(LogBuilder.createSystemMessage().addException("Handle post failed", t).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("Handle post failed", t).log();
+			MetricsRegistry.getInstance().getMetrics(getClass()).recordError(RequestPhase.HANDLE_POST);
 			return getInternalProcessingErrorPage(us);
 		}
 	}
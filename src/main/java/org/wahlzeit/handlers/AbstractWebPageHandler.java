@@ -22,11 +22,14 @@ package org.wahlzeit.handlers;
 
 import org.wahlzeit.model.Client;
 import org.wahlzeit.model.ModelConfig;
+import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.ConfigDir;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.utils.HtmlUtil;
+import org.wahlzeit.webparts.FragmentCache;
+import org.wahlzeit.webparts.RenderedFragment;
 import org.wahlzeit.webparts.WebPart;
 
 /**
@@ -34,6 +37,11 @@ import org.wahlzeit.webparts.WebPart;
  */
 public abstract class AbstractWebPageHandler extends AbstractWebPartHandler implements WebPageHandler {
 
+	/**
+	 * Name of the footer in the FragmentCache; the footer only depends on language and photo size
+	 */
+	protected static final String FOOTER_FRAGMENT = "footer";
+
 	/**
 	 *
 	 */
@@ -69,7 +77,10 @@ public abstract class AbstractWebPageHandler extends AbstractWebPartHandler impl
 
 		makeWebPageHeading(us, page);
 
-		page.addString("footer", client.getLanguageConfiguration().getPageFooter(client.getPhotoSize()));
+		ModelConfig config = client.getLanguageConfiguration();
+		PhotoSize photoSize = client.getPhotoSize();
+		page.addWritable("footer", FragmentCache.getInstance().getFragment(config.getLanguageCode(), FOOTER_FRAGMENT,
+				photoSize.asString(), () -> new RenderedFragment(config.getPageFooter(photoSize))));
 		page.addString("mission", client.getLanguageConfiguration().getPageMission());
 	}
 
@@ -32,14 +32,19 @@ import org.wahlzeit.model.parliament.ParliamentPhotoManager;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.metrics.MetricsRegistry;
+import org.wahlzeit.services.metrics.RequestPhase;
 import org.wahlzeit.utils.HtmlUtil;
 import org.wahlzeit.utils.StringUtil;
+import org.wahlzeit.webparts.FragmentCache;
 import org.wahlzeit.webparts.WebPart;
 import org.wahlzeit.webparts.WebPartTemplate;
 import org.wahlzeit.webparts.WebPartTemplateService;
+import org.wahlzeit.webparts.Writable;
 
 import java.io.File;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -81,6 +86,16 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 		return new WebPart(tmpl);
 	}
 
+	/**
+	 * @methodtype factory
+	 *
+	 * Returns the part rendered once per language, for templates that get no values from the request.
+	 */
+	protected final Writable createCachedWebPart(UserSession us, String name) {
+		String languageCode = us.getClient().getLanguageConfiguration().getLanguageCode();
+		return FragmentCache.getInstance().getFragment(languageCode, name, "", () -> createWebPart(us, name));
+	}
+
 	/**
 	 *
 	 */
@@ -162,14 +177,14 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 	 */
 	public final String handleGet(UserSession us, String link, Map args) {
 		if (!hasAccessRights(us, args)) {
-			log.warning(LogBuilder.createSystemMessage().
-					addMessage("insufficient rights for GET").toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addMessage("insufficient rights for GET").log();
 			return getIllegalAccessErrorPage(us);
 		}
 
 		if (!isWellFormedGet(us, link, args)) {
-			log.warning(LogBuilder.createSystemMessage().
-					addMessage("received ill-formed GET").toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addMessage("received ill-formed GET").log();
 			return getIllegalArgumentErrorPage(us);
 		}
 
@@ -177,7 +192,8 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 			// may throw Exception
 			return doHandleGet(us, link, args);
 		} catch (Throwable t) {
-			log.warning(LogBuilder.createSystemMessage().addException("Handle get failed", t).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("Handle get failed", t).log();
+			MetricsRegistry.getInstance().getMetrics(getClass()).recordError(RequestPhase.HANDLE_GET);
 			return getInternalProcessingErrorPage(us);
 		}
 	}
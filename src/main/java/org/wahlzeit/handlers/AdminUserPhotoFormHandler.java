@@ -32,6 +32,7 @@ import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -77,9 +78,9 @@ public class AdminUserPhotoFormHandler extends AbstractWebFormHandler {
 
 		AsyncTaskExecutor.savePhotoAsync(id);
 
-		log.info(LogBuilder.createUserMessage().
+		LogBuilder.createUserMessage(log, Level.INFO).
 				addAction("AdminUserPhoto").
-				addParameter("Photo", photo.getId().asString()).toString());
+				addParameter("Photo", photo.getId().asString()).log();
 
 		us.setMessage(us.getClient().getLanguageConfiguration().getPhotoUpdateSucceeded());
 
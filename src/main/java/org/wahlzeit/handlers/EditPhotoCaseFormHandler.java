@@ -33,6 +33,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -99,16 +100,16 @@ public class EditPhotoCaseFormHandler extends AbstractWebFormHandler {
 
 		photo.setStatus(status);
 
-		log.info(LogBuilder.createUserMessage().
+		LogBuilder.createUserMessage(log, Level.INFO).
 				addAction("EditPhotoCase").
-				addParameter("Photo", photo.getId().asString()).toString());
+				addParameter("Photo", photo.getId().asString()).log();
 
 		photoCase.setDecided();
 		pcm.removePhotoCase(photoCase);
 
-		log.info(LogBuilder.createUserMessage().
+		LogBuilder.createUserMessage(log, Level.INFO).
 				addAction("EditPhotoCase").
-				addParameter("PhotoCase", photoCase.getId()).toString());
+				addParameter("PhotoCase", photoCase.getId()).log();
 
 		return PartUtil.SHOW_PHOTO_CASES_PAGE_NAME;
 	}
@@ -25,6 +25,7 @@ import org.wahlzeit.model.Client;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.UserManager;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.model.parliament.ParliamentPhotoManager;
 import org.wahlzeit.services.LogBuilder;
@@ -32,6 +33,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -84,12 +86,14 @@ public class PraisePhotoFormHandler extends AbstractWebFormHandler {
 				int value = Integer.parseInt(praise);
 				photo.addToPraise(value);
 				client.addPraisedPhotoId(photo.getId());
+				ParliamentPhotoManager.getInstance().savePhotoLater(photo);
+				UserManager.getInstance().saveClientLater(client);
 				us.addProcessedPhoto(photo);
 				wasPraised = true;
 			}
 		}
 
-		log.info(LogBuilder.createUserMessage().addAction(wasPraised ? "PraisePhoto" : "SkipPhoto").toString());
+		LogBuilder.createUserMessage(log, Level.INFO).addAction(wasPraised ? "PraisePhoto" : "SkipPhoto").log();
 
 		return PartUtil.SHOW_PHOTO_PAGE_NAME;
 	}
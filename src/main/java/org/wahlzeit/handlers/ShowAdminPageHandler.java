@@ -29,11 +29,14 @@ import org.wahlzeit.model.UserManager;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.model.parliament.ParliamentPhotoManager;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.metrics.MetricsRegistry;
+import org.wahlzeit.utils.HtmlUtil;
 import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 import org.wahlzeit.webparts.Writable;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -68,6 +71,8 @@ public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebF
 			page.addStringFromArgs(args, "photoId");
 			page.addWritable("object", makeAdminUserPhoto(us));
 		}
+
+		page.addString("metrics", HtmlUtil.maskForWeb(MetricsRegistry.getInstance().asText()));
 	}
 
 	/**
@@ -107,8 +112,8 @@ public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebF
 	 */
 	public String handlePost(UserSession us, Map args) {
 		if (!hasAccessRights(us, args)) {
-			log.warning(LogBuilder.createSystemMessage().
-					addMessage("insufficient rights for POST").toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addMessage("insufficient rights for POST").log();
 			return getIllegalAccessErrorPage(us);
 		}
 
@@ -159,12 +164,12 @@ public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebF
 	 *
 	 */
 	protected String performSaveAllRequest(UserSession us) {
-		log.info(LogBuilder.createSystemMessage().addAction("save all objects").toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).addAction("save all objects").log();
 
 		try {
 			ServiceMain.getInstance().saveAll();
 		} catch (Exception ex) {
-			log.warning(LogBuilder.createSystemMessage().addException("saving all objects failed", ex).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("saving all objects failed", ex).log();
 		}
 
 		us.setMessage("Saved objects...");
@@ -175,11 +180,11 @@ public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebF
 	 *
 	 */
 	protected String performShutdownRequest(UserSession us) {
-		log.info(LogBuilder.createSystemMessage().addAction("shutting system down").toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).addAction("shutting system down").log();
 		try {
 			ServiceMain.getInstance().requestStop();
 		} catch (Exception ex) {
-			log.warning(LogBuilder.createSystemMessage().addException("requesting stop failed", ex).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("requesting stop failed", ex).log();
 		}
 
 		us.setMessage("Shutting down...");
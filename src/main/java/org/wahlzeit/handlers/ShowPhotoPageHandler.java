@@ -129,14 +129,14 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 		if (lastPraisedPhoto != null) {
 			parts.append(makePriorPhotoInfo(us, lastPraisedPhoto));
 		} else {
-			parts.append(createWebPart(us, PartUtil.BLURP_INFO_FILE));
+			parts.append(createCachedWebPart(us, PartUtil.BLURP_INFO_FILE));
 		}
 
 		WebFormHandler handler = getFormHandler(PartUtil.FILTER_PHOTOS_FORM_NAME);
 		Writable filterPhotos = handler.makeWebPart(us);
 		parts.append(filterPhotos);
 
-		parts.append(createWebPart(us, PartUtil.LINKS_INFO_FILE));
+		parts.append(createCachedWebPart(us, PartUtil.LINKS_INFO_FILE));
 
 		page.addWritable("sidebar", parts);
 	}
@@ -153,14 +153,14 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 
 		if (photo == null) {
 			page.addString("mainWidth", String.valueOf(pagePhotoSize.getMaxPhotoWidth()));
-			WebPart done = createWebPart(us, PartUtil.DONE_INFO_FILE);
+			Writable done = createCachedWebPart(us, PartUtil.DONE_INFO_FILE);
 			page.addWritable(Photo.IMAGE, done);
 			return;
 		}
 
 		if (!photo.isVisible() && !client.hasModeratorRights() && !us.isPhotoOwner(photo)) {
 			page.addString("mainWidth", String.valueOf(pagePhotoSize.getMaxPhotoWidth()));
-			WebPart done = createWebPart(us, PartUtil.HIDDEN_INFO_FILE);
+			Writable done = createCachedWebPart(us, PartUtil.HIDDEN_INFO_FILE);
 			page.addWritable(Photo.IMAGE, done);
 			return;
 		}
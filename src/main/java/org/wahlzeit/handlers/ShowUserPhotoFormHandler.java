@@ -35,6 +35,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -106,9 +107,9 @@ public class ShowUserPhotoFormHandler extends AbstractWebFormHandler {
 			user.setUserPhoto(photo);
 			us.setClient(user);
 			userManager.saveClient(user);
-			log.info(LogBuilder.createUserMessage().
+			LogBuilder.createUserMessage(log, Level.INFO).
 					addAction("Select user photo").
-					addParameter("Photo", id).toString());
+					addParameter("Photo", id).log();
 		} else if (us.isFormType(args, "delete")) {
 			photo.setStatus(photo.getStatus().asDeleted(true));
 			ParliamentPhotoManager.getInstance().savePhoto(photo);
@@ -116,8 +117,8 @@ public class ShowUserPhotoFormHandler extends AbstractWebFormHandler {
 				user.setUserPhoto(null);
 				userManager.saveClient(user);
 			}
-			log.info(LogBuilder.createUserMessage().
-					addAction("Deselect user photo").toString());
+			LogBuilder.createUserMessage(log, Level.INFO).
+					addAction("Deselect user photo").log();
 		}
 
 		return result;
@@ -34,6 +34,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -109,9 +110,9 @@ public class TellFriendFormHandler extends AbstractWebFormHandler {
 		EmailService emailService = EmailServiceManager.getDefaultService();
 		emailService.sendEmailIgnoreException(to, config.getAuditEmailAddress(), emailSubject, emailBody);
 
-		log.info(LogBuilder.createUserMessage().
+		LogBuilder.createUserMessage(log, Level.INFO).
 				addAction("TellFriend").
-				addParameter("recipient", to.asString()).toString());
+				addParameter("recipient", to.asString()).log();
 
 
 		us.setTwoLineMessage(config.getEmailWasSent() + friendsEmailAddress + "! ", config.getKeepGoing());
@@ -20,68 +20,388 @@
 
 package org.wahlzeit.main;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.wahlzeit.model.Client;
 import org.wahlzeit.model.GlobalsManager;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoCaseManager;
 import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserManager;
 import org.wahlzeit.model.parliament.ParliamentManager;
 import org.wahlzeit.model.parliament.ParliamentPhotoFactory;
 import org.wahlzeit.model.parliament.ParliamentPhotoManager;
 import org.wahlzeit.model.persistence.DatastoreAdapter;
+import org.wahlzeit.model.persistence.FileSystemAdapter;
 import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.model.persistence.ModelSnapshot;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.WriteBehindQueue;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * A single-threaded Main class with database connection. Can be used by tools that don't want to start a server.
+ * A Main class with database connection. Can be used by tools that don't want to start a server.
  */
 public abstract class ModelMain extends AbstractMain {
 
 	private static final Logger log = Logger.getLogger(ModelMain.class.getName());
 
+	/**
+	 * System property selecting the ImageStorage
+	 */
+	public static final String IMAGE_STORAGE = "wahlzeit.imageStorage";
+	public static final String IMAGE_STORAGE_DATASTORE = "datastore";
+	public static final String IMAGE_STORAGE_FILE_SYSTEM = "filesystem";
+
+	/**
+	 * System properties configuring the startup: threads loading the model, and number of most popular photos whose
+	 * images are loaded in the background afterwards
+	 */
+	public static final String STARTUP_PARALLELISM = "wahlzeit.startup.parallelism";
+	public static final String STARTUP_WARM_PHOTOS = "wahlzeit.startup.warmPhotos";
+	public static final int DEFAULT_STARTUP_PARALLELISM = 4;
+	public static final int DEFAULT_STARTUP_WARM_PHOTOS = 1000;
+
+	/**
+	 * System properties configuring the model snapshot: the file (none if empty) and the minutes between snapshots
+	 * taken while running (only at shutdown if 0)
+	 */
+	public static final String SNAPSHOT_FILE = "wahlzeit.snapshot.file";
+	public static final String SNAPSHOT_INTERVAL_MINUTES = "wahlzeit.snapshot.intervalMinutes";
+	public static final int DEFAULT_SNAPSHOT_INTERVAL_MINUTES = 0;
+
+	/**
+	 * Entities saved up to this long before a snapshot was taken are reloaded as well, to allow for clock skew between
+	 * instances
+	 */
+	protected static final long SNAPSHOT_CLOCK_SKEW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+	/**
+	 * The sizes shown to guests right away: thumbnails and the default photo size
+	 */
+	protected static final PhotoSize[] WARM_SIZES = {PhotoSize.THUMB, PhotoSize.MEDIUM};
+
 	/**
 	 *
 	 */
+	protected volatile StartupPhase startupPhase = StartupPhase.STARTING;
+	protected Map<String, Long> startupStageMillis = Collections.emptyMap();
+	protected Thread warmingThread = null;
+	protected ScheduledExecutorService snapshotExecutor = null;
+
+	/**
+	 * Loads the model; the globals first, as they set the id counters, then users, parliaments and photos in parallel,
+	 * or, if there is a model snapshot, the snapshot and whatever changed since it was taken.
+	 */
 	protected void startUp(String rootDir) throws Exception {
 		super.startUp(rootDir);
 		log.info("AbstractMain.startUp completed");
+		startupPhase = StartupPhase.STARTING;
 
-		log.config(LogBuilder.createSystemMessage().addAction("load image storage").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("load image storage").log();
 		//GcsAdapter.Builder gcsAdapterBuilder = new GcsAdapter.Builder();
-		ImageStorage.setInstance(new DatastoreAdapter());
+		ImageStorage.setInstance(createImageStorage());
 
-		log.config(LogBuilder.createSystemMessage().addAction("load globals").toString());
-		GlobalsManager.getInstance().loadGlobals();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("init ParliamentPhotoFactory").log();
+		ParliamentPhotoFactory.initialize();
 
-		log.config(LogBuilder.createSystemMessage().addAction("load user").toString());
-		UserManager.getInstance().init();
+		Path snapshotFile = getSnapshotFile();
+		StartupPipeline pipeline = new StartupPipeline(createStartupExecutor());
+		CompletableFuture<Void> globals = pipeline.addStage("load globals", () -> {
+			GlobalsManager.getInstance().loadGlobals();
+			GlobalsManager.getInstance().startIdLeasing(createIdLeaseThreadFactory());
+		});
+		if ((snapshotFile != null) && Files.isRegularFile(snapshotFile)) {
+			pipeline.await(pipeline.addStage("restore snapshot", () -> restoreModel(snapshotFile), globals));
+		} else {
+			CompletableFuture<Void> users = pipeline.addStage("load users",
+					() -> UserManager.getInstance().init(), globals);
+			CompletableFuture<Void> parliaments = pipeline.addStage("load parliaments",
+					() -> ParliamentManager.getInstance().init(), globals);
+			CompletableFuture<Void> photos = pipeline.addStage("load photos",
+					() -> ParliamentPhotoManager.getInstance().init(), globals);
+			pipeline.await(users, parliaments, photos);
+		}
+		startupStageMillis = pipeline.getStageMillis();
+	}
 
-		log.config(LogBuilder.createSystemMessage().addAction("init ParliamentPhotoFactory").toString());
-		ParliamentPhotoFactory.initialize();
+	/**
+	 * Blocks of ids are leased ahead in the background if possible; returns null, so that they are leased by the
+	 * thread that needs them, where there are no background threads.
+	 */
+	protected ThreadFactory createIdLeaseThreadFactory() {
+		try {
+			ThreadFactory threadFactory = ThreadManager.backgroundThreadFactory();
+			return runnable -> {
+				Thread result = threadFactory.newThread(runnable);
+				result.setDaemon(true);
+				return result;
+			};
+		} catch (RuntimeException ex) {
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addAction("create id lease thread").
+					addException("leasing ids in the requesting thread instead", ex).log();
+			return null;
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the model snapshot file, or null if snapshots are disabled.
+	 */
+	protected Path getSnapshotFile() {
+		String fileName = System.getProperty(SNAPSHOT_FILE, "");
+		return fileName.isEmpty() ? null : Paths.get(fileName);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Restores the model from the snapshot and reloads the entities saved since; loads the whole model from the
+	 * datastore instead if the snapshot cannot be read, e.g. as it was written by other versions of the classes.
+	 */
+	protected void restoreModel(Path snapshotFile) {
+		ModelSnapshot snapshot;
+		try {
+			snapshot = ModelSnapshot.read(snapshotFile);
+		} catch (IOException ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addAction("read model snapshot").
+					addException("loading the model from the datastore instead", ex).log();
+			UserManager.getInstance().init();
+			ParliamentManager.getInstance().init();
+			ParliamentPhotoManager.getInstance().init();
+			return;
+		}
+
+		GlobalsManager.getInstance().raiseGlobals(snapshot.getGlobals());
+		UserManager.getInstance().restoreClients(snapshot.getClients());
+		ParliamentManager.getInstance().restore(snapshot.getParliamentTypes(), snapshot.getParliaments());
+		ParliamentPhotoManager.getInstance().restorePhotos(snapshot.getPhotos(), snapshot.getDisplayablePhotoIds(),
+				snapshot.getTagConditions());
 
-		log.config(LogBuilder.createSystemMessage().addAction("load ParliamentManager").toString());
-		ParliamentManager.getInstance().init();
+		long since = snapshot.getTimestamp() - SNAPSHOT_CLOCK_SKEW_MILLIS;
+		int users = UserManager.getInstance().loadUsersModifiedSince(since);
+		ParliamentManager.getInstance().loadModifiedSince(since);
+		int photos = ParliamentPhotoManager.getInstance().loadPhotosModifiedSince(since);
 
-		log.config(LogBuilder.createSystemMessage().addAction("load Photos").toString());
-		ParliamentPhotoManager.getInstance().init();
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addMessage("Model restored from snapshot.").
+				addParameter("snapshot time", snapshot.getTimestamp()).
+				addParameter("reloaded users", users).
+				addParameter("reloaded photos", photos).log();
 	}
 
+	/**
+	 * @methodtype command
+	 *
+	 * Takes model snapshots in the background at the configured interval, if any. Without background threads,
+	 * snapshots are only taken at shutdown.
+	 */
+	protected void startSnapshots() {
+		int intervalMinutes = Integer.getInteger(SNAPSHOT_INTERVAL_MINUTES, DEFAULT_SNAPSHOT_INTERVAL_MINUTES);
+		Path snapshotFile = getSnapshotFile();
+		if ((snapshotFile == null) || (intervalMinutes <= 0)) {
+			return;
+		}
+
+		try {
+			ThreadFactory threadFactory = ThreadManager.backgroundThreadFactory();
+			snapshotExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+			snapshotExecutor.scheduleWithFixedDelay(() -> ObjectifyService.run(new Work<Void>() {
+				public Void run() {
+					writeSnapshot(snapshotFile);
+					return null;
+				}
+			}), intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+		} catch (RuntimeException ex) {
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addAction("start model snapshots").
+					addException("taking snapshots at shutdown only", ex).log();
+			snapshotExecutor = null;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes a snapshot of the model; failures are logged only, as the datastore stays the authoritative copy.
+	 */
+	protected void writeSnapshot(Path snapshotFile) {
+		long startTime = System.nanoTime();
+		try {
+			long size = captureModel().write(snapshotFile);
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("model snapshot written", snapshotFile).
+					addParameter("bytes", size).
+					addParameter("milliseconds", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)).log();
+		} catch (IOException | RuntimeException ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("Writing model snapshot failed", ex).log();
+		}
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected ModelSnapshot captureModel() {
+		// taken first, so that everything saved while capturing counts as modified since the snapshot
+		long timestamp = System.currentTimeMillis();
+		PhotoManager photoManager = ParliamentPhotoManager.getInstance();
+		ParliamentManager parliamentManager = ParliamentManager.getInstance();
+		return new ModelSnapshot(timestamp,
+				GlobalsManager.getInstance().createGlobals(),
+				new ArrayList<Client>(UserManager.getInstance().getUsers()),
+				new ArrayList<Photo>(photoManager.getPhotoCache().values()),
+				photoManager.getDisplayablePhotoIds(),
+				photoManager.getTagConditions(),
+				parliamentManager.getParliamentTypes(),
+				parliamentManager.getParliaments());
+	}
+
+	/**
+	 * Loader threads must belong to the current request on App Engine; returns null, so that loading happens in the
+	 * calling thread, where there are none (e.g. in scripts) or parallelism is 1.
+	 */
+	protected ExecutorService createStartupExecutor() {
+		int parallelism = Integer.getInteger(STARTUP_PARALLELISM, DEFAULT_STARTUP_PARALLELISM);
+		if (parallelism <= 1) {
+			return null;
+		}
+
+		try {
+			ThreadFactory threadFactory = ThreadManager.currentRequestThreadFactory();
+			threadFactory.newThread(() -> { }); // fails early if threads are not allowed here
+			return Executors.newFixedThreadPool(parallelism, threadFactory);
+		} catch (RuntimeException ex) {
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addAction("create startup threads").
+					addException("loading sequentially instead", ex).log();
+			return null;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Marks the instance as serving and loads the images of the most popular photos in the background. Without
+	 * background threads, images are only loaded on first access.
+	 */
+	protected void startImageWarming() {
+		int maxPhotos = Integer.getInteger(STARTUP_WARM_PHOTOS, DEFAULT_STARTUP_WARM_PHOTOS);
+		startupPhase = StartupPhase.WARMING;
+		if (maxPhotos <= 0) {
+			startupPhase = StartupPhase.READY;
+			return;
+		}
+
+		try {
+			warmingThread = ThreadManager.backgroundThreadFactory().newThread(() -> warmImages(maxPhotos));
+			warmingThread.setDaemon(true);
+			warmingThread.start();
+		} catch (RuntimeException ex) {
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addAction("start image warming").
+					addException("loading images on first access instead", ex).log();
+			warmingThread = null;
+			startupPhase = StartupPhase.READY;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void warmImages(int maxPhotos) {
+		long startTime = System.nanoTime();
+		try {
+			int warmed = ObjectifyService.run(new Work<Integer>() {
+				public Integer run() {
+					return ParliamentPhotoManager.getInstance().warmImages(maxPhotos, WARM_SIZES);
+				}
+			});
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("warmed images of photos", warmed).
+					addParameter("milliseconds", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)).log();
+		} catch (RuntimeException ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("Warming images failed", ex).log();
+		} finally {
+			if (startupPhase == StartupPhase.WARMING) {
+				startupPhase = StartupPhase.READY;
+			}
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public StartupPhase getStartupPhase() {
+		return startupPhase;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns how long each loading stage of the last startup took, in milliseconds.
+	 */
+	public Map<String, Long> getStartupStageMillis() {
+		return startupStageMillis;
+	}
+
+	/**
+	 * Images are kept in the datastore, unless the system property selects the local file system
+	 */
+	protected ImageStorage createImageStorage() {
+		if (IMAGE_STORAGE_FILE_SYSTEM.equals(System.getProperty(IMAGE_STORAGE, IMAGE_STORAGE_DATASTORE))) {
+			return new FileSystemAdapter();
+		}
+
+		return new DatastoreAdapter();
+	}
 
 	/**
 	 *
 	 */
 	protected void shutDown() throws Exception {
+		startupPhase = StartupPhase.SHUTTING_DOWN;
+		if (warmingThread != null) {
+			warmingThread.interrupt();
+			warmingThread = null;
+		}
+		if (snapshotExecutor != null) {
+			snapshotExecutor.shutdownNow();
+			snapshotExecutor = null;
+		}
+
+		WriteBehindQueue.getInstance().shutDown();
 		saveAll();
+		GlobalsManager.getInstance().stopIdLeasing();
+
+		Path snapshotFile = getSnapshotFile();
+		if (snapshotFile != null) {
+			writeSnapshot(snapshotFile);
+		}
 
 		super.shutDown();
 	}
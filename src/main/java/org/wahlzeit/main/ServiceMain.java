@@ -20,6 +20,7 @@
 
 package org.wahlzeit.main;
 
+import com.google.appengine.api.ThreadManager;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.VoidWork;
 import org.wahlzeit.handlers.*;
@@ -27,14 +28,19 @@ import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.EnglishModelConfig;
 import org.wahlzeit.model.GermanModelConfig;
 import org.wahlzeit.model.LanguageConfigs;
+import org.wahlzeit.model.UserManager;
+import org.wahlzeit.services.AsyncLogHandler;
 import org.wahlzeit.services.ConfigDir;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.WriteBehindQueue;
 import org.wahlzeit.webparts.WebPartTemplateService;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -46,6 +52,12 @@ public class ServiceMain extends ModelMain {
 
 	private static final String PICTURES_PATH = "pictures";
 
+	/**
+	 * System property with the number of synthetic users to create at startup for load tests, each owning a copy of
+	 * the default pictures
+	 */
+	public static final String SEED_USERS = "wahlzeit.loadTest.seedUsers";
+
 	/**
 	 *
 	 */
@@ -97,22 +109,57 @@ public class ServiceMain extends ModelMain {
 	public void startUp(boolean inProduction, String rootDir) throws Exception {
 		isInProduction = inProduction;
 
-		log.config(LogBuilder.createSystemMessage().addAction("Start up ModelMain").toString());
+		if (Boolean.parseBoolean(System.getProperty(AsyncLogHandler.ENABLED, "true"))) {
+			startAsyncLogging();
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Start up ModelMain").log();
 		super.startUp(rootDir);
 
-		log.config(LogBuilder.createSystemMessage().addAction("Configure WebPartTemplateService").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Configure WebPartTemplateService").log();
 		configureWebPartTemplateService();
 
-		log.config(LogBuilder.createSystemMessage().addAction("Configure WebPartHandler").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Configure WebPartHandler").log();
 		configureWebPartHandlers();
 
-		log.config(LogBuilder.createSystemMessage().addAction("Configure LanguageModels").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Configure LanguageModels").log();
 		configureLanguageModels();
 
-		log.config(LogBuilder.createSystemMessage().addAction("Add default user with pictures").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Add default user with pictures").log();
 		addDefaultUserWithPictures();
 
-		log.config(LogBuilder.createSystemMessage().addMessage("StartUp complete.").toString());
+		int numberOfSeedUsers = Integer.getInteger(SEED_USERS, 0);
+		if (numberOfSeedUsers > 0) {
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addAction("Add synthetic users with pictures").
+					addParameter("number of users", numberOfSeedUsers).log();
+			addSyntheticUsersWithPictures(numberOfSeedUsers);
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Start write-behind queue").log();
+		WriteBehindQueue.getInstance().start(ThreadManager.backgroundThreadFactory());
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Start serving, warm images").log();
+		startImageWarming();
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Start model snapshots").log();
+		startSnapshots();
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("StartUp complete.").log();
+	}
+
+	/**
+	 * Moves the I/O of the root handlers to a background thread; keeps them synchronous if there is none.
+	 */
+	protected void startAsyncLogging() {
+		int capacity = Integer.getInteger(AsyncLogHandler.CAPACITY, AsyncLogHandler.DEFAULT_CAPACITY);
+		try {
+			AsyncLogHandler.install(Logger.getLogger(""), capacity, ThreadManager.backgroundThreadFactory());
+		} catch (RuntimeException ex) {
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addAction("start async logging").
+					addException("logging synchronously instead", ex).log();
+		}
 	}
 
 	/**
@@ -120,7 +167,24 @@ public class ServiceMain extends ModelMain {
 	 */
 	public void configureWebPartTemplateService() {
 		ConfigDir templatesDir = SysConfig.getTemplatesDir();
-		WebPartTemplateService.getInstance().setTemplatesDir(templatesDir);
+		WebPartTemplateService templateService = WebPartTemplateService.getInstance();
+		templateService.setTemplatesDir(templatesDir);
+
+		try {
+			templateService.preloadTemplates();
+		} catch (IOException ioex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addException("Unable to preload templates, loading them on demand", ioex).log();
+		}
+
+		if (!isInProduction) {
+			try {
+				templateService.startHotReload();
+			} catch (IOException ioex) {
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addException("Unable to watch templates for changes", ioex).log();
+			}
+		}
 	}
 
 	/**
@@ -239,6 +303,30 @@ public class ServiceMain extends ModelMain {
 		});
 	}
 
+	/**
+	 * Creates the users "loadtest0" to "loadtest(n-1)" unless they exist, which the load generator then filters by
+	 */
+	public void addSyntheticUsersWithPictures(int numberOfUsers) {
+		ObjectifyService.run(new VoidWork() {
+			public void vrun() {
+				URL url = getClass().getClassLoader().getResource(PICTURES_PATH);
+				if (url == null) {
+					log.warning("Unable to create synthetic users");
+					return;
+				}
+
+				String photoDir = new File(url.getPath()).getAbsolutePath();
+				UserManager userManager = UserManager.getInstance();
+				for (int i = 0; i < numberOfUsers; i++) {
+					String userId = "loadtest" + i;
+					if (!userManager.hasClientById(userId)) {
+						createUser(userId, userId, userId + "@example.com", photoDir);
+					}
+				}
+			}
+		});
+	}
+
 	/**
 	 *
 	 */
@@ -246,7 +334,11 @@ public class ServiceMain extends ModelMain {
 		//AgentManager am = AgentManager.getInstance();
 		//am.stopAllThreads();
 
+		WebPartTemplateService.getInstance().stopHotReload();
+
 		super.shutDown();
+
+		AsyncLogHandler.uninstall(Logger.getLogger(""));
 	}
 
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.main;
+
+/**
+ * How far a Wahlzeit instance has started up or shut down; requests are served in WARMING and READY only.
+ */
+public enum StartupPhase {
+
+	/**
+	 * Model still loading; requests are answered with 503
+	 */
+	STARTING,
+
+	/**
+	 * Model loaded and serving; popular images are still being loaded in the background
+	 */
+	WARMING,
+
+	/**
+	 * Model loaded and serving; all warming is done
+	 */
+	READY,
+
+	/**
+	 * Model being saved before the instance stops; new requests are answered with 503
+	 */
+	SHUTTING_DOWN;
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean isServing() {
+		return (this == WARMING) || (this == READY);
+	}
+
+}
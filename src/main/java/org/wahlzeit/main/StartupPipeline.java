@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.main;
+
+import org.wahlzeit.services.LogBuilder;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the loading stages of the startup on an executor, each stage as soon as the stages it depends on are done,
+ * and records how long each one took. Without an executor, stages run one after another in the calling thread.
+ */
+public class StartupPipeline {
+
+	private static final Logger log = Logger.getLogger(StartupPipeline.class.getName());
+
+	/**
+	 * Null if the stages run in the calling thread
+	 */
+	protected final ExecutorService executor;
+
+	/**
+	 * Duration in milliseconds by stage name, in order of completion; guarded by itself
+	 */
+	protected final Map<String, Long> stageMillis = new LinkedHashMap<String, Long>();
+
+	/**
+	 *
+	 */
+	public StartupPipeline(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Adds a stage that runs after all of the given ones have completed successfully.
+	 */
+	public CompletableFuture<Void> addStage(String name, Runnable loader, CompletableFuture<?>... dependencies) {
+		Runnable stage = () -> runStage(name, loader);
+		if (executor == null) {
+			CompletableFuture.allOf(dependencies).join();
+			stage.run();
+			return CompletableFuture.completedFuture(null);
+		}
+
+		return CompletableFuture.allOf(dependencies).thenRunAsync(stage, executor);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void runStage(String name, Runnable loader) {
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction(name).log();
+		long startTime = System.nanoTime();
+		loader.run();
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+		synchronized (stageMillis) {
+			stageMillis.put(name, millis);
+		}
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addParameter("startup stage completed", name).
+				addParameter("milliseconds", millis).log();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Waits for the stages and shuts the executor down; rethrows the failure of the first failed stage.
+	 */
+	public void await(CompletableFuture<?>... stages) throws Exception {
+		try {
+			CompletableFuture.allOf(stages).join();
+		} catch (CompletionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw ex;
+		} finally {
+			if (executor != null) {
+				executor.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Map<String, Long> getStageMillis() {
+		synchronized (stageMillis) {
+			return Collections.unmodifiableMap(new LinkedHashMap<String, Long>(stageMillis));
+		}
+	}
+
+}
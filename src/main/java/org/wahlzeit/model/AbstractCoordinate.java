@@ -23,13 +23,15 @@ package org.wahlzeit.model;
 
 import org.wahlzeit.utils.DesignPattern;
 
+import java.io.Serializable;
+
 import static java.lang.Math.*;
 
 @DesignPattern(
 		name = "Template method",
 		participants = {"AbstractCoordinate", "CartesianCoordinate", "SphericCoordinate"}
 )
-public abstract class AbstractCoordinate implements Coordinate {
+public abstract class AbstractCoordinate implements Coordinate, Serializable {
 
 	static final double EQUAL_DELTA = 1E-4;
 
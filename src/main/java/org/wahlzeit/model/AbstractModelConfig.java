@@ -39,6 +39,7 @@ import java.io.Serializable;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -85,8 +86,7 @@ public abstract class AbstractModelConfig extends AbstractConfig implements Mode
 				loadProperties(absoluteCustomFileName);
 			}
 		} catch (IOException ioex) {
-			log.warning(
-					LogBuilder.createSystemMessage().addException("initializing directories failed", ioex).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("initializing directories failed", ioex).log();
 		}
 
 		String menuDash = "&nbsp;" + doGetValue("MenuDash") + "&nbsp;";
@@ -84,6 +84,15 @@ public class CartesianCoordinate extends AbstractCoordinate {
 		return objects.computeIfAbsent(hash, key -> new CartesianCoordinate(x, y, z));
 	}
 
+	/**
+	 * Keeps deserialized coordinates shared, like the ones created by getInstance()
+	 *
+	 * @methodtype factory
+	 */
+	protected Object readResolve() {
+		return getInstance(x, y, z);
+	}
+
 	/**
 	 * @methodtype conversion
 	 *
@@ -21,6 +21,7 @@
 package org.wahlzeit.model;
 
 import org.wahlzeit.services.DataObject;
+import org.wahlzeit.services.IdCounter;
 
 /**
  * A case is a user complaint, most notably about an inappropriate photo.
@@ -31,27 +32,34 @@ public abstract class Case extends DataObject {
 	/**
 	 * 0 is never returned, first value is 1
 	 */
-	protected static CaseId lastCaseId = CaseId.NULL_ID;
+	protected static final IdCounter idCounter = new IdCounter();
 
 	/**
 	 * @methodtype get
 	 */
-	public static synchronized CaseId getLastCaseId() {
-		return lastCaseId;
+	public static CaseId getLastCaseId() {
+		return new CaseId((int) idCounter.getLastId());
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public static synchronized void setLastCaseId(CaseId newId) {
-		lastCaseId = newId;
+	public static void setLastCaseId(CaseId newId) {
+		idCounter.setLastId(newId.asInt());
 	}
 
 	/**
 	 * @methodtype idiom
 	 */
-	public static synchronized CaseId getNextCaseId() {
-		return lastCaseId = lastCaseId.getNextId();
+	public static CaseId getNextCaseId() {
+		return new CaseId((int) idCounter.nextId());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public static IdCounter getIdCounter() {
+		return idCounter;
 	}
 
 }
@@ -24,6 +24,8 @@ import com.google.appengine.api.datastore.Key;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.OnSave;
 import com.googlecode.objectify.annotation.Parent;
 import org.wahlzeit.model.parliament.ParliamentPhotoManager;
 import org.wahlzeit.services.EmailAddress;
@@ -34,6 +36,7 @@ import org.wahlzeit.services.Persistent;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * A Client uses the system. It is an abstract superclass. This package defines guest, user, moderator, and
@@ -64,8 +67,14 @@ public abstract class Client implements Serializable, Persistent {
 	 */
 	protected AccessRights accessRights = AccessRights.NONE;
 
+	/**
+	 * Changed by request threads and write-behind flushes, hence atomic
+	 */
 	@Ignore
-	protected int writeCount = 0;
+	protected volatile int writeCount = 0;
+
+	private static final AtomicIntegerFieldUpdater<Client> WRITE_COUNT =
+			AtomicIntegerFieldUpdater.newUpdater(Client.class, "writeCount");
 
 	private String httpSessionId;
 
@@ -73,6 +82,12 @@ public abstract class Client implements Serializable, Persistent {
 
 	protected PhotoSize photoSize = PhotoSize.MEDIUM;
 
+	/**
+	 * Time of the last save, see DataObject.MODIFICATION_TIME
+	 */
+	@Index
+	protected long modificationTime = 0;
+
 	protected List<PhotoId> praisedPhotoIds = new ArrayList<PhotoId>();
 
 	protected List<PhotoId> skippedPhotoIds = new ArrayList<PhotoId>();
@@ -198,7 +213,7 @@ public abstract class Client implements Serializable, Persistent {
 	 *
 	 */
 	public void incWriteCount() {
-		writeCount++;
+		WRITE_COUNT.incrementAndGet(this);
 	}
 
 	/**
@@ -208,6 +223,20 @@ public abstract class Client implements Serializable, Persistent {
 		writeCount = 0;
 	}
 
+	/**
+	 *
+	 */
+	public int getWriteCount() {
+		return writeCount;
+	}
+
+	/**
+	 *
+	 */
+	public void resetWriteCount(int writtenCount) {
+		WRITE_COUNT.getAndUpdate(this, count -> Math.max(0, count - writtenCount));
+	}
+
 	/**
 	 *
 	 */
@@ -340,4 +369,19 @@ public abstract class Client implements Serializable, Persistent {
 			skippedPhotoIds.add(skippedPhotoId);
 		}
 	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getModificationTime() {
+		return modificationTime;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	@OnSave
+	protected void updateModificationTime() {
+		modificationTime = System.currentTimeMillis();
+	}
 }
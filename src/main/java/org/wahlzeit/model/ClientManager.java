@@ -1,16 +1,23 @@
 package org.wahlzeit.model;
 
+import org.wahlzeit.services.IdCounter;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Abstract super class for UserManager. Contains all members and methods that can be offered for all Clients.
+ * All state is kept in concurrent maps, so clients can be added, looked up and deleted by any number of request
+ * threads; nicknames are reserved atomically. Guests are ephemeral: they are only kept in the bounded, expiring
+ * {@link GuestCache} of this instance and never written to the datastore.
  * 
  * @review
  */
@@ -21,16 +28,24 @@ public abstract class ClientManager extends ObjectManager {
 	/**
 	 *
 	 */
-	protected static Long lastClientId = 0L;
+	protected static final IdCounter clientIdCounter = new IdCounter();
 
 	/**
 	 * Maps IDs to user
 	 */
-	protected Map<String, Client> idClientMap = new HashMap<String, Client>();
+	protected final ConcurrentMap<String, Client> idClientMap = new ConcurrentHashMap<String, Client>();
 
-	protected HashMap<String, Client> httpSessionIdToClientMap = new HashMap<String, Client>();
+	protected final ConcurrentMap<String, Client> httpSessionIdToClientMap = new ConcurrentHashMap<String, Client>();
 
-	protected List<String> listOfUsedNicknames = new ArrayList<String>();
+	/**
+	 * The nicknames of all users and guests, so that claiming one is a single atomic add
+	 */
+	protected final Set<String> usedNicknames = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Guests by id; a guest's nickname is its id
+	 */
+	protected final GuestCache guests = new GuestCache(this::forgetGuest);
 
 
 	// add methods -----------------------------------------------------------------------------------------------------
@@ -38,13 +53,69 @@ public abstract class ClientManager extends ObjectManager {
 	/**
 	 * @methodtype set
 	 * @methodproperty wrapper
+	 *
+	 * Id and nickname are claimed atomically, so of two clients added at the same time with the same id or nickname,
+	 * one fails.
 	 */
 	public void addClient(Client client) throws IllegalArgumentException {
 		assertIsNonNullArgument(client);
-		assertIsUnknownClientAsIllegalArgument(client);
-		assertNicknameIsNotUsed(client.getNickName());
+		if (isEphemeral(client)) {
+			addGuest((Guest) client);
+			return;
+		}
 
-		doAddClient(client);
+		if (doAddClient(client) != null) {
+			throw new IllegalArgumentException(client.getId() + "is already known");
+		}
+
+		writeObject(client);
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Added new user", client.getId()).log();
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	protected void addGuest(Guest guest) {
+		if (!reserveNickname(guest.getNickName())) {
+			throw new IllegalArgumentException("Nickname " + guest.getNickName() + " is already used.");
+		} else if (idClientMap.containsKey(guest.getId()) || !guests.add(guest)) {
+			releaseNickname(guest.getNickName());
+			throw new IllegalArgumentException(guest.getId() + "is already known");
+		}
+
+		LogBuilder.createSystemMessage(log, Level.FINE).addParameter("Added new guest", guest.getId()).log();
+	}
+
+	/**
+	 * @methodtype boolean query
+	 *
+	 * Ephemeral clients live in memory only, until they are replaced by a user on login.
+	 */
+	public boolean isEphemeral(Client client) {
+		return client instanceof Guest;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Returns false if the nickname is already used.
+	 */
+	public boolean reserveNickname(String nickName) {
+		return usedNicknames.add(nickName);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void releaseNickname(String nickName) {
+		usedNicknames.remove(nickName);
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean isNicknameUsed(String nickName) {
+		return usedNicknames.contains(nickName);
 	}
 
 	/**
@@ -60,7 +131,7 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype assertion
 	 */
 	protected void assertNicknameIsNotUsed(String nickName) {
-		if (listOfUsedNicknames.contains(nickName)) {
+		if (isNicknameUsed(nickName)) {
 			throw new IllegalArgumentException("Nickname " + nickName + " is already used.");
 		}
 	}
@@ -68,12 +139,21 @@ public abstract class ClientManager extends ObjectManager {
 	/**
 	 * @methodtype set
 	 * @methodproperty primitive
+	 *
+	 * Claims id and nickname of the client atomically, without writing it. Returns the client already known by the
+	 * id, or null if the client has been added.
 	 */
-	protected void doAddClient(Client client) {
-		idClientMap.put(client.getId(), client);
-		writeObject(client);
-		listOfUsedNicknames.add(client.getNickName());
-		log.config(LogBuilder.createSystemMessage().addParameter("Added new user", client.getId()).toString());
+	protected Client doAddClient(Client client) throws IllegalArgumentException {
+		Client result = idClientMap.putIfAbsent(client.getId(), client);
+		if (result != null) {
+			return result;
+		}
+
+		if (!reserveNickname(client.getNickName())) {
+			idClientMap.remove(client.getId(), client);
+			throw new IllegalArgumentException("Nickname " + client.getNickName() + " is already used.");
+		}
+		return null;
 	}
 
 	/**
@@ -104,7 +184,11 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodproperty primitive
 	 */
 	protected Client doGetClientById(String name) {
-		return idClientMap.get(name);
+		Client result = idClientMap.get(name);
+		if (result == null) {
+			result = guests.get(name);
+		}
+		return result;
 	}
 
 	/**
@@ -117,7 +201,7 @@ public abstract class ClientManager extends ObjectManager {
 
 		doAddHttpSessionIdToClientMapping(httpSessionId, client);
 
-		saveClient(client);
+		saveClientLater(client);
 	}
 
 	/**
@@ -126,9 +210,9 @@ public abstract class ClientManager extends ObjectManager {
 	public void doAddHttpSessionIdToClientMapping(String httpSessionId, Client client) {
 		httpSessionIdToClientMap.put(httpSessionId, client);
 		client.setHttpSessionId(httpSessionId);
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addParameter("client name", client.getNickName()).
-				addParameter("httpSessionId", httpSessionId).toString());
+				addParameter("httpSessionId", httpSessionId).log();
 	}
 
 
@@ -138,7 +222,20 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype command
 	 */
 	public void saveClient(Client client) {
-		updateObject(client);
+		if (!isEphemeral(client)) {
+			updateObject(client);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes the client with the next write-behind flush, for frequent changes that need not be durable at once.
+	 */
+	public void saveClientLater(Client client) {
+		if (!isEphemeral(client)) {
+			scheduleWrite(client);
+		}
 	}
 
 
@@ -153,6 +250,36 @@ public abstract class ClientManager extends ObjectManager {
 		return httpSessionIdToClientMap.get(httpSessionId);
 	}
 
+	/**
+	 * @methodtype get
+	 *
+	 * Returns a copy of all known clients.
+	 */
+	public List<Client> getClients() {
+		return new ArrayList<Client>(idClientMap.values());
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Adds clients restored from a model snapshot without writing them; a client already known is replaced. Guests
+	 * are skipped, as they belong to the sessions of the instance that created them.
+	 */
+	public void restoreClients(Collection<? extends Client> clients) {
+		for (Client client : clients) {
+			if (isEphemeral(client)) {
+				continue;
+			}
+
+			client.resetWriteCount();
+			Client oldClient = idClientMap.put(client.getId(), client);
+			if (oldClient != null) {
+				usedNicknames.remove(oldClient.getNickName());
+			}
+			usedNicknames.add(client.getNickName());
+		}
+	}
+
 	/**
 	 * @methodtype command
 	 */
@@ -167,21 +294,28 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype get
 	 */
 	public Long getLastClientId() {
-		return lastClientId;
+		return clientIdCounter.getLastId();
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public synchronized void setLastClientId(Long newId) {
-		lastClientId = newId;
+	public void setLastClientId(Long newId) {
+		clientIdCounter.setLastId(newId);
 	}
 
 	/**
 	 * @methodtype get
 	 */
-	public synchronized Long getNextClientId() {
-		return ++lastClientId;
+	public Long getNextClientId() {
+		return clientIdCounter.nextId();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public IdCounter getClientIdCounter() {
+		return clientIdCounter;
 	}
 
 
@@ -192,7 +326,11 @@ public abstract class ClientManager extends ObjectManager {
 	 */
 	public void removeClient(Client client) {
 		saveClient(client);
-		idClientMap.remove(client.getId());
+		if (isEphemeral(client)) {
+			removeGuest(client.getId());
+		} else {
+			idClientMap.remove(client.getId());
+		}
 	}
 
 	/**
@@ -201,7 +339,7 @@ public abstract class ClientManager extends ObjectManager {
 	 */
 	public void deleteClient(Client client) {
 		assertIsNonNullArgument(client);
-		assert idClientMap.containsValue(client);
+		assert doGetClientById(client.getId()) == client;
 
 		removeHttpSessionIdToClientMapping(client.getHttpSessionId());
 		doDeleteClient(client);
@@ -213,10 +351,53 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype set
 	 */
 	private void removeHttpSessionIdToClientMapping(String httpSessionId) {
-		Client client = httpSessionIdToClientMap.get(httpSessionId);
-		client.removeHttpSessionId();
+		if (httpSessionId == null) {
+			return;
+		}
+
+		Client client = httpSessionIdToClientMap.remove(httpSessionId);
+		if (client != null) {
+			client.removeHttpSessionId();
+		}
+	}
 
-		httpSessionIdToClientMap.remove(httpSessionId);
+	/**
+	 * @methodtype set
+	 *
+	 * Called for each guest dropped from the guest cache because of its size or expiry; frees its nickname.
+	 */
+	protected void forgetGuest(Guest guest) {
+		releaseNickname(guest.getNickName());
+		String httpSessionId = guest.getHttpSessionId();
+		if (httpSessionId != null) {
+			httpSessionIdToClientMap.remove(httpSessionId, guest);
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	protected void removeGuest(String id) {
+		Guest guest = guests.remove(id);
+		if (guest != null) {
+			releaseNickname(guest.getNickName());
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Drops the guests that have not been used for the expiry time and returns how many.
+	 */
+	public int expireGuests() {
+		return guests.expireGuests();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNumberOfGuests() {
+		return guests.size();
 	}
 
 	/**
@@ -224,7 +405,14 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodproperty primtive
 	 */
 	protected void doDeleteClient(Client client) {
-		idClientMap.remove(client.getId());
+		if (isEphemeral(client)) {
+			removeGuest(client.getId());
+			return;
+		}
+
+		if (idClientMap.remove(client.getId(), client)) {
+			releaseNickname(client.getNickName());
+		}
 		deleteObject(client);
 	}
 
@@ -243,9 +431,10 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype set
 	 */
 	public void changeNickname(String oldNickName, String newNickName) throws IllegalArgumentException {
-		assertNicknameIsNotUsed(newNickName);
+		if (!reserveNickname(newNickName)) {
+			throw new IllegalArgumentException("Nickname " + newNickName + " is already used.");
+		}
 
-		listOfUsedNicknames.remove(oldNickName);
-		listOfUsedNicknames.add(newNickName);
+		releaseNickname(oldNickName);
 	}
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.model;
+
+import org.wahlzeit.services.IdCounter;
+import org.wahlzeit.servlets.AbstractServlet;
+
+/**
+ * The id counters kept in the Globals, each with the IdCounter handing out its ids.
+ */
+public enum GlobalCounter {
+
+	CLIENT {
+		@Override
+		public long getLastId(Globals globals) {
+			Long result = globals.getLastUserId();
+			return (result == null) ? 0 : result;
+		}
+
+		@Override
+		public void setLastId(Globals globals, long lastId) {
+			globals.setLastUserId(lastId);
+		}
+
+		@Override
+		public IdCounter getIdCounter() {
+			return UserManager.getInstance().getClientIdCounter();
+		}
+	},
+
+	PHOTO {
+		@Override
+		public long getLastId(Globals globals) {
+			return globals.getLastPhotoId();
+		}
+
+		@Override
+		public void setLastId(Globals globals, long lastId) {
+			globals.setLastPhotoId((int) lastId);
+		}
+
+		@Override
+		public IdCounter getIdCounter() {
+			return PhotoId.getIdCounter();
+		}
+	},
+
+	CASE {
+		@Override
+		public long getLastId(Globals globals) {
+			return globals.getLastCaseId();
+		}
+
+		@Override
+		public void setLastId(Globals globals, long lastId) {
+			globals.setLastCaseId((int) lastId);
+		}
+
+		@Override
+		public IdCounter getIdCounter() {
+			return Case.getIdCounter();
+		}
+	},
+
+	SESSION {
+		@Override
+		public long getLastId(Globals globals) {
+			return globals.getLastSessionId();
+		}
+
+		@Override
+		public void setLastId(Globals globals, long lastId) {
+			globals.setLastSessionId((int) lastId);
+		}
+
+		@Override
+		public IdCounter getIdCounter() {
+			return AbstractServlet.getSessionIdCounter();
+		}
+	};
+
+	/**
+	 * @methodtype get
+	 */
+	public abstract long getLastId(Globals globals);
+
+	/**
+	 * @methodtype set
+	 */
+	public abstract void setLastId(Globals globals, long lastId);
+
+	/**
+	 * @methodtype get
+	 */
+	public abstract IdCounter getIdCounter();
+
+}
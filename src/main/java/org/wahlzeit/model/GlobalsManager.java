@@ -2,29 +2,48 @@ package org.wahlzeit.model;
 
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
+import org.wahlzeit.services.IdCounter;
 import org.wahlzeit.services.ObjectManager;
-import org.wahlzeit.servlets.AbstractServlet;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
 import static org.wahlzeit.services.OfyService.ofy;
 
 /**
- * Manager that cares about the global variables. It is used from the outside by the following two methods:
+ * Manager that cares about the global variables. It is used from the outside by the following methods:
  *
  * @see #loadGlobals()
+ * @see #startIdLeasing(ThreadFactory)
  * @see #saveGlobals()
- * 
+ *
+ * Once leasing is started, the id counters hand out ids from blocks reserved in the Globals by a transaction, so that
+ * several instances never hand out the same id and creating e.g. a photo needs no write of the Globals.
+ *
  * @review
  */
 public class GlobalsManager extends ObjectManager {
 
 	private static final Logger log = Logger.getLogger(GlobalsManager.class.getName());
+
+	/**
+	 * System property with the number of ids of each counter reserved at a time
+	 */
+	public static final String ID_BLOCK_SIZE = "wahlzeit.ids.blockSize";
+	public static final int DEFAULT_ID_BLOCK_SIZE = 1000;
+
 	/**
 	 *
 	 */
 	private static GlobalsManager instance = new GlobalsManager();
 
+	/**
+	 * Leases the next blocks ahead of time; null if they are leased in the thread using up the current one
+	 */
+	protected ExecutorService leaseExecutor = null;
+
 	/**
 	 * @methodtype command Loads all global variables and stores them in their corresponding classes.
 	 */
@@ -38,12 +57,56 @@ public class GlobalsManager extends ObjectManager {
 		});
 		log.info(globals.asString());
 
-		UserManager.getInstance().setLastClientId(globals.getLastUserId());
-		PhotoId.setCurrentIdFromInt(globals.getLastPhotoId());
-		Case.setLastCaseId(new CaseId(globals.getLastCaseId()));
-		AbstractServlet.setLastSessionId(globals.getLastSessionId());
+		for (GlobalCounter counter : GlobalCounter.values()) {
+			counter.getIdCounter().setLastId(counter.getLastId(globals));
+		}
+	}
+
+	/**
+	 * @methodtype command Hands out ids from leased blocks from now on; blocks are leased ahead by a thread of the
+	 * given factory, or, if null, by the thread that needs them.
+	 */
+	public synchronized void startIdLeasing(ThreadFactory threadFactory) {
+		int blockSize = Math.max(1, Integer.getInteger(ID_BLOCK_SIZE, DEFAULT_ID_BLOCK_SIZE));
+		leaseExecutor = (threadFactory != null) ? Executors.newSingleThreadExecutor(threadFactory) : null;
+		for (GlobalCounter counter : GlobalCounter.values()) {
+			counter.getIdCounter().startLeasing(size -> leaseBlock(counter, size), blockSize, leaseExecutor);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void stopIdLeasing() {
+		for (GlobalCounter counter : GlobalCounter.values()) {
+			counter.getIdCounter().stopLeasing();
+		}
+		if (leaseExecutor != null) {
+			leaseExecutor.shutdownNow();
+			leaseExecutor = null;
+		}
 	}
 
+	/**
+	 * @methodtype command Reserves the next blockSize ids of the counter in the Globals and returns the first one.
+	 */
+	public long leaseBlock(GlobalCounter counter, int blockSize) {
+		return ObjectifyService.run(new Work<Long>() {
+			@Override
+			public Long run() {
+				return ofy().transact(new Work<Long>() {
+					@Override
+					public Long run() {
+						Globals globals = readObject(Globals.class, Globals.DEAULT_ID);
+						long first = counter.getLastId(globals) + 1;
+						counter.setLastId(globals, first + blockSize - 1);
+						writeObject(globals);
+						return first;
+					}
+				});
+			}
+		});
+	}
 	/**
 	 * @methodtype wrapper
 	 */
@@ -91,21 +154,55 @@ public class GlobalsManager extends ObjectManager {
 	}
 
 	/**
-	 * @methodtype command Saves all global variables.
+	 * @methodtype factory Captures the current values of all global variables.
 	 */
-	public synchronized void saveGlobals() {
-		final Globals globals = new Globals();
-		globals.setLastUserId(UserManager.getInstance().getLastClientId());
-		globals.setLastPhotoId(PhotoId.getCurrentIdAsInt());
-		globals.setLastCaseId(Case.getLastCaseId().asInt());
-		globals.setLastSessionId(AbstractServlet.getLastSessionId());
-		log.info(globals.asString());
+	public Globals createGlobals() {
+		Globals globals = new Globals();
+		for (GlobalCounter counter : GlobalCounter.values()) {
+			counter.setLastId(globals, counter.getIdCounter().getLastId());
+		}
+		return globals;
+	}
+
+	/**
+	 * @methodtype command Raises the global variables to the given ones, where these are larger, so that no id is
+	 * handed out twice after restoring a model snapshot.
+	 */
+	public void raiseGlobals(Globals globals) {
+		for (GlobalCounter counter : GlobalCounter.values()) {
+			counter.getIdCounter().raiseLastId(counter.getLastId(globals));
+		}
+	}
+
+	/**
+	 * @methodtype command Saves all global variables. Stored ones are only ever raised, as other instances may have
+	 * leased further ids in the meantime.
+	 */
+	public void saveGlobals() {
+		final Globals current = createGlobals();
+		log.info(current.asString());
 
 		ObjectifyService.run(new Work<Void>() {
 			@Override
 			public Void run() {
-				writeObject(globals);
-				return null;
+				return ofy().transact(new Work<Void>() {
+					@Override
+					public Void run() {
+						Globals globals = readObject(Globals.class, Globals.DEAULT_ID);
+						if (globals == null) {
+							globals = current;
+						} else {
+							globals.resetWriteCount();
+							for (GlobalCounter counter : GlobalCounter.values()) {
+								if (counter.getLastId(current) > counter.getLastId(globals)) {
+									counter.setLastId(globals, counter.getLastId(current));
+								}
+							}
+						}
+						writeObject(globals);
+						return null;
+					}
+				});
 			}
 		});
 	}
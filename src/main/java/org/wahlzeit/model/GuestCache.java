@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.model;
+
+import org.wahlzeit.services.cache.BoundedCache;
+import org.wahlzeit.services.cache.CacheStatistics;
+import org.wahlzeit.services.cache.LruEvictionPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Holds the guests of this instance in memory only. Their number is bounded, the least recently used guest is
+ * dropped first, and a guest that has not been used for the expiry time is dropped, too. The removal listener is
+ * told about every guest dropped that way (but not about removed ones), e.g. to forget its session.
+ */
+public class GuestCache {
+
+	/**
+	 * System properties configuring the guest cache
+	 */
+	public static final String GUESTS_MAX_SIZE = "wahlzeit.guests.maxSize";
+	public static final String GUESTS_EXPIRY_MINUTES = "wahlzeit.guests.expiryMinutes";
+
+	/**
+	 *
+	 */
+	public static final long DEFAULT_GUESTS_MAX_SIZE = 100000;
+	public static final long DEFAULT_GUESTS_EXPIRY_MINUTES = 60;
+
+	/**
+	 * Expired guests are looked for at most this often when guests are added
+	 */
+	protected static final long SWEEP_INTERVAL_MILLIS = 60 * 1000;
+
+	/**
+	 *
+	 */
+	protected static class Entry {
+		protected final Guest guest;
+		protected volatile long lastAccessTime;
+
+		protected Entry(Guest guest, long lastAccessTime) {
+			this.guest = guest;
+			this.lastAccessTime = lastAccessTime;
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected final BoundedCache<String, Entry> cache;
+	protected final long expiryMillis;
+	protected final Consumer<Guest> removalListener;
+
+	/**
+	 *
+	 */
+	protected final AtomicLong nextSweepTime = new AtomicLong();
+
+	/**
+	 *
+	 */
+	public GuestCache(Consumer<Guest> removalListener) {
+		this(Long.getLong(GUESTS_MAX_SIZE, DEFAULT_GUESTS_MAX_SIZE),
+				Long.getLong(GUESTS_EXPIRY_MINUTES, DEFAULT_GUESTS_EXPIRY_MINUTES) * 60 * 1000, removalListener);
+	}
+
+	/**
+	 *
+	 */
+	public GuestCache(long maxSize, long expiryMillis, Consumer<Guest> removalListener) {
+		if (expiryMillis <= 0) {
+			throw new IllegalArgumentException("expiry time must be positive");
+		}
+
+		this.expiryMillis = expiryMillis;
+		this.removalListener = removalListener;
+		cache = new BoundedCache<String, Entry>(maxSize, new LruEvictionPolicy<String>(), BoundedCache.UNIT_WEIGHER,
+				BoundedCache.ALWAYS_EVICTABLE, (id, entry) -> removalListener.accept(entry.guest));
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Returns false if a guest with the same id is already known.
+	 */
+	public boolean add(Guest guest) {
+		long now = currentTimeMillis();
+		expireIfDue(now);
+		return cache.putIfAbsent(guest.getId(), new Entry(guest, now)) == null;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the guest and counts this as a use, or null if the guest is unknown or expired.
+	 */
+	public Guest get(String id) {
+		Entry entry = cache.get(id);
+		if (entry == null) {
+			return null;
+		}
+
+		long now = currentTimeMillis();
+		if (isExpired(entry, now)) {
+			expire(id);
+			return null;
+		}
+
+		entry.lastAccessTime = now;
+		return entry.guest;
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean contains(String id) {
+		return cache.containsKey(id);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public Guest remove(String id) {
+		Entry entry = cache.remove(id);
+		return (entry == null) ? null : entry.guest;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Drops all guests that have not been used for the expiry time and returns how many.
+	 */
+	public int expireGuests() {
+		long now = currentTimeMillis();
+		nextSweepTime.set(now + SWEEP_INTERVAL_MILLIS);
+
+		List<String> expiredIds = new ArrayList<String>();
+		for (String id : cache.asMap().keySet()) {
+			Entry entry = cache.getIfPresent(id);
+			if ((entry != null) && isExpired(entry, now)) {
+				expiredIds.add(id);
+			}
+		}
+
+		int result = 0;
+		for (String id : expiredIds) {
+			Entry entry = cache.getIfPresent(id);
+			if ((entry != null) && isExpired(entry, now) && expire(id)) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public CacheStatistics getStatistics() {
+		return cache.getStatistics();
+	}
+
+	/**
+	 * @methodtype helper
+	 *
+	 * Sweeps from the calling thread once per interval, so expired guests do not wait for the size bound.
+	 */
+	protected void expireIfDue(long now) {
+		long sweepTime = nextSweepTime.get();
+		if ((now >= sweepTime) && nextSweepTime.compareAndSet(sweepTime, now + SWEEP_INTERVAL_MILLIS)) {
+			expireGuests();
+		}
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	protected boolean isExpired(Entry entry, long now) {
+		return now - entry.lastAccessTime >= expiryMillis;
+	}
+
+	/**
+	 * @methodtype helper
+	 *
+	 * Guest ids are never reused, so the entry under the id is still the expired one unless it was removed meanwhile.
+	 */
+	protected boolean expire(String id) {
+		Entry entry = cache.remove(id);
+		if (entry == null) {
+			return false;
+		}
+
+		removalListener.accept(entry.guest);
+		return true;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+}
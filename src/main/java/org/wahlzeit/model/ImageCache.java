@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.cache.BoundedCache;
+import org.wahlzeit.services.cache.CacheStatistics;
+import org.wahlzeit.services.cache.TinyLfuEvictionPolicy;
+import org.wahlzeit.utils.DesignPattern;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caches the bytes of scaled images per photo and size, independent of the photos themselves. The bytes are kept
+ * off-heap in direct buffers, so a large image budget does not add to garbage collection pressure. Misses are read
+ * from the {@link ImageStorage}.
+ */
+@DesignPattern(
+		name = "Singleton",
+		participants = {"ImageCache"}
+)
+public class ImageCache {
+
+	private static final Logger log = Logger.getLogger(ImageCache.class.getName());
+
+	/**
+	 * System properties configuring the image cache
+	 */
+	public static final String IMAGE_CACHE_MAX_BYTES = "wahlzeit.imageCache.maxBytes";
+	public static final String IMAGE_CACHE_POLICY = "wahlzeit.imageCache.policy";
+
+	/**
+	 *
+	 */
+	public static final long DEFAULT_IMAGE_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+	public static final String DEFAULT_IMAGE_CACHE_POLICY = TinyLfuEvictionPolicy.NAME;
+
+	/**
+	 *
+	 */
+	protected static final ImageCache instance = new ImageCache();
+
+	/**
+	 * Keys combine photo id and size, see asKey()
+	 */
+	protected BoundedCache<Long, ByteBuffer> cache;
+
+	/**
+	 *
+	 */
+	protected ImageCache() {
+		this(Long.getLong(IMAGE_CACHE_MAX_BYTES, DEFAULT_IMAGE_CACHE_MAX_BYTES),
+				System.getProperty(IMAGE_CACHE_POLICY, DEFAULT_IMAGE_CACHE_POLICY));
+	}
+
+	/**
+	 *
+	 */
+	protected ImageCache(long maxBytes, String policyName) {
+		cache = new BoundedCache<Long, ByteBuffer>(maxBytes, BoundedCache.<Long>createEvictionPolicy(policyName),
+				(key, data) -> data.capacity(), BoundedCache.ALWAYS_EVICTABLE);
+	}
+
+	/**
+	 *
+	 */
+	public static ImageCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the image of the given size, or null if there is none in the storage either.
+	 */
+	public Image getImage(PhotoId photoId, PhotoSize size) {
+		ByteBuffer data = getImageData(photoId, size);
+		if (data == null) {
+			return null;
+		}
+
+		byte[] bytes = new byte[data.remaining()];
+		data.get(bytes);
+		return ImagesServiceFactory.makeImage(bytes);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns a read-only view of the cached bytes, or null if there is no such image. Suitable for writing the image
+	 * to a response without creating an Image first.
+	 */
+	public ByteBuffer getImageData(PhotoId photoId, PhotoSize size) {
+		if ((photoId == null) || (size == null) || photoId.isNullId()) {
+			return null;
+		}
+
+		ByteBuffer data = cache.get(asKey(photoId, size), key -> loadImageData(photoId, size));
+		return (data == null) ? null : data.asReadOnlyBuffer();
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Caches an image that has just been written to the storage.
+	 */
+	public void putImage(PhotoId photoId, PhotoSize size, Image image) {
+		cache.put(asKey(photoId, size), asDirectBuffer(image.getImageData()));
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void removeImages(PhotoId photoId) {
+		for (PhotoSize size : PhotoSize.values()) {
+			cache.remove(asKey(photoId, size));
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public CacheStatistics getStatistics() {
+		return cache.getStatistics();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected ByteBuffer loadImageData(PhotoId photoId, PhotoSize size) {
+		try {
+			ByteBuffer data = ImageStorage.getInstance().readImageData(photoId.asString(), size.asInt());
+			if (data != null) {
+				// e.g. memory-mapped files are off-heap already
+				return data.isDirect() ? data : asDirectBuffer(data);
+			}
+		} catch (IOException e) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("size", size.asString()).
+					addParameter("photo ID", photoId.asString()).
+					addException("Could not load image", e).log();
+		}
+
+		return null;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static Long asKey(PhotoId photoId, PhotoSize size) {
+		return (((long) photoId.asInt()) << 8) | size.asInt();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static ByteBuffer asDirectBuffer(byte[] data) {
+		return asDirectBuffer(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static ByteBuffer asDirectBuffer(ByteBuffer data) {
+		ByteBuffer result = ByteBuffer.allocateDirect(data.remaining());
+		result.put(data.duplicate());
+		result.flip();
+		return result;
+	}
+
+}
@@ -20,10 +20,12 @@
 
 package org.wahlzeit.model;
 
+import java.io.Serializable;
+
 /**
  * Represent an place
  */
-public class Location {
+public class Location implements Serializable {
 	public Coordinate coordinate;
 
 	/**
@@ -20,19 +20,23 @@
 
 package org.wahlzeit.model;
 
-import com.google.api.client.util.ArrayMap;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.images.Image;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.Index;
 import com.googlecode.objectify.annotation.Parent;
 import org.wahlzeit.services.DataObject;
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.ObjectManager;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A photo represents a user-provided (uploaded) photo.
@@ -59,6 +63,11 @@ public class Photo extends DataObject {
 	public static final String IS_INVISIBLE = "isInvisible";
 	public static final String UPLOADED_ON = "uploadedOn";
 
+	/**
+	 * Datastore property of the indexed photo id, used to reload a single photo
+	 */
+	public static final String ID_VALUE = "id.value";
+
 	/**
 	 *
 	 */
@@ -67,6 +76,7 @@ public class Photo extends DataObject {
 	public static final int MAX_THUMB_PHOTO_WIDTH = 105;
 	public static final int MAX_THUMB_PHOTO_HEIGHT = 150;
 
+	@Index
 	protected PhotoId id = null;
 	
 	/**
@@ -77,9 +87,11 @@ public class Photo extends DataObject {
 	/**
 	 * Each photo can be viewed in different sizes (XS, S, M, L, XL)
 	 * Images are pre-computed in these sizes to optimize bandwidth when requested.
+	 * Only images that have not been written to the ImageStorage yet are held here; all others are served by the
+	 * ImageCache.
 	 */
 	@Ignore
-	transient protected Map<PhotoSize, Image> images = new ArrayMap<PhotoSize, Image>();
+	transient protected Map<PhotoSize, Image> images = new ConcurrentHashMap<PhotoSize, Image>();
 	
 	/**
 	 *
@@ -137,11 +149,10 @@ public class Photo extends DataObject {
 	Key parent = ObjectManager.applicationRootKey;
 
 	/**
-	 *
+	 * Used by Objectify to load photos, so it must not take an id; new photos get one from the PhotoFactory
 	 */
 	public Photo() {
-		id = PhotoId.getNextId();
-		incWriteCount();
+		// do nothing
 	}
 
 	/**
@@ -153,11 +164,36 @@ public class Photo extends DataObject {
 		incWriteCount();
 	}
 
+	/**
+	 * Restores the transient image map, as a model snapshot is read without running the constructor
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		images = new ConcurrentHashMap<PhotoSize, Image>();
+	}
+
 	/**
 	 * @methodtype get
 	 */
 	public Image getImage(PhotoSize photoSize) {
-		return images.get(photoSize);
+		Image result = images.get(photoSize);
+		if (result == null) {
+			result = ImageCache.getInstance().getImage(id, photoSize);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns a read-only view of the image bytes without copying them into an Image, or null if there is none.
+	 */
+	public ByteBuffer getImageData(PhotoSize photoSize) {
+		Image image = images.get(photoSize);
+		if (image != null) {
+			return ByteBuffer.wrap(image.getImageData()).asReadOnlyBuffer();
+		}
+		return ImageCache.getInstance().getImageData(id, photoSize);
 	}
 
 	/**
@@ -348,6 +384,13 @@ public class Photo extends DataObject {
 		return (double) praiseSum / noVotes;
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public int getNoVotes() {
+		return noVotes;
+	}
+
 	/**
 	 *
 	 */
@@ -375,8 +418,13 @@ public class Photo extends DataObject {
 	 * @methodtype set
 	 */
 	public void setStatus(PhotoStatus newStatus) {
+		boolean wasDisplayable = isVisible();
 		status = newStatus;
 		incWriteCount();
+
+		if (wasDisplayable != isVisible()) {
+			PhotoManager.getInstance().updateDisplayablePhotoIds(this);
+		}
 	}
 
 	/**
@@ -424,6 +472,15 @@ public class Photo extends DataObject {
 		return noVotes > noVotesAtLastNotification;
 	}
 
+	/**
+	 * @methodtype boolean query
+	 *
+	 * Whether the owner is still to be notified about new praise by the NotifyUsersAboutPraiseAgent
+	 */
+	public boolean hasPendingPraiseNotification() {
+		return hasNewPraise() && isVisible() && (ownerId != null);
+	}
+
 	/**
 	 * @methodtype set
 	 */
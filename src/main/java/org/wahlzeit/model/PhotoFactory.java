@@ -21,8 +21,11 @@
 package org.wahlzeit.model;
 
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.OfyService;
 import org.wahlzeit.utils.DesignPattern;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -59,7 +62,7 @@ public class PhotoFactory {
 	 */
 	public static synchronized PhotoFactory getInstance() {
 		if (instance == null) {
-			log.config(LogBuilder.createSystemMessage().addAction("setting generic PhotoFactory").toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("setting generic PhotoFactory").log();
 			setInstance(new PhotoFactory());
 		}
 
@@ -81,7 +84,7 @@ public class PhotoFactory {
 	 * @methodtype factory
 	 */
 	public Photo createPhoto() {
-		return new Photo();
+		return createPhoto(PhotoId.getNextId());
 	}
 
 	/**
@@ -92,22 +95,25 @@ public class PhotoFactory {
 	}
 
 	/**
-	 * Loads a photo. The Java object is loaded from the Google Datastore, the Images in all sizes are loaded from the
-	 * Google Cloud storage.
+	 * Loads a photo from the Google Datastore; returns null if there is none with the given id. The images are not
+	 * loaded here, that is left to the PhotoManager.
 	 */
 	public Photo loadPhoto(PhotoId id) {
-	   /* Photo result =
-                OfyService.ofy().load().type(Photo.class).ancestor(KeyFactory.createKey("Application", "Wahlzeit")).filter(Photo.ID, id).first().now();
-        for (PhotoSize size : PhotoSize.values()) {
-            GcsFilename gcsFilename = new GcsFilename("picturebucket", filename);
-
+		if ((id == null) || id.isNullId()) {
+			return null;
+		}
 
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Datastore: load photo", id.asString()).log();
+		Photo result = OfyService.ofy().load().type(Photo.class).ancestor(ObjectManager.applicationRootKey).
+				filter(Photo.ID_VALUE, id.asInt()).first().now();
+		if (result != null) {
+			// freshly loaded, so nothing to write back
+			result.resetWriteCount();
+		}
 
-        }*/
-		return null;
+		return result;
 	}
 
-
 	/**
 	 *
 	 */
@@ -22,14 +22,14 @@ package org.wahlzeit.model;
 
 import org.wahlzeit.model.parliament.ParliamentPhotoManager;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.utils.CompressedBitmap;
 import org.wahlzeit.utils.StringUtil;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -55,9 +55,9 @@ public class PhotoFilter implements Serializable {
 	/**
 	 *
 	 */
-	protected List<PhotoId> displayablePhotoIds;
-	protected List<PhotoId> processedPhotoIds = new LinkedList<PhotoId>();
-	protected List<PhotoId> skippedPhotoIds = new LinkedList<PhotoId>();
+	protected PhotoIdSet displayablePhotoIds;
+	protected PhotoIdSet processedPhotoIds = new PhotoIdSet();
+	protected PhotoIdSet skippedPhotoIds = new PhotoIdSet();
 
 	/**
 	 *
@@ -149,8 +149,8 @@ public class PhotoFilter implements Serializable {
 	 */
 	public PhotoId getRandomDisplayablePhotoId() {
 		if (!displayablePhotoIds.isEmpty()) {
-			int size = displayablePhotoIds.size();
-			int index = ((randomNumber.nextInt() % size) + size) / 2;
+			// pick by rank, so the ids never need to be materialized as a list
+			int index = randomNumber.nextInt(displayablePhotoIds.size());
 			return displayablePhotoIds.get(index);
 		} else {
 			return PhotoId.NULL_ID;
@@ -160,14 +160,14 @@ public class PhotoFilter implements Serializable {
 	/**
 	 *
 	 */
-	public List<PhotoId> getDisplayablePhotoIds() {
+	public PhotoIdSet getDisplayablePhotoIds() {
 		return displayablePhotoIds;
 	}
 
 	/**
 	 *
 	 */
-	public void setDisplayablePhotoIds(List<PhotoId> newPhotoIds) {
+	public void setDisplayablePhotoIds(PhotoIdSet newPhotoIds) {
 		displayablePhotoIds = newPhotoIds;
 	}
 
@@ -175,13 +175,13 @@ public class PhotoFilter implements Serializable {
 	 *
 	 */
 	public void resetDisplayablePhotoIds() {
-		displayablePhotoIds = new ArrayList<PhotoId>();
+		displayablePhotoIds = new PhotoIdSet();
 	}
 
 	/**
 	 *
 	 */
-	public List<PhotoId> getProcessedPhotoIds() {
+	public PhotoIdSet getProcessedPhotoIds() {
 		return processedPhotoIds;
 	}
 
@@ -189,10 +189,6 @@ public class PhotoFilter implements Serializable {
 	 *
 	 */
 	public boolean isProcessedPhotoId(PhotoId photoId) {
-		log.info("photoId: " + photoId.asString());
-		for (PhotoId id : processedPhotoIds) {
-			log.info("Processed id: " + id.asString());
-		}
 		return processedPhotoIds.contains(photoId);
 	}
 
@@ -212,14 +208,14 @@ public class PhotoFilter implements Serializable {
 	/**
 	 * @methodtype get
 	 */
-	public List<PhotoId> getSkippedPhotoIds() {
+	public PhotoIdSet getSkippedPhotoIds() {
 		return skippedPhotoIds;
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public void setSkippedPhotoIds(List<PhotoId> skippedPhotoIds) {
+	public void setSkippedPhotoIds(PhotoIdSet skippedPhotoIds) {
 		this.skippedPhotoIds = skippedPhotoIds;
 	}
 
@@ -227,54 +223,34 @@ public class PhotoFilter implements Serializable {
 	 * @methodtype set
 	 */
 	public void addSkippedPhotoId(PhotoId skippedPhotoId) {
-		if (!skippedPhotoIds.contains(skippedPhotoId)) {
-			skippedPhotoIds.add(skippedPhotoId);
-		}
+		skippedPhotoIds.add(skippedPhotoId);
 	}
 
 	/**
-	 *
+	 * Computes all displayable photos matching the filter conditions that have been neither processed nor skipped,
+	 * as bitmap operations against the PhotoManager's set of displayable photos. Falls back to the skipped photos.
 	 */
-	protected List<PhotoId> getFilteredPhotoIds() {
-		// get all tags that match the filter conditions
-		List<PhotoId> result = new LinkedList<PhotoId>();
-		int noFilterConditions = getFilterConditions().size();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Number of filter conditions", String.valueOf(noFilterConditions)).toString());
-
-		Collection<PhotoId> candidates;
-		if (noFilterConditions == 0) {
-			candidates = ParliamentPhotoManager.getInstance().getPhotoCache().keySet();
-		} else {
-			List<Tag> tags = new LinkedList<Tag>();
-			candidates = new LinkedList<PhotoId>();
-			for (String condition : getFilterConditions()) {
-				ParliamentPhotoManager.getInstance().addTagsThatMatchCondition(tags, condition);
-			}
-			// get the list of all photo ids that correspond to the tags
-			for (Tag tag : tags) {
-				candidates.add(PhotoId.getIdFromString(tag.getPhotoId()));
-			}
+	protected PhotoIdSet getFilteredPhotoIds() {
+		List<String> filterConditions = getFilterConditions();
+		int noFilterConditions = filterConditions.size();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Number of filter conditions", String.valueOf(noFilterConditions)).log();
+
+		CompressedBitmap excluded = processedPhotoIds.asBitmap().or(skippedPhotoIds.asBitmap());
+		CompressedBitmap result = ParliamentPhotoManager.getInstance().getDisplayablePhotoIdsExcept(excluded);
+		if (noFilterConditions > 0) {
+			// all conditions have to match
+			int[] photoIds = ParliamentPhotoManager.getInstance().findPhotoIdsMatchingAll(filterConditions);
+			result = result.and(CompressedBitmap.of(photoIds));
 		}
 
-		int newPhotos = 0;
-		for (PhotoId candidateId : candidates) {
-			Photo photoCandidate = ParliamentPhotoManager.getInstance().getPhoto(candidateId);
-			if (!processedPhotoIds.contains(candidateId) && !skippedPhotoIds.contains(candidateId) &&
-					photoCandidate.isVisible()) {
-				result.add(candidateId);
-				++newPhotos;
-			}
-		}
-		int skippedPhotos = skippedPhotoIds.size();
-		if (newPhotos == 0 && skippedPhotos > 0) {
-			result.addAll(skippedPhotoIds);
-			newPhotos = skippedPhotos;
+		if (result.isEmpty() && !skippedPhotoIds.isEmpty()) {
+			result = skippedPhotoIds.asBitmap().copy();
 		}
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Number of photos to show", newPhotos)
-				.toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Number of photos to show", result.getCardinality())
+				.log();
 
-		return result;
+		return new PhotoIdSet(result);
 	}
 }
@@ -20,8 +20,11 @@
 
 package org.wahlzeit.model;
 
+import org.wahlzeit.services.IdCounter;
+
 import java.io.Serializable;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A photo id identifies a photo with a unique number.
@@ -31,14 +34,25 @@ import java.util.Random;
 public class PhotoId implements Serializable {
 
 	/**
-	 * 0 is never returned from nextValue; first value is 1
+	 * 0 is never returned from nextValue; first value is 1. The last id is the highest one known to be handed out.
+	 */
+	protected static final IdCounter idCounter = new IdCounter();
+
+	/**
+	 * Size of the first segment of the id table; each further segment is twice as large as the one before
 	 */
-	protected static int currentId = 0;
+	public static final int FIRST_SEGMENT_SIZE = 64;
+	protected static final int FIRST_SEGMENT_SHIFT = Integer.numberOfTrailingZeros(FIRST_SEGMENT_SIZE);
+
+	/**
+	 * Enough segments for all ids up to Integer.MAX_VALUE - FIRST_SEGMENT_SIZE; larger ones are not shared
+	 */
+	protected static final int MAX_SEGMENTS = 31 - FIRST_SEGMENT_SHIFT;
 
 	/**
 	 *
 	 */
-	public static final int BUFFER_SIZE_INCREMENT = 64;
+	protected static final char[] DIGITS = "0123456789abcdefghijklmnopqrstuvwxyz".toCharArray();
 
 	/**
 	 *
@@ -46,9 +60,11 @@ public class PhotoId implements Serializable {
 	public static final PhotoId NULL_ID = new PhotoId(0);
 
 	/**
-	 *
+	 * The shared PhotoId objects by int id, in segments that are only allocated once an id in them is asked for. The
+	 * table never moves, so lookups need no lock, and atomic arrays publish entries safely.
 	 */
-	protected static PhotoId[] ids = new PhotoId[BUFFER_SIZE_INCREMENT];
+	protected static final AtomicReferenceArray<AtomicReferenceArray<PhotoId>> ids =
+			new AtomicReferenceArray<AtomicReferenceArray<PhotoId>>(MAX_SEGMENTS);
 
 	/**
 	 * What a hack :-)
@@ -68,54 +84,81 @@ public class PhotoId implements Serializable {
 	 *
 	 */
 	public static int getCurrentIdAsInt() {
-		return currentId;
+		return (int) idCounter.getLastId();
 	}
 
 	/**
-	 *
+	 * Ids handed out before are still shared, as an id always maps to the same PhotoId
 	 */
-	public static synchronized void setCurrentIdFromInt(int id) {
-		currentId = id;
-		ids = new PhotoId[currentId + BUFFER_SIZE_INCREMENT];
-		ids[0] = NULL_ID;
+	public static void setCurrentIdFromInt(int id) {
+		idCounter.setLastId(id);
 	}
 
 	/**
 	 *
 	 */
-	public static synchronized int getNextIdAsInt() {
-		currentId += 1;
-		if (currentId >= ids.length) {
-			PhotoId[] nids = new PhotoId[currentId + BUFFER_SIZE_INCREMENT];
-			System.arraycopy(ids, 0, nids, 0, currentId);
-			ids = nids;
-		}
-		return currentId;
+	public static int getNextIdAsInt() {
+		return (int) idCounter.nextId();
 	}
 
 	/**
-	 *
+	 * @methodtype get
+	 */
+	public static IdCounter getIdCounter() {
+		return idCounter;
+	}
+
+	/**
+	 * Ids beyond the current one, e.g. handed out by another instance, are not shared, so that unknown ids cannot grow
+	 * the table.
 	 */
 	public static PhotoId getIdFromInt(int id) {
-		if ((id < 0) || (id > currentId)) {
+		if (id <= 0) {
 			return NULL_ID;
+		} else if (id > getCurrentIdAsInt()) {
+			return new PhotoId(id);
 		}
 
-		// @FIXME http://en.wikipedia.org/wiki/Double-checked_locking
-		PhotoId result = ids[id];
+		int segmentIndex = getSegmentIndex(id);
+		if (segmentIndex >= MAX_SEGMENTS) {
+			return new PhotoId(id);
+		}
+
+		AtomicReferenceArray<PhotoId> segment = getSegment(segmentIndex);
+		int offset = id + FIRST_SEGMENT_SIZE - (FIRST_SEGMENT_SIZE << segmentIndex);
+		PhotoId result = segment.get(offset);
 		if (result == null) {
-			synchronized (ids) {
-				result = ids[id];
-				if (result == null) {
-					result = new PhotoId(id);
-					ids[id] = result;
-				}
-			}
+			// if several threads race for the same id, all of them get the first one set
+			PhotoId newId = new PhotoId(id);
+			result = segment.compareAndSet(offset, null, newId) ? newId : segment.get(offset);
 		}
 
 		return result;
 	}
 
+	/**
+	 * @methodtype helper
+	 *
+	 * Segment k holds the ids from FIRST_SEGMENT_SIZE * (2^k - 1) on, FIRST_SEGMENT_SIZE * 2^k of them.
+	 */
+	protected static int getSegmentIndex(int id) {
+		long shifted = (long) id + FIRST_SEGMENT_SIZE;
+		return 63 - Long.numberOfLeadingZeros(shifted) - FIRST_SEGMENT_SHIFT;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected static AtomicReferenceArray<PhotoId> getSegment(int segmentIndex) {
+		AtomicReferenceArray<PhotoId> result = ids.get(segmentIndex);
+		if (result == null) {
+			AtomicReferenceArray<PhotoId> newSegment =
+					new AtomicReferenceArray<PhotoId>(FIRST_SEGMENT_SIZE << segmentIndex);
+			result = ids.compareAndSet(segmentIndex, null, newSegment) ? newSegment : ids.get(segmentIndex);
+		}
+		return result;
+	}
+
 	/**
 	 *
 	 */
@@ -131,10 +174,13 @@ public class PhotoId implements Serializable {
 	}
 
 	/**
-	 *
+	 * Returns NULL_ID as long as fewer than two ids have been handed out
 	 */
 	public static PhotoId getRandomId() {
 		int max = getCurrentIdAsInt() - 1;
+		if (max <= 0) {
+			return NULL_ID;
+		}
 		int id = randomNumber.nextInt();
 		id = (id == Integer.MIN_VALUE) ? id++ : id;
 		id = (Math.abs(id) % max) + 1;
@@ -155,6 +201,13 @@ public class PhotoId implements Serializable {
 		stringValue = getFromInt(myValue);
 	}
 
+	/**
+	 * Keeps deserialized ids shared, like the ones created by getIdFromInt()
+	 */
+	protected Object readResolve() {
+		return getIdFromInt(value);
+	}
+
 	/**
 	 *
 	 */
@@ -208,22 +261,17 @@ public class PhotoId implements Serializable {
 	 *
 	 */
 	public static String getFromInt(int id) {
-		StringBuffer result = new StringBuffer(10);
+		// filled from the end, as the digits are computed least significant first
+		char[] result = new char[8];
+		int position = result.length;
 
 		id += ID_START;
 		for (; id > 0; id = id / 36) {
-			char letterOrDigit;
-			int modulus = id % 36;
-			if (modulus < 10) {
-				letterOrDigit = (char) ((int) '0' + modulus);
-			} else {
-				letterOrDigit = (char) ((int) 'a' - 10 + modulus);
-			}
-			result.insert(0, letterOrDigit);
-
+			result[--position] = DIGITS[id % 36];
 		}
+		result[--position] = 'x';
 
-		return "x" + result.toString();
+		return new String(result, position, result.length - position);
 	}
 
 	/**
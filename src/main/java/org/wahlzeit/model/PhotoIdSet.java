@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.wahlzeit.utils.CompressedBitmap;
+
+import java.io.Serializable;
+
+/**
+ * A set of photo ids backed by a compressed bitmap of their int values. Not thread-safe.
+ */
+public class PhotoIdSet implements Serializable {
+
+	/**
+	 *
+	 */
+	protected CompressedBitmap bitmap;
+
+	/**
+	 *
+	 */
+	public PhotoIdSet() {
+		this(new CompressedBitmap());
+	}
+
+	/**
+	 *
+	 */
+	public PhotoIdSet(CompressedBitmap bitmap) {
+		this.bitmap = bitmap;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void add(PhotoId photoId) {
+		bitmap.add(photoId.asInt());
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void remove(PhotoId photoId) {
+		bitmap.remove(photoId.asInt());
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean contains(PhotoId photoId) {
+		return bitmap.contains(photoId.asInt());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return bitmap.getCardinality();
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean isEmpty() {
+		return bitmap.isEmpty();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		bitmap.clear();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the id with the given rank in ascending order.
+	 */
+	public PhotoId get(int rank) {
+		return PhotoId.getIdFromInt(bitmap.select(rank));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public CompressedBitmap asBitmap() {
+		return bitmap;
+	}
+
+}
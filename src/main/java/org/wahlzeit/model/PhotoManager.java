@@ -22,24 +22,34 @@ package org.wahlzeit.model;
 
 import com.google.appengine.api.images.Image;
 import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
 import com.googlecode.objectify.Work;
 import org.wahlzeit.model.parliament.ParliamentPhotoManager;
 import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.services.DataObject;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
 import org.wahlzeit.services.Persistent;
+import org.wahlzeit.services.cache.BoundedCache;
+import org.wahlzeit.services.cache.CacheStatistics;
+import org.wahlzeit.services.cache.EvictionPolicy;
+import org.wahlzeit.services.cache.LruEvictionPolicy;
+import org.wahlzeit.services.cache.TinyLfuEvictionPolicy;
+import org.wahlzeit.utils.CompressedBitmap;
 import org.wahlzeit.utils.DesignPattern;
 
 import java.io.IOException;
-import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -65,23 +75,72 @@ public class PhotoManager extends ObjectManager {
 		}
 	}
 
+	private static final Logger log = Logger.getLogger(PhotoManager.class.getName());
+
 	/**
 	 *
 	 */
 	protected static final ParliamentPhotoManager instance = new ParliamentPhotoManager();
 
-	private static final Logger log = Logger.getLogger(PhotoManager.class.getName());
+	/**
+	 * System properties configuring the photo cache; a byte budget takes precedence over an entry budget
+	 */
+	public static final String PHOTO_CACHE_MAX_ENTRIES = "wahlzeit.photoCache.maxEntries";
+	public static final String PHOTO_CACHE_MAX_BYTES = "wahlzeit.photoCache.maxBytes";
+	public static final String PHOTO_CACHE_POLICY = "wahlzeit.photoCache.policy";
+	public static final String PHOTO_CACHE_MAX_MISSING_IDS = "wahlzeit.photoCache.maxMissingIds";
+
+	/**
+	 * System property with the number of photos read from the datastore at a time during startup
+	 */
+	public static final String LOAD_PAGE_SIZE = "wahlzeit.startup.photoPageSize";
+	public static final int DEFAULT_LOAD_PAGE_SIZE = 500;
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_PHOTO_CACHE_MAX_ENTRIES = 10000;
+	public static final String DEFAULT_PHOTO_CACHE_POLICY = TinyLfuEvictionPolicy.NAME;
+	public static final int DEFAULT_PHOTO_CACHE_MAX_MISSING_IDS = 10000;
+
+	/**
+	 * Unknown ids are looked up again after this time, as another instance may have created the photo meanwhile
+	 */
+	protected static final long MISSING_PHOTO_ID_MILLIS = 60 * 1000;
+
+	/**
+	 * Rough heap footprint of a photo without unsaved images; saved ones live in the ImageCache
+	 */
+	protected static final long PHOTO_BASE_WEIGHT = 1024;
+
+	/**
+	 * In-memory cache for photos; photos with unsaved changes are never evicted
+	 */
+	protected BoundedCache<PhotoId, Photo> photoCache = createPhotoCache();
 
 	/**
-	 * In-memory cache for photos
+	 * Ids recently not found in the datastore, with the time of the lookup, so that requests for unknown ids do not
+	 * query the datastore every time
 	 */
-	protected Map<PhotoId, Photo> photoCache = new HashMap<PhotoId, Photo>();
+	protected BoundedCache<PhotoId, Long> missingPhotoIds = new BoundedCache<PhotoId, Long>(
+			Math.max(1, Integer.getInteger(PHOTO_CACHE_MAX_MISSING_IDS, DEFAULT_PHOTO_CACHE_MAX_MISSING_IDS)),
+			new LruEvictionPolicy<PhotoId>());
 
 	/**
 	 *
 	 */
 	protected PhotoTagCollector photoTagCollector = null;
 
+	/**
+	 * Maps filter conditions to photos, mirroring the Tag entities in the datastore
+	 */
+	protected TagIndex tagIndex = new TagIndex();
+
+	/**
+	 * Int ids of all photos whose status is displayable, cached or not; guarded by itself
+	 */
+	protected final CompressedBitmap displayablePhotoIds = new CompressedBitmap();
+
 	/**
 	 *
 	 */
@@ -96,6 +155,42 @@ public class PhotoManager extends ObjectManager {
 		return instance;
 	}
 
+	/**
+	 * @methodtype factory
+	 */
+	protected BoundedCache<PhotoId, Photo> createPhotoCache() {
+		EvictionPolicy<PhotoId> policy =
+				BoundedCache.createEvictionPolicy(System.getProperty(PHOTO_CACHE_POLICY, DEFAULT_PHOTO_CACHE_POLICY));
+		Long maxBytes = Long.getLong(PHOTO_CACHE_MAX_BYTES);
+		// unsaved photos and photos whose owner is yet to be notified about new praise must stay cached
+		BiPredicate<PhotoId, Photo> isEvictable =
+				(id, photo) -> !photo.isDirty() && !photo.hasPendingPraiseNotification();
+
+		BoundedCache<PhotoId, Photo> result;
+		if (maxBytes != null) {
+			result = new BoundedCache<PhotoId, Photo>(maxBytes, policy, (id, photo) -> getEstimatedSize(photo), isEvictable);
+		} else {
+			long maxEntries = Integer.getInteger(PHOTO_CACHE_MAX_ENTRIES, DEFAULT_PHOTO_CACHE_MAX_ENTRIES);
+			result = new BoundedCache<PhotoId, Photo>(maxEntries, policy, BoundedCache.UNIT_WEIGHER, isEvictable);
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("photo cache policy", result.getPolicyName()).
+				addParameter("photo cache budget", result.getMaximumWeight()).log();
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected static long getEstimatedSize(Photo photo) {
+		long result = PHOTO_BASE_WEIGHT;
+		for (Image image : photo.images.values()) {
+			result += image.getImageData().length;
+		}
+		return result;
+	}
+
 	/**
 	 *
 	 */
@@ -121,22 +216,34 @@ public class PhotoManager extends ObjectManager {
 	 *
 	 */
 	public Photo getPhotoFromId(PhotoId id) {
-		if (id == null) {
+		if ((id == null) || id.isNullId()) {
 			return null;
+		} else if (isMissingPhotoId(id)) {
+			// unless the photo has been added since
+			return photoCache.getIfPresent(id);
 		}
 
-		Photo result = doGetPhotoFromId(id);
-
+		Photo result = photoCache.get(id, this::loadPhoto);
 		if (result == null) {
-			result = PhotoFactory.getInstance().loadPhoto(id);
-			if (result != null) {
-				doAddPhoto(result);
-			}
+			missingPhotoIds.put(id, System.currentTimeMillis());
 		}
-
 		return result;
 	}
 
+	/**
+	 * @methodtype boolean query
+	 */
+	protected boolean isMissingPhotoId(PhotoId id) {
+		Long lookupTime = missingPhotoIds.getIfPresent(id);
+		if (lookupTime == null) {
+			return false;
+		} else if (System.currentTimeMillis() - lookupTime >= MISSING_PHOTO_ID_MILLIS) {
+			missingPhotoIds.remove(id);
+			return false;
+		}
+		return true;
+	}
+
 	/**
 	 * @methodtype get
 	 * @methodproperties primitive
@@ -145,12 +252,57 @@ public class PhotoManager extends ObjectManager {
 		return photoCache.get(id);
 	}
 
+	/**
+	 * @methodtype get
+	 *
+	 * Reloads a photo that is not (or no longer) cached; its images are loaded on demand by the ImageCache.
+	 */
+	protected Photo loadPhoto(PhotoId id) {
+		return getPhotoFactory().loadPhoto(id);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected PhotoFactory getPhotoFactory() {
+		return PhotoFactory.getInstance();
+	}
+
 	/**
 	 * @methodtype command
 	 * @methodproperties primitive
 	 */
 	protected void doAddPhoto(Photo myPhoto) {
 		photoCache.put(myPhoto.getId(), myPhoto);
+		missingPhotoIds.remove(myPhoto.getId());
+		updateDisplayablePhotoIds(myPhoto);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Called whenever a photo is added or its status changed.
+	 */
+	public void updateDisplayablePhotoIds(Photo photo) {
+		int id = photo.getId().asInt();
+		synchronized (displayablePhotoIds) {
+			if (photo.isVisible()) {
+				displayablePhotoIds.add(id);
+			} else {
+				displayablePhotoIds.remove(id);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns a new bitmap of all displayable photos except for the excluded ones.
+	 */
+	public CompressedBitmap getDisplayablePhotoIdsExcept(CompressedBitmap excluded) {
+		synchronized (displayablePhotoIds) {
+			return displayablePhotoIds.andNot(excluded);
+		}
 	}
 
 	/**
@@ -170,72 +322,150 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * @methodtype command
 	 *
-	 * Load all persisted photos. Executed when Wahlzeit is restarted.
+	 * Load all persisted photos, page by page. Executed when Wahlzeit is restarted. Images are not loaded here, but
+	 * by the ImageCache on first access or by warmImages.
 	 */
 	public void loadPhotos() {
-		Collection<Photo> existingPhotos = ObjectifyService.run(new Work<Collection<Photo>>() {
+		int pageSize = Math.max(1, Integer.getInteger(LOAD_PAGE_SIZE, DEFAULT_LOAD_PAGE_SIZE));
+		Map<Integer, Set<String>> conditionsByPhoto = new HashMap<Integer, Set<String>>();
+		ObjectifyService.run(new VoidWork() {
 			@Override
-			public Collection<Photo> run() {
-				Collection<Photo> existingPhotos = new ArrayList<Photo>();
-				readObjects(existingPhotos, Photo.class);
-				return existingPhotos;
+			public void vrun() {
+				readObjectsInPages(Photo.class, pageSize, page -> addLoadedPhotos(page, conditionsByPhoto));
 			}
 		});
 
-		for (Photo photo : existingPhotos) {
+		tagIndex.rebuild(conditionsByPhoto);
+
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addMessage("All photos loaded.").
+				addParameter("number of photos", conditionsByPhoto.size()).log();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void addLoadedPhotos(Collection<Photo> photos, Map<Integer, Set<String>> conditionsByPhoto) {
+		for (Photo photo : photos) {
+			Set<String> conditions = new HashSet<String>();
+			photoTagCollector.collect(conditions, photo);
+			conditionsByPhoto.put(photo.getId().asInt(), conditions);
+
 			if (!doHasPhoto(photo.getId())) {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Load Photo with ID", photo.getIdAsString()).toString());
-				loadScaledImages(photo);
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addParameter("Load Photo with ID", photo.getIdAsString()).log();
+				// freshly loaded, so nothing to write back and nothing to pin in the cache
+				photo.resetWriteCount();
 				doAddPhoto(photo);
 			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Already loaded Photo", photo.getIdAsString()).toString());
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addParameter("Already loaded Photo", photo.getIdAsString()).log();
 			}
 		}
-
-		log.info(LogBuilder.createSystemMessage().addMessage("All photos loaded.").toString());
 	}
 
 	/**
-	 * @methodtype boolean-query
-	 * @methodproperty primitive
+	 * @methodtype command
+	 *
+	 * Restores photos, displayable ids and tag index from a model snapshot instead of the datastore; the restored
+	 * photos are clean.
 	 */
-	protected boolean doHasPhoto(PhotoId id) {
-		return photoCache.containsKey(id);
+	public void restorePhotos(Collection<Photo> photos, CompressedBitmap displayable,
+			Map<Integer, Set<String>> conditionsByPhoto) {
+		for (Photo photo : photos) {
+			photoCache.put(photo.getId(), photo);
+		}
+		synchronized (displayablePhotoIds) {
+			displayablePhotoIds.clear();
+			for (int id : displayable.toArray()) {
+				displayablePhotoIds.add(id);
+			}
+		}
+		tagIndex.rebuild(conditionsByPhoto);
+
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addMessage("Photos restored from snapshot.").
+				addParameter("number of photos", conditionsByPhoto.size()).log();
 	}
 
 	/**
 	 * @methodtype command
 	 *
-	 * Loads all scaled Images of this Photo from Google Cloud Storage
+	 * Reloads the photos saved since the given time, e.g. by other instances after a model snapshot was taken, and
+	 * reindexes them. Returns the number of photos reloaded.
 	 */
-	protected void loadScaledImages(Photo photo) {
-		String photoIdAsString = photo.getId().asString();
-		ImageStorage imageStorage = ImageStorage.getInstance();
+	public int loadPhotosModifiedSince(long time) {
+		List<Photo> photos = new ArrayList<Photo>();
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				readObjects(photos, Photo.class, DataObject.MODIFICATION_TIME + " >", time);
+			}
+		});
 
-		for (PhotoSize photoSize : PhotoSize.values()) {
-			log.config(LogBuilder.createSystemMessage().
-					addAction("loading image").
-					addParameter("image size", photoSize.asString()).
-					addParameter("photo ID", photoIdAsString).toString());
-			if (imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
-				try {
-					Serializable rawImage = imageStorage.readImage(photoIdAsString, photoSize.asInt());
-					if (rawImage != null && rawImage instanceof Image) {
-						photo.setImage(photoSize, (Image) rawImage);
-					}
-				} catch (IOException e) {
-					log.warning(LogBuilder.createSystemMessage().
-							addParameter("size", photoSize.asString()).
-							addParameter("photo ID", photoIdAsString).
-							addException("Could not load image although it exists", e).toString());
-				}
-			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Size does not exist", photoSize.asString()).toString());
+		for (Photo photo : photos) {
+			Set<String> conditions = new HashSet<String>();
+			photoTagCollector.collect(conditions, photo);
+			tagIndex.update(photo.getId().asInt(), conditions);
+			photo.resetWriteCount();
+			doAddPhoto(photo);
+		}
+
+		return photos.size();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns a copy of the int ids of all displayable photos.
+	 */
+	public CompressedBitmap getDisplayablePhotoIds() {
+		synchronized (displayablePhotoIds) {
+			return displayablePhotoIds.copy();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns a copy of the filter conditions of all indexed photos.
+	 */
+	public Map<Integer, Set<String>> getTagConditions() {
+		return tagIndex.getAllConditions();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Loads the images of the given sizes of the most voted-on displayable photos into the ImageCache, most popular
+	 * first, until done or the current thread is interrupted. Returns the number of photos warmed.
+	 */
+	public int warmImages(int maxPhotos, PhotoSize... sizes) {
+		List<Photo> photos = new ArrayList<Photo>(photoCache.asMap().values());
+		photos.removeIf(photo -> !photo.isVisible());
+		photos.sort((p1, p2) -> Integer.compare(p2.getNoVotes(), p1.getNoVotes()));
+
+		ImageCache imageCache = ImageCache.getInstance();
+		int result = 0;
+		for (Photo photo : photos) {
+			if ((result >= maxPhotos) || Thread.currentThread().isInterrupted()) {
+				break;
+			}
+			for (PhotoSize size : sizes) {
+				imageCache.getImageData(photo.getId(), size);
 			}
+			result++;
 		}
+
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 * @methodproperty primitive
+	 */
+	protected boolean doHasPhoto(PhotoId id) {
+		return photoCache.containsKey(id);
 	}
 
 	/**
@@ -245,6 +475,15 @@ public class PhotoManager extends ObjectManager {
 		updateObject(photo);
 	}
 
+	/**
+	 * @methodtype command
+	 *
+	 * Writes the photo with the next write-behind flush; the photo stays pinned in the cache until then.
+	 */
+	public void savePhotoLater(Photo photo) {
+		scheduleWrite(photo);
+	}
+
 	@Override
 	protected void updateDependents(Persistent obj) {
 		if (obj instanceof Photo) {
@@ -258,18 +497,20 @@ public class PhotoManager extends ObjectManager {
 	}
 
 	/**
-	 * @methodtype helper
+	 * @methodtype get
+	 *
+	 * Returns the sorted int ids of all photos that match every one of the filter conditions, without asking the
+	 * datastore.
 	 */
-	public List<Tag> addTagsThatMatchCondition(List<Tag> tags, String condition) {
-		readObjects(tags, Tag.class, Tag.TEXT, condition);
-		return tags;
+	public int[] findPhotoIdsMatchingAll(Collection<String> conditions) {
+		return tagIndex.findAll(conditions);
 	}
 
 	/**
 	 * @methodtype command
 	 *
 	 * Persists all available sizes of the Photo. If one size exceeds the limit of the persistence layer, e.g. > 1MB for
-	 * the Datastore, it is simply not persisted.
+	 * the Datastore, it is simply not persisted. Persisted images are handed over to the ImageCache.
 	 */
 	protected void saveScaledImages(Photo photo) {
 		String photoIdAsString = photo.getId().asString();
@@ -280,20 +521,22 @@ public class PhotoManager extends ObjectManager {
 		do{
 			photoSize = PhotoSize.values()[it];
 			it++;
-			Image image = photo.getImage(photoSize);
+			Image image = photo.images.get(photoSize);
 			if (image != null) {
 				try {
 					if (!imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
 						imageStorage.writeImage(image, photoIdAsString, photoSize.asInt());
 					}
+					ImageCache.getInstance().putImage(photo.getId(), photoSize, image);
+					photo.images.remove(photoSize);
 				} catch (Exception e) {
-					log.warning(LogBuilder.createSystemMessage().
-							addException("Problem when storing image", e).toString());
+					LogBuilder.createSystemMessage(log, Level.WARNING).
+							addException("Problem when storing image", e).log();
 					moreSizesExist = false;
 				}
 			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("No image for size", photoSize.asString()).toString());
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addParameter("No image for size", photoSize.asString()).log();
 				moreSizesExist = false;
 			}
 		} while (it < PhotoSize.values().length && moreSizesExist);
@@ -301,34 +544,77 @@ public class PhotoManager extends ObjectManager {
 
 	/**
 	 * Removes all tags of the Photo (obj) in the datastore that have been removed by the user and adds all new tags of
-	 * the photo to the datastore.
+	 * the photo to the datastore. The tags the photo is indexed under are the ones persisted by the last save, so only
+	 * the difference is written; nothing is done if the tags did not change.
 	 */
 	protected void updateTags(Photo photo) {
-		// delete all existing tags, for the case that some have been removed
-		deleteObjects(Tag.class, Tag.PHOTO_ID, photo.getId().asString());
-
-		// add all current tags to the datastore
 		Set<String> tags = new HashSet<String>();
 		photoTagCollector.collect(tags, photo);
-		for (Iterator<String> i = tags.iterator(); i.hasNext(); ) {
-			Tag tag = new Tag(i.next(), photo.getId().asString());
-			log.config(LogBuilder.createSystemMessage().addParameter("Writing Tag", tag.asString()).toString());
-			writeObject(tag);
+
+		int photoId = photo.getId().asInt();
+		Set<String> persistedTags = tagIndex.getConditions(photoId);
+		if (tags.equals(persistedTags)) {
+			return;
+		}
+
+		String photoIdAsString = photo.getId().asString();
+		if (persistedTags == null) {
+			// never saved or indexed, so replace whatever might be in the datastore
+			deleteObjects(Tag.class, Tag.PHOTO_ID, photoIdAsString);
+			persistedTags = Collections.emptySet();
+		}
+
+		List<Tag> removedTags = new ArrayList<Tag>();
+		if (!tags.containsAll(persistedTags)) {
+			List<Tag> storedTags = new ArrayList<Tag>();
+			readObjects(storedTags, Tag.class, Tag.PHOTO_ID, photoIdAsString);
+			for (Tag tag : storedTags) {
+				if (!tags.contains(tag.getText())) {
+					removedTags.add(tag);
+				}
+			}
+		}
+
+		List<Tag> addedTags = new ArrayList<Tag>();
+		for (String tag : tags) {
+			if (!persistedTags.contains(tag)) {
+				addedTags.add(new Tag(tag, photoIdAsString));
+			}
 		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Update tags of photo", photoIdAsString).
+				addParameter("added", addedTags.size()).
+				addParameter("removed", removedTags.size()).log();
+		deleteObjects(removedTags);
+		writeObjects(addedTags);
+
+		tagIndex.update(photoId, tags);
 	}
 
 	/**
 	 *
 	 */
 	public void savePhotos() throws IOException{
-		updateObjects(photoCache.values());
+		updateObjects(new ArrayList<Photo>(photoCache.asMap().values()));
+		// saved photos are no longer pinned
+		photoCache.cleanUp();
 	}
 
 	/**
 	 * @methodtype get
+	 *
+	 * Returns a read-only view of the cached photos.
 	 */
 	public Map<PhotoId, Photo> getPhotoCache() {
-		return photoCache;
+		return photoCache.asMap();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public CacheStatistics getPhotoCacheStatistics() {
+		return photoCache.getStatistics();
 	}
 
 	/**
@@ -375,8 +661,6 @@ public class PhotoManager extends ObjectManager {
 		PhotoId id = photo.getId();
 		assertIsNewPhoto(id);
 		doAddPhoto(photo);
-
-		GlobalsManager.getInstance().saveGlobals();
 	}
 
 	/**
@@ -27,6 +27,7 @@ import com.google.appengine.api.images.Transform;
 import org.wahlzeit.model.parliament.ParliamentPhotoFactory;
 import org.wahlzeit.services.LogBuilder;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -105,7 +106,7 @@ public class PhotoUtil {
 
 		photo.setImage(size, newImage);
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Scaled image to size", size.asString()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Scaled image to size", size.asString()).log();
 	}
 
 }
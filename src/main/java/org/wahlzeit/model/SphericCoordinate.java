@@ -81,6 +81,15 @@ public class SphericCoordinate extends AbstractCoordinate {
 		return objects.computeIfAbsent(hash, key -> new SphericCoordinate(phi, theta, radius));
 	}
 
+	/**
+	 * Keeps deserialized coordinates shared, like the ones created by getInstance()
+	 *
+	 * @methodtype factory
+	 */
+	protected Object readResolve() {
+		return getInstance(phi, theta, radius);
+	}
+
 	/**
 	 * Converts this spheric coordinate to an equal cartesian coordinate
 	 *
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An in-memory inverted index from filter conditions ("un:..." and "tg:..." as produced by the PhotoTagCollector) to
+ * the sorted int ids of all photos carrying them. Posting lists are immutable arrays that are replaced on update, so
+ * lookups never lock; updates are serialized.
+ */
+public class TagIndex {
+
+	/**
+	 *
+	 */
+	protected static final int[] NO_PHOTOS = new int[0];
+
+	/**
+	 *
+	 */
+	protected final ConcurrentHashMap<String, int[]> postings = new ConcurrentHashMap<String, int[]>();
+
+	/**
+	 * The conditions each photo is currently indexed under, needed to remove stale ones on update
+	 */
+	protected final ConcurrentHashMap<Integer, Set<String>> photoConditions = new ConcurrentHashMap<Integer, Set<String>>();
+
+	/**
+	 * @methodtype command
+	 *
+	 * Indexes the photo under exactly the given conditions.
+	 */
+	public synchronized void update(int photoId, Set<String> conditions) {
+		Set<String> newConditions = new HashSet<String>(conditions);
+		Set<String> oldConditions = photoConditions.put(photoId, newConditions);
+
+		if (oldConditions != null) {
+			for (String condition : oldConditions) {
+				if (!newConditions.contains(condition)) {
+					removePosting(condition, photoId);
+				}
+			}
+		}
+
+		for (String condition : newConditions) {
+			if ((oldConditions == null) || !oldConditions.contains(condition)) {
+				addPosting(condition, photoId);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Replaces the whole index in one go; much cheaper than updating photo by photo, e.g. at startup.
+	 */
+	public synchronized void rebuild(Map<Integer, Set<String>> conditionsByPhoto) {
+		Map<String, int[]> lists = new HashMap<String, int[]>();
+		Map<String, Integer> lengths = new HashMap<String, Integer>();
+		for (Map.Entry<Integer, Set<String>> entry : conditionsByPhoto.entrySet()) {
+			for (String condition : entry.getValue()) {
+				int length = lengths.getOrDefault(condition, 0);
+				int[] list = lists.get(condition);
+				if ((list == null) || (length == list.length)) {
+					list = (list == null) ? new int[4] : Arrays.copyOf(list, length * 2);
+					lists.put(condition, list);
+				}
+				list[length] = entry.getKey();
+				lengths.put(condition, length + 1);
+			}
+		}
+
+		postings.clear();
+		for (Map.Entry<String, int[]> entry : lists.entrySet()) {
+			int[] list = Arrays.copyOf(entry.getValue(), lengths.get(entry.getKey()));
+			Arrays.sort(list);
+			postings.put(entry.getKey(), list);
+		}
+
+		photoConditions.clear();
+		for (Map.Entry<Integer, Set<String>> entry : conditionsByPhoto.entrySet()) {
+			photoConditions.put(entry.getKey(), new HashSet<String>(entry.getValue()));
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void remove(int photoId) {
+		Set<String> oldConditions = photoConditions.remove(photoId);
+		if (oldConditions != null) {
+			for (String condition : oldConditions) {
+				removePosting(condition, photoId);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void clear() {
+		postings.clear();
+		photoConditions.clear();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the sorted ids of all photos matching every one of the conditions. The returned array must not be
+	 * modified.
+	 */
+	public int[] findAll(Collection<String> conditions) {
+		if (conditions.isEmpty()) {
+			return NO_PHOTOS;
+		}
+
+		int[][] lists = new int[conditions.size()][];
+		int i = 0;
+		for (String condition : conditions) {
+			int[] list = postings.get(condition);
+			if (list == null) {
+				return NO_PHOTOS;
+			}
+			lists[i++] = list;
+		}
+
+		// start with the shortest list, so every further step is bounded by the result so far
+		Arrays.sort(lists, (a, b) -> Integer.compare(a.length, b.length));
+		int[] result = lists[0];
+		for (i = 1; (i < lists.length) && (result.length > 0); i++) {
+			result = intersect(result, lists[i]);
+		}
+
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the conditions the photo is indexed under, or null if it is not indexed.
+	 */
+	public Set<String> getConditions(int photoId) {
+		Set<String> result = photoConditions.get(photoId);
+		return (result == null) ? null : Collections.unmodifiableSet(result);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns a copy of the conditions of all indexed photos, suitable for rebuild().
+	 */
+	public synchronized Map<Integer, Set<String>> getAllConditions() {
+		Map<Integer, Set<String>> result = new HashMap<Integer, Set<String>>();
+		for (Map.Entry<Integer, Set<String>> entry : photoConditions.entrySet()) {
+			result.put(entry.getKey(), new HashSet<String>(entry.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNumberOfPhotos(String condition) {
+		int[] list = postings.get(condition);
+		return (list == null) ? 0 : list.length;
+	}
+
+	/**
+	 * @methodtype helper
+	 *
+	 * Intersects a short with a long sorted list by binary searching each element of the short one in the remaining
+	 * part of the long one.
+	 */
+	protected static int[] intersect(int[] shorter, int[] longer) {
+		int[] result = new int[shorter.length];
+		int length = 0;
+		int from = 0;
+		for (int id : shorter) {
+			int index = Arrays.binarySearch(longer, from, longer.length, id);
+			if (index >= 0) {
+				result[length++] = id;
+				from = index + 1;
+			} else {
+				from = -index - 1;
+			}
+			if (from >= longer.length) {
+				break;
+			}
+		}
+
+		return (length == result.length) ? result : Arrays.copyOf(result, length);
+	}
+
+	/**
+	 *
+	 */
+	protected void addPosting(String condition, int photoId) {
+		postings.compute(condition, (key, list) -> {
+			if (list == null) {
+				return new int[] { photoId };
+			}
+
+			int index = Arrays.binarySearch(list, photoId);
+			if (index >= 0) {
+				return list;
+			}
+
+			index = -index - 1;
+			int[] result = new int[list.length + 1];
+			System.arraycopy(list, 0, result, 0, index);
+			result[index] = photoId;
+			System.arraycopy(list, index, result, index + 1, list.length - index);
+			return result;
+		});
+	}
+
+	/**
+	 *
+	 */
+	protected void removePosting(String condition, int photoId) {
+		postings.computeIfPresent(condition, (key, list) -> {
+			int index = Arrays.binarySearch(list, photoId);
+			if (index < 0) {
+				return list;
+			} else if (list.length == 1) {
+				return null;
+			}
+
+			int[] result = new int[list.length - 1];
+			System.arraycopy(list, 0, result, 0, index);
+			System.arraycopy(list, index + 1, result, index, list.length - index - 1);
+			return result;
+		});
+	}
+
+}
@@ -22,6 +22,7 @@ package org.wahlzeit.model;
 
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
+import org.wahlzeit.services.DataObject;
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.mailing.EmailService;
@@ -31,6 +32,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -56,7 +58,7 @@ public class UserManager extends ClientManager {
 	/**
 	 *
 	 */
-	protected static UserManager instance;
+	protected static UserManager instance = new UserManager();
 
 	/**
 	 *
@@ -68,9 +70,6 @@ public class UserManager extends ClientManager {
 	 *
 	 */
 	public static UserManager getInstance() {
-		if (instance == null) {
-			instance = new UserManager();
-		}
 		return instance;
 	}
 
@@ -89,18 +88,52 @@ public class UserManager extends ClientManager {
 				readObjects(existingUser, User.class);
 
 				for (User user : existingUser) {
-					if (!hasClientById(user.getId())) {
-						doAddClient(user);
-					} else {
-						log.config(LogBuilder.createSystemMessage().addParameter("user has been loaded", user.getId())
-								.toString());
+					User known = addLoadedUser(user);
+					if ((known != null) && (known != user)) {
+						LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("user has been loaded", user.getId())
+								.log();
 					}
 				}
 				return null;
 			}
 		});
 
-		log.info(LogBuilder.createSystemMessage().addMessage("loaded all clients").toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).addMessage("loaded all clients").log();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Reloads the users saved since the given time, e.g. by other instances after a model snapshot was taken.
+	 * Returns the number of users reloaded.
+	 */
+	public int loadUsersModifiedSince(long time) {
+		Collection<User> users = ObjectifyService.run(new Work<Collection<User>>() {
+			@Override
+			public Collection<User> run() {
+				Collection<User> result = new ArrayList<User>();
+				readObjects(result, User.class, DataObject.MODIFICATION_TIME + " >", time);
+				return result;
+			}
+		});
+
+		restoreClients(users);
+		return users.size();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns all known users, i.e. the clients that are persisted.
+	 */
+	public List<User> getUsers() {
+		List<User> result = new ArrayList<User>();
+		for (Client client : getClients()) {
+			if (client instanceof User) {
+				result.add((User) client);
+			}
+		}
+		return result;
 	}
 
 	/**
@@ -143,17 +176,32 @@ public class UserManager extends ClientManager {
 		result = readObject(User.class, User.EMAIL_ADDRESS, emailAddress.asString());
 
 		if (result != null) {
-			User current = getUserById(result.getId());
-			if (current == null) {
-				doAddClient(result);
-			} else {
-				result = current;
-			}
+			result = addLoadedUser(result);
 		}
 
 		return result;
 	}
 
+	/**
+	 * @methodtype set
+	 *
+	 * Adds a user read from the datastore unless it is known already, and returns the known one then. A user whose
+	 * nickname is taken by another client is not added, and null is returned.
+	 */
+	protected User addLoadedUser(User user) {
+		Client known;
+		try {
+			known = doAddClient(user);
+		} catch (IllegalArgumentException ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("user not added", user.getId()).
+					addException("nickname already used", ex).log();
+			return null;
+		}
+
+		return (known instanceof User) ? (User) known : user;
+	}
+
 	/**
 	 * @methodtype get
 	 */
@@ -151,10 +151,17 @@ public class UserSession extends Session implements Serializable {
 
 	/**
 	 * @methodtype get
+	 *
+	 * Guests are only kept in memory for a while, so a session whose guest has expired gets a new one.
 	 */
 	public Client getClient() {
 		String clientName = (String) httpSession.getAttribute(CLIENT_ID);
-		return UserManager.getInstance().getClientById(clientName);
+		Client result = (clientName == null) ? null : UserManager.getInstance().getClientById(clientName);
+		if (result == null) {
+			result = new Guest();
+			setClient(result);
+		}
+		return result;
 	}
 
 	/**
@@ -22,6 +22,7 @@ package org.wahlzeit.model.parliament;
 
 
 import com.googlecode.objectify.ObjectifyService;
+import org.wahlzeit.services.DataObject;
 import org.wahlzeit.services.ObjectManager;
 
 import java.util.*;
@@ -99,6 +100,55 @@ public class ParliamentManager extends ObjectManager {
 		}
 	}
 
+	/**
+	 * @methodtype command
+	 *
+	 * Reloads the parliaments and types saved since the given time, e.g. after restoring a model snapshot.
+	 */
+	public void loadModifiedSince(long time) {
+		String filter = DataObject.MODIFICATION_TIME + " >";
+		Collection<ParliamentType> types = ObjectifyService.run(() -> {
+			Collection<ParliamentType> typesDB = new ArrayList<>();
+			readObjects(typesDB, ParliamentType.class, filter, time);
+			return typesDB;
+		});
+		Collection<Parliament> existingParliaments = ObjectifyService.run(() -> {
+			Collection<Parliament> parliamentsDB = new ArrayList<>();
+			readObjects(parliamentsDB, Parliament.class, filter, time);
+			return parliamentsDB;
+		});
+
+		restore(types, existingParliaments);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Adds parliament types and parliaments, e.g. from a model snapshot, replacing known ones.
+	 */
+	public void restore(Collection<ParliamentType> types, Collection<Parliament> existingParliaments) {
+		for (ParliamentType type : types) {
+			parliamentTypes.put(type.getArchitectureStyle(), type);
+		}
+		for (Parliament parliament : existingParliaments) {
+			parliaments.put(parliament.getId(), parliament);
+		}
+	}
+
+	/**
+	 * @methodtype getter
+	 */
+	public List<ParliamentType> getParliamentTypes() {
+		return new ArrayList<>(parliamentTypes.values());
+	}
+
+	/**
+	 * @methodtype getter
+	 */
+	public List<Parliament> getParliaments() {
+		return new ArrayList<>(parliaments.values());
+	}
+
 	public void save() {
 		updateObjects(parliamentTypes.values());
 		updateObjects(parliaments.values());
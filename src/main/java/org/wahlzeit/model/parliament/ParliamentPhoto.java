@@ -31,6 +31,8 @@ public class ParliamentPhoto extends Photo {
 
 	/**
 	 * @methodtype constructor
+	 *
+	 * Used by Objectify, see Photo()
 	 */
 	public ParliamentPhoto() {
 		super();
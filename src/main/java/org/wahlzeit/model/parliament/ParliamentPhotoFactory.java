@@ -24,6 +24,7 @@ import org.wahlzeit.model.PhotoFactory;
 import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.services.LogBuilder;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -57,7 +58,7 @@ public class ParliamentPhotoFactory extends PhotoFactory {
 	 */
 	public static synchronized ParliamentPhotoFactory getInstance() {
 		if (instance == null) {
-			log.config(LogBuilder.createSystemMessage().addAction("setting ParliamentPhotoFactory").toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("setting ParliamentPhotoFactory").log();
 			setInstance(new ParliamentPhotoFactory());
 		}
 
@@ -79,7 +80,7 @@ public class ParliamentPhotoFactory extends PhotoFactory {
 	 * @methodtype factory
 	 */
 	public ParliamentPhoto createPhoto() {
-		return new ParliamentPhoto();
+		return createPhoto(PhotoId.getNextId());
 	}
 
 	/**
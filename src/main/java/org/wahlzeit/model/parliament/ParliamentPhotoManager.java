@@ -20,8 +20,7 @@
 
 package org.wahlzeit.model.parliament;
 
-import org.wahlzeit.model.Photo;
-import org.wahlzeit.model.PhotoId;
+import org.wahlzeit.model.PhotoFactory;
 import org.wahlzeit.model.PhotoManager;
 
 import java.util.logging.Logger;
@@ -38,23 +37,11 @@ public class ParliamentPhotoManager extends PhotoManager {
 	}
 
 	/**
-	 *
+	 * @methodtype get
 	 */
-	public Photo getPhotoFromId(PhotoId id) {
-		if (id == null) {
-			return null;
-		}
-
-		Photo result = doGetPhotoFromId(id);
-
-		if (result == null) {
-			result = ParliamentPhotoFactory.getInstance().loadPhoto(id);
-			if (result != null) {
-				doAddPhoto(result);
-			}
-		}
-
-		return result;
+	@Override
+	protected PhotoFactory getPhotoFactory() {
+		return ParliamentPhotoFactory.getInstance();
 	}
 
 }
@@ -22,16 +22,21 @@ package org.wahlzeit.model.persistence;
 
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.OfyService;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -59,11 +64,11 @@ public class DatastoreAdapter extends ImageStorage {
 				}
 			});
 
-			log.config(LogBuilder.createSystemMessage().addMessage("image successfully written").toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully written").log();
 		} else {
-			log.warning(LogBuilder.createSystemMessage().
+			LogBuilder.createSystemMessage(log, Level.WARNING).
 					addMessage("did not get an Image type to store").
-					addParameter("image type", image.toString()).toString());
+					addParameter("image type", image.toString()).log();
 		}
 	}
 
@@ -79,33 +84,61 @@ public class DatastoreAdapter extends ImageStorage {
 		});
 
 		if (imageWrapper == null) {
-			log.info(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
+			LogBuilder.createSystemMessage(log, Level.INFO).addMessage("does not exist!").log();
 		} else {
 			result = imageWrapper.getImage();
 			if (result != null) {
-				log.config(LogBuilder.createSystemMessage().addMessage("image successfully read").toString());
+				LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully read").log();
 			} else {
-				log.warning(LogBuilder.createSystemMessage().addMessage("ImageWrapper contains no Image").toString());
+				LogBuilder.createSystemMessage(log, Level.WARNING).addMessage("ImageWrapper contains no Image").log();
 			}
 		}
 		return result;
 	}
 
+	/**
+	 * Uses a keys-only query, so no image data is loaded.
+	 */
+	@Override
+	protected boolean doDoesImageExist(final String photoIdAsString, final int size) {
+		Key<ImageWrapper> key = ObjectifyService.run(new Work<Key<ImageWrapper>>() {
+			@Override
+			public Key<ImageWrapper> run() {
+				return OfyService.ofy().load().type(ImageWrapper.class).
+						filterKey(Key.create(ImageWrapper.class, photoIdAsString + size)).keys().first().now();
+			}
+		});
+
+		boolean result = key != null;
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("does image exist", result).log();
+		return result;
+	}
+
+	/**
+	 * Looks up the keys of all sizes with one keys-only query.
+	 */
 	@Override
-	protected boolean doDoesImageExist(String photoIdAsString, int size) {
-		Image image = null;
-		boolean result = false;
-		try {
-			image = doReadImage(photoIdAsString, size);
-		} catch (IOException e) {
-			log.warning(
-					LogBuilder.createSystemMessage().addException("IOException when checking for Image existance", e)
-							.toString());
+	protected int doReadStoredSizes(final String photoIdAsString) {
+		final List<Key<ImageWrapper>> keys = new ArrayList<Key<ImageWrapper>>();
+		for (PhotoSize size : PhotoSize.values()) {
+			keys.add(Key.create(ImageWrapper.class, photoIdAsString + size.asInt()));
 		}
-		if (image != null) {
-			result = true;
+
+		List<Key<ImageWrapper>> storedKeys = ObjectifyService.run(new Work<List<Key<ImageWrapper>>>() {
+			@Override
+			public List<Key<ImageWrapper>> run() {
+				return OfyService.ofy().load().type(ImageWrapper.class).filterKey("in", keys).keys().list();
+			}
+		});
+
+		int result = 0;
+		for (Key<ImageWrapper> key : storedKeys) {
+			result |= 1 << Integer.parseInt(key.getName().substring(photoIdAsString.length()));
 		}
-		log.config(LogBuilder.createSystemMessage().addParameter("does image exist", result).toString());
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("photo id", photoIdAsString).
+				addParameter("stored sizes", Integer.toBinaryString(result)).log();
 		return result;
 	}
 
@@ -0,0 +1,161 @@
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Adapter for the local file system, for single-node deployments and local testing. Images are spread over two levels
+ * of shard directories, so no directory grows too large, and are written to a temporary file that is then renamed,
+ * so readers never see a partially written image. Reads map the file into memory instead of copying it onto the heap.
+ * There is no size limit.
+ */
+public class FileSystemAdapter extends ImageStorage {
+
+	private static final Logger log = Logger.getLogger(FileSystemAdapter.class.getName());
+
+	/**
+	 *
+	 */
+	protected static final String FILE_EXTENSION = ".img";
+	protected static final String TEMP_FILE_EXTENSION = ".tmp";
+
+	/**
+	 *
+	 */
+	protected final Path rootDir;
+
+	/**
+	 * Stores the images in the photos directory of the SysConfig
+	 */
+	public FileSystemAdapter() {
+		this(Paths.get(SysConfig.getPhotosDir().asString()));
+	}
+
+	/**
+	 *
+	 */
+	public FileSystemAdapter(Path rootDir) {
+		this.rootDir = rootDir;
+	}
+
+	@Override
+	protected void doWriteImage(Serializable image, String photoIdAsString, int size)
+			throws IOException, InvalidParameterException {
+		if (!(image instanceof Image)) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addMessage("did not get an Image type to store").
+					addParameter("image type", image.toString()).log();
+			return;
+		}
+
+		Path file = getFile(photoIdAsString, size);
+		Files.createDirectories(file.getParent());
+		Path tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), TEMP_FILE_EXTENSION);
+		try {
+			try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+				ByteBuffer data = ByteBuffer.wrap(((Image) image).getImageData());
+				while (data.hasRemaining()) {
+					channel.write(data);
+				}
+				// the content has to be on disk before the rename makes it visible
+				channel.force(true);
+			}
+			moveAtomically(tempFile, file);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("image successfully written", file).log();
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected void moveAtomically(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	@Override
+	protected Image doReadImage(String photoIdAsString, int size) throws IOException {
+		try {
+			return ImagesServiceFactory.makeImage(Files.readAllBytes(getFile(photoIdAsString, size)));
+		} catch (NoSuchFileException e) {
+			LogBuilder.createSystemMessage(log, Level.INFO).addMessage("does not exist!").log();
+			return null;
+		}
+	}
+
+	/**
+	 * Maps the image file read-only into memory. The mapping stays valid after the file is replaced or deleted.
+	 */
+	@Override
+	protected ByteBuffer doReadImageData(String photoIdAsString, int size) throws IOException {
+		try (FileChannel channel = FileChannel.open(getFile(photoIdAsString, size), StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (NoSuchFileException e) {
+			LogBuilder.createSystemMessage(log, Level.INFO).addMessage("does not exist!").log();
+			return null;
+		}
+	}
+
+	@Override
+	protected boolean doDoesImageExist(String photoIdAsString, int size) {
+		boolean result = Files.isRegularFile(getFile(photoIdAsString, size));
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("does image exist", result).log();
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns rootDir/xx/yy/photoId-size.img, with xx and yy taken from the hash of the photo id.
+	 */
+	protected Path getFile(String photoIdAsString, int size) {
+		int hash = photoIdAsString.hashCode();
+		String firstShard = String.format("%02x", (hash >>> 8) & 0xff);
+		String secondShard = String.format("%02x", hash & 0xff);
+		String fileName = asFileName(photoIdAsString) + "-" + size + FILE_EXTENSION;
+		return rootDir.resolve(firstShard).resolve(secondShard).resolve(fileName);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asFileName(String photoIdAsString) {
+		try {
+			return URLEncoder.encode(photoIdAsString, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Path getRootDir() {
+		return rootDir;
+	}
+}
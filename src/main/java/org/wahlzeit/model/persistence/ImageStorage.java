@@ -1,11 +1,19 @@
 package org.wahlzeit.model.persistence;
 
+import com.google.appengine.api.images.Image;
 import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.cache.BoundedCache;
+import org.wahlzeit.services.cache.LruEvictionPolicy;
+import org.wahlzeit.services.metrics.MetricsRegistry;
+import org.wahlzeit.services.metrics.StorageOperation;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -15,9 +23,29 @@ import java.util.logging.Logger;
  */
 public abstract class ImageStorage {
 
+	/**
+	 * System properties
+	 */
+	public static final String MAX_INDEXED_PHOTOS = "wahlzeit.imageStorage.maxIndexedPhotos";
+
+	public static final int DEFAULT_MAX_INDEXED_PHOTOS = 100000;
+
+	/**
+	 * Set in a bitmask of stored sizes once the storage itself has been read into it; without it, the bitmask only
+	 * holds the sizes written since
+	 */
+	protected static final int STORAGE_READ = 1 << 30;
+
 	private static final Logger log = Logger.getLogger(ImageStorage.class.getName());
 	private static ImageStorage instance = null;
 
+	/**
+	 * Existence index: the stored sizes of recently used photo ids, as a bitmask of (1 << size). writeImage adds to it
+	 * after writing, so a bitmask read from storage concurrently is combined with the write instead of hiding it.
+	 */
+	protected final BoundedCache<String, AtomicInteger> storedSizes = new BoundedCache<String, AtomicInteger>(
+			Integer.getInteger(MAX_INDEXED_PHOTOS, DEFAULT_MAX_INDEXED_PHOTOS), new LruEvictionPolicy<String>());
+
 	/**
 	 * @methodtype get
 	 */
@@ -34,9 +62,9 @@ public abstract class ImageStorage {
 	 * @methodtype set
 	 */
 	public static void setInstance(ImageStorage newInstance) {
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("set ImageStorage instance").
-				addParameter("instance", newInstance).toString());
+				addParameter("instance", newInstance).log();
 		instance = newInstance;
 	}
 
@@ -57,13 +85,18 @@ public abstract class ImageStorage {
 		assertValidPhotoId(photoIdAsString);
 		PhotoSize.assertIsValidPhotoSizeAsInt(size);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("write image to storage").
 				addParameter("image", image).
 				addParameter("photo id", photoIdAsString).
-				addParameter("size", size).toString());
+				addParameter("size", size).log();
 
+		long startTime = System.nanoTime();
 		doWriteImage(image, photoIdAsString, size);
+		MetricsRegistry.getInstance().recordStorageCall(Image.class, StorageOperation.WRITE, 1, 1,
+				getNumberOfBytes(image), startTime);
+
+		getStoredSizes(photoIdAsString).accumulateAndGet(1 << size, (a, b) -> a | b);
 	}
 
 	/**
@@ -90,12 +123,16 @@ public abstract class ImageStorage {
 		assertValidPhotoId(photoIdAsString);
 		PhotoSize.assertIsValidPhotoSizeAsInt(size);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("read image from storage").
 				addParameter("photo id", photoIdAsString).
-				addParameter("size", size).toString());
+				addParameter("size", size).log();
 
-		return doReadImage(photoIdAsString, size);
+		long startTime = System.nanoTime();
+		Serializable result = doReadImage(photoIdAsString, size);
+		MetricsRegistry.getInstance().recordStorageCall(Image.class, StorageOperation.READ, 1, (result != null) ? 1 : 0,
+				getNumberOfBytes(result), startTime);
+		return result;
 	}
 
 	/**
@@ -107,6 +144,44 @@ public abstract class ImageStorage {
 	protected abstract Serializable doReadImage(String filename, int size)
 			throws IOException;
 
+	/**
+	 * Reads the bytes of an image via photoId and the size. When the image is not found, null is returned.
+	 *
+	 * @methodtype get
+	 * @methodproperty convenience
+	 */
+	public ByteBuffer readImageData(String photoIdAsString, int size)
+			throws IllegalArgumentException, IOException {
+
+		assertValidPhotoId(photoIdAsString);
+		PhotoSize.assertIsValidPhotoSizeAsInt(size);
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("read image data from storage").
+				addParameter("photo id", photoIdAsString).
+				addParameter("size", size).log();
+
+		long startTime = System.nanoTime();
+		ByteBuffer result = doReadImageData(photoIdAsString, size);
+		MetricsRegistry.getInstance().recordStorageCall(Image.class, StorageOperation.READ, 1, (result != null) ? 1 : 0,
+				(result != null) ? result.remaining() : 0, startTime);
+		return result;
+	}
+
+	/**
+	 * Actually reads the bytes of the specified image. By default they are taken from the Image; storages that can
+	 * provide them without creating an Image first override this.
+	 *
+	 * @methodtype get
+	 * @methodproperty hook
+	 */
+	protected ByteBuffer doReadImageData(String photoIdAsString, int size)
+			throws IOException {
+
+		Serializable image = doReadImage(photoIdAsString, size);
+		return (image instanceof Image) ? ByteBuffer.wrap(((Image) image).getImageData()) : null;
+	}
+
 
 	// exist method ----------------------------------------------------------------------------------------------------
 
@@ -122,12 +197,55 @@ public abstract class ImageStorage {
 		assertValidPhotoId(photoIdAsString);
 		PhotoSize.assertIsValidPhotoSizeAsInt(size);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("check if image exists in storage").
 				addParameter("photo id", photoIdAsString).
-				addParameter("size", size).toString());
+				addParameter("size", size).log();
+
+		// taken before reading, so a write finishing during the read is either in this bitmask or in the storage read
+		AtomicInteger sizes = getStoredSizes(photoIdAsString);
+		int knownSizes = sizes.get();
+		if (((knownSizes & STORAGE_READ) == 0) && ((knownSizes & (1 << size)) == 0)) {
+			long startTime = System.nanoTime();
+			int storedSizesBitmask = doReadStoredSizes(photoIdAsString);
+			MetricsRegistry.getInstance().recordStorageCall(Image.class, StorageOperation.EXISTS, 1,
+					Integer.bitCount(storedSizesBitmask), 0, startTime);
+			knownSizes = sizes.accumulateAndGet(storedSizesBitmask | STORAGE_READ, (a, b) -> a | b);
+		}
+
+		return (knownSizes & (1 << size)) != 0;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected AtomicInteger getStoredSizes(String photoIdAsString) {
+		return storedSizes.get(photoIdAsString, photoId -> new AtomicInteger());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected static long getNumberOfBytes(Serializable image) {
+		return (image instanceof Image) ? ((Image) image).getImageData().length : 0;
+	}
+
+	/**
+	 * Reads which sizes of the photo are stored, as a bitmask of (1 << size). By default every size is checked on its
+	 * own; storages that can list them in one go override this.
+	 *
+	 * @methodtype get
+	 * @methodproperty hook
+	 */
+	protected int doReadStoredSizes(String photoIdAsString) {
+		int result = 0;
+		for (PhotoSize size : PhotoSize.values()) {
+			if (doDoesImageExist(photoIdAsString, size.asInt())) {
+				result |= 1 << size.asInt();
+			}
+		}
 
-		return doDoesImageExist(photoIdAsString, size);
+		return result;
 	}
 
 
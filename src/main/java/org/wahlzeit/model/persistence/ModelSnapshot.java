@@ -0,0 +1,297 @@
+package org.wahlzeit.model.persistence;
+
+import org.wahlzeit.model.Client;
+import org.wahlzeit.model.Globals;
+import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.parliament.Parliament;
+import org.wahlzeit.model.parliament.ParliamentType;
+import org.wahlzeit.utils.CompressedBitmap;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A snapshot of the in-memory model, so that a restart does not have to read every entity from the datastore. The
+ * file starts with a fixed header (magic, version, capture time, payload length and CRC32 of the payload), followed
+ * by the deflated, Java-serialized model. It is written to a temporary file that is then renamed and read by mapping
+ * it into memory. A snapshot that does not match the header, e.g. after a partial write, or the current classes is
+ * rejected with an IOException.
+ */
+public class ModelSnapshot {
+
+	/**
+	 * "WZSN"
+	 */
+	public static final int MAGIC = 0x575a534e;
+	public static final int VERSION = 1;
+
+	/**
+	 * magic, version, timestamp, payload length, crc
+	 */
+	protected static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+
+	/**
+	 *
+	 */
+	protected static final String TEMP_FILE_EXTENSION = ".tmp";
+
+	/**
+	 *
+	 */
+	protected final long timestamp;
+	protected final Globals globals;
+	protected final List<Client> clients;
+	protected final List<Photo> photos;
+	protected final CompressedBitmap displayablePhotoIds;
+	protected final Map<Integer, Set<String>> tagConditions;
+	protected final List<ParliamentType> parliamentTypes;
+	protected final List<Parliament> parliaments;
+
+	/**
+	 * @param timestamp time the capture started, so that all later changes are newer
+	 */
+	public ModelSnapshot(long timestamp, Globals globals, List<Client> clients, List<Photo> photos,
+			CompressedBitmap displayablePhotoIds, Map<Integer, Set<String>> tagConditions,
+			List<ParliamentType> parliamentTypes, List<Parliament> parliaments) {
+		this.timestamp = timestamp;
+		this.globals = globals;
+		this.clients = clients;
+		this.photos = photos;
+		this.displayablePhotoIds = displayablePhotoIds;
+		this.tagConditions = tagConditions;
+		this.parliamentTypes = parliamentTypes;
+		this.parliaments = parliaments;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Globals getGlobals() {
+		return globals;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public List<Client> getClients() {
+		return clients;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public List<Photo> getPhotos() {
+		return photos;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public CompressedBitmap getDisplayablePhotoIds() {
+		return displayablePhotoIds;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Map<Integer, Set<String>> getTagConditions() {
+		return tagConditions;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public List<ParliamentType> getParliamentTypes() {
+		return parliamentTypes;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public List<Parliament> getParliaments() {
+		return parliaments;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes the snapshot to the file, replacing an older one only once the new one is complete. Returns the size of
+	 * the file.
+	 */
+	public long write(Path file) throws IOException {
+		Path dir = file.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		Path tempFile = Files.createTempFile(dir, file.getFileName().toString(), TEMP_FILE_EXTENSION);
+		try {
+			long result;
+			try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+				channel.position(HEADER_SIZE);
+				CRC32 crc = new CRC32();
+				DeflaterOutputStream deflater = new DeflaterOutputStream(new CheckedOutputStream(
+						new BufferedOutputStream(Channels.newOutputStream(channel)), crc));
+				// one stream, so objects referenced from several places (e.g. a parliament of a photo) stay shared
+				ObjectOutputStream out = new ObjectOutputStream(deflater);
+				writePayload(out);
+				out.flush();
+				deflater.finish();
+				deflater.flush();
+
+				result = channel.position();
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putInt(VERSION).putLong(timestamp);
+				header.putInt((int) (result - HEADER_SIZE)).putInt((int) crc.getValue());
+				header.flip();
+				while (header.hasRemaining()) {
+					channel.write(header, header.position());
+				}
+				// the content has to be on disk before the rename makes it visible
+				channel.force(true);
+			}
+			moveAtomically(tempFile, file);
+			return result;
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected void writePayload(ObjectOutputStream out) throws IOException {
+		out.writeObject(globals);
+		out.writeObject(clients);
+		out.writeObject(parliamentTypes);
+		out.writeObject(parliaments);
+		out.writeObject(photos);
+		out.writeObject(displayablePhotoIds);
+		out.writeObject(tagConditions);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static void moveAtomically(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Reads a snapshot written by write(); throws an IOException if the file is missing, damaged or was written by
+	 * incompatible classes.
+	 */
+	@SuppressWarnings("unchecked")
+	public static ModelSnapshot read(Path file) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if ((buffer.remaining() < HEADER_SIZE) || (buffer.getInt() != MAGIC)) {
+			throw new StreamCorruptedException("not a model snapshot: " + file);
+		}
+		int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IOException("unsupported model snapshot version " + version);
+		}
+		long timestamp = buffer.getLong();
+		int length = buffer.getInt();
+		int checksum = buffer.getInt();
+		if (length != buffer.remaining()) {
+			throw new StreamCorruptedException("model snapshot is truncated: " + file);
+		}
+
+		ByteBuffer payload = buffer.slice();
+		CRC32 crc = new CRC32();
+		crc.update(payload.duplicate());
+		if ((int) crc.getValue() != checksum) {
+			throw new StreamCorruptedException("model snapshot checksum does not match: " + file);
+		}
+
+		try (ObjectInputStream in = new ObjectInputStream(new InflaterInputStream(new ByteBufferInputStream(payload)))) {
+			Globals globals = (Globals) in.readObject();
+			List<Client> clients = (List<Client>) in.readObject();
+			List<ParliamentType> parliamentTypes = (List<ParliamentType>) in.readObject();
+			List<Parliament> parliaments = (List<Parliament>) in.readObject();
+			List<Photo> photos = (List<Photo>) in.readObject();
+			CompressedBitmap displayablePhotoIds = (CompressedBitmap) in.readObject();
+			Map<Integer, Set<String>> tagConditions = (Map<Integer, Set<String>>) in.readObject();
+			return new ModelSnapshot(timestamp, globals, clients, photos, displayablePhotoIds, tagConditions,
+					parliamentTypes, parliaments);
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new IOException("model snapshot does not match the current classes", e);
+		}
+	}
+
+	/**
+	 * Reads a (mapped) byte buffer without copying it onto the heap first
+	 */
+	protected static class ByteBufferInputStream extends InputStream {
+
+		/**
+		 *
+		 */
+		protected final ByteBuffer buffer;
+
+		/**
+		 *
+		 */
+		public ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0) {
+				return 0;
+			} else if (!buffer.hasRemaining()) {
+				return -1;
+			}
+
+			int result = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, result);
+			return result;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+}
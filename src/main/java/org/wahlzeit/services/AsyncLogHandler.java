@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * A Handler that hands records to a background thread through a bounded ring buffer, so request threads never wait
+ * for the I/O of the handler it wraps. If the buffer is full, records below WARNING are dropped and counted, the
+ * others are published synchronously. Without a background thread, everything is published synchronously.
+ */
+public class AsyncLogHandler extends Handler {
+
+	/**
+	 * System properties
+	 */
+	public static final String ENABLED = "wahlzeit.asyncLogging.enabled";
+	public static final String CAPACITY = "wahlzeit.asyncLogging.capacity";
+
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	/**
+	 *
+	 */
+	protected final Handler delegate;
+	protected final BlockingQueue<LogRecord> buffer;
+
+	/**
+	 *
+	 */
+	protected volatile Thread worker;
+
+	/**
+	 *
+	 */
+	protected final AtomicLong droppedRecords = new AtomicLong();
+
+	/**
+	 *
+	 */
+	public AsyncLogHandler(Handler delegate, int capacity) {
+		this.delegate = delegate;
+		this.buffer = new ArrayBlockingQueue<LogRecord>(Math.max(1, capacity));
+		setLevel(delegate.getLevel());
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Replaces every handler of the logger by an AsyncLogHandler wrapping it, each started with the thread factory.
+	 * Returns the new handlers.
+	 */
+	public static List<AsyncLogHandler> install(Logger logger, int capacity, ThreadFactory threadFactory) {
+		List<AsyncLogHandler> result = new ArrayList<AsyncLogHandler>();
+		for (Handler handler : logger.getHandlers()) {
+			if (handler instanceof AsyncLogHandler) {
+				continue;
+			}
+
+			AsyncLogHandler asyncHandler = new AsyncLogHandler(handler, capacity);
+			if (!asyncHandler.start(threadFactory)) {
+				// the next one would fail as well, keep logging synchronously
+				break;
+			}
+			logger.removeHandler(handler);
+			logger.addHandler(asyncHandler);
+			result.add(asyncHandler);
+		}
+
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Puts the wrapped handlers back and publishes what is still buffered.
+	 */
+	public static void uninstall(Logger logger) {
+		for (Handler handler : logger.getHandlers()) {
+			if (handler instanceof AsyncLogHandler) {
+				AsyncLogHandler asyncHandler = (AsyncLogHandler) handler;
+				logger.removeHandler(asyncHandler);
+				asyncHandler.stop();
+				logger.addHandler(asyncHandler.getDelegate());
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Returns false if no thread could be started, e.g. on instances that do not allow background threads.
+	 */
+	public synchronized boolean start(ThreadFactory threadFactory) {
+		if (worker != null) {
+			return true;
+		}
+
+		try {
+			Thread newWorker = threadFactory.newThread(this::runWorker);
+			if (newWorker == null) {
+				return false;
+			}
+			newWorker.setDaemon(true);
+			// set before starting, the worker runs only as long as it is the current one
+			worker = newWorker;
+			newWorker.start();
+			return true;
+		} catch (RuntimeException ex) {
+			worker = null;
+			return false;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Stops the background thread after it published everything buffered so far.
+	 */
+	public void stop() {
+		Thread oldWorker;
+		synchronized (this) {
+			oldWorker = worker;
+			worker = null;
+		}
+
+		if (oldWorker != null) {
+			oldWorker.interrupt();
+			try {
+				oldWorker.join(1000);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		drain();
+	}
+
+	/**
+	 *
+	 */
+	protected void runWorker() {
+		try {
+			while (worker == Thread.currentThread()) {
+				publishSafely(buffer.take());
+			}
+		} catch (InterruptedException ex) {
+			// stopped
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void drain() {
+		for (LogRecord record = buffer.poll(); record != null; record = buffer.poll()) {
+			publishSafely(record);
+		}
+		delegate.flush();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void publish(LogRecord record) {
+		if (!isLoggable(record)) {
+			return;
+		}
+
+		if (worker == null) {
+			publishSafely(record);
+			return;
+		}
+
+		// inferring the caller only works on the calling thread; records of the LogBuilder are not worth the stack
+		// walk and name their logger instead
+		if (!(record instanceof LogBuilder.CallerLogRecord)) {
+			record.getSourceClassName();
+		}
+		if (!buffer.offer(record)) {
+			if (record.getLevel().intValue() >= Level.WARNING.intValue()) {
+				publishSafely(record);
+			} else {
+				droppedRecords.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * The worker must survive a failing handler, like the caller would
+	 */
+	protected void publishSafely(LogRecord record) {
+		try {
+			delegate.publish(record);
+		} catch (RuntimeException ex) {
+			reportError(null, ex, ErrorManager.WRITE_FAILURE);
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void flush() {
+		delegate.flush();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void close() throws SecurityException {
+		stop();
+		delegate.close();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Handler getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNumberOfBuffered() {
+		return buffer.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getDroppedRecords() {
+		return droppedRecords.get();
+	}
+
+}
@@ -20,7 +20,11 @@
 
 package org.wahlzeit.services;
 
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.OnSave;
+
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * A simple abstract implementation of Persistent with write count and dirty bit.
@@ -33,10 +37,24 @@ public abstract class DataObject implements Persistent, Serializable {
 	 */
 	public static final String ID = "id";
 
+	/**
+	 * Name of the indexed property with the time of the last save, used to find changes since a model snapshot
+	 */
+	public static final String MODIFICATION_TIME = "modificationTime";
+
+	/**
+	 * Changed by request threads and write-behind flushes, hence atomic
+	 */
+	protected transient volatile int writeCount = 0;
+
+	private static final AtomicIntegerFieldUpdater<DataObject> WRITE_COUNT =
+			AtomicIntegerFieldUpdater.newUpdater(DataObject.class, "writeCount");
+
 	/**
 	 *
 	 */
-	protected transient int writeCount = 0;
+	@Index
+	protected long modificationTime = 0;
 
 	/**
 	 *
@@ -52,11 +70,25 @@ public abstract class DataObject implements Persistent, Serializable {
 		writeCount = 0;
 	}
 
+	/**
+	 *
+	 */
+	public final int getWriteCount() {
+		return writeCount;
+	}
+
+	/**
+	 *
+	 */
+	public final void resetWriteCount(int writtenCount) {
+		WRITE_COUNT.getAndUpdate(this, count -> Math.max(0, count - writtenCount));
+	}
+
 	/**
 	 *
 	 */
 	public final void incWriteCount() {
-		writeCount++;
+		WRITE_COUNT.incrementAndGet(this);
 	}
 
 	/**
@@ -66,4 +98,19 @@ public abstract class DataObject implements Persistent, Serializable {
 		incWriteCount();
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public long getModificationTime() {
+		return modificationTime;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	@OnSave
+	protected void updateModificationTime() {
+		modificationTime = System.currentTimeMillis();
+	}
+
 }
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.services;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands out ids, one greater than the other. By default, ids are counted in memory only. Once leasing is started,
+ * ids come from blocks reserved in shared storage, so that several instances never hand out the same id: each block
+ * is used up from memory, and the next one is leased in the background when only a tenth of the current one is left.
+ */
+public class IdCounter {
+
+	/**
+	 * Reserves blockSize ids, e.g. in a datastore transaction, and returns the first of them
+	 */
+	public interface BlockLeaser {
+		long leaseBlock(int blockSize);
+	}
+
+	private static final Logger log = Logger.getLogger(IdCounter.class.getName());
+
+	/**
+	 * The ids from first (inclusive) to end (exclusive), taken in order by any number of threads
+	 */
+	protected static class IdBlock {
+
+		protected final AtomicLong next;
+		protected final long end;
+
+		protected IdBlock(long first, long end) {
+			this.next = new AtomicLong(first);
+			this.end = end;
+		}
+	}
+
+	/**
+	 * The highest id handed out here or known to be reserved by this instance
+	 */
+	protected final AtomicLong lastId = new AtomicLong(0);
+
+	/**
+	 * Leasing state; the blocks are replaced while holding the lock of this counter
+	 */
+	protected volatile BlockLeaser leaser = null;
+	protected int blockSize = 1;
+	protected int leaseAheadThreshold = 0;
+	protected Executor executor = null;
+	protected volatile IdBlock block = null;
+	protected CompletableFuture<IdBlock> nextBlock = null;
+
+	/**
+	 * @methodtype get
+	 */
+	public long getLastId() {
+		return lastId.get();
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setLastId(long newLastId) {
+		lastId.set(newLastId);
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void raiseLastId(long newLastId) {
+		lastId.accumulateAndGet(newLastId, Math::max);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long nextId() {
+		if (leaser == null) {
+			return lastId.incrementAndGet();
+		}
+
+		while (true) {
+			IdBlock current = block;
+			if (current != null) {
+				long result = current.next.getAndIncrement();
+				if (result < current.end) {
+					if (current.end - result == leaseAheadThreshold) {
+						leaseNextBlockAhead();
+					}
+					return result;
+				}
+			}
+			if (!switchBlock(current)) {
+				// leasing stopped while counting
+				return lastId.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isLeasing() {
+		return leaser != null;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Leases ids in blocks of blockSize from now on; blocks are leased ahead with the executor, or in the calling
+	 * thread if there is none.
+	 */
+	public synchronized void startLeasing(BlockLeaser newLeaser, int newBlockSize, Executor newExecutor) {
+		blockSize = Math.max(1, newBlockSize);
+		leaseAheadThreshold = blockSize / 10;
+		executor = newExecutor;
+		block = null;
+		nextBlock = null;
+		leaser = newLeaser;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Counts in memory again, from the last id reserved; ids left in the leased blocks are not used. Threads still
+	 * counting from a leased block switch to counting in memory once that block is used up.
+	 */
+	public synchronized void stopLeasing() {
+		leaser = null;
+		block = null;
+		nextBlock = null;
+		executor = null;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Replaces the exhausted block, unless another thread did so already, preferably with the one leased ahead.
+	 * Returns false if leasing has stopped, so that ids are counted in memory instead.
+	 */
+	protected synchronized boolean switchBlock(IdBlock exhausted) {
+		if (leaser == null) {
+			return false;
+		}
+		if (block != exhausted) {
+			return true;
+		}
+
+		CompletableFuture<IdBlock> leasedAhead = nextBlock;
+		nextBlock = null;
+		IdBlock result = null;
+		if (leasedAhead != null) {
+			try {
+				result = leasedAhead.join();
+			} catch (CompletionException ex) {
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addException("Leasing ids ahead failed, leasing now", ex.getCause()).log();
+			}
+		}
+		block = (result != null) ? result : leaseBlock();
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected synchronized void leaseNextBlockAhead() {
+		if ((nextBlock != null) || (leaser == null)) {
+			return;
+		}
+
+		if (executor != null) {
+			try {
+				nextBlock = CompletableFuture.supplyAsync(this::leaseBlock, executor);
+				return;
+			} catch (RuntimeException ex) {
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addAction("lease ids ahead").
+						addException("leasing in the requesting thread instead", ex).log();
+				executor = null;
+			}
+		}
+
+		try {
+			nextBlock = CompletableFuture.completedFuture(leaseBlock());
+		} catch (RuntimeException ex) {
+			// the block is leased again once the current one is used up
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("Leasing ids ahead failed", ex).log();
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected IdBlock leaseBlock() {
+		BlockLeaser currentLeaser = leaser;
+		if (currentLeaser == null) {
+			throw new IllegalStateException("leasing stopped");
+		}
+		int size = blockSize;
+		long first = currentLeaser.leaseBlock(size);
+		raiseLastId(first + size - 1);
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("leased ids from", first).
+				addParameter("number of ids", size).log();
+		return new IdBlock(first, first + size);
+	}
+
+}
@@ -6,6 +6,9 @@ import org.wahlzeit.model.UserSession;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 /**
  * Builder class for log messages, that ensures that log messages are all formatted equally.
@@ -14,6 +17,9 @@ import java.io.StringWriter;
  * <code>Formatter</code> could not be used
  *
  * (see https://stackoverflow.com/questions/30345665/how-to-customize-logging-for-google-app-engine-java).
+ *
+ * Builders created for a logger and level do nothing at all if the level is disabled: no session or client lookup,
+ * no string concatenation, not even an allocation. Enabled ones borrow a per-thread buffer and publish with log().
  * 
  * @review
  */
@@ -31,11 +37,34 @@ public class LogBuilder {
 	protected static final String EXCEPTION_REASON = "exception reason";
 	protected static final String STACKTRACE = "stacktrace";
 
+	/**
+	 * Returned for disabled levels; ignores everything
+	 */
+	protected static final LogBuilder DISABLED = new LogBuilder(null, null, null);
+
+	/**
+	 * Per-thread buffers, taken out while in use so nested builders never share one; larger ones are not kept
+	 */
+	protected static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>();
+	protected static final int MAX_BUFFER_CAPACITY = 8 * 1024;
+
 	protected StringBuilder logMessage;
 
+	/**
+	 * Only set for builders that publish themselves with log()
+	 */
+	protected final Logger logger;
+	protected final Level level;
+
 
 	protected LogBuilder() {
-		logMessage = new StringBuilder();
+		this(new StringBuilder(), null, null);
+	}
+
+	protected LogBuilder(StringBuilder logMessage, Logger logger, Level level) {
+		this.logMessage = logMessage;
+		this.logger = logger;
+		this.level = level;
 	}
 
 
@@ -51,6 +80,15 @@ public class LogBuilder {
 		return doCreateMessage(USER_LEVEL);
 	}
 
+	/**
+	 * @methodtype factory
+	 *
+	 * Like createUserMessage(), but does nothing unless the logger logs at the level; publish with log().
+	 */
+	public static LogBuilder createUserMessage(Logger logger, Level level) {
+		return doCreateMessage(USER_LEVEL, logger, level);
+	}
+
 	/**
 	 * @methodtype factory
 	 *
@@ -59,6 +97,36 @@ public class LogBuilder {
 	 */
 	protected static LogBuilder doCreateMessage(String level) {
 		LogBuilder result = new LogBuilder();
+		result.addHeader(level);
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected static LogBuilder doCreateMessage(String levelName, Logger logger, Level level) {
+		if (!logger.isLoggable(level)) {
+			return DISABLED;
+		}
+
+		StringBuilder buffer = buffers.get();
+		if (buffer == null) {
+			buffer = new StringBuilder(256);
+		} else {
+			buffers.set(null);
+		}
+
+		LogBuilder result = new LogBuilder(buffer, logger, level);
+		result.addHeader(levelName);
+		return result;
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Adds the Level, the current <code>HttpSession</code>, and the clients name.
+	 */
+	protected void addHeader(String level) {
 		Session session = SessionManager.getThreadLocalSession();
 		String sessionName;
 		String clientName;
@@ -75,25 +143,48 @@ public class LogBuilder {
 			clientName = UserSession.ANONYMOUS_CLIENT;
 		}
 
-		result.add(LEVEL + NAME_VALUE_SEPARATOR + level);
-		result.add(SESSION + NAME_VALUE_SEPARATOR + sessionName);
-		result.add(CLIENT + NAME_VALUE_SEPARATOR + clientName);
-
-		return result;
+		add(LEVEL, level);
+		add(SESSION, sessionName);
+		add(CLIENT, clientName);
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	protected void add(String logMessagePart) {
+		if (logMessage == null) {
+			return;
+		}
 
-		assert logMessage != null;
+		if (logMessage.length() != 0) {
+			logMessage.append(INFO_SEPARATOR);
+		}
+		logMessage.append(logMessagePart);
+	}
 
-		if (logMessage.length() == 0) {
-			logMessage.append(logMessagePart);
-		} else {
+	/**
+	 * @methodtype set
+	 *
+	 * Appends ", <name>=" and returns the buffer to append the value to, or null if disabled.
+	 */
+	protected StringBuilder addName(String name) {
+		if (logMessage == null) {
+			return null;
+		}
+
+		if (logMessage.length() != 0) {
 			logMessage.append(INFO_SEPARATOR);
-			logMessage.append(logMessagePart);
+		}
+		return logMessage.append(name).append(NAME_VALUE_SEPARATOR);
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	protected void add(String name, String value) {
+		StringBuilder buffer = addName(name);
+		if (buffer != null) {
+			buffer.append(value);
 		}
 	}
 
@@ -110,13 +201,38 @@ public class LogBuilder {
 		return doCreateMessage(SYSTEM_LEVEL);
 	}
 
+	/**
+	 * @methodtype factory
+	 *
+	 * Like createSystemMessage(), but does nothing unless the logger logs at the level; publish with log().
+	 */
+	public static LogBuilder createSystemMessage(Logger logger, Level level) {
+		return doCreateMessage(SYSTEM_LEVEL, logger, level);
+	}
+
 	/**
 	 * @methodtype mutate
 	 *
 	 * Adds the following to the LogMessage: ", <name>=<value>".
 	 */
 	public LogBuilder addParameter(String name, int value) {
-		add(name + NAME_VALUE_SEPARATOR + String.valueOf(value));
+		StringBuilder buffer = addName(name);
+		if (buffer != null) {
+			buffer.append(value);
+		}
+		return this;
+	}
+
+	/**
+	 * @methodtype mutate
+	 *
+	 * Adds the following to the LogMessage: ", <name>=<value>".
+	 */
+	public LogBuilder addParameter(String name, long value) {
+		StringBuilder buffer = addName(name);
+		if (buffer != null) {
+			buffer.append(value);
+		}
 		return this;
 	}
 
@@ -126,7 +242,10 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>".
 	 */
 	public LogBuilder addParameter(String name, boolean value) {
-		add(name + NAME_VALUE_SEPARATOR + String.valueOf(value));
+		StringBuilder buffer = addName(name);
+		if (buffer != null) {
+			buffer.append(value);
+		}
 		return this;
 	}
 
@@ -136,17 +255,20 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>".
 	 */
 	public LogBuilder addParameter(String name, String value) {
-		add(name + NAME_VALUE_SEPARATOR + value);
+		add(name, value);
 		return this;
 	}
 
 	/**
 	 * @methodtype mutate
 	 *
-	 * Adds the following to the LogMessage: ", <name>=<value>.toString()".
+	 * Adds the following to the LogMessage: ", <name>=<value>.toString()"; toString() is only called if enabled.
 	 */
 	public LogBuilder addParameter(String name, Object value) {
-		add(name + NAME_VALUE_SEPARATOR + value.toString());
+		StringBuilder buffer = addName(name);
+		if (buffer != null) {
+			buffer.append(value.toString());
+		}
 		return this;
 	}
 
@@ -166,10 +288,14 @@ public class LogBuilder {
 	 * Adds the stacktrace and the <code>exceptionMessage</code> to the log message.
 	 */
 	public LogBuilder addException(String exceptionMessage, Throwable throwable) {
-		add(EXCEPTION_REASON + NAME_VALUE_SEPARATOR + exceptionMessage);
+		if (logMessage == null) {
+			return this;
+		}
+
+		add(EXCEPTION_REASON, exceptionMessage);
 		StringWriter sw = new StringWriter();
 		throwable.printStackTrace(new PrintWriter(sw));
-		add(STACKTRACE + NAME_VALUE_SEPARATOR + sw.toString());
+		add(STACKTRACE, sw.toString());
 		return this;
 	}
 
@@ -182,22 +308,123 @@ public class LogBuilder {
 	 * Adds the info that the action is performed the log message: "action=<action>".
 	 */
 	public LogBuilder addAction(String action) {
-		add(ACTION + NAME_VALUE_SEPARATOR + action);
+		add(ACTION, action);
 		return this;
 	}
 
+	/**
+	 * @methodtype command
+	 *
+	 * Publishes the message to the logger it was created for and returns the buffer to the thread. Does nothing if
+	 * the level is disabled.
+	 */
+	public void log() {
+		if ((logMessage == null) || (logger == null)) {
+			return;
+		}
+
+		LogRecord record = new CallerLogRecord(level, logMessage.toString());
+		record.setLoggerName(logger.getName());
+
+		if (logMessage.capacity() <= MAX_BUFFER_CAPACITY) {
+			logMessage.setLength(0);
+			buffers.set(logMessage);
+		}
+		logMessage = null;
+
+		logger.log(record);
+	}
+
+	/**
+	 * A record that only looks up its caller if a handler or formatter asks for it, as walking the stack for every
+	 * record is expensive. The lookup has to happen while log() is still running, i.e. on the calling thread; later
+	 * on, the logger name is taken as the source class instead.
+	 */
+	protected static class CallerLogRecord extends LogRecord {
+
+		/**
+		 *
+		 */
+		private boolean isSourceKnown = false;
+
+		/**
+		 *
+		 */
+		protected CallerLogRecord(Level level, String message) {
+			super(level, message);
+		}
+
+		@Override
+		public String getSourceClassName() {
+			inferSource();
+			return super.getSourceClassName();
+		}
+
+		@Override
+		public void setSourceClassName(String sourceClassName) {
+			isSourceKnown = true;
+			super.setSourceClassName(sourceClassName);
+		}
+
+		@Override
+		public String getSourceMethodName() {
+			inferSource();
+			return super.getSourceMethodName();
+		}
+
+		@Override
+		public void setSourceMethodName(String sourceMethodName) {
+			isSourceKnown = true;
+			super.setSourceMethodName(sourceMethodName);
+		}
+
+		/**
+		 * The logger would take log() as the source of the record, so look up the caller of it instead.
+		 */
+		protected void inferSource() {
+			if (isSourceKnown) {
+				return;
+			}
+
+			String className = getLoggerName();
+			String methodName = null;
+			boolean isInLogBuilder = false;
+			for (StackTraceElement element : new Throwable().getStackTrace()) {
+				if (element.getClassName().equals(LogBuilder.class.getName())) {
+					isInLogBuilder = true;
+				} else if (isInLogBuilder) {
+					className = element.getClassName();
+					methodName = element.getMethodName();
+					break;
+				}
+			}
+
+			setSourceClassName(className);
+			setSourceMethodName(methodName);
+		}
+	}
+
 
 	// hidden setter and getter methods --------------------------------------------------------------------------------
 
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean isEnabled() {
+		return logMessage != null;
+	}
+
 	/**
 	 * @methodtype conversion
 	 *
-	 * Puts everything together that has been added to the LogMessage before.
+	 * Puts everything together that has been added to the LogMessage before; empty for a builder whose level is off.
 	 */
 	@Override
 	public String toString() {
+		if (logMessage == null) {
+			return "";
+		}
 
-		assert logMessage != null;
 		assert logMessage.length() > 0;
 
 		return logMessage.toString();
@@ -20,11 +20,23 @@
 
 package org.wahlzeit.services;
 
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.cmd.Query;
+import org.wahlzeit.services.metrics.MetricsRegistry;
+import org.wahlzeit.services.metrics.StorageOperation;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -38,6 +50,17 @@ public abstract class ObjectManager {
 	 */
 	public static final Key applicationRootKey = KeyFactory.createKey("Application", "Wahlzeit");
 
+	/**
+	 * System property for the number of entities per multi-entity save
+	 */
+	public static final String WRITE_BATCH_SIZE = "wahlzeit.datastore.writeBatchSize";
+
+	/**
+	 * The datastore accepts at most 500 entities per put
+	 */
+	public static final int MAX_WRITE_BATCH_SIZE = 500;
+	public static final int DEFAULT_WRITE_BATCH_SIZE = 100;
+
 	private static final Logger log = Logger.getLogger(ObjectManager.class.getName());
 
 
@@ -48,9 +71,13 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(type, "type");
 		assertIsNonNullArgument(id, "id");
 
-		log.config(LogBuilder.createSystemMessage().
-				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
-		return OfyService.ofy().load().type(type).id(id).now();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("load from datastore").addParameter("type", type).addParameter("id", id).log();
+		long startTime = System.nanoTime();
+		E result = OfyService.ofy().load().type(type).id(id).now();
+		MetricsRegistry.getInstance().recordStorageCall(type, StorageOperation.READ, 1, (result != null) ? 1 : 0,
+				startTime);
+		return result;
 	}
 
 	/**
@@ -69,9 +96,13 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(type, "type");
 		assertIsNonNullArgument(id, "id");
 
-		log.config(LogBuilder.createSystemMessage().
-				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
-		return OfyService.ofy().load().type(type).id(id).now();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("load from datastore").addParameter("type", type).addParameter("id", id).log();
+		long startTime = System.nanoTime();
+		E result = OfyService.ofy().load().type(type).id(id).now();
+		MetricsRegistry.getInstance().recordStorageCall(type, StorageOperation.READ, 1, (result != null) ? 1 : 0,
+				startTime);
+		return result;
 	}
 
 	/**
@@ -83,12 +114,16 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(parameterName, "parameterName");
 		assertIsNonNullArgument(value, "value");
 
-		log.config(LogBuilder.createSystemMessage().
-				addMessage("Load Type " + type.toString() + " with parameter " +
-						parameterName + " == " + value + " from datastore.").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("load from datastore").addParameter("type", type).
+				addParameter(parameterName, value).log();
 
-		return OfyService.ofy().load().type(type).ancestor(applicationRootKey).filter(parameterName, value).first()
+		long startTime = System.nanoTime();
+		E result = OfyService.ofy().load().type(type).ancestor(applicationRootKey).filter(parameterName, value).first()
 				.now();
+		MetricsRegistry.getInstance().recordStorageCall(type, StorageOperation.QUERY, 1, (result != null) ? 1 : 0,
+				startTime);
+		return result;
 	}
 
 	/**
@@ -98,14 +133,48 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(result, "result");
 		assertIsNonNullArgument(type, "type");
 
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: load all entities of type", type.getName()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: load all entities of type", type.getName()).log();
+		long startTime = System.nanoTime();
 		List<E> objects = OfyService.ofy().load().type(type).ancestor(applicationRootKey).list();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: number of loaded objects", objects.size()).toString());
+		MetricsRegistry.getInstance().recordStorageCall(type, StorageOperation.QUERY, 1, objects.size(), startTime);
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: number of loaded objects", objects.size()).log();
 		result.addAll(objects);
 	}
 
+	/**
+	 * Reads all entities of the specified type in pages of at most pageSize, following the query cursor, and hands
+	 * each page to the consumer before the next one is read.
+	 */
+	protected <E> void readObjectsInPages(Class<E> type, int pageSize, Consumer<List<E>> pageConsumer) {
+		assertIsNonNullArgument(type, "type");
+		assertIsNonNullArgument(pageConsumer, "pageConsumer");
+
+		Query<E> query = OfyService.ofy().load().type(type).ancestor(applicationRootKey).limit(pageSize);
+		Cursor cursor = null;
+		int numberOfObjects = 0;
+		do {
+			long startTime = System.nanoTime();
+			QueryResultIterator<E> iterator = ((cursor == null) ? query : query.startAt(cursor)).iterator();
+			List<E> page = new ArrayList<E>(pageSize);
+			while (iterator.hasNext()) {
+				page.add(iterator.next());
+			}
+			MetricsRegistry.getInstance().recordStorageCall(type, StorageOperation.QUERY, 1, page.size(), startTime);
+
+			if (!page.isEmpty()) {
+				pageConsumer.accept(page);
+				numberOfObjects += page.size();
+			}
+			cursor = (page.size() < pageSize) ? null : iterator.getCursor();
+		} while (cursor != null);
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: load all entities of type", type.getName()).
+				addParameter("number of loaded objects", numberOfObjects).log();
+	}
+
 	/**
 	 * Reads all Entities of the specified type, where the given property matches the wanted value e.g.
 	 * readObject(User.class) to get a list of all clients
@@ -116,13 +185,15 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(propertyName, "propertyName");
 		assertIsNonNullArgument(value, "value");
 
-		log.info(LogBuilder.createSystemMessage().
-				addMessage("Datastore: Load all Entities of type " + type.toString() + " where parameter "
-						+ propertyName + " = " + value.toString() + " from datastore.").toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addAction("load all from datastore").addParameter("type", type).
+				addParameter(propertyName, value).log();
+		long startTime = System.nanoTime();
 		List<E> objects = OfyService.ofy().load().type(type).
 				ancestor(applicationRootKey).filter(propertyName, value).list();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: number of loaded objects", objects.size()).toString());
+		MetricsRegistry.getInstance().recordStorageCall(type, StorageOperation.QUERY, 1, objects.size(), startTime);
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: number of loaded objects", objects.size()).log();
 		result.addAll(objects);
 	}
 
@@ -130,9 +201,7 @@ public abstract class ObjectManager {
 	 * Updates all entities of the given collection in the datastore.
 	 */
 	protected void updateObjects(Collection<? extends Persistent> collection) {
-		for (Persistent object : collection) {
-			updateObject(object);
-		}
+		writeObjects(collection);
 	}
 
 	/**
@@ -142,24 +211,131 @@ public abstract class ObjectManager {
 		writeObject(object);
 	}
 
+	/**
+	 * Schedules the entity to be written with the next write-behind flush; changes made to it until then are
+	 * coalesced into that one write.
+	 */
+	protected void scheduleWrite(Persistent object) {
+		assertIsNonNullArgument(object, "object");
+		WriteBehindQueue.getInstance().schedule(this, object);
+	}
+
 	/**
 	 * Writes the given entity to the datastore.
 	 */
 	protected void writeObject(Persistent object) {
 		assertIsNonNullArgument(object, "object");
 
-		if (object.isDirty()) {
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("Datastore: Write object of type", object).toString());
+		int writtenCount = object.getWriteCount();
+		if (writtenCount != 0) {
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("Datastore: Write object of type", object).log();
+			long startTime = System.nanoTime();
 			OfyService.ofy().save().entity(object).now();
+			MetricsRegistry.getInstance().recordStorageCall(object.getClass(), StorageOperation.WRITE, 1, 1, startTime);
 			updateDependents(object);
-			object.resetWriteCount();
+			object.resetWriteCount(writtenCount);
 		} else {
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("Datastore: No need to update object", object).toString());
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("Datastore: No need to update object", object).log();
+		}
+	}
+
+	/**
+	 * Writes all dirty entities of the collection to the datastore, using multi-entity saves of at most
+	 * getWriteBatchSize() entities. All chunks are sent asynchronously and joined afterwards; dependents are updated
+	 * once everything has been saved. Only the changes counted before the save are taken back afterwards, so an object
+	 * changed by another thread meanwhile stays dirty.
+	 */
+	protected void writeObjects(Collection<? extends Persistent> collection) {
+		assertIsNonNullArgument(collection, "collection");
+
+		List<Persistent> dirtyObjects = new ArrayList<Persistent>();
+		List<Integer> writtenCounts = new ArrayList<Integer>();
+		for (Persistent object : collection) {
+			int writeCount = object.getWriteCount();
+			if (writeCount != 0) {
+				dirtyObjects.add(object);
+				writtenCounts.add(writeCount);
+			}
+		}
+
+		if (dirtyObjects.isEmpty()) {
+			return;
+		}
+
+		saveObjects(dirtyObjects);
+
+		for (int i = 0; i < dirtyObjects.size(); i++) {
+			Persistent object = dirtyObjects.get(i);
+			updateDependents(object);
+			object.resetWriteCount(writtenCounts.get(i));
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected void saveObjects(List<Persistent> dirtyObjects) {
+		int batchSize = getWriteBatchSize();
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addParameter("Datastore: batch write objects", dirtyObjects.size()).
+				addParameter("batch size", batchSize).log();
+
+		// chunks of one type each, so that every call is recorded for the type it wrote
+		Map<Class<?>, List<Persistent>> objectsByType = groupByType(dirtyObjects);
+		long startTime = System.nanoTime();
+		Map<Class<?>, List<Result<?>>> resultsByType = new HashMap<Class<?>, List<Result<?>>>();
+		for (Map.Entry<Class<?>, List<Persistent>> entry : objectsByType.entrySet()) {
+			List<Persistent> objects = entry.getValue();
+			List<Result<?>> results = new ArrayList<Result<?>>();
+			for (int from = 0; from < objects.size(); from += batchSize) {
+				List<Persistent> chunk = objects.subList(from, Math.min(from + batchSize, objects.size()));
+				results.add(saveEntities(new ArrayList<Persistent>(chunk)));
+			}
+			resultsByType.put(entry.getKey(), results);
+		}
+
+		for (Map.Entry<Class<?>, List<Persistent>> entry : objectsByType.entrySet()) {
+			List<Result<?>> results = resultsByType.get(entry.getKey());
+			for (Result<?> result : results) {
+				result.now();
+			}
+			MetricsRegistry.getInstance().recordStorageCall(entry.getKey(), StorageOperation.WRITE, results.size(),
+					entry.getValue().size(), startTime);
 		}
 	}
 
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 *
+	 * Starts one multi-entity save; it completes when its result is asked for.
+	 */
+	protected Result<?> saveEntities(List<Persistent> chunk) {
+		return OfyService.ofy().save().entities(chunk);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static <E> Map<Class<?>, List<E>> groupByType(Collection<E> objects) {
+		Map<Class<?>, List<E>> result = new LinkedHashMap<Class<?>, List<E>>();
+		for (E object : objects) {
+			result.computeIfAbsent(object.getClass(), type -> new ArrayList<E>()).add(object);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected int getWriteBatchSize() {
+		int result = Integer.getInteger(WRITE_BATCH_SIZE, DEFAULT_WRITE_BATCH_SIZE);
+		return Math.max(1, Math.min(result, MAX_WRITE_BATCH_SIZE));
+	}
+
 	/**
 	 * Updates all dependencies of the object.
 	 */
@@ -173,8 +349,28 @@ public abstract class ObjectManager {
 	protected <E> void deleteObject(E object) {
 		assertIsNonNullArgument(object, "object");
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Datastore: delete entity", object).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Datastore: delete entity", object).log();
+		long startTime = System.nanoTime();
 		OfyService.ofy().delete().entity(object).now();
+		MetricsRegistry.getInstance().recordStorageCall(object.getClass(), StorageOperation.DELETE, 1, 1, startTime);
+	}
+
+	/**
+	 * Deletes all given entities from the datastore with one multi-entity delete per type.
+	 */
+	protected <E> void deleteObjects(Collection<E> collection) {
+		assertIsNonNullArgument(collection, "collection");
+
+		if (!collection.isEmpty()) {
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addParameter("Datastore: delete entities", collection.size()).log();
+			for (Map.Entry<Class<?>, List<E>> entry : groupByType(collection).entrySet()) {
+				long startTime = System.nanoTime();
+				OfyService.ofy().delete().entities(entry.getValue()).now();
+				MetricsRegistry.getInstance().recordStorageCall(entry.getKey(), StorageOperation.DELETE, 1,
+						entry.getValue().size(), startTime);
+			}
+		}
 	}
 
 	/**
@@ -186,12 +382,16 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(propertyName, "propertyName");
 		assertIsNonNullArgument(value, "value");
 
-		log.info(LogBuilder.createSystemMessage().
-				addMessage("Datastore: delete entities of type " + type
-						+ " where property " + propertyName + " == " + value).toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addAction("delete from datastore").addParameter("type", type).
+				addParameter(propertyName, value).log();
+		long startTime = System.nanoTime();
 		List<com.googlecode.objectify.Key<E>> keys = OfyService.ofy().load().type(type).
 				ancestor(applicationRootKey).filter(propertyName, value).keys().list();
+		MetricsRegistry.getInstance().recordStorageCall(type, StorageOperation.QUERY, 1, keys.size(), startTime);
+		startTime = System.nanoTime();
 		OfyService.ofy().delete().keys(keys);
+		MetricsRegistry.getInstance().recordStorageCall(type, StorageOperation.DELETE, 1, keys.size(), startTime);
 	}
 
 	/**
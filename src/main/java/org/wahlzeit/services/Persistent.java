@@ -41,4 +41,15 @@ public interface Persistent {
 	 */
 	void resetWriteCount();
 
+	/**
+	 * @methodtype get
+	 */
+	int getWriteCount();
+
+	/**
+	 * Takes back the given number of changes, as read before a write, so that changes made while writing keep the
+	 * object dirty.
+	 */
+	void resetWriteCount(int writtenCount);
+
 }
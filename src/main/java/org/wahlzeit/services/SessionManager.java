@@ -20,6 +20,8 @@
 
 package org.wahlzeit.services;
 
+import org.wahlzeit.services.metrics.RequestTrace;
+
 /**
  * A manager for Session objects (user (web) sessions, agent threads, etc.) Clients can look up the session by thread.
  */
@@ -30,6 +32,11 @@ public class SessionManager {
 	 */
 	protected static ThreadLocal<Session> sessions = new ThreadLocal<Session>();
 
+	/**
+	 * The trace of the request the thread is working on, if any
+	 */
+	protected static ThreadLocal<RequestTrace> traces = new ThreadLocal<RequestTrace>();
+
 	/**
 	 *
 	 */
@@ -51,4 +58,25 @@ public class SessionManager {
 		setThreadLocalSession(null);
 	}
 
+	/**
+	 *
+	 */
+	public static RequestTrace getThreadLocalTrace() {
+		return traces.get();
+	}
+
+	/**
+	 *
+	 */
+	public static void setThreadLocalTrace(RequestTrace trace) {
+		traces.set(trace);
+	}
+
+	/**
+	 *
+	 */
+	public static void dropThreadLocalTrace() {
+		traces.remove();
+	}
+
 }
@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects modified Persistent objects and writes them in batches through their ObjectManager once per flush window.
+ * An object scheduled again before its write is coalesced with the pending one, so frequent small changes (praise,
+ * session ids) cost one datastore write per window instead of one per change.
+ *
+ * Flushes run on a background thread if the runtime allows one, else at the end of a request once the window has
+ * passed. The number of pending objects is bounded: the caller that fills the queue flushes it itself. Objects whose
+ * write failed are scheduled again, up to maxRetries times in a row, so the next flush retries them one window later.
+ */
+public class WriteBehindQueue {
+
+	/**
+	 * System properties
+	 */
+	public static final String ENABLED = "wahlzeit.writeBehind.enabled";
+	public static final String FLUSH_INTERVAL_MILLIS = "wahlzeit.writeBehind.flushIntervalMillis";
+	public static final String MAX_PENDING = "wahlzeit.writeBehind.maxPending";
+	public static final String MAX_RETRIES = "wahlzeit.writeBehind.maxRetries";
+
+	public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+	public static final int DEFAULT_MAX_PENDING = 1000;
+	public static final int DEFAULT_MAX_RETRIES = 10;
+
+	private static final Logger log = Logger.getLogger(WriteBehindQueue.class.getName());
+
+	/**
+	 *
+	 */
+	protected static WriteBehindQueue instance = new WriteBehindQueue(
+			Boolean.parseBoolean(System.getProperty(ENABLED, "true")),
+			Long.getLong(FLUSH_INTERVAL_MILLIS, DEFAULT_FLUSH_INTERVAL_MILLIS),
+			Integer.getInteger(MAX_PENDING, DEFAULT_MAX_PENDING),
+			Integer.getInteger(MAX_RETRIES, DEFAULT_MAX_RETRIES));
+
+	/**
+	 *
+	 */
+	protected final boolean isEnabled;
+	protected final long flushIntervalMillis;
+	protected final int maxPending;
+	protected final int maxRetries;
+
+	/**
+	 * Pending objects by identity, each with the manager that writes it; guarded by pendingLock
+	 */
+	protected final Object pendingLock = new Object();
+	protected Map<Persistent, ObjectManager> pending = new IdentityHashMap<Persistent, ObjectManager>();
+
+	/**
+	 * Failed writes in a row of the objects scheduled again after a failed flush; guarded by pendingLock
+	 */
+	protected final Map<Persistent, Integer> failedWrites = new IdentityHashMap<Persistent, Integer>();
+
+	/**
+	 * Only one flush at a time, so batches of the same object never overtake each other
+	 */
+	protected final ReentrantLock flushLock = new ReentrantLock();
+	protected volatile long lastFlushTime = System.nanoTime();
+
+	/**
+	 *
+	 */
+	protected ScheduledExecutorService executor;
+
+	/**
+	 *
+	 */
+	protected final AtomicLong scheduledWrites = new AtomicLong();
+	protected final AtomicLong coalescedWrites = new AtomicLong();
+	protected final AtomicLong flushedWrites = new AtomicLong();
+	protected final AtomicLong flushes = new AtomicLong();
+	protected final AtomicLong retriedWrites = new AtomicLong();
+	protected final AtomicLong abandonedWrites = new AtomicLong();
+
+	/**
+	 *
+	 */
+	public WriteBehindQueue(boolean isEnabled, long flushIntervalMillis, int maxPending) {
+		this(isEnabled, flushIntervalMillis, maxPending, DEFAULT_MAX_RETRIES);
+	}
+
+	/**
+	 *
+	 */
+	public WriteBehindQueue(boolean isEnabled, long flushIntervalMillis, int maxPending, int maxRetries) {
+		this.isEnabled = isEnabled;
+		this.flushIntervalMillis = Math.max(1, flushIntervalMillis);
+		this.maxPending = Math.max(1, maxPending);
+		this.maxRetries = Math.max(0, maxRetries);
+	}
+
+	/**
+	 *
+	 */
+	public static WriteBehindQueue getInstance() {
+		return instance;
+	}
+
+	/**
+	 *
+	 */
+	public static void setInstance(WriteBehindQueue writeBehindQueue) {
+		instance = writeBehindQueue;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Schedules the object to be written by the manager with the next flush. Writes synchronously if the queue is
+	 * disabled.
+	 */
+	public void schedule(ObjectManager manager, Persistent object) {
+		if (!isEnabled) {
+			manager.updateObject(object);
+			return;
+		}
+
+		boolean isFull;
+		synchronized (pendingLock) {
+			if (pending.put(object, manager) == null) {
+				scheduledWrites.incrementAndGet();
+			} else {
+				coalescedWrites.incrementAndGet();
+			}
+			isFull = pending.size() >= maxPending;
+		}
+
+		if (isFull) {
+			flush();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Flushes if the flush window has passed and no other flush is running; cheap enough to call after every request.
+	 */
+	public void flushIfDue() {
+		if (!isDue() || !flushLock.tryLock()) {
+			return;
+		}
+
+		try {
+			doFlush();
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void flush() {
+		flushLock.lock();
+		try {
+			doFlush();
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected void doFlush() {
+		Map<Persistent, ObjectManager> objects;
+		synchronized (pendingLock) {
+			objects = pending;
+			pending = new IdentityHashMap<Persistent, ObjectManager>();
+		}
+		lastFlushTime = System.nanoTime();
+
+		if (objects.isEmpty()) {
+			return;
+		}
+
+		Map<ObjectManager, List<Persistent>> objectsByManager = new IdentityHashMap<ObjectManager, List<Persistent>>();
+		for (Map.Entry<Persistent, ObjectManager> entry : objects.entrySet()) {
+			objectsByManager.computeIfAbsent(entry.getValue(), manager -> new ArrayList<Persistent>()).add(entry.getKey());
+		}
+
+		for (Map.Entry<ObjectManager, List<Persistent>> entry : objectsByManager.entrySet()) {
+			try {
+				entry.getKey().writeObjects(entry.getValue());
+				flushedWrites.addAndGet(entry.getValue().size());
+				clearFailedWrites(entry.getValue());
+			} catch (RuntimeException ex) {
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addAction("write-behind flush").
+						addParameter("objects", entry.getValue().size()).
+						addException("flush failed, retrying with the next flush", ex).log();
+				reschedule(entry.getKey(), entry.getValue());
+			}
+		}
+
+		flushes.incrementAndGet();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void clearFailedWrites(List<Persistent> objects) {
+		synchronized (pendingLock) {
+			if (!failedWrites.isEmpty()) {
+				for (Persistent object : objects) {
+					failedWrites.remove(object);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Schedules the objects of a failed write again, unless they are clean by now or have failed too often; those
+	 * stay dirty and are only written if they are changed again or by the final save on shutdown.
+	 */
+	protected void reschedule(ObjectManager manager, List<Persistent> objects) {
+		int abandoned = 0;
+		synchronized (pendingLock) {
+			for (Persistent object : objects) {
+				if (!object.isDirty()) {
+					failedWrites.remove(object);
+					continue;
+				}
+
+				int failures = failedWrites.merge(object, 1, Integer::sum);
+				if (failures > maxRetries) {
+					failedWrites.remove(object);
+					abandoned++;
+				} else {
+					pending.putIfAbsent(object, manager);
+					retriedWrites.incrementAndGet();
+				}
+			}
+		}
+
+		if (abandoned > 0) {
+			abandonedWrites.addAndGet(abandoned);
+			LogBuilder.createSystemMessage(log, Level.SEVERE).
+					addAction("write-behind flush").
+					addParameter("objects given up", abandoned).
+					addParameter("failed writes in a row", maxRetries + 1).log();
+		}
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	protected boolean isDue() {
+		return hasPending() && (System.nanoTime() - lastFlushTime >= TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis));
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Starts flushing once per window on a thread of the given factory. Returns false if no thread could be started,
+	 * e.g. on instances that do not allow background threads; flushIfDue then has to do the work.
+	 */
+	public synchronized boolean start(ThreadFactory threadFactory) {
+		if (!isEnabled || (executor != null)) {
+			return executor != null;
+		}
+
+		ScheduledExecutorService newExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		try {
+			newExecutor.scheduleWithFixedDelay(this::runScheduledFlush, flushIntervalMillis, flushIntervalMillis,
+					TimeUnit.MILLISECONDS);
+		} catch (RuntimeException ex) {
+			newExecutor.shutdownNow();
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addAction("start write-behind thread").
+					addException("flushing at end of requests instead", ex).log();
+			return false;
+		}
+
+		executor = newExecutor;
+		return true;
+	}
+
+	/**
+	 *
+	 */
+	protected void runScheduledFlush() {
+		try {
+			ObjectifyService.run(new VoidWork() {
+				public void vrun() {
+					flushIfDue();
+				}
+			});
+		} catch (RuntimeException ex) {
+			// must not escape, the executor would cancel all further flushes
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("write-behind flush failed", ex).log();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Stops the background thread and writes everything still pending.
+	 */
+	public void shutDown() throws InterruptedException {
+		ScheduledExecutorService oldExecutor;
+		synchronized (this) {
+			oldExecutor = executor;
+			executor = null;
+		}
+
+		if (oldExecutor != null) {
+			oldExecutor.shutdown();
+			oldExecutor.awaitTermination(flushIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+
+		flush();
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean hasPending() {
+		synchronized (pendingLock) {
+			return !pending.isEmpty();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNumberOfPending() {
+		synchronized (pendingLock) {
+			return pending.size();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getScheduledWrites() {
+		return scheduledWrites.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getCoalescedWrites() {
+		return coalescedWrites.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getFlushedWrites() {
+		return flushedWrites.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getRetriedWrites() {
+		return retriedWrites.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getAbandonedWrites() {
+		return abandonedWrites.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getFlushes() {
+		return flushes.get();
+	}
+
+}
@@ -0,0 +1,463 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.cache;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * A thread-safe cache bounded by a total weight (an entry count or a byte budget, depending on the weigher).
+ * Reads go straight to a ConcurrentHashMap and only record the access with the eviction policy if its lock
+ * is free; writes and evictions are serialized by that lock. Entries that must not be dropped, like photos
+ * with unsaved changes, can be pinned via the evictable predicate.
+ */
+public class BoundedCache<K, V> {
+
+	/**
+	 *
+	 */
+	public static final ToLongBiFunction<Object, Object> UNIT_WEIGHER = (key, value) -> 1;
+	public static final BiPredicate<Object, Object> ALWAYS_EVICTABLE = (key, value) -> true;
+	public static final BiConsumer<Object, Object> NO_EVICTION_LISTENER = (key, value) -> { };
+
+	/**
+	 * Pinned victims skipped per eviction, so that a cache full of pinned entries does not make every insert scan all
+	 * of them; the cache then stays over budget until a later insert or cleanUp()
+	 */
+	public static final int MAX_PINNED_SKIPS = 16;
+
+	/**
+	 *
+	 */
+	protected static class Node<V> {
+		protected final V value;
+		protected final long weight;
+
+		protected Node(V value, long weight) {
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected final ConcurrentHashMap<K, Node<V>> entries = new ConcurrentHashMap<K, Node<V>>();
+	protected final ReentrantLock evictionLock = new ReentrantLock();
+	protected final EvictionPolicy<K> policy;
+	protected final long maximumWeight;
+	protected final ToLongBiFunction<? super K, ? super V> weigher;
+	protected final BiPredicate<? super K, ? super V> evictable;
+	protected final BiConsumer<? super K, ? super V> evictionListener;
+
+	/**
+	 * Guarded by evictionLock
+	 */
+	protected long totalWeight = 0;
+
+	/**
+	 *
+	 */
+	protected final LongAdder hitCount = new LongAdder();
+	protected final LongAdder missCount = new LongAdder();
+	protected final LongAdder evictionCount = new LongAdder();
+
+	/**
+	 *
+	 */
+	protected final Map<K, V> mapView = new MapView();
+
+	/**
+	 * @methodtype factory
+	 */
+	public static <K> EvictionPolicy<K> createEvictionPolicy(String name) {
+		if (LruEvictionPolicy.NAME.equalsIgnoreCase(name)) {
+			return new LruEvictionPolicy<K>();
+		} else if (TinyLfuEvictionPolicy.NAME.equalsIgnoreCase(name)) {
+			return new TinyLfuEvictionPolicy<K>();
+		}
+
+		throw new IllegalArgumentException("unknown eviction policy: " + name);
+	}
+
+	/**
+	 *
+	 */
+	public BoundedCache(long maximumSize, EvictionPolicy<K> policy) {
+		this(maximumSize, policy, UNIT_WEIGHER, ALWAYS_EVICTABLE);
+	}
+
+	/**
+	 *
+	 */
+	public BoundedCache(long maximumWeight, EvictionPolicy<K> policy, ToLongBiFunction<? super K, ? super V> weigher,
+						BiPredicate<? super K, ? super V> evictable) {
+		this(maximumWeight, policy, weigher, evictable, NO_EVICTION_LISTENER);
+	}
+
+	/**
+	 * The eviction listener is called for every entry dropped to stay within budget (not for removed ones) while
+	 * the eviction lock is held, so it must be short and must not use the cache.
+	 */
+	public BoundedCache(long maximumWeight, EvictionPolicy<K> policy, ToLongBiFunction<? super K, ? super V> weigher,
+						BiPredicate<? super K, ? super V> evictable, BiConsumer<? super K, ? super V> evictionListener) {
+		if (maximumWeight <= 0) {
+			throw new IllegalArgumentException("maximum weight must be positive");
+		} else if ((policy == null) || (weigher == null) || (evictable == null) || (evictionListener == null)) {
+			throw new IllegalArgumentException("arguments must not be null");
+		}
+
+		this.maximumWeight = maximumWeight;
+		this.policy = policy;
+		this.weigher = weigher;
+		this.evictable = evictable;
+		this.evictionListener = evictionListener;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public V get(K key) {
+		Node<V> node = entries.get(key);
+		if (node == null) {
+			missCount.increment();
+			return null;
+		}
+
+		hitCount.increment();
+		recordAccess(key);
+		return node.value;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Loads and caches the value on a miss. Concurrent loaders of the same key may both run; the first one wins.
+	 */
+	public V get(K key, Function<? super K, ? extends V> loader) {
+		V result = get(key);
+		if (result == null) {
+			V loaded = loader.apply(key);
+			if (loaded != null) {
+				V previous = putIfAbsent(key, loaded);
+				result = (previous != null) ? previous : loaded;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public V getIfPresent(K key) {
+		Node<V> node = entries.get(key);
+		return (node == null) ? null : node.value;
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean containsKey(K key) {
+		return entries.containsKey(key);
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public V put(K key, V value) {
+		Node<V> node = new Node<V>(value, weigher.applyAsLong(key, value));
+		Node<V> previous;
+
+		evictionLock.lock();
+		try {
+			previous = entries.put(key, node);
+			if (previous == null) {
+				policy.onInsert(key);
+			} else {
+				totalWeight -= previous.weight;
+				policy.onAccess(key);
+			}
+			totalWeight += node.weight;
+			evictIfNecessary();
+		} finally {
+			evictionLock.unlock();
+		}
+
+		return (previous == null) ? null : previous.value;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public V putIfAbsent(K key, V value) {
+		Node<V> node = new Node<V>(value, weigher.applyAsLong(key, value));
+
+		evictionLock.lock();
+		try {
+			Node<V> previous = entries.putIfAbsent(key, node);
+			if (previous != null) {
+				return previous.value;
+			}
+
+			policy.onInsert(key);
+			totalWeight += node.weight;
+			evictIfNecessary();
+		} finally {
+			evictionLock.unlock();
+		}
+
+		return null;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public V remove(K key) {
+		evictionLock.lock();
+		try {
+			Node<V> node = entries.remove(key);
+			if (node == null) {
+				return null;
+			}
+
+			policy.onRemove(key);
+			totalWeight -= node.weight;
+			return node.value;
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		evictionLock.lock();
+		try {
+			for (K key : entries.keySet()) {
+				policy.onRemove(key);
+			}
+			entries.clear();
+			totalWeight = 0;
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Evicts until the cache fits its budget again, e.g. after pinned entries have become evictable. Makes at most one
+	 * pass over all entries.
+	 */
+	public void cleanUp() {
+		evictionLock.lock();
+		try {
+			evictIfNecessary(entries.size());
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getPolicyName() {
+		return policy.getName();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public CacheStatistics getStatistics() {
+		long weight;
+		evictionLock.lock();
+		try {
+			weight = totalWeight;
+		} finally {
+			evictionLock.unlock();
+		}
+
+		return new CacheStatistics(hitCount.sum(), missCount.sum(), evictionCount.sum(), entries.size(), weight);
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns a read-only live view; reads through it are not counted as hits or misses.
+	 */
+	public Map<K, V> asMap() {
+		return mapView;
+	}
+
+	/**
+	 * Dropping an access under contention only makes the policy slightly less precise.
+	 */
+	protected void recordAccess(K key) {
+		if (evictionLock.tryLock()) {
+			try {
+				policy.onAccess(key);
+			} finally {
+				evictionLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Must be called while holding evictionLock. Pinned victims are touched instead, so the policy moves
+	 * on to the next one; at most MAX_PINNED_SKIPS of them are skipped per call.
+	 */
+	protected void evictIfNecessary() {
+		evictIfNecessary(MAX_PINNED_SKIPS);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected void evictIfNecessary(int maxPinnedSkips) {
+		int skips = maxPinnedSkips;
+		while ((totalWeight > maximumWeight) && (skips > 0)) {
+			K victim = policy.selectVictim();
+			if (victim == null) {
+				return;
+			}
+
+			Node<V> node = entries.get(victim);
+			if (node == null) {
+				policy.onRemove(victim);
+			} else if (!evictable.test(victim, node.value)) {
+				policy.onAccess(victim);
+				skips--;
+			} else {
+				entries.remove(victim);
+				policy.onRemove(victim);
+				totalWeight -= node.weight;
+				evictionCount.increment();
+				evictionListener.accept(victim, node.value);
+			}
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected class MapView extends AbstractMap<K, V> {
+
+		@Override
+		public V get(Object key) {
+			Node<V> node = entries.get(key);
+			return (node == null) ? null : node.value;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return entries.containsKey(key);
+		}
+
+		@Override
+		public int size() {
+			return entries.size();
+		}
+
+		@Override
+		public Set<K> keySet() {
+			return Collections.unmodifiableSet(entries.keySet());
+		}
+
+		@Override
+		public Collection<V> values() {
+			return new AbstractCollection<V>() {
+				@Override
+				public Iterator<V> iterator() {
+					Iterator<Node<V>> nodes = entries.values().iterator();
+					return new Iterator<V>() {
+						public boolean hasNext() {
+							return nodes.hasNext();
+						}
+
+						public V next() {
+							return nodes.next().value;
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return entries.size();
+				}
+			};
+		}
+
+		@Override
+		public Set<Entry<K, V>> entrySet() {
+			return new AbstractSet<Entry<K, V>>() {
+				@Override
+				public Iterator<Entry<K, V>> iterator() {
+					Iterator<Entry<K, Node<V>>> i = entries.entrySet().iterator();
+					return new Iterator<Entry<K, V>>() {
+						public boolean hasNext() {
+							return i.hasNext();
+						}
+
+						public Entry<K, V> next() {
+							Entry<K, Node<V>> entry = i.next();
+							return new SimpleImmutableEntry<K, V>(entry.getKey(), entry.getValue().value);
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return entries.size();
+				}
+			};
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.cache;
+
+/**
+ * An immutable snapshot of the counters of a {@link BoundedCache}.
+ */
+public class CacheStatistics {
+
+	/**
+	 *
+	 */
+	protected final long hitCount;
+	protected final long missCount;
+	protected final long evictionCount;
+	protected final int size;
+	protected final long weight;
+
+	/**
+	 *
+	 */
+	public CacheStatistics(long hitCount, long missCount, long evictionCount, int size, long weight) {
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+		this.size = size;
+		this.weight = weight;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getWeight() {
+		return weight;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public double getHitRate() {
+		long requestCount = hitCount + missCount;
+		return (requestCount == 0) ? 1.0 : (double) hitCount / requestCount;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		return "hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount + ", size=" + size
+				+ ", weight=" + weight;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String toString() {
+		return asString();
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.cache;
+
+/**
+ * An EvictionPolicy decides which key of a {@link BoundedCache} has to go when the cache exceeds its budget.
+ * The cache calls all methods while holding its eviction lock, so implementations need not be thread-safe.
+ */
+public interface EvictionPolicy<K> {
+
+	/**
+	 * @methodtype command
+	 */
+	void onInsert(K key);
+
+	/**
+	 * @methodtype command
+	 *
+	 * Unknown keys must be ignored, as the cache records accesses lossy and possibly after a removal.
+	 */
+	void onAccess(K key);
+
+	/**
+	 * @methodtype command
+	 */
+	void onRemove(K key);
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the key that should be evicted next without removing it from the policy, or null if empty.
+	 */
+	K selectVictim();
+
+	/**
+	 * @methodtype get
+	 */
+	String getName();
+
+}
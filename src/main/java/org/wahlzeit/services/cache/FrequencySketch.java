@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.cache;
+
+/**
+ * A count-min sketch estimating how often a key has been seen recently.
+ * Counters saturate at 15 and are halved periodically, so old popularity fades away.
+ */
+class FrequencySketch {
+
+	/**
+	 *
+	 */
+	protected static final int DEPTH = 4;
+	protected static final int MAX_COUNT = 15;
+	protected static final int MIN_WIDTH = 64;
+	protected static final int SAMPLE_FACTOR = 10;
+
+	/**
+	 * Counters per expected key and row; keeps one-hit wonders from inflating each other's estimates
+	 */
+	protected static final int COUNTERS_PER_KEY = 8;
+
+	/**
+	 *
+	 */
+	protected static final int[] SEEDS = { 0x97cb3127, 0xb7e15162, 0x1b873593, 0x7feb352d };
+
+	/**
+	 *
+	 */
+	protected byte[] table;
+	protected int mask;
+	protected int additions = 0;
+	protected int sampleSize;
+
+	/**
+	 *
+	 */
+	FrequencySketch() {
+		resize(MIN_WIDTH);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Grows the sketch so that it can tell apart about expectedKeys keys; existing counts are dropped.
+	 */
+	void ensureCapacity(int expectedKeys) {
+		long width = (long) expectedKeys * COUNTERS_PER_KEY;
+		if ((width > table.length / DEPTH) && (width <= (1 << 26))) {
+			resize(Integer.highestOneBit((int) width - 1) << 1);
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected void resize(int width) {
+		table = new byte[width * DEPTH];
+		mask = width - 1;
+		sampleSize = (width / COUNTERS_PER_KEY) * SAMPLE_FACTOR;
+		additions = 0;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	void increment(Object key) {
+		int hash = spread(key.hashCode());
+		boolean added = false;
+		for (int i = 0; i < DEPTH; i++) {
+			int index = indexOf(hash, i);
+			if (table[index] < MAX_COUNT) {
+				table[index]++;
+				added = true;
+			}
+		}
+
+		if (added && (++additions >= sampleSize)) {
+			reset();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int result = MAX_COUNT;
+		for (int i = 0; i < DEPTH; i++) {
+			result = Math.min(result, table[indexOf(hash, i)]);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void reset() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] = (byte) (table[i] >>> 1);
+		}
+		additions = additions >>> 1;
+	}
+
+	/**
+	 *
+	 */
+	protected int indexOf(int hash, int row) {
+		int h = (hash ^ SEEDS[row]) * SEEDS[row];
+		h ^= h >>> 16;
+		return (row * (mask + 1)) + (h & mask);
+	}
+
+	/**
+	 *
+	 */
+	protected static int spread(int hash) {
+		int h = hash * 0x9e3779b9;
+		return h ^ (h >>> 15);
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Evicts the least recently used key.
+ */
+public class LruEvictionPolicy<K> implements EvictionPolicy<K> {
+
+	/**
+	 *
+	 */
+	public static final String NAME = "lru";
+
+	/**
+	 * Access ordered, so the eldest entry is the least recently used one
+	 */
+	protected LinkedHashMap<K, Boolean> keys = new LinkedHashMap<K, Boolean>(16, 0.75f, true);
+
+	/**
+	 *
+	 */
+	public void onInsert(K key) {
+		keys.put(key, Boolean.TRUE);
+	}
+
+	/**
+	 *
+	 */
+	public void onAccess(K key) {
+		keys.get(key);
+	}
+
+	/**
+	 *
+	 */
+	public void onRemove(K key) {
+		keys.remove(key);
+	}
+
+	/**
+	 *
+	 */
+	public K selectVictim() {
+		Iterator<K> i = keys.keySet().iterator();
+		return i.hasNext() ? i.next() : null;
+	}
+
+	/**
+	 *
+	 */
+	public String getName() {
+		return NAME;
+	}
+
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A W-TinyLFU policy: new keys enter a small LRU window, graduate into a segmented LRU main area,
+ * and may only push out the main area's eldest key if they have been requested more often.
+ * That way a scan over rarely viewed photos cannot flush the popular ones out of the cache.
+ */
+public class TinyLfuEvictionPolicy<K> implements EvictionPolicy<K> {
+
+	/**
+	 *
+	 */
+	public static final String NAME = "tinylfu";
+
+	/**
+	 *
+	 */
+	protected static final int WINDOW_PERCENTAGE = 1;
+	protected static final int PROTECTED_PERCENTAGE = 80;
+
+	/**
+	 *
+	 */
+	protected enum Segment {
+		WINDOW, PROBATION, PROTECTED
+	}
+
+	/**
+	 *
+	 */
+	protected static class Node<K> {
+		protected final K key;
+		protected Segment segment;
+		protected Node<K> previous;
+		protected Node<K> next;
+
+		protected Node(K key) {
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Doubly linked list with the eldest node first
+	 */
+	protected static class NodeList<K> {
+		protected final Node<K> head = new Node<K>(null);
+		protected int size = 0;
+
+		protected NodeList() {
+			head.previous = head;
+			head.next = head;
+		}
+
+		protected void addLast(Node<K> node) {
+			node.previous = head.previous;
+			node.next = head;
+			head.previous.next = node;
+			head.previous = node;
+			size++;
+		}
+
+		protected void remove(Node<K> node) {
+			node.previous.next = node.next;
+			node.next.previous = node.previous;
+			node.previous = null;
+			node.next = null;
+			size--;
+		}
+
+		protected void moveToLast(Node<K> node) {
+			remove(node);
+			addLast(node);
+		}
+
+		protected Node<K> first() {
+			return (head.next == head) ? null : head.next;
+		}
+
+		protected Node<K> last() {
+			return (head.previous == head) ? null : head.previous;
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected Map<K, Node<K>> nodes = new HashMap<K, Node<K>>();
+	protected NodeList<K> window = new NodeList<K>();
+	protected NodeList<K> probation = new NodeList<K>();
+	protected NodeList<K> protectedList = new NodeList<K>();
+	protected FrequencySketch sketch = new FrequencySketch();
+
+	/**
+	 *
+	 */
+	public void onInsert(K key) {
+		sketch.ensureCapacity(nodes.size() + 1);
+		sketch.increment(key);
+
+		Node<K> node = nodes.get(key);
+		if (node != null) {
+			doAccess(node);
+			return;
+		}
+
+		node = new Node<K>(key);
+		node.segment = Segment.WINDOW;
+		nodes.put(key, node);
+		window.addLast(node);
+
+		while (window.size > getWindowCapacity()) {
+			Node<K> candidate = window.first();
+			window.remove(candidate);
+			candidate.segment = Segment.PROBATION;
+			probation.addLast(candidate);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void onAccess(K key) {
+		Node<K> node = nodes.get(key);
+		if (node != null) {
+			sketch.increment(key);
+			doAccess(node);
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected void doAccess(Node<K> node) {
+		switch (node.segment) {
+			case WINDOW:
+				window.moveToLast(node);
+				break;
+			case PROBATION:
+				probation.remove(node);
+				node.segment = Segment.PROTECTED;
+				protectedList.addLast(node);
+				demoteProtectedIfNecessary();
+				break;
+			case PROTECTED:
+				protectedList.moveToLast(node);
+				break;
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected void demoteProtectedIfNecessary() {
+		int maxProtected = ((nodes.size() - window.size) * PROTECTED_PERCENTAGE) / 100;
+		while (protectedList.size > Math.max(1, maxProtected)) {
+			Node<K> demoted = protectedList.first();
+			protectedList.remove(demoted);
+			demoted.segment = Segment.PROBATION;
+			probation.addLast(demoted);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void onRemove(K key) {
+		Node<K> node = nodes.remove(key);
+		if (node != null) {
+			getList(node.segment).remove(node);
+		}
+	}
+
+	/**
+	 * The newest probation key is the latest one admitted from the window; it has to beat the eldest one.
+	 */
+	public K selectVictim() {
+		Node<K> victim = probation.first();
+		Node<K> candidate = probation.last();
+		if (victim != null) {
+			if ((candidate != victim) && (sketch.frequency(candidate.key) > sketch.frequency(victim.key))) {
+				return victim.key;
+			}
+			return candidate.key;
+		}
+
+		Node<K> result = protectedList.first();
+		if (result == null) {
+			result = window.first();
+		}
+
+		return (result == null) ? null : result.key;
+	}
+
+	/**
+	 *
+	 */
+	public String getName() {
+		return NAME;
+	}
+
+	/**
+	 *
+	 */
+	protected int getWindowCapacity() {
+		return Math.max(1, (nodes.size() * WINDOW_PERCENTAGE) / 100);
+	}
+
+	/**
+	 *
+	 */
+	protected NodeList<K> getList(Segment segment) {
+		switch (segment) {
+			case WINDOW:
+				return window;
+			case PROBATION:
+				return probation;
+			default:
+				return protectedList;
+		}
+	}
+
+}
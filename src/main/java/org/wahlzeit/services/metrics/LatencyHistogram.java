@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.services.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe latency histogram in the style of HdrHistogram: microsecond values are counted in log-linear buckets,
+ * 16 per power of two, so every recorded value is off by less than 1/16 and the whole range up to a day takes a few
+ * KB. Recording only increments counters and never allocates.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Values below 2^SUB_BUCKET_BITS get one bucket each, then every power of two is split in half as many buckets
+	 */
+	protected static final int SUB_BUCKET_BITS = 5;
+	protected static final int SUB_BUCKET_HALF_COUNT = 1 << (SUB_BUCKET_BITS - 1);
+
+	/**
+	 * Largest trackable value, 2^37 - 1 microseconds (about 38 hours); larger ones are counted as this
+	 */
+	public static final long MAX_TRACKABLE_MICROS = (1L << 37) - 1;
+
+	/**
+	 *
+	 */
+	protected final AtomicLongArray counts = new AtomicLongArray(getBucketIndex(MAX_TRACKABLE_MICROS) + 1);
+	protected final AtomicLong count = new AtomicLong();
+	protected final AtomicLong totalMicros = new AtomicLong();
+	protected final AtomicLong maxMicros = new AtomicLong();
+
+	/**
+	 * @methodtype command
+	 */
+	public void recordNanos(long nanos) {
+		recordMicros(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void recordMicros(long micros) {
+		long value = Math.min(Math.max(0, micros), MAX_TRACKABLE_MICROS);
+		counts.incrementAndGet(getBucketIndex(value));
+		count.incrementAndGet();
+		totalMicros.addAndGet(value);
+
+		long max = maxMicros.get();
+		while ((value > max) && !maxMicros.compareAndSet(max, value)) {
+			max = maxMicros.get();
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static int getBucketIndex(long value) {
+		if (value < (1 << SUB_BUCKET_BITS)) {
+			return (int) value;
+		}
+
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS + 1;
+		return (shift * SUB_BUCKET_HALF_COUNT) + (int) (value >>> shift);
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns the largest value counted in the bucket.
+	 */
+	protected static long getHighestValue(int index) {
+		if (index < (1 << SUB_BUCKET_BITS)) {
+			return index;
+		}
+
+		int shift = (index / SUB_BUCKET_HALF_COUNT) - 1;
+		long subBucket = index - (shift * SUB_BUCKET_HALF_COUNT);
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the smallest value, in microseconds, that the given percentage (0 to 100) of all values does not exceed,
+	 * at bucket resolution.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = count.get();
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil((Math.min(percentile, 100.0) / 100.0) * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(getHighestValue(i), getMaxMicros());
+			}
+		}
+
+		return getMaxMicros();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMaxMicros() {
+		return maxMicros.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public double getMeanMicros() {
+		long total = count.get();
+		return (total == 0) ? 0.0 : (double) totalMicros.get() / total;
+	}
+
+}
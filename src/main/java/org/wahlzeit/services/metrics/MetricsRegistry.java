@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.services.metrics;
+
+import org.wahlzeit.services.SessionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the RequestMetrics of all handlers and servlets and the StorageMetrics of all entity types, and renders them
+ * as text or JSON. Both are looked up by class, which costs no allocation once the class has been seen.
+ */
+public class MetricsRegistry {
+
+	/**
+	 *
+	 */
+	protected static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+
+	/**
+	 *
+	 */
+	protected static MetricsRegistry instance = new MetricsRegistry();
+
+	/**
+	 *
+	 */
+	protected final ConcurrentMap<String, RequestMetrics> metrics = new ConcurrentHashMap<String, RequestMetrics>();
+
+	/**
+	 *
+	 */
+	protected final ClassValue<RequestMetrics> metricsByClass = new ClassValue<RequestMetrics>() {
+		@Override
+		protected RequestMetrics computeValue(Class<?> type) {
+			return getMetrics(type.getSimpleName());
+		}
+	};
+
+	/**
+	 * By entity type name, indexed by StorageOperation.ordinal()
+	 */
+	protected final ConcurrentMap<String, AtomicReferenceArray<StorageMetrics>> storageMetrics =
+			new ConcurrentHashMap<String, AtomicReferenceArray<StorageMetrics>>();
+
+	/**
+	 *
+	 */
+	protected final ClassValue<AtomicReferenceArray<StorageMetrics>> storageMetricsByClass =
+			new ClassValue<AtomicReferenceArray<StorageMetrics>>() {
+		@Override
+		protected AtomicReferenceArray<StorageMetrics> computeValue(Class<?> type) {
+			return storageMetrics.computeIfAbsent(type.getSimpleName(),
+					name -> new AtomicReferenceArray<StorageMetrics>(StorageOperation.values().length));
+		}
+	};
+
+	/**
+	 * Throughput is measured from here on
+	 */
+	protected final long startTime = System.nanoTime();
+
+	/**
+	 *
+	 */
+	public static MetricsRegistry getInstance() {
+		return instance;
+	}
+
+	/**
+	 *
+	 */
+	public static void setInstance(MetricsRegistry metricsRegistry) {
+		instance = metricsRegistry;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public RequestMetrics getMetrics(String name) {
+		RequestMetrics result = metrics.get(name);
+		if (result == null) {
+			result = metrics.computeIfAbsent(name, RequestMetrics::new);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public RequestMetrics getMetrics(Class<?> type) {
+		return metricsByClass.get(type);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Records a storage call that moved an unknown number of bytes, like a datastore call.
+	 */
+	public void recordStorageCall(Class<?> type, StorageOperation operation, int calls, int entities, long startTime) {
+		recordStorageCall(type, operation, calls, entities, StorageMetrics.UNKNOWN_BYTES, startTime);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Records a storage call that started at startTime (System.nanoTime()), also for the trace of the current request.
+	 */
+	public void recordStorageCall(Class<?> type, StorageOperation operation, int calls, int entities, long bytes,
+			long startTime) {
+		long nanos = System.nanoTime() - startTime;
+		StorageMetrics metrics = getStorageMetrics(type, operation);
+		metrics.record(calls, entities, bytes, nanos);
+
+		RequestTrace trace = SessionManager.getThreadLocalTrace();
+		if (trace != null) {
+			trace.record(metrics.getTypeName(), operation, calls, entities, bytes, nanos);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public StorageMetrics getStorageMetrics(Class<?> type, StorageOperation operation) {
+		AtomicReferenceArray<StorageMetrics> metrics = storageMetricsByClass.get(type);
+		StorageMetrics result = metrics.get(operation.ordinal());
+		if (result == null) {
+			metrics.compareAndSet(operation.ordinal(), null, new StorageMetrics(type.getSimpleName(), operation));
+			result = metrics.get(operation.ordinal());
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the metrics of all storage calls made so far, sorted by type name.
+	 */
+	public List<StorageMetrics> getAllStorageMetrics() {
+		List<String> typeNames = new ArrayList<String>(storageMetrics.keySet());
+		typeNames.sort(null);
+
+		List<StorageMetrics> result = new ArrayList<StorageMetrics>();
+		for (String typeName : typeNames) {
+			AtomicReferenceArray<StorageMetrics> metrics = storageMetrics.get(typeName);
+			for (int i = 0; i < metrics.length(); i++) {
+				if (metrics.get(i) != null) {
+					result.add(metrics.get(i));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns all metrics, sorted by name.
+	 */
+	public List<RequestMetrics> getAllMetrics() {
+		List<RequestMetrics> result = new ArrayList<RequestMetrics>(metrics.values());
+		result.sort((a, b) -> a.getName().compareTo(b.getName()));
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public double getUptimeSeconds() {
+		return Math.max(1e-9, (System.nanoTime() - startTime) / 1e9);
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * One line per handler and phase: name, phase, count, errors, requests per second, and latencies in microseconds.
+	 */
+	public String asText() {
+		StringBuilder result = new StringBuilder();
+		double uptime = getUptimeSeconds();
+		for (RequestMetrics requestMetrics : getAllMetrics()) {
+			for (RequestPhase phase : RequestPhase.values()) {
+				LatencyHistogram histogram = requestMetrics.getHistogram(phase);
+				if (histogram == null) {
+					continue;
+				}
+
+				result.append(requestMetrics.getName()).append(' ').append(phase.asString()).
+						append(" count=").append(histogram.getCount()).
+						append(" errors=").append(requestMetrics.getErrorCount(phase)).
+						append(" rate=").append(format(histogram.getCount() / uptime)).
+						append(" mean=").append(format(histogram.getMeanMicros()));
+				for (double percentile : PERCENTILES) {
+					result.append(" p").append(asPercentileName(percentile)).append('=').
+							append(histogram.getValueAtPercentile(percentile));
+				}
+				result.append(" max=").append(histogram.getMaxMicros()).append('\n');
+			}
+		}
+
+		for (StorageMetrics metrics : getAllStorageMetrics()) {
+			LatencyHistogram histogram = metrics.getLatencies();
+			result.append("storage ").append(metrics.getTypeName()).append(' ').
+					append(metrics.getOperation().asString()).
+					append(" calls=").append(metrics.getCalls()).
+					append(" entities=").append(metrics.getEntities());
+			if (metrics.hasBytes()) {
+				result.append(" bytes=").append(metrics.getBytes());
+			}
+			result.append(" mean=").append(format(histogram.getMeanMicros())).
+					append(" p99=").append(histogram.getValueAtPercentile(99.0)).
+					append(" max=").append(histogram.getMaxMicros()).append('\n');
+		}
+
+		return result.toString();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asJson() {
+		StringBuilder result = new StringBuilder();
+		double uptime = getUptimeSeconds();
+		result.append("{\"uptimeSeconds\":").append(format(uptime)).append(",\"unit\":\"us\",\"storage\":[");
+		boolean isFirstCall = true;
+		for (StorageMetrics metrics : getAllStorageMetrics()) {
+			LatencyHistogram histogram = metrics.getLatencies();
+			result.append(isFirstCall ? "" : ",").
+					append("{\"type\":\"").append(asJsonString(metrics.getTypeName())).
+					append("\",\"operation\":\"").append(metrics.getOperation().asString()).
+					append("\",\"calls\":").append(metrics.getCalls()).
+					append(",\"entities\":").append(metrics.getEntities());
+			if (metrics.hasBytes()) {
+				result.append(",\"bytes\":").append(metrics.getBytes());
+			}
+			result.append(",\"mean\":").append(format(histogram.getMeanMicros())).
+					append(",\"p99\":").append(histogram.getValueAtPercentile(99.0)).
+					append(",\"max\":").append(histogram.getMaxMicros()).append('}');
+			isFirstCall = false;
+		}
+		result.append("],\"handlers\":{");
+		boolean isFirstHandler = true;
+		for (RequestMetrics requestMetrics : getAllMetrics()) {
+			result.append(isFirstHandler ? "" : ",").append('"').append(asJsonString(requestMetrics.getName())).
+					append("\":{");
+			isFirstHandler = false;
+
+			boolean isFirstPhase = true;
+			for (RequestPhase phase : RequestPhase.values()) {
+				LatencyHistogram histogram = requestMetrics.getHistogram(phase);
+				if (histogram == null) {
+					continue;
+				}
+
+				result.append(isFirstPhase ? "" : ",").append('"').append(phase.asString()).append("\":{").
+						append("\"count\":").append(histogram.getCount()).
+						append(",\"errors\":").append(requestMetrics.getErrorCount(phase)).
+						append(",\"rate\":").append(format(histogram.getCount() / uptime)).
+						append(",\"mean\":").append(format(histogram.getMeanMicros()));
+				for (double percentile : PERCENTILES) {
+					result.append(",\"p").append(asPercentileName(percentile)).append("\":").
+							append(histogram.getValueAtPercentile(percentile));
+				}
+				result.append(",\"max\":").append(histogram.getMaxMicros()).append('}');
+				isFirstPhase = false;
+			}
+			result.append('}');
+		}
+		result.append("}}");
+
+		return result.toString();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String format(double value) {
+		return String.format(Locale.ROOT, "%.2f", value);
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * 99.9 becomes "999", 50.0 becomes "50".
+	 */
+	protected static String asPercentileName(double percentile) {
+		return (percentile == Math.rint(percentile)) ? String.valueOf((long) percentile) :
+				String.valueOf(percentile).replace(".", "");
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asJsonString(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+}
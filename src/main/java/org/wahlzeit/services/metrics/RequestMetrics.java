@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.services.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Latencies and error counts of one handler or servlet, by request phase. A phase's histogram is created on its first
+ * request; after that, recording does not allocate.
+ */
+public class RequestMetrics {
+
+	/**
+	 *
+	 */
+	protected final String name;
+
+	/**
+	 * Indexed by RequestPhase.ordinal()
+	 */
+	protected final AtomicReferenceArray<LatencyHistogram> histograms =
+			new AtomicReferenceArray<LatencyHistogram>(RequestPhase.values().length);
+	protected final AtomicLongArray errors = new AtomicLongArray(RequestPhase.values().length);
+
+	/**
+	 *
+	 */
+	public RequestMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void record(RequestPhase phase, long nanos) {
+		getOrCreateHistogram(phase).recordNanos(nanos);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void record(RequestPhase phase, long nanos, boolean failed) {
+		record(phase, nanos);
+		if (failed) {
+			recordError(phase);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void recordError(RequestPhase phase) {
+		errors.incrementAndGet(phase.ordinal());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected LatencyHistogram getOrCreateHistogram(RequestPhase phase) {
+		LatencyHistogram result = histograms.get(phase.ordinal());
+		if (result == null) {
+			histograms.compareAndSet(phase.ordinal(), null, new LatencyHistogram());
+			result = histograms.get(phase.ordinal());
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns null if there was no request in the phase yet.
+	 */
+	public LatencyHistogram getHistogram(RequestPhase phase) {
+		return histograms.get(phase.ordinal());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getCount(RequestPhase phase) {
+		LatencyHistogram histogram = getHistogram(phase);
+		return (histogram == null) ? 0 : histogram.getCount();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getErrorCount(RequestPhase phase) {
+		return errors.get(phase.ordinal());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getName() {
+		return name;
+	}
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.services.metrics;
+
+/**
+ * The phases of handling a request that are measured separately.
+ */
+public enum RequestPhase {
+
+	HANDLE_GET("handleGet"),
+	HANDLE_POST("handlePost"),
+	MAKE_WEB_PART("makeWebPart");
+
+	/**
+	 *
+	 */
+	private final String name;
+
+	/**
+	 *
+	 */
+	RequestPhase(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		return name;
+	}
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.services.metrics;
+
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.Session;
+import org.wahlzeit.services.SessionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the storage calls of one request, attributed through the thread-local of the SessionManager. Requests
+ * that take too long or make too many calls are logged with their breakdown by entity type and operation, which is
+ * what gives N+1 patterns away.
+ */
+public class RequestTrace {
+
+	/**
+	 * System properties
+	 */
+	public static final String SLOW_REQUEST_MILLIS = "wahlzeit.requestTrace.slowMillis";
+	public static final String MAX_STORAGE_CALLS = "wahlzeit.requestTrace.maxStorageCalls";
+
+	public static final long DEFAULT_SLOW_REQUEST_MILLIS = 1000;
+	public static final int DEFAULT_MAX_STORAGE_CALLS = 50;
+
+	private static final Logger log = Logger.getLogger(RequestTrace.class.getName());
+
+	/**
+	 *
+	 */
+	protected final String name;
+	protected final String sessionName;
+	protected final long startTime = System.nanoTime();
+
+	/**
+	 * Few distinct types and operations per request, so a list is searched faster than a map is hashed
+	 */
+	protected final List<Entry> entries = new ArrayList<Entry>();
+	protected int numberOfCalls = 0;
+
+	/**
+	 *
+	 */
+	public RequestTrace(String name, String sessionName) {
+		this.name = name;
+		this.sessionName = sessionName;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Starts tracing the request of the current thread.
+	 */
+	public static RequestTrace start(String name) {
+		Session session = SessionManager.getThreadLocalSession();
+		RequestTrace result = new RequestTrace(name, (session != null) ? session.getName() : Session.NO_SESSION);
+		SessionManager.setThreadLocalTrace(result);
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Stops tracing the request of the current thread and logs it if it was slow or chatty.
+	 */
+	public static void finish() {
+		RequestTrace trace = SessionManager.getThreadLocalTrace();
+		SessionManager.dropThreadLocalTrace();
+		if (trace != null) {
+			trace.logIfExceeded(Long.getLong(SLOW_REQUEST_MILLIS, DEFAULT_SLOW_REQUEST_MILLIS),
+					Integer.getInteger(MAX_STORAGE_CALLS, DEFAULT_MAX_STORAGE_CALLS));
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void record(String typeName, StorageOperation operation, int calls, int entities, long bytes, long nanos) {
+		Entry entry = null;
+		for (int i = 0; (i < entries.size()) && (entry == null); i++) {
+			Entry candidate = entries.get(i);
+			if ((candidate.operation == operation) && candidate.typeName.equals(typeName)) {
+				entry = candidate;
+			}
+		}
+
+		if (entry == null) {
+			entry = new Entry(typeName, operation);
+			entries.add(entry);
+		}
+
+		entry.calls += calls;
+		entry.entities += entities;
+		if (bytes != StorageMetrics.UNKNOWN_BYTES) {
+			entry.bytes += bytes;
+			entry.hasBytes = true;
+		}
+		entry.nanos += nanos;
+		numberOfCalls += calls;
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean isExceeded(long slowRequestMillis, int maxStorageCalls) {
+		return (getElapsedMillis() >= slowRequestMillis) || (numberOfCalls > maxStorageCalls);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void logIfExceeded(long slowRequestMillis, int maxStorageCalls) {
+		if (isExceeded(slowRequestMillis, maxStorageCalls)) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addAction("slow or chatty request").
+					addParameter("request", name).
+					addParameter("request session", sessionName).
+					addParameter("duration ms", getElapsedMillis()).
+					addParameter("storage calls", numberOfCalls).
+					addParameter("breakdown", asBreakdownString()).log();
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * E.g. "[Photo read calls=12 entities=12 ms=30, Image read calls=3 entities=3 bytes=92160 ms=4]"; bytes are left
+	 * out where unknown.
+	 */
+	public String asBreakdownString() {
+		StringBuilder result = new StringBuilder("[");
+		for (Entry entry : entries) {
+			if (result.length() > 1) {
+				result.append(", ");
+			}
+			result.append(entry.typeName).append(' ').append(entry.operation.asString()).
+					append(" calls=").append(entry.calls).
+					append(" entities=").append(entry.entities);
+			if (entry.hasBytes) {
+				result.append(" bytes=").append(entry.bytes);
+			}
+			result.append(" ms=").append(TimeUnit.NANOSECONDS.toMillis(entry.nanos));
+		}
+		return result.append(']').toString();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getElapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNumberOfCalls() {
+		return numberOfCalls;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * The calls of one type and operation
+	 */
+	protected static class Entry {
+
+		protected final String typeName;
+		protected final StorageOperation operation;
+		protected int calls = 0;
+		protected int entities = 0;
+		protected long bytes = 0;
+		protected boolean hasBytes = false;
+		protected long nanos = 0;
+
+		protected Entry(String typeName, StorageOperation operation) {
+			this.typeName = typeName;
+			this.operation = operation;
+		}
+	}
+
+}
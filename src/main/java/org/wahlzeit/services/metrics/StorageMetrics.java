@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.services.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of one kind of storage call for one entity type: calls (round trips), entities and bytes moved, and the
+ * latency of the calls. Bytes are only counted for storages that know them, like the image storage; the datastore
+ * does not tell the size of the entities it moved.
+ */
+public class StorageMetrics {
+
+	/**
+	 * Passed as number of bytes by calls that do not know it
+	 */
+	public static final long UNKNOWN_BYTES = -1;
+
+	/**
+	 *
+	 */
+	protected final String typeName;
+	protected final StorageOperation operation;
+
+	/**
+	 *
+	 */
+	protected final LatencyHistogram latencies = new LatencyHistogram();
+	protected final AtomicLong calls = new AtomicLong();
+	protected final AtomicLong entities = new AtomicLong();
+	protected final AtomicLong bytes = new AtomicLong();
+	protected volatile boolean hasBytes = false;
+
+	/**
+	 *
+	 */
+	public StorageMetrics(String typeName, StorageOperation operation) {
+		this.typeName = typeName;
+		this.operation = operation;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void record(int numberOfCalls, int numberOfEntities, long numberOfBytes, long nanos) {
+		latencies.recordNanos(nanos);
+		calls.addAndGet(numberOfCalls);
+		entities.addAndGet(numberOfEntities);
+		if (numberOfBytes != UNKNOWN_BYTES) {
+			bytes.addAndGet(numberOfBytes);
+			hasBytes = true;
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getTypeName() {
+		return typeName;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public StorageOperation getOperation() {
+		return operation;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public LatencyHistogram getLatencies() {
+		return latencies;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getCalls() {
+		return calls.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getEntities() {
+		return entities.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * @methodtype boolean query
+	 *
+	 * Whether any of the calls recorded so far knew its number of bytes
+	 */
+	public boolean hasBytes() {
+		return hasBytes;
+	}
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.services.metrics;
+
+/**
+ * The kinds of datastore and image storage calls that are counted separately.
+ */
+public enum StorageOperation {
+
+	READ("read"),
+	QUERY("query"),
+	WRITE("write"),
+	DELETE("delete"),
+	EXISTS("exists");
+
+	/**
+	 *
+	 */
+	private final String name;
+
+	/**
+	 *
+	 */
+	StorageOperation(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		return name;
+	}
+
+}
@@ -21,10 +21,14 @@
 package org.wahlzeit.servlets;
 
 import org.wahlzeit.main.ServiceMain;
+import org.wahlzeit.main.StartupPhase;
 import org.wahlzeit.model.UserSession;
+import org.wahlzeit.services.IdCounter;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.Session;
 import org.wahlzeit.services.SessionManager;
+import org.wahlzeit.services.WriteBehindQueue;
+import org.wahlzeit.services.metrics.RequestTrace;
 import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
@@ -33,11 +37,14 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -47,30 +54,48 @@ public abstract class AbstractServlet extends HttpServlet {
 
 	private static final Logger log = Logger.getLogger(AbstractServlet.class.getName());
 	private static final long serialVersionUID = 42L; // any does; class never serialized
+
+	/**
+	 * Pages are written in many small pieces, which are collected before they reach the servlet stream
+	 */
+	protected static final int OUTPUT_BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * Suggested delay for requests arriving while the instance is starting up
+	 */
+	protected static final int RETRY_AFTER_SECONDS = 5;
+
 	/**
 	 *
 	 */
-	protected static int lastSessionId = 0; // system and agent are named differently
+	protected static final IdCounter sessionIdCounter = new IdCounter(); // system and agent are named differently
 
 	/**
 	 *
 	 */
-	public static synchronized int getLastSessionId() {
-		return lastSessionId;
+	public static int getLastSessionId() {
+		return (int) sessionIdCounter.getLastId();
 	}
 
 	/**
 	 *
 	 */
 	public static void setLastSessionId(int newSessionId) {
-		lastSessionId = newSessionId;
+		sessionIdCounter.setLastId(newSessionId);
 	}
 
 	/**
 	 *
 	 */
-	public static synchronized int getNextSessionId() {
-		return ++lastSessionId;
+	public static int getNextSessionId() {
+		return (int) sessionIdCounter.nextId();
+	}
+
+	/**
+	 *
+	 */
+	public static IdCounter getSessionIdCounter() {
+		return sessionIdCounter;
 	}
 
 	/**
@@ -80,16 +105,26 @@ public abstract class AbstractServlet extends HttpServlet {
 		request.setCharacterEncoding("UTF-8");
 		response.setCharacterEncoding("UTF-8");
 
+		if (!isServing(response)) {
+			return;
+		}
+
 		UserSession us = ensureUserSession(request);
 		SessionManager.setThreadLocalSession(us);
+		RequestTrace.start(request.getRequestURI());
 
-		if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
-			displayNullPage(request, response);
-		} else {
-			myGet(request, response);
-		}
+		try {
+			if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
+				displayNullPage(request, response);
+			} else {
+				myGet(request, response);
+			}
 
-		SessionManager.dropThreadLocalSession();
+			WriteBehindQueue.getInstance().flushIfDue();
+		} finally {
+			RequestTrace.finish();
+			SessionManager.dropThreadLocalSession();
+		}
 	}
 
 	/**
@@ -99,16 +134,42 @@ public abstract class AbstractServlet extends HttpServlet {
 		request.setCharacterEncoding("UTF-8");
 		response.setCharacterEncoding("UTF-8");
 
+		if (!isServing(response)) {
+			return;
+		}
+
 		UserSession us = ensureUserSession(request);
 		SessionManager.setThreadLocalSession(us);
+		RequestTrace.start(request.getRequestURI());
+
+		try {
+			if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
+				displayNullPage(request, response);
+			} else {
+				myPost(request, response);
+			}
 
-		if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
-			displayNullPage(request, response);
-		} else {
-			myPost(request, response);
+			WriteBehindQueue.getInstance().flushIfDue();
+		} finally {
+			RequestTrace.finish();
+			SessionManager.dropThreadLocalSession();
 		}
+	}
 
-		SessionManager.dropThreadLocalSession();
+	/**
+	 * Answers with 503 and returns false while the model is not serving, e.g. while it is being saved on shutdown,
+	 * so load balancers and clients retry, possibly with another instance
+	 */
+	protected boolean isServing(HttpServletResponse response) throws IOException {
+		StartupPhase phase = ServiceMain.getInstance().getStartupPhase();
+		if (phase.isServing()) {
+			return true;
+		}
+
+		String message = (phase == StartupPhase.SHUTTING_DOWN) ? "Shutting down" : "Starting up";
+		response.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+		response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, message + ", please retry shortly");
+		return false;
 	}
 
 	/**
@@ -170,7 +231,7 @@ public abstract class AbstractServlet extends HttpServlet {
 	protected void redirectRequest(HttpServletResponse response, String link) throws IOException {
 		response.setContentType("text/html");
 		String newTarget = new String("/" + link + ".html");
-		log.config(LogBuilder.createSystemMessage().addParameter("Redirect to", newTarget).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Redirect to", newTarget).log();
 		response.sendRedirect(newTarget);
 	}
 
@@ -180,12 +241,12 @@ public abstract class AbstractServlet extends HttpServlet {
 	protected void configureResponse(Session ctx, HttpServletResponse response, WebPart result) throws IOException {
 		long processingTime = ctx.getProcessingTime();
 		result.addString("processingTime", StringUtil.asStringInSeconds((processingTime == 0) ? 1 : processingTime));
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("proctime", String.valueOf(processingTime)).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("proctime", String.valueOf(processingTime)).log();
 
-		response.setContentType("text/html");
+		response.setContentType("text/html; charset=UTF-8");
 
-		PrintWriter out = response.getWriter();
+		OutputStream out = new BufferedOutputStream(response.getOutputStream(), OUTPUT_BUFFER_SIZE);
 		result.writeOn(out);
 		out.close();
 
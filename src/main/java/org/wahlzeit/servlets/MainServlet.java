@@ -35,6 +35,9 @@ import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SessionManager;
+import org.wahlzeit.services.metrics.MetricsRegistry;
+import org.wahlzeit.services.metrics.RequestMetrics;
+import org.wahlzeit.services.metrics.RequestPhase;
 import org.wahlzeit.webparts.WebPart;
 
 import javax.servlet.ServletException;
@@ -46,6 +49,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -75,16 +79,26 @@ public class MainServlet extends AbstractServlet {
 		} else {
 			link = PartUtil.NULL_FORM_NAME;
 		}
-		log.info(LogBuilder.createUserMessage().addParameter("posted to", link).toString());
+		LogBuilder.createUserMessage(log, Level.INFO).addParameter("posted to", link).log();
 
 		Map args = getRequestArgs(request, us);
-		log.info(LogBuilder.createSystemMessage().
-				addParameter("POST arguments", getRequestArgsAsString(us, args)).toString());
+		if (log.isLoggable(Level.INFO)) {
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("POST arguments", getRequestArgsAsString(us, args)).log();
+		}
 
 		WebFormHandler formHandler = WebPartHandlerManager.getWebFormHandler(link);
 		link = PartUtil.DEFAULT_PAGE_NAME;
 		if (formHandler != null) {
-			link = formHandler.handlePost(us, args);
+			RequestMetrics metrics = MetricsRegistry.getInstance().getMetrics(formHandler.getClass());
+			long phaseStartTime = System.nanoTime();
+			boolean failed = true;
+			try {
+				link = formHandler.handlePost(us, args);
+				failed = false;
+			} finally {
+				metrics.record(RequestPhase.HANDLE_POST, System.nanoTime() - phaseStartTime, failed);
+			}
 		}
 
 		redirectRequest(response, link);
@@ -107,20 +121,39 @@ public class MainServlet extends AbstractServlet {
 		}
 
 		link = link.substring(linkStart, linkEnd);
-		log.info(LogBuilder.createUserMessage().addParameter("requested URI", request.getRequestURI()).toString());
+		LogBuilder.createUserMessage(log, Level.INFO).addParameter("requested URI", request.getRequestURI()).log();
 
 
 		WebPageHandler handler = WebPartHandlerManager.getWebPageHandler(link);
+		RequestMetrics metrics = null;
 		String newLink = PartUtil.DEFAULT_PAGE_NAME;
 		if (handler != null) {
+			metrics = MetricsRegistry.getInstance().getMetrics(handler.getClass());
 			Map args = getRequestArgs(request, us);
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("GET arguments", getRequestArgsAsString(us, args)).toString());
-			newLink = handler.handleGet(us, link, args);
+			if (log.isLoggable(Level.INFO)) {
+				LogBuilder.createSystemMessage(log, Level.INFO).
+						addParameter("GET arguments", getRequestArgsAsString(us, args)).log();
+			}
+			long phaseStartTime = System.nanoTime();
+			boolean failed = true;
+			try {
+				newLink = handler.handleGet(us, link, args);
+				failed = false;
+			} finally {
+				metrics.record(RequestPhase.HANDLE_GET, System.nanoTime() - phaseStartTime, failed);
+			}
 		}
 
 		if (newLink.equals(link)) { // no redirect necessary
-			WebPart result = handler.makeWebPart(us);
+			long phaseStartTime = System.nanoTime();
+			boolean failed = true;
+			WebPart result;
+			try {
+				result = handler.makeWebPart(us);
+				failed = false;
+			} finally {
+				metrics.record(RequestPhase.MAKE_WEB_PART, System.nanoTime() - phaseStartTime, failed);
+			}
 			us.addProcessingTime(System.currentTimeMillis() - startTime);
 			configureResponse(us, response, result);
 			us.clearSavedArgs(); // saved args go from post to next get
@@ -166,15 +199,15 @@ public class MainServlet extends AbstractServlet {
 					User user = (User) us.getClient();
 					user.setUploadedImage(image);
 					result.put("fileName", filename);
-					log.config(LogBuilder.createSystemMessage().addParameter("Uploaded image", filename).toString());
+					LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Uploaded image", filename).log();
 				} else {
 					String key = fileItemStream.getFieldName();
 					InputStream is = fileItemStream.openStream();
 					String value = CharStreams.toString(new InputStreamReader(is, Charsets.UTF_8));
 					result.put(key, value);
-					log.config(LogBuilder.createSystemMessage().
+					LogBuilder.createSystemMessage(log, Level.CONFIG).
 							addParameter("Key of uploaded parameter", key).
-							addParameter("value", value).toString());
+							addParameter("value", value).log();
 				}
 			}
 		} catch (Exception ex) {
@@ -0,0 +1,63 @@
+package org.wahlzeit.servlets;
+
+import org.wahlzeit.main.ServiceMain;
+import org.wahlzeit.main.StartupPhase;
+import org.wahlzeit.services.metrics.MetricsRegistry;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Shows the request metrics of all handlers, as plain text or, with format=json or an Accept header asking for it,
+ * as JSON. Latencies are in microseconds.
+ */
+public class MetricsServlet extends HttpServlet {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 42L; // any one does; class never serialized
+
+	/**
+	 * Readiness of the instance, for monitoring that waits for the startup to finish
+	 */
+	public static final String STARTUP_PHASE_HEADER = "X-Wahlzeit-Startup-Phase";
+
+	@Override
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		response.setHeader("Cache-Control", "no-cache");
+		response.setCharacterEncoding("UTF-8");
+		StartupPhase startupPhase = ServiceMain.getInstance().getStartupPhase();
+		response.setHeader(STARTUP_PHASE_HEADER, startupPhase.name());
+
+		PrintWriter out = response.getWriter();
+		if (isJsonRequested(request)) {
+			response.setContentType("application/json");
+			out.print(registry.asJson());
+		} else {
+			response.setContentType("text/plain");
+			out.print("startup: " + startupPhase.name() + " " + ServiceMain.getInstance().getStartupStageMillis() +
+					"\n\n");
+			out.print(registry.asText());
+		}
+		out.flush();
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	protected static boolean isJsonRequested(HttpServletRequest request) {
+		String format = request.getParameter("format");
+		if (format != null) {
+			return "json".equalsIgnoreCase(format);
+		}
+
+		String accept = request.getHeader("Accept");
+		return (accept != null) && accept.contains("application/json");
+	}
+
+}
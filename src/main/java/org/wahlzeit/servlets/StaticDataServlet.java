@@ -1,18 +1,28 @@
 package org.wahlzeit.servlets;
 
-import com.google.appengine.api.images.Image;
 import org.apache.http.HttpStatus;
+import org.wahlzeit.model.ImageCache;
 import org.wahlzeit.model.Photo;
-import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.model.parliament.ParliamentPhotoManager;
-import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.cache.BoundedCache;
+import org.wahlzeit.services.cache.LruEvictionPolicy;
+import org.wahlzeit.services.metrics.MetricsRegistry;
+import org.wahlzeit.services.metrics.RequestPhase;
+import org.wahlzeit.services.metrics.RequestTrace;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.Serializable;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -27,66 +37,384 @@ public class StaticDataServlet extends AbstractServlet {
 
 	Logger log = Logger.getLogger(StaticDataServlet.class.getName());
 
+	/**
+	 *
+	 */
+	private static final int WRITE_CHUNK_SIZE = 8 * 1024;
+
+	/**
+	 * The image of a photo id and size never changes, so browsers and proxies may keep it for a year
+	 */
+	protected static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+	protected static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+	/**
+	 *
+	 */
+	protected static final int MAX_NUMBER_OF_ETAGS = 10000;
+
+	/**
+	 * Requests for more ranges than this are answered with the whole image
+	 */
+	protected static final int MAX_NUMBER_OF_RANGES = 16;
+	protected static final String MULTIPART_BOUNDARY = "wahlzeit_byteranges_0f3c9a";
+
+	/**
+	 * ETags of recently served images by photo id and size, so conditional requests can be answered without loading
+	 * and hashing the image again
+	 */
+	protected final BoundedCache<String, String> etags = new BoundedCache<String, String>(MAX_NUMBER_OF_ETAGS,
+			new LruEvictionPolicy<String>());
+
 	@Override
 	public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (!isServing(response)) {
+			return;
+		}
+
+		long startTime = System.nanoTime();
+		boolean failed = true;
+		RequestTrace.start(request.getRequestURI());
 		try {
 			String type = request.getParameter("type");
 			String photoId = request.getParameter("photoId");
 			String sizeString = request.getParameter("size");
 			int size = Integer.valueOf(sizeString);
-			log.info(LogBuilder.createSystemMessage().
+			LogBuilder.createSystemMessage(log, Level.INFO).
 					addAction("Provide static resource").
 					addParameter("type", type).
 					addParameter("photoId", photoId).
-					addParameter("size", size).toString());
+					addParameter("size", size).log();
 
 			if ("image".equals(type)) {
-				Image image = getImage(photoId, size);
-				if (image != null) {
-					response.getOutputStream().write(image.getImageData());
-					response.getOutputStream().flush();
-					response.setStatus(HttpStatus.SC_OK);
-				} else {
-					log.warning(LogBuilder.createSystemMessage().addMessage("image not found").toString());
-					response.setStatus(HttpStatus.SC_NOT_FOUND);
-				}
+				handleImageRequest(request, response, photoId, PhotoSize.getFromInt(size));
 			} else {
-				log.warning(LogBuilder.createSystemMessage().
-						addMessage("unimplemented static resource type has been requested").toString());
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addMessage("unimplemented static resource type has been requested").log();
 				response.setStatus(HttpStatus.SC_NOT_IMPLEMENTED);
 			}
+			failed = false;
 
 		} catch (Exception e) {
-			log.severe(LogBuilder.createSystemMessage().addException("Problem when loading image", e).toString());
+			LogBuilder.createSystemMessage(log, Level.SEVERE).addException("Problem when loading image", e).log();
+		} finally {
+			MetricsRegistry.getInstance().getMetrics(getClass()).
+					record(RequestPhase.HANDLE_GET, System.nanoTime() - startTime, failed);
+			RequestTrace.finish();
 		}
 	}
 
 	/**
 	 * @methodtype command
 	 *
-	 * Loads image either from the <@link>PhotoManager</@link> or from the <@link>ImageStorage</@link>. If image does
-	 * not exist, null is returned.
+	 * Answers with 304 if the client's copy is still valid, else with the image and headers that let it be cached.
 	 */
-	private Image getImage(String photoId, int size) {
-		Image image = null;
+	protected void handleImageRequest(HttpServletRequest request, HttpServletResponse response, String photoId,
+			PhotoSize size) throws IOException {
 		Photo photo = ParliamentPhotoManager.getInstance().getPhoto(photoId);
-		if (photo != null) {
-			PhotoSize photoSize = PhotoSize.getFromInt(size);
-			image = photo.getImage(photoSize);
+		long lastModified = (photo != null) ? photo.getCreationTime() : -1;
+		String etagKey = photoId + "-" + size.asInt();
+
+		String etag = etags.getIfPresent(etagKey);
+		if ((etag != null) && isNotModified(request, etag, lastModified)) {
+			sendNotModified(response, etag, lastModified);
+			return;
+		}
+
+		ByteBuffer imageData = getImageData(photo, photoId, size);
+		if (imageData == null) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).addMessage("image not found").log();
+			response.setStatus(HttpStatus.SC_NOT_FOUND);
+			return;
+		}
+
+		if (etag == null) {
+			etag = createETag(etagKey, imageData);
+			etags.put(etagKey, etag);
+		}
+
+		if (isNotModified(request, etag, lastModified)) {
+			sendNotModified(response, etag, lastModified);
+			return;
+		}
+
+		String contentType = getContentType((photo != null) ? photo.getEnding() : null);
+		setCachingHeaders(response, etag, lastModified);
+		response.setHeader("Accept-Ranges", "bytes");
+
+		List<long[]> ranges = null;
+		String range = request.getHeader("Range");
+		if ((range != null) && isIfRangeSatisfied(request.getHeader("If-Range"), etag)) {
+			ranges = parseRanges(range, imageData.remaining());
+		}
+
+		if (ranges == null) {
+			response.setStatus(HttpStatus.SC_OK);
+			response.setContentType(contentType);
+			response.setContentLength(imageData.remaining());
+			writeImageData(imageData, response.getOutputStream());
+		} else if (ranges.isEmpty()) {
+			response.setStatus(HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			response.setHeader("Content-Range", "bytes */" + imageData.remaining());
+			return;
+		} else if (ranges.size() == 1) {
+			long[] only = ranges.get(0);
+			response.setStatus(HttpStatus.SC_PARTIAL_CONTENT);
+			response.setContentType(contentType);
+			response.setHeader("Content-Range", asContentRange(only, imageData.remaining()));
+			response.setContentLength((int) (only[1] - only[0] + 1));
+			writeImageData(slice(imageData, only), response.getOutputStream());
+		} else {
+			writeMultipartRanges(response, imageData, ranges, contentType);
 		}
-		// if not in cache load from Google Cloud Storage
-		if (image == null) {
-			Serializable rawImage = null;
+
+		response.getOutputStream().flush();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes a multipart/byteranges body with one part per range, with the exact length set beforehand.
+	 */
+	protected void writeMultipartRanges(HttpServletResponse response, ByteBuffer imageData, List<long[]> ranges,
+			String contentType) throws IOException {
+		List<byte[]> partHeaders = new ArrayList<byte[]>(ranges.size());
+		byte[] end = ("\r\n--" + MULTIPART_BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+		long length = end.length;
+		for (long[] range : ranges) {
+			String partHeader = "\r\n--" + MULTIPART_BOUNDARY + "\r\n" +
+					"Content-Type: " + contentType + "\r\n" +
+					"Content-Range: " + asContentRange(range, imageData.remaining()) + "\r\n\r\n";
+			partHeaders.add(partHeader.getBytes(StandardCharsets.US_ASCII));
+			length += partHeaders.get(partHeaders.size() - 1).length + range[1] - range[0] + 1;
+		}
+
+		response.setStatus(HttpStatus.SC_PARTIAL_CONTENT);
+		response.setContentType("multipart/byteranges; boundary=" + MULTIPART_BOUNDARY);
+		response.setContentLength((int) length);
+
+		OutputStream out = response.getOutputStream();
+		for (int i = 0; i < ranges.size(); i++) {
+			out.write(partHeaders.get(i));
+			writeImageData(slice(imageData, ranges.get(i)), out);
+		}
+		out.write(end);
+	}
+
+	/**
+	 * @methodtype boolean query
+	 *
+	 * A range is only served if If-Range is absent or names the current ETag; dates are not strong validators here.
+	 */
+	protected static boolean isIfRangeSatisfied(String ifRange, String etag) {
+		return (ifRange == null) || etag.equals(ifRange.trim());
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Parses a "bytes=" Range header into inclusive [first, last] pairs within the length. Returns null if the header
+	 * is malformed or asks for too many ranges, so the whole image is sent, and an empty list if no range can be
+	 * satisfied.
+	 */
+	protected static List<long[]> parseRanges(String header, long length) {
+		String value = header.trim();
+		if (!value.startsWith("bytes=")) {
+			return null;
+		}
+
+		String[] specs = value.substring("bytes=".length()).split(",");
+		if (specs.length > MAX_NUMBER_OF_RANGES) {
+			return null;
+		}
+
+		List<long[]> result = new ArrayList<long[]>(specs.length);
+		for (String spec : specs) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+
+			long first;
+			long last;
 			try {
-				rawImage = ImageStorage.getInstance().readImage(photoId, size);
-			} catch (IOException e) {
-				log.warning(LogBuilder.createSystemMessage().addException("Problem when reading image.", e).toString());
+				if (dash == 0) {
+					// suffix range: the last n bytes
+					long suffixLength = Long.parseLong(spec.substring(1));
+					first = Math.max(0, length - suffixLength);
+					last = length - 1;
+					if (suffixLength == 0) {
+						continue;
+					}
+				} else {
+					first = Long.parseLong(spec.substring(0, dash));
+					last = (dash == spec.length() - 1) ? length - 1 : Long.parseLong(spec.substring(dash + 1));
+					if (last < first) {
+						return null;
+					}
+				}
+			} catch (NumberFormatException e) {
+				return null;
 			}
-			if (rawImage != null && rawImage instanceof Image) {
-				image = (Image) rawImage;
+
+			if ((first < 0) || (first >= length)) {
+				continue;
 			}
+			result.add(new long[] {first, Math.min(last, length - 1)});
 		}
-		return image;
+
+		return result;
 	}
-}
 
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asContentRange(long[] range, long length) {
+		return "bytes " + range[0] + "-" + range[1] + "/" + length;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static ByteBuffer slice(ByteBuffer data, long[] range) {
+		ByteBuffer result = data.duplicate();
+		result.position(data.position() + (int) range[0]);
+		result.limit(data.position() + (int) range[1] + 1);
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the image bytes either from the photo (if not yet persisted) or from the <@link>ImageCache</@link>, which
+	 * loads them from the <@link>ImageStorage</@link> on demand. If image does not exist, null is returned.
+	 */
+	private ByteBuffer getImageData(Photo photo, String photoId, PhotoSize size) {
+		if (photo != null) {
+			return photo.getImageData(size);
+		}
+		return ImageCache.getInstance().getImageData(PhotoId.getIdFromString(photoId), size);
+	}
+
+	/**
+	 * @methodtype boolean query
+	 *
+	 * If-None-Match takes precedence over If-Modified-Since, as in RFC 7232.
+	 */
+	protected boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			return matchesETag(ifNoneMatch, etag);
+		}
+
+		long ifModifiedSince;
+		try {
+			ifModifiedSince = request.getDateHeader("If-Modified-Since");
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+
+		// HTTP dates have a resolution of seconds
+		return (ifModifiedSince != -1) && (lastModified != -1) && (lastModified / 1000 <= ifModifiedSince / 1000);
+	}
+
+	/**
+	 * @methodtype boolean query
+	 *
+	 * Checks the (comma separated) If-None-Match header against the etag, comparing weakly.
+	 */
+	protected static boolean matchesETag(String ifNoneMatch, String etag) {
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if ("*".equals(candidate) || etag.equals(candidate)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Strong ETag made of photo id, size and a checksum of the bytes.
+	 */
+	protected static String createETag(String etagKey, ByteBuffer imageData) {
+		CRC32 checksum = new CRC32();
+		checksum.update(imageData.duplicate());
+		return "\"" + etagKey + "-" + Long.toHexString(checksum.getValue()) + "\"";
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String getContentType(String ending) {
+		if (ending == null) {
+			return "image/jpeg";
+		}
+
+		switch (ending.toLowerCase()) {
+			case "jpg":
+			case "jpeg":
+				return "image/jpeg";
+			case "png":
+				return "image/png";
+			case "gif":
+				return "image/gif";
+			case "bmp":
+				return "image/bmp";
+			case "webp":
+				return "image/webp";
+			default:
+				return DEFAULT_CONTENT_TYPE;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void setCachingHeaders(HttpServletResponse response, String etag, long lastModified) {
+		response.setHeader("ETag", etag);
+		response.setHeader("Cache-Control", CACHE_CONTROL);
+		if (lastModified != -1) {
+			response.setDateHeader("Last-Modified", lastModified);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void sendNotModified(HttpServletResponse response, String etag, long lastModified) {
+		response.setStatus(HttpStatus.SC_NOT_MODIFIED);
+		setCachingHeaders(response, etag, lastModified);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Copies the (possibly off-heap) bytes to the response in fixed-size chunks, so the heap needed per request does
+	 * not depend on the image size. Does not change the position of imageData.
+	 */
+	protected static void writeImageData(ByteBuffer imageData, OutputStream out) throws IOException {
+		ByteBuffer data = imageData.duplicate();
+		if (data.hasArray()) {
+			while (data.hasRemaining()) {
+				int length = Math.min(WRITE_CHUNK_SIZE, data.remaining());
+				out.write(data.array(), data.arrayOffset() + data.position(), length);
+				data.position(data.position() + length);
+			}
+			return;
+		}
+
+		byte[] chunk = new byte[Math.min(WRITE_CHUNK_SIZE, data.remaining())];
+		while (data.hasRemaining()) {
+			int length = Math.min(chunk.length, data.remaining());
+			data.get(chunk, 0, length);
+			out.write(chunk, 0, length);
+		}
+	}
+}
@@ -0,0 +1,600 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A compressed set of non-negative ints in the style of Roaring bitmaps. Values are grouped by their upper 16 bits;
+ * each group is stored either as a sorted array (sparse) or as a 65536 bit bitmap (dense). Supports set algebra and
+ * rank based selection without materializing the values. Not thread-safe.
+ */
+public class CompressedBitmap implements Serializable {
+
+	/**
+	 * Containers with more values than this are stored as bitmaps
+	 */
+	protected static final int ARRAY_CONTAINER_MAX_SIZE = 4096;
+
+	/**
+	 *
+	 */
+	protected char[] keys = new char[4];
+	protected Container[] containers = new Container[4];
+	protected int size = 0;
+
+	/**
+	 *
+	 */
+	public CompressedBitmap() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static CompressedBitmap of(int... values) {
+		CompressedBitmap result = new CompressedBitmap();
+		for (int value : values) {
+			result.add(value);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void add(int value) {
+		char key = highBits(value);
+		int index = indexOfKey(key);
+		if (index >= 0) {
+			containers[index] = containers[index].add(lowBits(value));
+		} else {
+			insertContainer(-index - 1, key, new ArrayContainer().add(lowBits(value)));
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void remove(int value) {
+		int index = indexOfKey(highBits(value));
+		if (index >= 0) {
+			Container container = containers[index].remove(lowBits(value));
+			if (container.getCardinality() == 0) {
+				removeContainer(index);
+			} else {
+				containers[index] = container;
+			}
+		}
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean contains(int value) {
+		int index = indexOfKey(highBits(value));
+		return (index >= 0) && containers[index].contains(lowBits(value));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getCardinality() {
+		int result = 0;
+		for (int i = 0; i < size; i++) {
+			result += containers[i].getCardinality();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean query
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		keys = new char[4];
+		containers = new Container[4];
+		size = 0;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the value with the given rank, i.e. the rank+1-th smallest value.
+	 */
+	public int select(int rank) {
+		if (rank < 0) {
+			throw new IndexOutOfBoundsException("rank must not be negative: " + rank);
+		}
+
+		int remaining = rank;
+		for (int i = 0; i < size; i++) {
+			int cardinality = containers[i].getCardinality();
+			if (remaining < cardinality) {
+				return (keys[i] << 16) | containers[i].select(remaining);
+			}
+			remaining -= cardinality;
+		}
+
+		throw new IndexOutOfBoundsException("rank " + rank + " exceeds cardinality " + getCardinality());
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns a new bitmap with all values contained in both bitmaps.
+	 */
+	public CompressedBitmap and(CompressedBitmap other) {
+		CompressedBitmap result = new CompressedBitmap();
+		int i = 0;
+		int j = 0;
+		while ((i < size) && (j < other.size)) {
+			if (keys[i] < other.keys[j]) {
+				i++;
+			} else if (keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				result.appendIfNotEmpty(keys[i], containers[i].and(other.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns a new bitmap with all values of this bitmap that are not contained in the other one.
+	 */
+	public CompressedBitmap andNot(CompressedBitmap other) {
+		CompressedBitmap result = new CompressedBitmap();
+		int j = 0;
+		for (int i = 0; i < size; i++) {
+			while ((j < other.size) && (other.keys[j] < keys[i])) {
+				j++;
+			}
+
+			if ((j < other.size) && (other.keys[j] == keys[i])) {
+				result.appendIfNotEmpty(keys[i], containers[i].andNot(other.containers[j]));
+			} else {
+				result.appendIfNotEmpty(keys[i], containers[i].copy());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns a new bitmap with all values contained in either bitmap.
+	 */
+	public CompressedBitmap or(CompressedBitmap other) {
+		CompressedBitmap result = new CompressedBitmap();
+		int i = 0;
+		int j = 0;
+		while ((i < size) || (j < other.size)) {
+			if ((j >= other.size) || ((i < size) && (keys[i] < other.keys[j]))) {
+				result.appendIfNotEmpty(keys[i], containers[i].copy());
+				i++;
+			} else if ((i >= size) || (keys[i] > other.keys[j])) {
+				result.appendIfNotEmpty(other.keys[j], other.containers[j].copy());
+				j++;
+			} else {
+				result.appendIfNotEmpty(keys[i], containers[i].or(other.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public CompressedBitmap copy() {
+		CompressedBitmap result = new CompressedBitmap();
+		for (int i = 0; i < size; i++) {
+			result.appendIfNotEmpty(keys[i], containers[i].copy());
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Returns all values in ascending order.
+	 */
+	public int[] toArray() {
+		int[] result = new int[getCardinality()];
+		int length = 0;
+		for (int i = 0; i < size; i++) {
+			length = containers[i].copyTo(result, length, keys[i] << 16);
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof CompressedBitmap)) {
+			return false;
+		}
+		return Arrays.equals(toArray(), ((CompressedBitmap) other).toArray());
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(toArray());
+	}
+
+	/**
+	 *
+	 */
+	protected static char highBits(int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("value must not be negative: " + value);
+		}
+		return (char) (value >>> 16);
+	}
+
+	/**
+	 *
+	 */
+	protected static char lowBits(int value) {
+		return (char) value;
+	}
+
+	/**
+	 *
+	 */
+	protected int indexOfKey(char key) {
+		// the last container is the most likely one for ever growing ids
+		if ((size > 0) && (keys[size - 1] == key)) {
+			return size - 1;
+		}
+		return Arrays.binarySearch(keys, 0, size, key);
+	}
+
+	/**
+	 *
+	 */
+	protected void insertContainer(int index, char key, Container container) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			containers = Arrays.copyOf(containers, size * 2);
+		}
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(containers, index, containers, index + 1, size - index);
+		keys[index] = key;
+		containers[index] = container;
+		size++;
+	}
+
+	/**
+	 *
+	 */
+	protected void removeContainer(int index) {
+		System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+		System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+		size--;
+		containers[size] = null;
+	}
+
+	/**
+	 * Keys must be appended in ascending order
+	 */
+	protected void appendIfNotEmpty(char key, Container container) {
+		if (container.getCardinality() > 0) {
+			insertContainer(size, key, container);
+		}
+	}
+
+	/**
+	 * Holds the lower 16 bits of all values sharing the same upper 16 bits. Modifying methods return the container
+	 * to use from now on, which may be of the other type.
+	 */
+	protected abstract static class Container implements Serializable {
+		protected abstract Container add(char value);
+		protected abstract Container remove(char value);
+		protected abstract boolean contains(char value);
+		protected abstract int getCardinality();
+		protected abstract char select(int rank);
+		protected abstract Container and(Container other);
+		protected abstract Container andNot(Container other);
+		protected abstract Container or(Container other);
+		protected abstract Container copy();
+		protected abstract int copyTo(int[] target, int offset, int highBits);
+	}
+
+	/**
+	 * Sorted values; for sparse containers
+	 */
+	protected static class ArrayContainer extends Container {
+		protected char[] values;
+		protected int cardinality;
+
+		protected ArrayContainer() {
+			this(new char[4], 0);
+		}
+
+		protected ArrayContainer(char[] values, int cardinality) {
+			this.values = values;
+			this.cardinality = cardinality;
+		}
+
+		protected Container add(char value) {
+			int index = Arrays.binarySearch(values, 0, cardinality, value);
+			if (index >= 0) {
+				return this;
+			} else if (cardinality == ARRAY_CONTAINER_MAX_SIZE) {
+				return toBitmapContainer().add(value);
+			}
+
+			index = -index - 1;
+			if (cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(cardinality * 2, ARRAY_CONTAINER_MAX_SIZE));
+			}
+			System.arraycopy(values, index, values, index + 1, cardinality - index);
+			values[index] = value;
+			cardinality++;
+			return this;
+		}
+
+		protected Container remove(char value) {
+			int index = Arrays.binarySearch(values, 0, cardinality, value);
+			if (index >= 0) {
+				System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+				cardinality--;
+			}
+			return this;
+		}
+
+		protected boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+		}
+
+		protected int getCardinality() {
+			return cardinality;
+		}
+
+		protected char select(int rank) {
+			return values[rank];
+		}
+
+		protected Container and(Container other) {
+			char[] result = new char[cardinality];
+			int length = 0;
+			for (int i = 0; i < cardinality; i++) {
+				if (other.contains(values[i])) {
+					result[length++] = values[i];
+				}
+			}
+			return new ArrayContainer(result, length);
+		}
+
+		protected Container andNot(Container other) {
+			char[] result = new char[cardinality];
+			int length = 0;
+			for (int i = 0; i < cardinality; i++) {
+				if (!other.contains(values[i])) {
+					result[length++] = values[i];
+				}
+			}
+			return new ArrayContainer(result, length);
+		}
+
+		protected Container or(Container other) {
+			if (other instanceof BitmapContainer) {
+				return other.or(this);
+			}
+
+			Container result = copy();
+			ArrayContainer array = (ArrayContainer) other;
+			for (int i = 0; i < array.cardinality; i++) {
+				result = result.add(array.values[i]);
+			}
+			return result;
+		}
+
+		protected Container copy() {
+			return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 4)), cardinality);
+		}
+
+		protected int copyTo(int[] target, int offset, int highBits) {
+			for (int i = 0; i < cardinality; i++) {
+				target[offset++] = highBits | values[i];
+			}
+			return offset;
+		}
+
+		protected BitmapContainer toBitmapContainer() {
+			BitmapContainer result = new BitmapContainer();
+			for (int i = 0; i < cardinality; i++) {
+				result.add(values[i]);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * One bit per possible value; for dense containers
+	 */
+	protected static class BitmapContainer extends Container {
+		protected long[] words;
+		protected int cardinality;
+
+		protected BitmapContainer() {
+			this(new long[1 << 10], 0);
+		}
+
+		protected BitmapContainer(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		protected Container add(char value) {
+			long before = words[value >>> 6];
+			long after = before | (1L << value);
+			if (before != after) {
+				words[value >>> 6] = after;
+				cardinality++;
+			}
+			return this;
+		}
+
+		protected Container remove(char value) {
+			long before = words[value >>> 6];
+			long after = before & ~(1L << value);
+			if (before != after) {
+				words[value >>> 6] = after;
+				cardinality--;
+			}
+			return (cardinality <= ARRAY_CONTAINER_MAX_SIZE) ? toArrayContainer() : this;
+		}
+
+		protected boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		protected int getCardinality() {
+			return cardinality;
+		}
+
+		protected char select(int rank) {
+			int remaining = rank;
+			for (int i = 0; i < words.length; i++) {
+				int bits = Long.bitCount(words[i]);
+				if (remaining < bits) {
+					long word = words[i];
+					for (int j = 0; j < remaining; j++) {
+						word &= word - 1;
+					}
+					return (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+				}
+				remaining -= bits;
+			}
+			throw new IndexOutOfBoundsException("rank " + rank + " exceeds cardinality " + cardinality);
+		}
+
+		protected Container and(Container other) {
+			if (other instanceof ArrayContainer) {
+				return other.and(this);
+			}
+
+			long[] otherWords = ((BitmapContainer) other).words;
+			long[] result = new long[words.length];
+			int resultCardinality = 0;
+			for (int i = 0; i < words.length; i++) {
+				result[i] = words[i] & otherWords[i];
+				resultCardinality += Long.bitCount(result[i]);
+			}
+			return new BitmapContainer(result, resultCardinality).normalize();
+		}
+
+		protected Container andNot(Container other) {
+			long[] result = words.clone();
+			int resultCardinality = cardinality;
+			if (other instanceof ArrayContainer) {
+				ArrayContainer array = (ArrayContainer) other;
+				for (int i = 0; i < array.cardinality; i++) {
+					char value = array.values[i];
+					if ((result[value >>> 6] & (1L << value)) != 0) {
+						result[value >>> 6] &= ~(1L << value);
+						resultCardinality--;
+					}
+				}
+			} else {
+				long[] otherWords = ((BitmapContainer) other).words;
+				resultCardinality = 0;
+				for (int i = 0; i < result.length; i++) {
+					result[i] &= ~otherWords[i];
+					resultCardinality += Long.bitCount(result[i]);
+				}
+			}
+			return new BitmapContainer(result, resultCardinality).normalize();
+		}
+
+		protected Container or(Container other) {
+			BitmapContainer result = (BitmapContainer) copy();
+			if (other instanceof ArrayContainer) {
+				ArrayContainer array = (ArrayContainer) other;
+				for (int i = 0; i < array.cardinality; i++) {
+					result.add(array.values[i]);
+				}
+			} else {
+				long[] otherWords = ((BitmapContainer) other).words;
+				result.cardinality = 0;
+				for (int i = 0; i < result.words.length; i++) {
+					result.words[i] |= otherWords[i];
+					result.cardinality += Long.bitCount(result.words[i]);
+				}
+			}
+			return result;
+		}
+
+		protected Container copy() {
+			return new BitmapContainer(words.clone(), cardinality);
+		}
+
+		protected int copyTo(int[] target, int offset, int highBits) {
+			for (int i = 0; i < words.length; i++) {
+				long word = words[i];
+				while (word != 0) {
+					target[offset++] = highBits | ((i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return offset;
+		}
+
+		protected Container normalize() {
+			return (cardinality <= ARRAY_CONTAINER_MAX_SIZE) ? toArrayContainer() : this;
+		}
+
+		protected ArrayContainer toArrayContainer() {
+			char[] values = new char[Math.max(cardinality, 4)];
+			int length = 0;
+			for (int i = 0; i < words.length; i++) {
+				long word = words[i];
+				while (word != 0) {
+					values[length++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return new ArrayContainer(values, length);
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.wahlzeit.services.cache.BoundedCache;
+import org.wahlzeit.services.cache.CacheStatistics;
+import org.wahlzeit.services.cache.LruEvictionPolicy;
+
+import java.util.function.Supplier;
+
+/**
+ * The FragmentCache keeps rendered WebParts whose output only depends on the language, the template and a few known
+ * inputs, e.g. info pages and sidebar blurbs. Fragments are keyed by language code, template name and a fingerprint
+ * of the inputs, and bounded by their total size in bytes.
+ */
+public class FragmentCache {
+
+	/**
+	 * System property for the size bound
+	 */
+	public static final String FRAGMENT_CACHE_MAX_BYTES = "wahlzeit.fragmentCache.maxBytes";
+	public static final long DEFAULT_FRAGMENT_CACHE_MAX_BYTES = 4L * 1024 * 1024;
+
+	/**
+	 *
+	 */
+	protected static final String SEPARATOR = "\u0000";
+
+	/**
+	 *
+	 */
+	protected static final FragmentCache instance = new FragmentCache(
+			Long.getLong(FRAGMENT_CACHE_MAX_BYTES, DEFAULT_FRAGMENT_CACHE_MAX_BYTES));
+
+	/**
+	 *
+	 */
+	protected final BoundedCache<String, RenderedFragment> fragments;
+
+	/**
+	 *
+	 */
+	protected FragmentCache(long maxBytes) {
+		fragments = new BoundedCache<String, RenderedFragment>(maxBytes, new LruEvictionPolicy<String>(),
+				(key, fragment) -> fragment.getSize() + 2L * key.length(), BoundedCache.ALWAYS_EVICTABLE);
+	}
+
+	/**
+	 *
+	 */
+	public static FragmentCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the rendered fragment, building and rendering it with the builder if it is not cached. The fingerprint
+	 * has to change whenever anything the builder puts into the part changes; use "" for parts without inputs.
+	 */
+	public RenderedFragment getFragment(String languageCode, String templateName, String fingerprint,
+			Supplier<? extends Writable> builder) {
+		String key = asKey(languageCode, templateName, fingerprint);
+		return fragments.get(key, k -> RenderedFragment.render(builder.get()));
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Drops all fragments of the template, in all languages and for all fingerprints.
+	 */
+	public void invalidate(String templateName) {
+		String infix = SEPARATOR + templateName + SEPARATOR;
+		fragments.asMap().keySet().stream().
+				filter(key -> key.contains(infix)).
+				forEach(fragments::remove);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void invalidateAll() {
+		fragments.clear();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public CacheStatistics getStatistics() {
+		return fragments.getStatistics();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asKey(String languageCode, String templateName, String fingerprint) {
+		return languageCode + SEPARATOR + templateName + SEPARATOR + fingerprint;
+	}
+
+}
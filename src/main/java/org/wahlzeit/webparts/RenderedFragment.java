@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A RenderedFragment is a Writable that has been written once already and keeps the resulting UTF-8 bytes, so it can
+ * be written again and again without rebuilding or encoding it.
+ */
+public class RenderedFragment implements Writable {
+
+	/**
+	 *
+	 */
+	protected final byte[] data;
+
+	/**
+	 *
+	 */
+	public RenderedFragment(byte[] data) {
+		this.data = data;
+	}
+
+	/**
+	 *
+	 */
+	public RenderedFragment(String text) {
+		this(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static RenderedFragment render(Writable writable) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			writable.writeOn(out);
+		} catch (IOException ex) {
+			// cannot happen when writing to memory
+			throw new UncheckedIOException(ex);
+		}
+		return new RenderedFragment(out.toByteArray());
+	}
+
+	/**
+	 *
+	 */
+	public void writeOn(Writer out) throws IOException {
+		out.write(new String(data, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 *
+	 */
+	public void writeOn(OutputStream out) throws IOException {
+		out.write(data);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getSize() {
+		return data.length;
+	}
+
+}
@@ -24,7 +24,9 @@ import org.wahlzeit.utils.EnumValue;
 import org.wahlzeit.utils.HtmlUtil;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -41,19 +43,30 @@ public class WebPart implements Writable {
 	protected WebPartTemplate template = null;
 
 	/**
-	 *
+	 * Values indexed like the keys of the template
+	 */
+	protected Object[] values;
+
+	/**
+	 * Values of keys the template has no slot for; rarely needed, so created on demand
 	 */
-	protected Map<String, Object> parts = new HashMap<String, Object>();
+	protected Map<String, Object> otherValues = null;
 
 	/**
 	 *
 	 */
 	public WebPart(WebPartTemplate myTemplate) {
 		template = myTemplate;
+		values = new Object[(myTemplate != null) ? myTemplate.getNumberOfKeys() : 0];
 	}
 
 	public Object getValue(String key) {
-		return parts.get(key);
+		int index = (template != null) ? template.getKeyIndex(key) : -1;
+		if (index >= 0) {
+			return values[index];
+		}
+
+		return (otherValues != null) ? otherValues.get(key) : null;
 	}
 
 	/**
@@ -169,8 +182,18 @@ public class WebPart implements Writable {
 	 *
 	 */
 	protected void putValue(String key, Object value) {
-		if (value != null) {
-			parts.put(key, value);
+		if (value == null) {
+			return;
+		}
+
+		int index = (template != null) ? template.getKeyIndex(key) : -1;
+		if (index >= 0) {
+			values[index] = value;
+		} else {
+			if (otherValues == null) {
+				otherValues = new HashMap<String, Object>();
+			}
+			otherValues.put(key, value);
 		}
 	}
 
@@ -179,25 +202,22 @@ public class WebPart implements Writable {
 	 */
 	public void writeOn(Writer out) throws IOException {
 		String tmpl = template.asString();
-		String[] keys = template.getKeys();
 		int[] slots = template.getSlots();
+		int[] slotKeyIndexes = template.getSlotKeyIndexes();
 
 		int start = 0;
-		for (int i = 0; i < keys.length; i++) {
+		for (int i = 0; i < slots.length; i++) {
 			int index = slots[i];
 			out.write(tmpl, start, index - start);
 
-			String key = keys[i];
-			if (key != null) {
-				Object object = parts.get(key);
-				if (object != null) {
-					if (object instanceof Writable) {
-						Writable part = (Writable) object;
-						part.writeOn(out);
-					} else {
-						String value = object.toString();
-						out.write(value);
-					}
+			Object object = values[slotKeyIndexes[i]];
+			if (object != null) {
+				if (object instanceof Writable) {
+					Writable part = (Writable) object;
+					part.writeOn(out);
+				} else {
+					String value = object.toString();
+					out.write(value);
 				}
 			}
 
@@ -207,4 +227,27 @@ public class WebPart implements Writable {
 		out.write(tmpl, start, tmpl.length() - start);
 	}
 
+	/**
+	 * Writes the pre-encoded segments of the template directly, encoding only the values.
+	 */
+	public void writeOn(OutputStream out) throws IOException {
+		byte[][] segments = template.getSegments();
+		int[] slotKeyIndexes = template.getSlotKeyIndexes();
+
+		for (int i = 0; i < slotKeyIndexes.length; i++) {
+			out.write(segments[i]);
+
+			Object object = values[slotKeyIndexes[i]];
+			if (object != null) {
+				if (object instanceof Writable) {
+					((Writable) object).writeOn(out);
+				} else {
+					out.write(object.toString().getBytes(StandardCharsets.UTF_8));
+				}
+			}
+		}
+
+		out.write(segments[slotKeyIndexes.length]);
+	}
+
 }
@@ -20,12 +20,17 @@
 
 package org.wahlzeit.webparts;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A WebPartTmpl is a template for a WebPart.
- * It gets initialized once and is read-only after that.
+ * It gets initialized once and is read-only after that. Initializing also compiles it: the static text between the
+ * slots is encoded to UTF-8 once, and every distinct key gets an index, so a WebPart can keep its values in an array.
  */
 public class WebPartTemplate {
 
@@ -45,6 +50,15 @@ public class WebPartTemplate {
 	protected String[] keys = null;
 	protected int[] slots = null;
 
+	/**
+	 * Compiled form: segments[i] is the encoded text before slot i (plus one after the last slot), slotKeyIndexes[i]
+	 * the index of the key of slot i in distinctKeys
+	 */
+	protected byte[][] segments = new byte[][] {new byte[0]};
+	protected int[] slotKeyIndexes = new int[0];
+	protected String[] distinctKeys = new String[0];
+	protected Map<String, Integer> keyIndexes = new HashMap<String, Integer>();
+
 	/**
 	 *
 	 */
@@ -56,29 +70,24 @@ public class WebPartTemplate {
 	 * @methodtype initialization
 	 */
 	public void initialize(String source) {
-		List<String> keyList = new LinkedList<String>();
-		List<Integer> slotList = new LinkedList<Integer>();
-
-		StringBuffer buffer = new StringBuffer(source);
-
-		for (int index = 0; index != -1; ) {
-			int nextSlot = buffer.indexOf("{$", index);
-			if (nextSlot != -1) {
-				int endSlot = buffer.indexOf("}", nextSlot);
-				if (endSlot != -1) {
-					String key = buffer.substring(nextSlot + 2, endSlot);
-
-					keyList.add(key);
-					slotList.add(nextSlot);
-
-					buffer.replace(nextSlot, endSlot + 1, "");
-					index = nextSlot;
-				}
-				index = endSlot;
-			} else {
-				index = -1;
+		List<String> keyList = new ArrayList<String>();
+		List<Integer> slotList = new ArrayList<Integer>();
+
+		// single pass: copy the text between slots and record where each slot was cut out
+		StringBuilder buffer = new StringBuilder(source.length());
+		int index = 0;
+		for (int nextSlot = source.indexOf("{$"); nextSlot != -1; nextSlot = source.indexOf("{$", index)) {
+			int endSlot = source.indexOf('}', nextSlot);
+			if (endSlot == -1) {
+				break;
 			}
+
+			buffer.append(source, index, nextSlot);
+			keyList.add(source.substring(nextSlot + 2, endSlot));
+			slotList.add(buffer.length());
+			index = endSlot + 1;
 		}
+		buffer.append(source, index, source.length());
 
 		int length = keyList.size();
 		keys = new String[length];
@@ -89,6 +98,38 @@ public class WebPartTemplate {
 		}
 
 		template = buffer.toString();
+
+		compile();
+	}
+
+	/**
+	 * @methodtype initialization
+	 */
+	protected void compile() {
+		Map<String, Integer> newKeyIndexes = new HashMap<String, Integer>();
+		List<String> newDistinctKeys = new LinkedList<String>();
+		int[] newSlotKeyIndexes = new int[keys.length];
+		byte[][] newSegments = new byte[keys.length + 1][];
+
+		int start = 0;
+		for (int i = 0; i < keys.length; i++) {
+			newSegments[i] = template.substring(start, slots[i]).getBytes(StandardCharsets.UTF_8);
+			start = slots[i];
+
+			Integer keyIndex = newKeyIndexes.get(keys[i]);
+			if (keyIndex == null) {
+				keyIndex = newDistinctKeys.size();
+				newKeyIndexes.put(keys[i], keyIndex);
+				newDistinctKeys.add(keys[i]);
+			}
+			newSlotKeyIndexes[i] = keyIndex;
+		}
+		newSegments[keys.length] = template.substring(start).getBytes(StandardCharsets.UTF_8);
+
+		segments = newSegments;
+		slotKeyIndexes = newSlotKeyIndexes;
+		distinctKeys = newDistinctKeys.toArray(new String[newDistinctKeys.size()]);
+		keyIndexes = newKeyIndexes;
 	}
 
 	/**
@@ -119,4 +160,35 @@ public class WebPartTemplate {
 		return slots; // @FIXME needs cloning?
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public int getNumberOfKeys() {
+		return distinctKeys.length;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the index of the key, or -1 if the template has no slot for it.
+	 */
+	public int getKeyIndex(String key) {
+		Integer result = keyIndexes.get(key);
+		return (result == null) ? -1 : result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public byte[][] getSegments() {
+		return segments; // not cloned, see getKeys()
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int[] getSlotKeyIndexes() {
+		return slotKeyIndexes;
+	}
+
 }
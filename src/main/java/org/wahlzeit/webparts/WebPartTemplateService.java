@@ -27,13 +27,30 @@ import org.wahlzeit.services.LogBuilder;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * The WebPartTemplateService creates WebPartTemplates upon request by reading them from disk.
  * It requires configuration with a template directory and uses the following naming convention: tmplDir/language/part-type/part-name.html
+ *
+ * The templates are kept in an immutable map that is replaced as a whole on every change, so lookups need no locks.
+ * All templates can be preloaded at startup; during development, changed files can be reloaded automatically.
  */
 public class WebPartTemplateService {
 
@@ -42,15 +59,27 @@ public class WebPartTemplateService {
 	 */
 	protected static final WebPartTemplateService instance = new WebPartTemplateService();
 	private static final Logger log = Logger.getLogger(WebPartTemplateService.class.getName());
+
 	/**
 	 *
 	 */
-	protected Map<String, WebPartTemplate> templates = new HashMap<String, WebPartTemplate>();
+	protected static final String TEMPLATE_FILE_EXTENSION = ".html";
+
+	/**
+	 * Copy-on-write: never modified, only replaced while holding the lock of the service
+	 */
+	protected volatile Map<String, WebPartTemplate> templates = Collections.emptyMap();
 	/**
 	 *
 	 */
 	protected ConfigDir templatesDir = null;
 
+	/**
+	 *
+	 */
+	protected WatchService watchService = null;
+	protected Map<WatchKey, Path> watchedDirs = new HashMap<WatchKey, Path>();
+
 	/**
 	 *
 	 */
@@ -74,12 +103,14 @@ public class WebPartTemplateService {
 
 		if (result == null) {
 			try {
-				loadTemplate(shortName);
-				result = templates.get(shortName);
+				result = loadTemplate(shortName);
+				if (result != null) {
+					result = addTemplate(shortName, result, false);
+				}
 			} catch (IOException ioex) {
-				log.warning(LogBuilder.createSystemMessage().
+				LogBuilder.createSystemMessage(log, Level.WARNING).
 						addParameter("template name", shortName).
-						addException("Problem loading template", ioex).toString());
+						addException("Problem loading template", ioex).log();
 			}
 		}
 
@@ -87,14 +118,14 @@ public class WebPartTemplateService {
 	}
 
 	/**
-	 *
+	 * Reads the template from disk; returns null if it cannot be read.
 	 */
-	protected void loadTemplate(String shortName) throws IOException {
+	protected WebPartTemplate loadTemplate(String shortName) throws IOException {
 		WebPartTemplate template = new WebPartTemplate(shortName);
-		String fileName = getTemplatesDir().getAbsoluteConfigFileName(shortName + ".html");
-		log.config(LogBuilder.createSystemMessage().
+		String fileName = getTemplatesDir().getAbsoluteConfigFileName(shortName + TEMPLATE_FILE_EXTENSION);
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("open html template file").
-				addParameter("file name", fileName).toString());
+				addParameter("file name", fileName).log();
 		File file = new File(fileName);
 
 		try {
@@ -103,13 +134,220 @@ public class WebPartTemplateService {
 
 			if (source != null) {
 				template.initialize(source);
-				log.config(LogBuilder.createSystemMessage().addAction("Initialize template").toString());
+				LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Initialize template").log();
+			}
+
+			return template;
+		} catch (IOException e) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addException("I/O Error while reading Template file", e).log();
+			return null;
+		}
+	}
+
+	/**
+	 * Publishes the template and returns it; unless replacing, a template published meanwhile by another thread wins.
+	 */
+	protected synchronized WebPartTemplate addTemplate(String shortName, WebPartTemplate template, boolean replace) {
+		WebPartTemplate existing = templates.get(shortName);
+		if ((existing != null) && !replace) {
+			return existing;
+		}
+
+		Map<String, WebPartTemplate> newTemplates = new HashMap<String, WebPartTemplate>(templates);
+		newTemplates.put(shortName, template);
+		templates = Collections.unmodifiableMap(newTemplates);
+		return template;
+	}
+
+	/**
+	 * Reads and parses all templates below the templates directory in parallel and publishes them at once.
+	 */
+	public void preloadTemplates() throws IOException {
+		List<String> shortNames;
+		try (Stream<String> defaultNames = findShortNames(getTemplateRoot(ConfigDir.DEFAULT_DIR_NAME));
+				Stream<String> customNames = findShortNames(getTemplateRoot(ConfigDir.CUSTOM_DIR_NAME))) {
+			shortNames = Stream.concat(defaultNames, customNames).distinct().collect(Collectors.toList());
+		}
+
+		Map<String, WebPartTemplate> loadedTemplates = shortNames.parallelStream().
+				map(shortName -> {
+					try {
+						return loadTemplate(shortName);
+					} catch (IOException e) {
+						return null;
+					}
+				}).
+				filter(Objects::nonNull).
+				collect(Collectors.toMap(WebPartTemplate::getName, template -> template));
+
+		synchronized (this) {
+			Map<String, WebPartTemplate> newTemplates = new HashMap<String, WebPartTemplate>(templates);
+			newTemplates.putAll(loadedTemplates);
+			templates = Collections.unmodifiableMap(newTemplates);
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("preload templates").
+				addParameter("number of templates", loadedTemplates.size()).log();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Path getTemplateRoot(String configDirName) {
+		return Paths.get(getTemplatesDir().asString(), configDirName);
+	}
+
+	/**
+	 * Returns the short names (language + File.separator + part-type/part-name) of all templates below the root.
+	 */
+	protected Stream<String> findShortNames(Path root) throws IOException {
+		if (!java.nio.file.Files.isDirectory(root)) {
+			return Stream.empty();
+		}
+
+		return java.nio.file.Files.walk(root).
+				filter(path -> path.toString().endsWith(TEMPLATE_FILE_EXTENSION)).
+				map(path -> asShortName(root.relativize(path))).
+				filter(Objects::nonNull);
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Converts e.g. en/pages/ShowPhotoPage.html to the name getTemplate() uses; null for files outside a language.
+	 */
+	protected static String asShortName(Path relativePath) {
+		int count = relativePath.getNameCount();
+		if (count < 2) {
+			return null;
+		}
+
+		StringBuilder name = new StringBuilder(relativePath.getName(1).toString());
+		for (int i = 2; i < count; i++) {
+			name.append('/').append(relativePath.getName(i));
+		}
+		name.setLength(name.length() - TEMPLATE_FILE_EXTENSION.length());
+
+		return relativePath.getName(0) + File.separator + name;
+	}
+
+	/**
+	 * Watches the templates directory and reloads every template file that is created or changed. Meant for
+	 * development, not for production.
+	 */
+	public synchronized void startHotReload() throws IOException {
+		if (watchService != null) {
+			return;
+		}
+
+		watchService = FileSystems.getDefault().newWatchService();
+		for (String configDirName : new String[] {ConfigDir.DEFAULT_DIR_NAME, ConfigDir.CUSTOM_DIR_NAME}) {
+			Path root = getTemplateRoot(configDirName);
+			if (java.nio.file.Files.isDirectory(root)) {
+				try (Stream<Path> dirs = java.nio.file.Files.walk(root)) {
+					for (Path dir : (Iterable<Path>) dirs.filter(java.nio.file.Files::isDirectory)::iterator) {
+						watchDir(dir);
+					}
+				}
 			}
+		}
+
+		Thread watcher = new Thread(this::runHotReload, "template-hot-reload");
+		watcher.setDaemon(true);
+		watcher.start();
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("start template hot reload").log();
+	}
+
+	/**
+	 *
+	 */
+	protected void watchDir(Path dir) throws IOException {
+		WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		synchronized (watchedDirs) {
+			watchedDirs.put(key, dir);
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected void runHotReload() {
+		WatchService service = watchService;
+		try {
+			while (true) {
+				WatchKey key = service.take();
+				Path dir;
+				synchronized (watchedDirs) {
+					dir = watchedDirs.get(key);
+				}
+
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (dir != null && event.context() instanceof Path) {
+						handleChange(dir.resolve((Path) event.context()));
+					}
+				}
 
-			templates.put(shortName, template);
+				if (!key.reset()) {
+					synchronized (watchedDirs) {
+						watchedDirs.remove(key);
+					}
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// stopped
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected void handleChange(Path file) {
+		try {
+			if (java.nio.file.Files.isDirectory(file)) {
+				watchDir(file);
+				return;
+			}
+
+			for (String configDirName : new String[] {ConfigDir.DEFAULT_DIR_NAME, ConfigDir.CUSTOM_DIR_NAME}) {
+				Path root = getTemplateRoot(configDirName);
+				if (file.startsWith(root) && file.toString().endsWith(TEMPLATE_FILE_EXTENSION)) {
+					reloadTemplate(asShortName(root.relativize(file)));
+				}
+			}
 		} catch (IOException e) {
-			log.warning(LogBuilder.createSystemMessage().
-					addException("I/O Error while reading Template file", e).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("file", file).
+					addException("Problem reloading template", e).log();
+		}
+	}
+
+	/**
+	 * Replaces the template and drops fragments rendered from the old one.
+	 */
+	protected void reloadTemplate(String shortName) throws IOException {
+		if (shortName == null) {
+			return;
+		}
+
+		WebPartTemplate template = loadTemplate(shortName);
+		if (template != null) {
+			addTemplate(shortName, template, true);
+			FragmentCache.getInstance().invalidate(shortName.substring(shortName.indexOf(File.separator) + 1));
+			LogBuilder.createSystemMessage(log, Level.INFO).addParameter("reloaded template", shortName).log();
+		}
+	}
+
+	/**
+	 *
+	 */
+	public synchronized void stopHotReload() throws IOException {
+		if (watchService != null) {
+			watchService.close();
+			watchService = null;
 		}
 	}
 
@@ -25,11 +25,18 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+		org.wahlzeit.agents.NotifyUsersAboutPraiseAgentTest.class,
 		org.wahlzeit.handlers.TellFriendTest.class,
+		org.wahlzeit.main.StartupPipelineTest.class,
 		org.wahlzeit.model.ModelTestSuite.class,
 		org.wahlzeit.services.ServiceTestSuite.class,
+		org.wahlzeit.servlets.StaticDataServletTest.class,
+		org.wahlzeit.utils.CompressedBitmapTest.class,
 		org.wahlzeit.utils.StringUtilTest.class,
 		org.wahlzeit.utils.VersionTest.class,
+		org.wahlzeit.webparts.FragmentCacheTest.class,
+		org.wahlzeit.webparts.WebPartTest.class,
+		org.wahlzeit.webparts.WebPartTemplateServiceTest.class,
 		})
 public class AllTests {
 	/** do nothing **/
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.agents;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoId;
+import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.parliament.ParliamentPhoto;
+import org.wahlzeit.model.parliament.ParliamentPhotoManager;
+import org.wahlzeit.utils.CompressedBitmap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link NotifyUsersAboutPraiseAgent}.
+ */
+public class NotifyUsersAboutPraiseAgentTest {
+
+	private PhotoManager photoManager;
+	private Map<String, Collection<Photo>> notified;
+	private NotifyUsersAboutPraiseAgent agent;
+
+	@Before
+	public void setUp() {
+		System.setProperty(PhotoManager.PHOTO_CACHE_MAX_ENTRIES, "2");
+		photoManager = new ParliamentPhotoManager() {
+			@Override
+			public void savePhoto(Photo photo) {
+				photo.resetWriteCount();
+			}
+		};
+		notified = new HashMap<String, Collection<Photo>>();
+		agent = new NotifyUsersAboutPraiseAgent() {
+			@Override
+			protected PhotoManager getPhotoManager() {
+				return photoManager;
+			}
+
+			@Override
+			protected void notifyOwner(String ownerId, Collection<Photo> allPhotosOfUser) {
+				notified.put(ownerId, allPhotosOfUser);
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		System.clearProperty(PhotoManager.PHOTO_CACHE_MAX_ENTRIES);
+	}
+
+	@Test
+	public void testOwnerOfEvictedPraisedPhotoIsNotified() {
+		int firstId = PhotoId.getCurrentIdAsInt() + 2000;
+		Photo praised = createSavedPhoto(firstId, "praisedOwner");
+		praised.addToPraise(5);
+		praised.resetWriteCount();
+		restore(praised);
+
+		for (int i = 1; i <= 3; i++) {
+			restore(createSavedPhoto(firstId + i, "otherOwner"));
+		}
+		assertTrue(photoManager.getPhotoCache().containsKey(praised.getId()));
+
+		agent.doRun();
+
+		assertEquals(Collections.singleton("praisedOwner"), notified.keySet());
+		assertTrue(notified.get("praisedOwner").contains(praised));
+		assertFalse(praised.hasPendingPraiseNotification());
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	private Photo createSavedPhoto(int id, String ownerId) {
+		Photo result = new ParliamentPhoto(PhotoId.getIdFromInt(id));
+		result.setOwnerId(ownerId);
+		result.resetWriteCount();
+		return result;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	private void restore(Photo photo) {
+		List<Photo> photos = new ArrayList<Photo>();
+		photos.add(photo);
+		photoManager.restorePhotos(photos, new CompressedBitmap(), new HashMap<>());
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.main;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test cases for the StartupPipeline class.
+ */
+public class StartupPipelineTest {
+
+	@Test
+	public void testStageRunsAfterItsDependencies() throws Exception {
+		List<String> order = new CopyOnWriteArrayList<String>();
+		StartupPipeline pipeline = new StartupPipeline(Executors.newFixedThreadPool(4));
+
+		CompletableFuture<Void> globals = pipeline.addStage("globals", () -> {
+			sleep(50);
+			order.add("globals");
+		});
+		CompletableFuture<Void> users = pipeline.addStage("users", () -> order.add("users"), globals);
+		CompletableFuture<Void> photos = pipeline.addStage("photos", () -> order.add("photos"), globals);
+		pipeline.await(users, photos);
+
+		assertEquals(3, order.size());
+		assertEquals("globals", order.get(0));
+		assertEquals(3, pipeline.getStageMillis().size());
+		assertTrue(pipeline.getStageMillis().get("globals") >= 50);
+	}
+
+	@Test
+	public void testIndependentStagesRunInParallel() throws Exception {
+		CountDownLatch bothStarted = new CountDownLatch(2);
+		StartupPipeline pipeline = new StartupPipeline(Executors.newFixedThreadPool(2));
+
+		Runnable loader = () -> {
+			bothStarted.countDown();
+			try {
+				// only returns in time if the other stage runs at the same time
+				assertTrue(bothStarted.await(5, TimeUnit.SECONDS));
+			} catch (InterruptedException ex) {
+				throw new IllegalStateException(ex);
+			}
+		};
+		pipeline.await(pipeline.addStage("users", loader), pipeline.addStage("photos", loader));
+
+		assertEquals(0, bothStarted.getCount());
+	}
+
+	@Test
+	public void testFailureOfStageIsRethrown() throws Exception {
+		StartupPipeline pipeline = new StartupPipeline(Executors.newFixedThreadPool(2));
+		CompletableFuture<Void> globals = pipeline.addStage("globals", () -> {
+			throw new IllegalStateException("no globals");
+		});
+		List<String> order = new CopyOnWriteArrayList<String>();
+		CompletableFuture<Void> users = pipeline.addStage("users", () -> order.add("users"), globals);
+
+		try {
+			pipeline.await(users);
+			fail("failure of the globals was not rethrown");
+		} catch (IllegalStateException ex) {
+			assertEquals("no globals", ex.getMessage());
+		}
+		assertTrue(order.isEmpty());
+	}
+
+	@Test
+	public void testStagesRunInCallingThreadWithoutExecutor() throws Exception {
+		Thread caller = Thread.currentThread();
+		List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+		StartupPipeline pipeline = new StartupPipeline(null);
+
+		CompletableFuture<Void> globals = pipeline.addStage("globals", () -> threads.add(Thread.currentThread()));
+		pipeline.await(pipeline.addStage("users", () -> threads.add(Thread.currentThread()), globals));
+
+		assertEquals(2, threads.size());
+		assertEquals(caller, threads.get(0));
+		assertEquals(caller, threads.get(1));
+	}
+
+	/**
+	 *
+	 */
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.services.Persistent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for {@link ClientManager}, mainly for concurrent creation and deletion of clients.
+ */
+public class ClientManagerTest {
+
+	private static final int NUMBER_OF_THREADS = 8;
+	private static final int NUMBER_OF_GUESTS = 100000;
+
+	private ClientManager clientManager;
+	private List<Persistent> written;
+
+	@Before
+	public void setUp() {
+		written = new ArrayList<Persistent>();
+		clientManager = new ClientManager() {
+			@Override
+			protected void writeObject(Persistent object) {
+				written.add(object);
+			}
+
+			@Override
+			protected void updateObject(Persistent object) {
+				written.add(object);
+			}
+
+			@Override
+			protected void scheduleWrite(Persistent object) {
+				written.add(object);
+			}
+
+			@Override
+			protected <E> void deleteObject(E object) {
+				// not persisted in this test
+			}
+		};
+	}
+
+	@Test
+	public void testAddAndDeleteClient() {
+		Client client = new TestClient("guest1", "guest#1");
+		clientManager.addClient(client);
+		clientManager.addHttpSessionIdToClientMapping("session1", client);
+
+		assertSame(client, clientManager.getClientById("guest1"));
+		assertSame(client, clientManager.getClientByHttpSessionId("session1"));
+		assertTrue(clientManager.isNicknameUsed("guest#1"));
+
+		clientManager.deleteClient(client);
+
+		assertNull(clientManager.getClientById("guest1"));
+		assertNull(clientManager.getClientByHttpSessionId("session1"));
+		assertNull(client.getHttpSessionId());
+		assertFalse(clientManager.isNicknameUsed("guest#1"));
+	}
+
+	@Test
+	public void testGuestsAreNotWritten() {
+		// a new guest registers itself with the UserManager, as usual
+		Guest guest = new Guest();
+		UserManager.getInstance().removeClient(guest);
+		clientManager.addClient(guest);
+		clientManager.addHttpSessionIdToClientMapping("session1", guest);
+		clientManager.saveClient(guest);
+		clientManager.saveClients();
+
+		assertSame(guest, clientManager.getClientById(guest.getId()));
+		assertSame(guest, clientManager.getClientByHttpSessionId("session1"));
+		assertTrue(clientManager.isNicknameUsed(guest.getNickName()));
+		assertFalse(clientManager.reserveNickname(guest.getNickName()));
+		assertTrue(clientManager.getClients().isEmpty());
+		assertTrue(written.isEmpty());
+
+		clientManager.deleteClient(guest);
+		assertNull(clientManager.getClientById(guest.getId()));
+		assertNull(clientManager.getClientByHttpSessionId("session1"));
+		assertEquals(0, clientManager.getNumberOfGuests());
+		assertFalse(clientManager.isNicknameUsed(guest.getNickName()));
+	}
+
+	@Test
+	public void testGuestNicknameIsReservedWithOthers() {
+		Guest guest = new Guest();
+		UserManager.getInstance().removeClient(guest);
+		assertTrue(clientManager.reserveNickname(guest.getNickName()));
+
+		try {
+			clientManager.addClient(guest);
+			fail("nickname must not be used twice");
+		} catch (IllegalArgumentException e) {
+			assertNull(clientManager.getClientById(guest.getId()));
+		}
+
+		clientManager.releaseNickname(guest.getNickName());
+		clientManager.addClient(guest);
+		assertFalse(clientManager.reserveNickname(guest.getNickName()));
+	}
+
+	@Test
+	public void testDuplicateNicknameIsRejected() {
+		clientManager.addClient(new TestClient("user1", "nick"));
+		try {
+			clientManager.addClient(new TestClient("user2", "nick"));
+			fail("nickname must not be used twice");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		assertNull(clientManager.getClientById("user2"));
+		assertEquals(1, clientManager.getClients().size());
+	}
+
+	@Test
+	public void testChangeNickname() {
+		clientManager.addClient(new TestClient("user1", "old"));
+		clientManager.addClient(new TestClient("user2", "taken"));
+
+		clientManager.changeNickname("old", "new");
+		assertFalse(clientManager.isNicknameUsed("old"));
+		assertTrue(clientManager.isNicknameUsed("new"));
+
+		try {
+			clientManager.changeNickname("new", "taken");
+			fail("nickname must not be used twice");
+		} catch (IllegalArgumentException e) {
+			assertTrue(clientManager.isNicknameUsed("new"));
+		}
+	}
+
+	@Test
+	public void testConcurrentNicknameReservation() throws Exception {
+		List<Boolean> results = runConcurrently(() -> clientManager.reserveNickname("contested"));
+
+		int reserved = 0;
+		for (boolean result : results) {
+			reserved += result ? 1 : 0;
+		}
+		assertEquals(1, reserved);
+	}
+
+	@Test
+	public void testLoadedClientDoesNotReplaceKnownOne() {
+		Client known = new TestClient("user1", "nick");
+		assertNull(clientManager.doAddClient(known));
+
+		assertSame(known, clientManager.doAddClient(new TestClient("user1", "other")));
+		assertSame(known, clientManager.getClientById("user1"));
+		assertFalse(clientManager.isNicknameUsed("other"));
+		assertTrue(written.isEmpty());
+	}
+
+	@Test
+	public void testConcurrentlyLoadedClientsClaimNicknameOnce() throws Exception {
+		List<Boolean> results = runConcurrently(() -> {
+			try {
+				return clientManager.doAddClient(new TestClient("user" + Thread.currentThread().getId(), "nick")) == null;
+			} catch (IllegalArgumentException e) {
+				return false;
+			}
+		});
+
+		int added = 0;
+		for (boolean result : results) {
+			added += result ? 1 : 0;
+		}
+		assertEquals(1, added);
+		assertEquals(1, clientManager.getClients().size());
+	}
+
+	@Test
+	public void testLoadedUserWithUsedNicknameIsNotReturned() {
+		UserManager userManager = UserManager.getInstance();
+		User loaded = new User();
+		loaded.id = "loaded" + userManager.getNextClientId();
+		loaded.nickName = "nick" + loaded.id;
+		assertTrue(userManager.reserveNickname(loaded.nickName));
+
+		try {
+			assertNull(userManager.addLoadedUser(loaded));
+			assertNull(userManager.getClientById(loaded.id));
+		} finally {
+			userManager.releaseNickname(loaded.nickName);
+		}
+	}
+
+	@Test
+	public void testConcurrentGuestCreationAndDeletion() throws Exception {
+		List<Boolean> results = runConcurrently(() -> {
+			for (int i = 0; i < NUMBER_OF_GUESTS / NUMBER_OF_THREADS; i++) {
+				String id = "guest" + clientManager.getNextClientId();
+				Client guest = new TestClient(id, id.replace("guest", "guest#"));
+				clientManager.addClient(guest);
+				clientManager.addHttpSessionIdToClientMapping("session-" + id, guest);
+				if (clientManager.getClientByHttpSessionId("session-" + id) != guest) {
+					return false;
+				}
+				clientManager.deleteClient(guest);
+			}
+			return true;
+		});
+
+		for (boolean result : results) {
+			assertTrue(result);
+		}
+		assertTrue(clientManager.idClientMap.isEmpty());
+		assertTrue(clientManager.httpSessionIdToClientMap.isEmpty());
+		assertTrue(clientManager.usedNicknames.isEmpty());
+	}
+
+	/**
+	 * Runs the task in several threads that start at the same time
+	 */
+	private List<Boolean> runConcurrently(Callable<Boolean> task) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+			for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+				futures.add(executor.submit(() -> {
+					start.await();
+					return task.call();
+				}));
+			}
+			start.countDown();
+
+			List<Boolean> result = new ArrayList<Boolean>();
+			for (Future<Boolean> future : futures) {
+				result.add(future.get());
+			}
+			return result;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * A client that is not registered with the UserManager on creation
+	 */
+	private static class TestClient extends Client {
+
+		TestClient(String id, String nickName) {
+			this.id = id;
+			this.nickName = nickName;
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link GuestCache}.
+ */
+public class GuestCacheTest {
+
+	private static final long EXPIRY_MILLIS = 1000;
+
+	private long now;
+	private List<Guest> dropped;
+	private GuestCache guestCache;
+
+	@Before
+	public void setUp() {
+		now = 1000000;
+		dropped = new ArrayList<Guest>();
+		guestCache = createGuestCache(3);
+	}
+
+	private GuestCache createGuestCache(long maxSize) {
+		return new GuestCache(maxSize, EXPIRY_MILLIS, guest -> dropped.add(guest)) {
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		};
+	}
+
+	@Test
+	public void testAddAndGet() {
+		Guest guest = new Guest();
+
+		assertTrue(guestCache.add(guest));
+		assertFalse(guestCache.add(guest));
+		assertSame(guest, guestCache.get(guest.getId()));
+		assertSame(guest, guestCache.remove(guest.getId()));
+		assertNull(guestCache.get(guest.getId()));
+		assertTrue(dropped.isEmpty());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedGuestIsDropped() {
+		Guest first = new Guest();
+		Guest second = new Guest();
+		guestCache.add(first);
+		guestCache.add(second);
+		guestCache.add(new Guest());
+		guestCache.get(first.getId());
+		guestCache.add(new Guest());
+
+		assertEquals(3, guestCache.size());
+		assertEquals(1, dropped.size());
+		assertSame(second, dropped.get(0));
+		assertSame(first, guestCache.get(first.getId()));
+	}
+
+	@Test
+	public void testUnusedGuestExpires() {
+		Guest guest = new Guest();
+		guestCache.add(guest);
+
+		now += EXPIRY_MILLIS - 1;
+		assertSame(guest, guestCache.get(guest.getId()));
+		now += EXPIRY_MILLIS;
+
+		assertNull(guestCache.get(guest.getId()));
+		assertFalse(guestCache.contains(guest.getId()));
+		assertEquals(1, dropped.size());
+	}
+
+	@Test
+	public void testExpireGuests() {
+		Guest idle = new Guest();
+		Guest active = new Guest();
+		guestCache.add(idle);
+		guestCache.add(active);
+
+		now += EXPIRY_MILLIS / 2;
+		guestCache.get(active.getId());
+		now += EXPIRY_MILLIS / 2;
+
+		assertEquals(1, guestCache.expireGuests());
+		assertFalse(guestCache.contains(idle.getId()));
+		assertTrue(guestCache.contains(active.getId()));
+		assertSame(idle, dropped.get(0));
+	}
+
+	@Test
+	public void testAddingSweepsOncePerInterval() {
+		guestCache = createGuestCache(10);
+		Guest guest = new Guest();
+		guestCache.add(guest);
+
+		now += GuestCache.SWEEP_INTERVAL_MILLIS;
+		guestCache.add(new Guest());
+
+		assertFalse(guestCache.contains(guest.getId()));
+		assertEquals(1, dropped.size());
+	}
+
+}
@@ -24,7 +24,7 @@ public class GuestTest {
 
 	@Test
 	public void testNameGeneration() {
-		int clientId = ClientManager.lastClientId.intValue();
+		int clientId = (int) ClientManager.clientIdCounter.getLastId();
 		assertNewGuestHasId(++clientId);
 		assertNewGuestHasId(++clientId);
 		// creation of user should not consume a next id
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.model.persistence.ImageStorage;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link ImageCache}.
+ */
+public class ImageCacheTest {
+
+	protected ImageStorage previousStorage;
+	protected AtomicInteger reads;
+
+	@Before
+	public void setUp() {
+		try {
+			previousStorage = ImageStorage.getInstance();
+		} catch (NullPointerException e) {
+			previousStorage = null;
+		}
+
+		reads = new AtomicInteger();
+		ImageStorage.setInstance(new ImageStorage() {
+			@Override
+			protected void doWriteImage(Serializable image, String photoIdAsString, int size) {
+				// not needed
+			}
+
+			@Override
+			protected Serializable doReadImage(String photoIdAsString, int size) {
+				reads.incrementAndGet();
+				return (size == PhotoSize.THUMB.asInt()) ? null : ImagesServiceFactory.makeImage(new byte[100]);
+			}
+
+			@Override
+			protected boolean doDoesImageExist(String photoIdAsString, int size) {
+				return size != PhotoSize.THUMB.asInt();
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		if (previousStorage != null) {
+			ImageStorage.setInstance(previousStorage);
+		}
+	}
+
+	@Test
+	public void testLoadsImageOnlyOnce() {
+		ImageCache cache = new ImageCache(1000, "lru");
+		PhotoId id = new PhotoId(1);
+
+		ByteBuffer data = cache.getImageData(id, PhotoSize.MEDIUM);
+		assertTrue(data.isDirect());
+		assertTrue(data.isReadOnly());
+		assertEquals(100, data.remaining());
+
+		cache.getImageData(id, PhotoSize.MEDIUM);
+		assertEquals(1, reads.get());
+		assertEquals(1, cache.getStatistics().getHitCount());
+	}
+
+	@Test
+	public void testMissingImageIsNull() {
+		ImageCache cache = new ImageCache(1000, "lru");
+		assertNull(cache.getImageData(new PhotoId(1), PhotoSize.THUMB));
+		assertNull(cache.getImage(PhotoId.NULL_ID, PhotoSize.MEDIUM));
+	}
+
+	@Test
+	public void testPutImageServesSameBytes() {
+		ImageCache cache = new ImageCache(1000, "lru");
+		byte[] bytes = {1, 2, 3};
+		cache.putImage(new PhotoId(2), PhotoSize.LARGE, ImagesServiceFactory.makeImage(bytes));
+
+		assertArrayEquals(bytes, cache.getImage(new PhotoId(2), PhotoSize.LARGE).getImageData());
+		assertEquals(0, reads.get());
+	}
+
+	@Test
+	public void testRespectsByteBudget() {
+		ImageCache cache = new ImageCache(250, "lru");
+		for (int i = 1; i <= 5; i++) {
+			cache.getImageData(new PhotoId(i), PhotoSize.SMALL);
+		}
+
+		assertEquals(2, cache.getStatistics().getSize());
+		assertEquals(200, cache.getStatistics().getWeight());
+	}
+
+}
@@ -24,18 +24,29 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.wahlzeit.model.parliament.ModelParliamentTestSuite;
 import org.wahlzeit.model.persistence.DatastoreAdapterTest;
+import org.wahlzeit.model.persistence.FileSystemAdapterTest;
+import org.wahlzeit.model.persistence.ImageStorageTest;
+import org.wahlzeit.model.persistence.ModelSnapshotTest;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
 		DatastoreAdapterTest.class,
+		FileSystemAdapterTest.class,
+		ImageStorageTest.class,
+		ModelSnapshotTest.class,
 		AccessRightsTest.class,
 		CartesianCoordinateTest.class,
+		ClientManagerTest.class,
 		SphericCoordinateTest.class,
 		FlagReasonTest.class,
 		GenderTest.class,
+		GuestCacheTest.class,
 		GuestTest.class,
+		ImageCacheTest.class,
 		LocationTest.class,
 		PhotoFilterTest.class,
+		PhotoIdTest.class,
+		TagIndexTest.class,
 		TagsTest.class,
 		UserStatusTest.class,
 		ValueTest.class,
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link PhotoId}, including concurrent allocation and lookup.
+ */
+public class PhotoIdTest {
+
+	private static final int NUMBER_OF_THREADS = 8;
+	private static final int IDS_PER_THREAD = 20000;
+
+	@Before
+	public void setUp() {
+		PhotoId.setCurrentIdFromInt(0);
+	}
+
+	@Test
+	public void testStringEncoding() {
+		assertEquals("x1ac0", PhotoId.getFromInt(0));
+		assertEquals("x1ac1", PhotoId.getFromInt(1));
+		assertEquals("x", PhotoId.NULL_ID.asString());
+		for (int id = 1; id < 100000; id += 7) {
+			assertEquals(id, PhotoId.getFromString(PhotoId.getFromInt(id)));
+		}
+	}
+
+	@Test
+	public void testIdsAreShared() {
+		PhotoId.setCurrentIdFromInt(1000);
+
+		for (int id : new int[] {1, 63, 64, 65, 191, 192, 1000}) {
+			PhotoId photoId = PhotoId.getIdFromInt(id);
+			assertEquals(id, photoId.asInt());
+			assertSame(photoId, PhotoId.getIdFromInt(id));
+			assertSame(photoId, PhotoId.getIdFromString(photoId.asString()));
+		}
+		assertSame(PhotoId.NULL_ID, PhotoId.getIdFromInt(0));
+		assertSame(PhotoId.NULL_ID, PhotoId.getIdFromInt(-1));
+	}
+
+	@Test
+	public void testIdsBeyondCurrentAreNotShared() {
+		PhotoId.setCurrentIdFromInt(1000);
+
+		PhotoId photoId = PhotoId.getIdFromInt(5000);
+		assertEquals(5000, photoId.asInt());
+		assertEquals(photoId, PhotoId.getIdFromInt(5000));
+		assertNotSame(photoId, PhotoId.getIdFromInt(5000));
+	}
+
+	@Test
+	public void testSegmentsGrowGeometrically() {
+		assertEquals(0, PhotoId.getSegmentIndex(0));
+		assertEquals(0, PhotoId.getSegmentIndex(PhotoId.FIRST_SEGMENT_SIZE - 1));
+		assertEquals(1, PhotoId.getSegmentIndex(PhotoId.FIRST_SEGMENT_SIZE));
+		assertEquals(1, PhotoId.getSegmentIndex(3 * PhotoId.FIRST_SEGMENT_SIZE - 1));
+		assertEquals(2, PhotoId.getSegmentIndex(3 * PhotoId.FIRST_SEGMENT_SIZE));
+		assertTrue(PhotoId.getSegmentIndex(Integer.MAX_VALUE) >= PhotoId.MAX_SEGMENTS);
+
+		PhotoId.setCurrentIdFromInt(Integer.MAX_VALUE);
+		assertEquals(Integer.MAX_VALUE, PhotoId.getIdFromInt(Integer.MAX_VALUE).asInt());
+	}
+
+	@Test
+	public void testConcurrentAllocationHandsOutEveryIdOnce() throws Exception {
+		List<Callable<int[]>> tasks = new ArrayList<Callable<int[]>>();
+		CountDownLatch start = new CountDownLatch(1);
+		for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+			tasks.add(() -> {
+				start.await();
+				int[] result = new int[IDS_PER_THREAD];
+				for (int j = 0; j < IDS_PER_THREAD; j++) {
+					PhotoId id = PhotoId.getNextId();
+					assertSame(id, PhotoId.getIdFromInt(id.asInt()));
+					result[j] = id.asInt();
+				}
+				return result;
+			});
+		}
+
+		BitSet seen = new BitSet();
+		for (int[] ids : runConcurrently(tasks, start)) {
+			for (int id : ids) {
+				assertTrue("id handed out twice: " + id, !seen.get(id));
+				seen.set(id);
+			}
+		}
+
+		int total = NUMBER_OF_THREADS * IDS_PER_THREAD;
+		assertEquals(total, seen.cardinality());
+		assertEquals(1, seen.nextSetBit(0));
+		assertEquals(total, PhotoId.getCurrentIdAsInt());
+	}
+
+	@Test
+	public void testConcurrentLookupsShareOneObject() throws Exception {
+		int numberOfIds = IDS_PER_THREAD;
+		PhotoId.setCurrentIdFromInt(numberOfIds);
+
+		List<Callable<PhotoId[]>> tasks = new ArrayList<Callable<PhotoId[]>>();
+		CountDownLatch start = new CountDownLatch(1);
+		for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+			tasks.add(() -> {
+				start.await();
+				PhotoId[] result = new PhotoId[numberOfIds + 1];
+				for (int id = numberOfIds; id > 0; id--) {
+					result[id] = PhotoId.getIdFromInt(id);
+				}
+				return result;
+			});
+		}
+
+		List<PhotoId[]> results = runConcurrently(tasks, start);
+		for (int id = 1; id <= numberOfIds; id++) {
+			PhotoId expected = PhotoId.getIdFromInt(id);
+			for (PhotoId[] result : results) {
+				assertSame(expected, result[id]);
+			}
+		}
+	}
+
+	/**
+	 * Runs all tasks, released at once by the start latch, and returns their results
+	 */
+	private <T> List<T> runConcurrently(List<Callable<T>> tasks, CountDownLatch start) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+		try {
+			List<Future<T>> futures = new ArrayList<Future<T>>();
+			for (Callable<T> task : tasks) {
+				futures.add(executor.submit(task));
+			}
+			start.countDown();
+
+			List<T> result = new ArrayList<T>();
+			for (Future<T> future : futures) {
+				result.add(future.get());
+			}
+			return result;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
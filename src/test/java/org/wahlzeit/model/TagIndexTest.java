@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test class for {@link TagIndex}.
+ */
+public class TagIndexTest {
+
+	private TagIndex tagIndex;
+
+	@Before
+	public void initTagIndex() {
+		tagIndex = new TagIndex();
+		tagIndex.update(3, asSet("un:alice", "tg:flower", "tg:red"));
+		tagIndex.update(1, asSet("un:bob", "tg:flower"));
+		tagIndex.update(2, asSet("un:alice", "tg:flower"));
+	}
+
+	@Test
+	public void testFindSingleCondition() {
+		assertArrayEquals(new int[] {1, 2, 3}, tagIndex.findAll(Collections.singletonList("tg:flower")));
+		assertArrayEquals(new int[0], tagIndex.findAll(Collections.singletonList("tg:unknown")));
+	}
+
+	@Test
+	public void testFindIntersectsConditions() {
+		assertArrayEquals(new int[] {2, 3}, tagIndex.findAll(Arrays.asList("un:alice", "tg:flower")));
+		assertArrayEquals(new int[] {3}, tagIndex.findAll(Arrays.asList("tg:flower", "tg:red", "un:alice")));
+		assertArrayEquals(new int[0], tagIndex.findAll(Arrays.asList("un:bob", "tg:red")));
+		assertArrayEquals(new int[0], tagIndex.findAll(Collections.<String>emptyList()));
+	}
+
+	@Test
+	public void testUpdateRemovesStaleConditions() {
+		tagIndex.update(3, asSet("un:alice", "tg:blue"));
+
+		assertArrayEquals(new int[] {1, 2}, tagIndex.findAll(Collections.singletonList("tg:flower")));
+		assertEquals(0, tagIndex.getNumberOfPhotos("tg:red"));
+		assertEquals(1, tagIndex.getNumberOfPhotos("tg:blue"));
+	}
+
+	@Test
+	public void testGetConditions() {
+		tagIndex.update(3, asSet("un:alice", "tg:blue"));
+
+		assertEquals(asSet("un:alice", "tg:blue"), tagIndex.getConditions(3));
+		assertNull(tagIndex.getConditions(42));
+		tagIndex.remove(3);
+		assertNull(tagIndex.getConditions(3));
+	}
+
+	@Test
+	public void testRemove() {
+		tagIndex.remove(2);
+		assertArrayEquals(new int[] {3}, tagIndex.findAll(Collections.singletonList("un:alice")));
+	}
+
+	@Test
+	public void testRebuildEqualsIncrementalUpdates() {
+		Map<Integer, Set<String>> conditionsByPhoto = new HashMap<Integer, Set<String>>();
+		for (int i = 100; i > 0; i--) {
+			conditionsByPhoto.put(i, (i % 2 == 0) ? asSet("tg:even", "tg:all") : asSet("tg:all"));
+		}
+		tagIndex.rebuild(conditionsByPhoto);
+
+		assertEquals(100, tagIndex.getNumberOfPhotos("tg:all"));
+		assertEquals(0, tagIndex.getNumberOfPhotos("tg:flower"));
+		int[] even = tagIndex.findAll(Arrays.asList("tg:all", "tg:even"));
+		assertEquals(50, even.length);
+		assertEquals(2, even[0]);
+		assertEquals(100, even[49]);
+
+		tagIndex.update(7, asSet("tg:even"));
+		assertEquals(51, tagIndex.findAll(Collections.singletonList("tg:even")).length);
+		assertEquals(99, tagIndex.getNumberOfPhotos("tg:all"));
+	}
+
+	private static Set<String> asSet(String... conditions) {
+		return new HashSet<String>(Arrays.asList(conditions));
+	}
+
+}
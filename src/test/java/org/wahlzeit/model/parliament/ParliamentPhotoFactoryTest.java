@@ -23,9 +23,11 @@ package org.wahlzeit.model.parliament;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.wahlzeit.model.PhotoId;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -52,6 +54,16 @@ public class ParliamentPhotoFactoryTest {
 
 	}
 
+	@Test
+	public void testOnlyCreatedPhotosTakeAnId() {
+		int currentId = PhotoId.getCurrentIdAsInt();
+		assertNull(new ParliamentPhoto().getId());
+		assertEquals(currentId, PhotoId.getCurrentIdAsInt());
+
+		ParliamentPhoto photo = i.createPhoto();
+		assertEquals(currentId + 1, photo.getId().asInt());
+	}
+
 	@Test
 	public void testType() {
 		assertTrue(i instanceof ParliamentPhotoFactory);
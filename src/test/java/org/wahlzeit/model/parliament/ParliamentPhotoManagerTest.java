@@ -22,9 +22,14 @@
 package org.wahlzeit.model.parliament;
 
 import org.junit.Test;
+import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoId;
+
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 /**
  * All test cases of the class {@link ParliamentPhotoManager}.
@@ -45,4 +50,24 @@ public class ParliamentPhotoManagerTest {
 
 		assertNotNull(f);
 	}
+
+	@Test
+	public void testUnknownIdIsLookedUpOnce() {
+		AtomicInteger loads = new AtomicInteger();
+		ParliamentPhotoManager photoManager = new ParliamentPhotoManager() {
+			@Override
+			protected Photo loadPhoto(PhotoId id) {
+				loads.incrementAndGet();
+				return null;
+			}
+		};
+		PhotoId unknownId = PhotoId.getIdFromInt(PhotoId.getCurrentIdAsInt() + 1000);
+
+		assertNull(photoManager.getPhotoFromId(unknownId));
+		assertNull(photoManager.getPhotoFromId(unknownId));
+		assertNull(photoManager.getPhotoFromId(PhotoId.getIdFromString(unknownId.asString())));
+		assertNull(photoManager.getPhotoFromId(PhotoId.NULL_ID));
+
+		assertEquals(1, loads.get());
+	}
 }
@@ -0,0 +1,82 @@
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link FileSystemAdapter}.
+ */
+public class FileSystemAdapterTest extends AbstractAdapterTest {
+
+	private Path rootDir;
+
+	@Override
+	protected void storageDependentSetUp() {
+		try {
+			rootDir = Files.createTempDirectory("wahlzeit-images");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		imageStorage = new FileSystemAdapter(rootDir);
+	}
+
+	@Override
+	protected void storageDependentTearDown() {
+		try (Stream<Path> files = Files.walk(rootDir)) {
+			files.map(Path::toFile).sorted((a, b) -> b.compareTo(a)).forEach(File::delete);
+		} catch (IOException e) {
+			// leave it to the system to clean up
+		}
+	}
+
+	@Test
+	public void testReadImageDataIsMapped() throws IOException {
+		byte[] data = new byte[] {1, 2, 3, 4, 5};
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(data), "mapped", 2);
+
+		ByteBuffer buffer = imageStorage.readImageData("mapped", 2);
+
+		assertTrue(buffer instanceof MappedByteBuffer);
+		byte[] read = new byte[buffer.remaining()];
+		buffer.get(read);
+		assertArrayEquals(data, read);
+		assertNull(imageStorage.readImageData("mapped", 3));
+	}
+
+	@Test
+	public void testNoUpperSizeLimit() throws IOException {
+		Image largeImage = ImagesServiceFactory.makeImage(new byte[3 * 1024 * 1024]);
+		imageStorage.writeImage(largeImage, "large", 4);
+
+		assertEquals(3 * 1024 * 1024, imageStorage.readImageData("large", 4).remaining());
+	}
+
+	@Test
+	public void testOverwriteLeavesNoTemporaryFiles() throws IOException {
+		imageStorage.writeImage(smallTestImage, "twice", 1);
+		imageStorage.writeImage(maxSizeTestImage, "twice", 1);
+
+		Path file = ((FileSystemAdapter) imageStorage).getFile("twice", 1);
+		assertEquals(maxSizeTestImage.getImageData().length, Files.size(file));
+		try (Stream<Path> files = Files.list(file.getParent())) {
+			assertEquals(1, files.count());
+		}
+		assertFalse(rootDir.equals(file.getParent().getParent()));
+	}
+
+}
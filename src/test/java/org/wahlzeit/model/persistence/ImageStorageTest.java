@@ -0,0 +1,128 @@
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for the existence index of {@link ImageStorage}.
+ */
+public class ImageStorageTest {
+
+	private CountingImageStorage imageStorage;
+
+	@Before
+	public void setUp() {
+		imageStorage = new CountingImageStorage();
+		imageStorage.stored.add("photo2");
+		imageStorage.stored.add("photo4");
+	}
+
+	@Test
+	public void testExistenceIsReadOncePerPhoto() {
+		assertTrue(imageStorage.doesImageExist("photo", 2));
+		assertFalse(imageStorage.doesImageExist("photo", 3));
+		assertTrue(imageStorage.doesImageExist("photo", 4));
+
+		assertEquals(1, imageStorage.numberOfSizeReads);
+	}
+
+	@Test
+	public void testWriteUpdatesIndex() throws IOException {
+		assertFalse(imageStorage.doesImageExist("photo", 3));
+
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(new byte[1]), "photo", 3);
+
+		assertTrue(imageStorage.doesImageExist("photo", 3));
+		assertEquals(1, imageStorage.numberOfSizeReads);
+	}
+
+	@Test
+	public void testWriteOfUncheckedPhotoKeepsOtherSizes() throws IOException {
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(new byte[1]), "photo", 3);
+
+		assertTrue(imageStorage.doesImageExist("photo", 2));
+		assertTrue(imageStorage.doesImageExist("photo", 3));
+	}
+
+	@Test
+	public void testWriteDuringStorageReadIsKept() throws IOException {
+		imageStorage.duringSizeRead = () -> {
+			try {
+				imageStorage.writeImage(ImagesServiceFactory.makeImage(new byte[1]), "photo", 3);
+			} catch (IOException ex) {
+				throw new IllegalStateException(ex);
+			}
+		};
+		imageStorage.doesImageExist("photo", 3);
+		imageStorage.duringSizeRead = null;
+
+		assertTrue(imageStorage.doesImageExist("photo", 3));
+		assertTrue(imageStorage.doesImageExist("photo", 2));
+		assertEquals(1, imageStorage.numberOfSizeReads);
+	}
+
+	@Test
+	public void testIndexIsBounded() {
+		System.setProperty(ImageStorage.MAX_INDEXED_PHOTOS, "2");
+		try {
+			imageStorage = new CountingImageStorage();
+		} finally {
+			System.clearProperty(ImageStorage.MAX_INDEXED_PHOTOS);
+		}
+
+		for (int i = 0; i < 3; i++) {
+			assertFalse(imageStorage.doesImageExist("photo" + i, 2));
+		}
+		assertEquals(2, imageStorage.storedSizes.size());
+
+		assertFalse(imageStorage.doesImageExist("photo0", 2));
+		assertEquals(4, imageStorage.numberOfSizeReads);
+	}
+
+	/**
+	 *
+	 */
+	private static class CountingImageStorage extends ImageStorage {
+
+		private Set<String> stored = new HashSet<String>();
+		private int numberOfSizeReads = 0;
+		private Runnable duringSizeRead = null;
+
+		@Override
+		protected void doWriteImage(Serializable image, String photoIdAsString, int size) {
+			stored.add(photoIdAsString + size);
+		}
+
+		@Override
+		protected Serializable doReadImage(String photoIdAsString, int size) {
+			return null;
+		}
+
+		@Override
+		protected boolean doDoesImageExist(String photoIdAsString, int size) {
+			return stored.contains(photoIdAsString + size);
+		}
+
+		@Override
+		protected int doReadStoredSizes(String photoIdAsString) {
+			numberOfSizeReads++;
+			int result = super.doReadStoredSizes(photoIdAsString);
+			if (duringSizeRead != null) {
+				// a write finishing after the storage has been read
+				duringSizeRead.run();
+			}
+			return result;
+		}
+	}
+
+}
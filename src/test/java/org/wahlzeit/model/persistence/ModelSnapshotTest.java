@@ -0,0 +1,135 @@
+package org.wahlzeit.model.persistence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.model.Client;
+import org.wahlzeit.model.Globals;
+import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoId;
+import org.wahlzeit.model.parliament.Parliament;
+import org.wahlzeit.model.parliament.ParliamentPhoto;
+import org.wahlzeit.model.parliament.ParliamentType;
+import org.wahlzeit.utils.CompressedBitmap;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link ModelSnapshot}.
+ */
+public class ModelSnapshotTest {
+
+	private Path dir;
+	private Path file;
+
+	@Before
+	public void setUp() throws IOException {
+		PhotoId.setCurrentIdFromInt(10);
+		dir = Files.createTempDirectory("wahlzeit-snapshot");
+		file = dir.resolve("model.snapshot");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			for (Path path : (Iterable<Path>) files::iterator) {
+				Files.delete(path);
+			}
+		}
+		Files.delete(dir);
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		Globals globals = new Globals();
+		globals.setLastPhotoId(10);
+		globals.setLastCaseId(3);
+		ParliamentType type = new ParliamentType("modern");
+		Parliament parliament = type.createInstance("Reichstag", 1894);
+		ParliamentPhoto photo = new ParliamentPhoto(PhotoId.getIdFromInt(2));
+		photo.setParliament(parliament);
+		Map<Integer, Set<String>> conditions = new HashMap<Integer, Set<String>>();
+		conditions.put(2, new HashSet<String>(Arrays.asList("un:alice", "tg:berlin")));
+
+		ModelSnapshot snapshot = new ModelSnapshot(1234L, globals, new ArrayList<Client>(),
+				Collections.<Photo>singletonList(photo), CompressedBitmap.of(2), conditions,
+				Collections.singletonList(type), Collections.singletonList(parliament));
+		long size = snapshot.write(file);
+
+		assertEquals(Files.size(file), size);
+		try (Stream<Path> files = Files.list(dir)) {
+			assertEquals(1, files.count());
+		}
+
+		ModelSnapshot read = ModelSnapshot.read(file);
+		assertEquals(1234L, read.getTimestamp());
+		assertEquals(10, read.getGlobals().getLastPhotoId());
+		assertEquals(3, read.getGlobals().getLastCaseId());
+		assertTrue(read.getClients().isEmpty());
+		assertArrayEquals(new int[] {2}, read.getDisplayablePhotoIds().toArray());
+		assertEquals(conditions, read.getTagConditions());
+
+		ParliamentPhoto readPhoto = (ParliamentPhoto) read.getPhotos().get(0);
+		assertSame(PhotoId.getIdFromInt(2), readPhoto.getId());
+		assertFalse(readPhoto.isDirty());
+		assertSame(read.getParliaments().get(0), readPhoto.getParliament());
+		assertEquals("Reichstag", readPhoto.getParliament().getName());
+	}
+
+	@Test(expected = IOException.class)
+	public void testMissingFile() throws IOException {
+		ModelSnapshot.read(file);
+	}
+
+	@Test(expected = StreamCorruptedException.class)
+	public void testNoSnapshot() throws IOException {
+		Files.write(file, new byte[] {1, 2, 3});
+		ModelSnapshot.read(file);
+	}
+
+	@Test(expected = StreamCorruptedException.class)
+	public void testDamagedSnapshot() throws IOException {
+		writeEmptySnapshot();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] {42}), channel.size() - 1);
+		}
+		ModelSnapshot.read(file);
+	}
+
+	@Test(expected = StreamCorruptedException.class)
+	public void testTruncatedSnapshot() throws IOException {
+		writeEmptySnapshot();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 1);
+		}
+		ModelSnapshot.read(file);
+	}
+
+	private void writeEmptySnapshot() throws IOException {
+		new ModelSnapshot(0L, new Globals(), new ArrayList<Client>(), new ArrayList<Photo>(), new CompressedBitmap(),
+				new HashMap<Integer, Set<String>>(), new ArrayList<ParliamentType>(), new ArrayList<Parliament>()).
+				write(file);
+	}
+
+}
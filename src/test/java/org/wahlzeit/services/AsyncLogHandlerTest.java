@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.services;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link AsyncLogHandler}.
+ */
+public class AsyncLogHandlerTest {
+
+	private final List<LogRecord> published = Collections.synchronizedList(new ArrayList<LogRecord>());
+	private final CountDownLatch blocked = new CountDownLatch(1);
+	private AsyncLogHandler handler;
+
+	@After
+	public void tearDown() {
+		blocked.countDown();
+		if (handler != null) {
+			handler.stop();
+		}
+	}
+
+	@Test
+	public void testPublishesOnBackgroundThread() throws InterruptedException {
+		handler = new AsyncLogHandler(new RecordingHandler(false), 16);
+		assertTrue(handler.start(Thread::new));
+
+		handler.publish(new LogRecord(Level.INFO, "first"));
+		handler.publish(new LogRecord(Level.INFO, "second"));
+		handler.stop();
+
+		assertEquals(2, published.size());
+		assertEquals("first", published.get(0).getMessage());
+		assertEquals("second", published.get(1).getMessage());
+	}
+
+	@Test
+	public void testFullBufferDropsOnlyBelowWarning() throws InterruptedException {
+		handler = new AsyncLogHandler(new RecordingHandler(true), 1);
+		assertTrue(handler.start(Thread::new));
+
+		// the worker takes the first record and blocks on it, the second fills the buffer
+		handler.publish(new LogRecord(Level.INFO, "taken"));
+		while (handler.getNumberOfBuffered() > 0) {
+			Thread.sleep(1);
+		}
+		handler.publish(new LogRecord(Level.INFO, "buffered"));
+		handler.publish(new LogRecord(Level.INFO, "dropped"));
+		assertEquals(1, handler.getDroppedRecords());
+
+		blocked.countDown();
+		handler.stop();
+
+		assertEquals(2, published.size());
+	}
+
+	@Test
+	public void testPublishesSynchronouslyWithoutThread() {
+		handler = new AsyncLogHandler(new RecordingHandler(false), 16);
+		assertFalse(handler.start(runnable -> {
+			throw new IllegalStateException("no background threads");
+		}));
+
+		handler.publish(new LogRecord(Level.INFO, "direct"));
+
+		assertEquals(1, published.size());
+	}
+
+	@Test
+	public void testInstallAndUninstall() {
+		Logger logger = Logger.getAnonymousLogger();
+		Handler original = new RecordingHandler(false);
+		logger.addHandler(original);
+
+		List<AsyncLogHandler> installed = AsyncLogHandler.install(logger, 16, Thread::new);
+		assertEquals(1, installed.size());
+		assertSame(installed.get(0), logger.getHandlers()[0]);
+		assertSame(original, installed.get(0).getDelegate());
+
+		AsyncLogHandler.uninstall(logger);
+		assertSame(original, logger.getHandlers()[0]);
+	}
+
+	/**
+	 *
+	 */
+	private class RecordingHandler extends Handler {
+		private final boolean isBlocking;
+
+		private RecordingHandler(boolean isBlocking) {
+			this.isBlocking = isBlocking;
+		}
+
+		@Override
+		public void publish(LogRecord record) {
+			if (isBlocking) {
+				try {
+					blocked.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			published.add(record);
+		}
+
+		@Override
+		public void flush() {
+			// nothing buffered
+		}
+
+		@Override
+		public void close() {
+			// nothing to close
+		}
+	}
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.services;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link IdCounter}; a shared AtomicLong plays the part of the Globals in the datastore.
+ */
+public class IdCounterTest {
+
+	private final AtomicLong storedLastId = new AtomicLong(0);
+	private final AtomicInteger numberOfLeases = new AtomicInteger(0);
+
+	private final IdCounter.BlockLeaser leaser = blockSize -> {
+		numberOfLeases.incrementAndGet();
+		return storedLastId.getAndAdd(blockSize) + 1;
+	};
+
+	@Test
+	public void testCountsInMemoryByDefault() {
+		IdCounter counter = new IdCounter();
+		counter.setLastId(41);
+
+		assertFalse(counter.isLeasing());
+		assertEquals(42, counter.nextId());
+		assertEquals(43, counter.nextId());
+		assertEquals(43, counter.getLastId());
+
+		counter.raiseLastId(10);
+		assertEquals(43, counter.getLastId());
+		counter.raiseLastId(100);
+		assertEquals(101, counter.nextId());
+	}
+
+	@Test
+	public void testHandsOutLeasedBlocks() {
+		IdCounter counter = new IdCounter();
+		counter.startLeasing(leaser, 10, null);
+
+		for (long id = 1; id <= 25; id++) {
+			assertEquals(id, counter.nextId());
+		}
+		assertEquals(3, numberOfLeases.get());
+		assertEquals(30, storedLastId.get());
+		assertEquals(30, counter.getLastId());
+	}
+
+	@Test
+	public void testLeasesNextBlockAhead() {
+		IdCounter counter = new IdCounter();
+		counter.startLeasing(leaser, 10, Runnable::run);
+
+		for (int i = 0; i < 9; i++) {
+			counter.nextId();
+		}
+		assertEquals(1, numberOfLeases.get());
+		assertEquals(10, counter.nextId());
+		assertEquals(2, numberOfLeases.get());
+		assertEquals(11, counter.nextId());
+		assertEquals(2, numberOfLeases.get());
+	}
+
+	@Test
+	public void testLeasesAgainIfLeasingAheadFailed() {
+		IdCounter counter = new IdCounter();
+		AtomicInteger calls = new AtomicInteger(0);
+		counter.startLeasing(blockSize -> {
+			if (calls.incrementAndGet() == 2) {
+				throw new IllegalStateException("datastore unavailable");
+			}
+			return leaser.leaseBlock(blockSize);
+		}, 10, Runnable::run);
+
+		for (long id = 1; id <= 15; id++) {
+			assertEquals(id, counter.nextId());
+		}
+		assertEquals(3, calls.get());
+	}
+
+	@Test
+	public void testInstancesSharingStorageNeverCollide() throws Exception {
+		int numberOfInstances = 4;
+		int threadsPerInstance = 4;
+		int idsPerThread = 10000;
+		ExecutorService leaseExecutor = Executors.newFixedThreadPool(2);
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfInstances * threadsPerInstance);
+		try {
+			List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+			for (int i = 0; i < numberOfInstances; i++) {
+				IdCounter counter = new IdCounter();
+				counter.startLeasing(leaser, 100, (i % 2 == 0) ? leaseExecutor : null);
+				for (int j = 0; j < threadsPerInstance; j++) {
+					futures.add(executor.submit(() -> {
+						long[] result = new long[idsPerThread];
+						for (int k = 0; k < idsPerThread; k++) {
+							result[k] = counter.nextId();
+						}
+						return result;
+					}));
+				}
+			}
+
+			BitSet seen = new BitSet();
+			for (Future<long[]> future : futures) {
+				for (long id : future.get()) {
+					assertFalse("id handed out twice: " + id, seen.get((int) id));
+					seen.set((int) id);
+				}
+			}
+			assertEquals(numberOfInstances * threadsPerInstance * idsPerThread, seen.cardinality());
+			assertTrue(seen.previousSetBit(Integer.MAX_VALUE) <= storedLastId.get());
+		} finally {
+			executor.shutdownNow();
+			leaseExecutor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testStoppedCounterCountsInMemory() {
+		IdCounter counter = new IdCounter();
+		counter.startLeasing(leaser, 10, null);
+		assertEquals(1, counter.nextId());
+
+		counter.stopLeasing();
+		assertFalse(counter.isLeasing());
+		assertEquals(11, counter.nextId());
+	}
+
+	@Test
+	public void testCounterStoppedWhileSwitchingBlocksCountsInMemory() {
+		IdCounter counter = new IdCounter() {
+			@Override
+			protected synchronized boolean switchBlock(IdBlock exhausted) {
+				if (exhausted != null) {
+					stopLeasing(); // e.g. on shutdown, while a request is still counting
+				}
+				return super.switchBlock(exhausted);
+			}
+		};
+		counter.startLeasing(leaser, 2, null);
+		assertEquals(1, counter.nextId());
+		assertEquals(2, counter.nextId());
+
+		assertEquals(3, counter.nextId());
+		assertFalse(counter.isLeasing());
+		assertEquals(4, counter.nextId());
+		assertEquals(1, numberOfLeases.get());
+	}
+
+}
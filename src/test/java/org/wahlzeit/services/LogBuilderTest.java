@@ -12,9 +12,17 @@ import org.wahlzeit.testEnvironmentProvider.UserSessionProvider;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.wahlzeit.services.LogBuilder.ACTION;
 import static org.wahlzeit.services.LogBuilder.CLIENT;
@@ -173,4 +181,118 @@ public class LogBuilderTest {
 		expectedLogMessage = expectedLogMessage + INFO_SEPARATOR + ACTION + NAME_VALUE_SEPARATOR + null;
 		assertEquals(expectedLogMessage, logMessage);
 	}
+
+	@Test
+	public void testDisabledLevelDoesNothing() {
+		Logger logger = createLogger(Level.INFO);
+		Object value = new Object() {
+			@Override
+			public String toString() {
+				throw new AssertionError("formatted although disabled");
+			}
+		};
+
+		LogBuilder logBuilder = LogBuilder.createSystemMessage(logger, Level.CONFIG).addParameter("value", value).
+				addException("never printed", new NullPointerException());
+		logBuilder.log();
+
+		assertSame(LogBuilder.DISABLED, logBuilder);
+		assertFalse(logBuilder.isEnabled());
+		assertEquals(0, getRecords(logger).size());
+		assertEquals("", logBuilder.toString());
+	}
+
+	@Test
+	public void testLogPublishesToLogger() {
+		Logger logger = createLogger(Level.CONFIG);
+
+		LogBuilder.createSystemMessage(logger, Level.CONFIG).addParameter("Yoda", 900L).log();
+		LogBuilder.createUserMessage(logger, Level.INFO).addAction("Build your own lightsaber").log();
+
+		List<LogRecord> records = getRecords(logger);
+		assertEquals(2, records.size());
+		assertEquals(Level.CONFIG, records.get(0).getLevel());
+		assertEquals(getExpectedSystemMessage() + INFO_SEPARATOR + "Yoda" + NAME_VALUE_SEPARATOR + "900",
+				records.get(0).getMessage());
+		assertEquals(getExpectedUserMessage() + INFO_SEPARATOR + ACTION + NAME_VALUE_SEPARATOR
+				+ "Build your own lightsaber", records.get(1).getMessage());
+		assertEquals(LogBuilderTest.class.getName(), records.get(0).getSourceClassName());
+		assertEquals("testLogPublishesToLogger", records.get(0).getSourceMethodName());
+	}
+
+	@Test
+	public void testSourceIsOnlyInferredWhilePublishing() {
+		Logger logger = createLogger(Level.CONFIG);
+		((RecordingHandler) logger.getHandlers()[0]).isAskingForSource = false;
+
+		LogBuilder.createSystemMessage(logger, Level.CONFIG).addMessage("later").log();
+
+		LogRecord record = getRecords(logger).get(0);
+		assertEquals(logger.getName(), record.getSourceClassName());
+		assertEquals(null, record.getSourceMethodName());
+	}
+
+	@Test
+	public void testNestedBuildersDoNotShareBuffers() {
+		Logger logger = createLogger(Level.CONFIG);
+		Object value = new Object() {
+			@Override
+			public String toString() {
+				LogBuilder.createSystemMessage(logger, Level.CONFIG).addMessage("inner").log();
+				return "outer";
+			}
+		};
+
+		LogBuilder.createSystemMessage(logger, Level.CONFIG).addParameter("value", value).log();
+
+		List<LogRecord> records = getRecords(logger);
+		assertEquals(getExpectedSystemMessage() + INFO_SEPARATOR + "inner", records.get(0).getMessage());
+		assertEquals(getExpectedSystemMessage() + INFO_SEPARATOR + "value" + NAME_VALUE_SEPARATOR + "outer",
+				records.get(1).getMessage());
+	}
+
+	/**
+	 *
+	 */
+	protected Logger createLogger(Level level) {
+		Logger logger = Logger.getAnonymousLogger();
+		logger.setUseParentHandlers(false);
+		logger.setLevel(level);
+		logger.addHandler(new RecordingHandler());
+		return logger;
+	}
+
+	/**
+	 *
+	 */
+	protected List<LogRecord> getRecords(Logger logger) {
+		return ((RecordingHandler) logger.getHandlers()[0]).records;
+	}
+
+	/**
+	 *
+	 */
+	protected static class RecordingHandler extends Handler {
+		protected final List<LogRecord> records = new ArrayList<LogRecord>();
+		protected boolean isAskingForSource = true;
+
+		@Override
+		public void publish(LogRecord record) {
+			if (isAskingForSource) {
+				// like a formatting handler, while the record is published
+				record.getSourceClassName();
+			}
+			records.add(record);
+		}
+
+		@Override
+		public void flush() {
+			// nothing buffered
+		}
+
+		@Override
+		public void close() {
+			// nothing to close
+		}
+	}
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.googlecode.objectify.Result;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.wahlzeit.model.Globals;
+import org.wahlzeit.model.Tag;
+import org.wahlzeit.services.metrics.MetricsRegistry;
+import org.wahlzeit.services.metrics.StorageMetrics;
+import org.wahlzeit.services.metrics.StorageOperation;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Test class for the batched write path of {@link ObjectManager}.
+ */
+public class ObjectManagerTest {
+
+	@ClassRule
+	public static TestRule chain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	private List<Persistent> dependentsUpdated;
+	private List<Integer> savedChunkSizes;
+	private ObjectManager objectManager;
+
+	@Before
+	public void setUp() {
+		System.setProperty(ObjectManager.WRITE_BATCH_SIZE, "3");
+		dependentsUpdated = new ArrayList<Persistent>();
+		savedChunkSizes = new ArrayList<Integer>();
+		objectManager = new ObjectManager() {
+			@Override
+			protected void updateDependents(Persistent object) {
+				dependentsUpdated.add(object);
+			}
+
+			@Override
+			protected Result<?> saveEntities(List<Persistent> chunk) {
+				savedChunkSizes.add(chunk.size());
+				return super.saveEntities(chunk);
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		System.clearProperty(ObjectManager.WRITE_BATCH_SIZE);
+	}
+
+	@Test
+	public void testWriteObjectsInSeveralBatches() {
+		List<Tag> tags = new ArrayList<Tag>();
+		for (int i = 0; i < 10; i++) {
+			tags.add(new Tag("tg:batch", "x" + i));
+		}
+
+		objectManager.updateObjects(tags);
+
+		List<Tag> loaded = new ArrayList<Tag>();
+		objectManager.readObjects(loaded, Tag.class, Tag.TEXT, "tg:batch");
+		assertEquals(10, loaded.size());
+		assertEquals(10, dependentsUpdated.size());
+		assertEquals(Arrays.asList(3, 3, 3, 1), savedChunkSizes);
+		for (Tag tag : tags) {
+			assertFalse(tag.isDirty());
+		}
+	}
+
+	@Test
+	public void testWriteBatchSizeIsHonored() {
+		System.setProperty(ObjectManager.WRITE_BATCH_SIZE, "100");
+		List<Tag> tags = new ArrayList<Tag>();
+		for (int i = 0; i < 250; i++) {
+			tags.add(new Tag("tg:batch250", "x" + i));
+		}
+
+		objectManager.updateObjects(tags);
+
+		assertEquals(Arrays.asList(100, 100, 50), savedChunkSizes);
+		assertEquals(250, dependentsUpdated.size());
+	}
+
+	@Test
+	public void testWriteObjectsSkipsCleanObjects() {
+		Tag clean = new Tag("tg:clean", "x1");
+		clean.resetWriteCount();
+		Tag dirty = new Tag("tg:dirty", "x2");
+
+		List<Tag> tags = new ArrayList<Tag>();
+		tags.add(clean);
+		tags.add(dirty);
+		objectManager.updateObjects(tags);
+
+		assertEquals(1, dependentsUpdated.size());
+		assertEquals(Arrays.asList(1), savedChunkSizes);
+		assertNotNull(objectManager.readObject(Tag.class, Tag.TEXT, "tg:dirty"));
+		assertEquals(null, objectManager.readObject(Tag.class, Tag.TEXT, "tg:clean"));
+	}
+
+	@Test
+	public void testMixedWriteIsRecordedPerType() {
+		StorageMetrics tagWrites = MetricsRegistry.getInstance().getStorageMetrics(Tag.class, StorageOperation.WRITE);
+		StorageMetrics globalsWrites =
+				MetricsRegistry.getInstance().getStorageMetrics(Globals.class, StorageOperation.WRITE);
+		long tagCalls = tagWrites.getCalls();
+		long tagEntities = tagWrites.getEntities();
+		long globalsCalls = globalsWrites.getCalls();
+
+		List<Persistent> objects = new ArrayList<Persistent>();
+		for (int i = 0; i < 4; i++) {
+			objects.add(new Tag("tg:mixed", "x" + i));
+		}
+		objects.add(new Globals());
+		objectManager.updateObjects(objects);
+
+		assertEquals(tagCalls + 2, tagWrites.getCalls());
+		assertEquals(tagEntities + 4, tagWrites.getEntities());
+		assertEquals(globalsCalls + 1, globalsWrites.getCalls());
+		assertFalse(tagWrites.hasBytes());
+	}
+
+	@Test
+	public void testBatchSizeIsBounded() {
+		System.setProperty(ObjectManager.WRITE_BATCH_SIZE, "100000");
+		assertEquals(ObjectManager.MAX_WRITE_BATCH_SIZE, objectManager.getWriteBatchSize());
+		System.setProperty(ObjectManager.WRITE_BATCH_SIZE, "0");
+		assertEquals(1, objectManager.getWriteBatchSize());
+	}
+
+}
@@ -22,13 +22,25 @@ package org.wahlzeit.services;
 
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
+import org.wahlzeit.services.cache.BoundedCacheTest;
 import org.wahlzeit.services.mailing.EmailServiceTestSuite;
+import org.wahlzeit.services.metrics.LatencyHistogramTest;
+import org.wahlzeit.services.metrics.MetricsRegistryTest;
+import org.wahlzeit.services.metrics.RequestTraceTest;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
 		EmailServiceTestSuite.class,
 		EmailAddressTest.class,
+		IdCounterTest.class,
 		LogBuilderTest.class,
+		ObjectManagerTest.class,
+		BoundedCacheTest.class,
+		WriteBehindQueueTest.class,
+		AsyncLogHandlerTest.class,
+		LatencyHistogramTest.class,
+		MetricsRegistryTest.class,
+		RequestTraceTest.class,
 })
 public class ServiceTestSuite {
 	/** do nothing **/
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link WriteBehindQueue}.
+ */
+public class WriteBehindQueueTest {
+
+	private List<List<Persistent>> batches;
+	private ObjectManager objectManager;
+
+	@Before
+	public void setUp() {
+		batches = new ArrayList<List<Persistent>>();
+		objectManager = new ObjectManager() {
+			@Override
+			protected void writeObjects(Collection<? extends Persistent> collection) {
+				List<Persistent> batch = new ArrayList<Persistent>();
+				for (Persistent object : collection) {
+					if (object.isDirty()) {
+						batch.add(object);
+						object.resetWriteCount();
+					}
+				}
+				batches.add(batch);
+			}
+
+			@Override
+			protected void updateObject(Persistent object) {
+				List<Persistent> batch = new ArrayList<Persistent>();
+				batch.add(object);
+				batches.add(batch);
+			}
+		};
+	}
+
+	@Test
+	public void testRepeatedChangesAreCoalesced() {
+		WriteBehindQueue queue = new WriteBehindQueue(true, 60000, 100);
+		TestObject object = new TestObject();
+
+		for (int i = 0; i < 50; i++) {
+			object.incWriteCount();
+			queue.schedule(objectManager, object);
+		}
+
+		assertTrue(batches.isEmpty());
+		assertEquals(1, queue.getNumberOfPending());
+		assertEquals(1, queue.getScheduledWrites());
+		assertEquals(49, queue.getCoalescedWrites());
+
+		queue.flush();
+
+		assertEquals(1, batches.size());
+		assertEquals(1, batches.get(0).size());
+		assertFalse(object.isDirty());
+		assertFalse(queue.hasPending());
+	}
+
+	@Test
+	public void testFullQueueIsFlushedByCaller() {
+		WriteBehindQueue queue = new WriteBehindQueue(true, 60000, 3);
+
+		for (int i = 0; i < 7; i++) {
+			TestObject object = new TestObject();
+			object.incWriteCount();
+			queue.schedule(objectManager, object);
+		}
+
+		assertEquals(2, batches.size());
+		assertEquals(3, batches.get(0).size());
+		assertEquals(1, queue.getNumberOfPending());
+	}
+
+	@Test
+	public void testFlushIfDueWaitsForWindow() throws InterruptedException {
+		WriteBehindQueue queue = new WriteBehindQueue(true, 20, 100);
+		TestObject object = new TestObject();
+		object.incWriteCount();
+		queue.schedule(objectManager, object);
+
+		queue.flushIfDue();
+		assertTrue(batches.isEmpty());
+
+		Thread.sleep(30);
+		queue.flushIfDue();
+		assertEquals(1, batches.size());
+	}
+
+	@Test
+	public void testDisabledQueueWritesImmediately() {
+		WriteBehindQueue queue = new WriteBehindQueue(false, 60000, 100);
+		TestObject object = new TestObject();
+		object.incWriteCount();
+
+		queue.schedule(objectManager, object);
+
+		assertEquals(1, batches.size());
+		assertFalse(queue.hasPending());
+	}
+
+	@Test
+	public void testChangeDuringFlushIsWrittenByNextFlush() {
+		WriteBehindQueue queue = new WriteBehindQueue(true, 60000, 100);
+		TestObject object = new TestObject();
+		List<List<Persistent>> saved = new ArrayList<List<Persistent>>();
+		ObjectManager changingManager = new ObjectManager() {
+			@Override
+			protected void saveObjects(List<Persistent> dirtyObjects) {
+				saved.add(new ArrayList<Persistent>(dirtyObjects));
+				if (saved.size() == 1) {
+					// a request changes the object while its first save is still running
+					object.incWriteCount();
+					queue.schedule(this, object);
+				}
+			}
+		};
+
+		object.incWriteCount();
+		queue.schedule(changingManager, object);
+		queue.flush();
+
+		assertEquals(1, saved.size());
+		assertTrue(object.isDirty());
+		assertTrue(queue.hasPending());
+
+		queue.flush();
+
+		assertEquals(2, saved.size());
+		assertTrue(saved.get(1).contains(object));
+		assertFalse(object.isDirty());
+	}
+
+	@Test
+	public void testFailedFlushIsRetriedByNextFlush() {
+		WriteBehindQueue queue = new WriteBehindQueue(true, 60000, 100, 2);
+		TestObject object = new TestObject();
+		ObjectManager failingManager = createFailingManager(1);
+
+		object.incWriteCount();
+		queue.schedule(failingManager, object);
+		queue.flush();
+
+		assertTrue(batches.isEmpty());
+		assertTrue(object.isDirty());
+		assertEquals(1, queue.getNumberOfPending());
+		assertEquals(1, queue.getRetriedWrites());
+
+		queue.flush();
+
+		assertEquals(1, batches.size());
+		assertTrue(batches.get(0).contains(object));
+		assertFalse(object.isDirty());
+		assertFalse(queue.hasPending());
+	}
+
+	@Test
+	public void testRetriesAreBounded() {
+		WriteBehindQueue queue = new WriteBehindQueue(true, 60000, 100, 2);
+		TestObject object = new TestObject();
+		ObjectManager failingManager = createFailingManager(Integer.MAX_VALUE);
+
+		object.incWriteCount();
+		queue.schedule(failingManager, object);
+		for (int i = 0; i < 5; i++) {
+			queue.flush();
+		}
+
+		assertTrue(batches.isEmpty());
+		assertFalse(queue.hasPending());
+		assertEquals(2, queue.getRetriedWrites());
+		assertEquals(1, queue.getAbandonedWrites());
+		assertTrue(object.isDirty());
+
+		queue.schedule(failingManager, object);
+		assertEquals(1, queue.getNumberOfPending());
+	}
+
+	@Test
+	public void testShutDownFlushesPendingObjects() throws InterruptedException {
+		WriteBehindQueue queue = new WriteBehindQueue(true, 60000, 100);
+		TestObject object = new TestObject();
+		object.incWriteCount();
+		queue.schedule(objectManager, object);
+
+		queue.shutDown();
+
+		assertEquals(1, batches.size());
+		assertEquals(1, queue.getFlushedWrites());
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	private ObjectManager createFailingManager(int failures) {
+		return new ObjectManager() {
+			private int remainingFailures = failures;
+
+			@Override
+			protected void writeObjects(Collection<? extends Persistent> collection) {
+				if (remainingFailures > 0) {
+					remainingFailures--;
+					throw new IllegalStateException("datastore unavailable");
+				}
+				objectManager.writeObjects(collection);
+			}
+		};
+	}
+
+	/**
+	 *
+	 */
+	private static class TestObject implements Persistent {
+
+		private int writeCount = 0;
+
+		public boolean isDirty() {
+			return writeCount != 0;
+		}
+
+		public void incWriteCount() {
+			writeCount++;
+		}
+
+		public void resetWriteCount() {
+			writeCount = 0;
+		}
+
+		public int getWriteCount() {
+			return writeCount;
+		}
+
+		public void resetWriteCount(int writtenCount) {
+			writeCount = Math.max(0, writeCount - writtenCount);
+		}
+	}
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.cache;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link BoundedCache} and its eviction policies.
+ */
+public class BoundedCacheTest {
+
+	@Test
+	public void testCountsHitsAndMisses() {
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(10, new LruEvictionPolicy<Integer>());
+		cache.put(1, "one");
+
+		assertEquals("one", cache.get(1));
+		assertNull(cache.get(2));
+
+		CacheStatistics statistics = cache.getStatistics();
+		assertEquals(1, statistics.getHitCount());
+		assertEquals(1, statistics.getMissCount());
+		assertEquals(1, statistics.getSize());
+	}
+
+	@Test
+	public void testLoaderIsOnlyCalledOnMiss() {
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(10, new LruEvictionPolicy<Integer>());
+		AtomicInteger loads = new AtomicInteger();
+
+		assertEquals("1", cache.get(1, key -> { loads.incrementAndGet(); return key.toString(); }));
+		assertEquals("1", cache.get(1, key -> { loads.incrementAndGet(); return key.toString(); }));
+		assertNull(cache.get(2, key -> null));
+
+		assertEquals(1, loads.get());
+		assertFalse(cache.containsKey(2));
+	}
+
+	@Test
+	public void testLruEvictsLeastRecentlyUsed() {
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(2, new LruEvictionPolicy<Integer>());
+		cache.put(1, "one");
+		cache.put(2, "two");
+		cache.get(1);
+		cache.put(3, "three");
+
+		assertTrue(cache.containsKey(1));
+		assertFalse(cache.containsKey(2));
+		assertTrue(cache.containsKey(3));
+		assertEquals(1, cache.getStatistics().getEvictionCount());
+	}
+
+	@Test
+	public void testEvictionListenerSeesOnlyEvictedEntries() {
+		Set<Integer> evicted = new HashSet<Integer>();
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(2, new LruEvictionPolicy<Integer>(),
+				BoundedCache.UNIT_WEIGHER, BoundedCache.ALWAYS_EVICTABLE, (key, value) -> evicted.add(key));
+		cache.put(1, "one");
+		cache.put(2, "two");
+		cache.remove(2);
+		cache.put(3, "three");
+		cache.put(4, "four");
+
+		assertEquals(1, evicted.size());
+		assertTrue(evicted.contains(1));
+	}
+
+	@Test
+	public void testEvictsByWeight() {
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(10, new LruEvictionPolicy<Integer>(),
+				(key, value) -> value.length(), BoundedCache.ALWAYS_EVICTABLE);
+		cache.put(1, "12345");
+		cache.put(2, "12345");
+		assertEquals(2, cache.size());
+
+		cache.put(3, "1");
+		assertEquals(2, cache.size());
+		assertFalse(cache.containsKey(1));
+		assertEquals(6, cache.getStatistics().getWeight());
+	}
+
+	@Test
+	public void testPinnedEntriesAreNotEvicted() {
+		Set<Integer> pinned = new HashSet<Integer>();
+		pinned.add(1);
+		pinned.add(2);
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(1, new LruEvictionPolicy<Integer>(),
+				BoundedCache.UNIT_WEIGHER, (key, value) -> !pinned.contains(key));
+		cache.put(1, "one");
+		cache.put(2, "two");
+		assertEquals(2, cache.size());
+
+		cache.put(3, "three");
+		assertTrue(cache.containsKey(1));
+		assertTrue(cache.containsKey(2));
+		assertFalse(cache.containsKey(3));
+
+		pinned.clear();
+		cache.cleanUp();
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testPinnedEntriesAreSkippedBoundedly() {
+		AtomicInteger checks = new AtomicInteger();
+		Set<Integer> pinned = new HashSet<Integer>();
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(10, new LruEvictionPolicy<Integer>(),
+				BoundedCache.UNIT_WEIGHER, (key, value) -> { checks.incrementAndGet(); return !pinned.contains(key); });
+		for (int i = 0; i < 1000; i++) {
+			pinned.add(i);
+			cache.put(i, "pinned");
+		}
+
+		checks.set(0);
+		pinned.add(1000);
+		cache.put(1000, "pinned");
+		assertEquals(BoundedCache.MAX_PINNED_SKIPS, checks.get());
+		assertEquals(1001, cache.size());
+
+		pinned.clear();
+		cache.cleanUp();
+		assertEquals(10, cache.size());
+	}
+
+	@Test
+	public void testTinyLfuKeepsFrequentlyUsedEntriesDuringScan() {
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(100, new TinyLfuEvictionPolicy<Integer>());
+		for (int i = 0; i < 100; i++) {
+			cache.put(i, "hot");
+		}
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < 100; i++) {
+				cache.get(i);
+			}
+		}
+
+		for (int i = 1000; i < 2000; i++) {
+			cache.put(i, "cold");
+		}
+
+		int hotEntries = 0;
+		for (int i = 0; i < 100; i++) {
+			if (cache.containsKey(i)) {
+				hotEntries++;
+			}
+		}
+		assertTrue(hotEntries >= 90);
+		assertEquals(100, cache.size());
+	}
+
+	@Test
+	public void testMapViewIsReadOnly() {
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(10, new LruEvictionPolicy<Integer>());
+		cache.put(1, "one");
+
+		assertEquals("one", cache.asMap().get(1));
+		assertEquals(1, cache.asMap().values().size());
+		try {
+			cache.asMap().put(2, "two");
+		} catch (UnsupportedOperationException e) {
+			assertFalse(cache.containsKey(2));
+			return;
+		}
+		throw new AssertionError("map view must be read-only");
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.services.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void testBucketsAreContiguous() {
+		for (int index = 1; index <= LatencyHistogram.getBucketIndex(LatencyHistogram.MAX_TRACKABLE_MICROS); index++) {
+			long lowest = LatencyHistogram.getHighestValue(index - 1) + 1;
+			assertEquals(index, LatencyHistogram.getBucketIndex(lowest));
+			assertEquals(index, LatencyHistogram.getBucketIndex(LatencyHistogram.getHighestValue(index)));
+		}
+	}
+
+	@Test
+	public void testPercentilesAreWithinResolution() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long micros = 1; micros <= 10000; micros++) {
+			histogram.recordMicros(micros);
+		}
+
+		assertEquals(10000, histogram.getCount());
+		assertEquals(10000, histogram.getMaxMicros());
+		assertEquals(5000.5, histogram.getMeanMicros(), 0.001);
+		assertWithinResolution(5000, histogram.getValueAtPercentile(50.0));
+		assertWithinResolution(9900, histogram.getValueAtPercentile(99.0));
+		assertEquals(10000, histogram.getValueAtPercentile(100.0));
+	}
+
+	@Test
+	public void testRecordNanosAndOutOfRangeValues() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.recordNanos(1500);
+		histogram.recordMicros(-5);
+		histogram.recordMicros(Long.MAX_VALUE);
+
+		assertEquals(3, histogram.getCount());
+		assertEquals(0, histogram.getValueAtPercentile(1.0));
+		assertEquals(1, histogram.getValueAtPercentile(50.0));
+		assertEquals(LatencyHistogram.MAX_TRACKABLE_MICROS, histogram.getMaxMicros());
+		assertEquals(0, new LatencyHistogram().getValueAtPercentile(99.0));
+	}
+
+	/**
+	 *
+	 */
+	private void assertWithinResolution(long expected, long actual) {
+		assertTrue(actual + " not near " + expected, (actual >= expected) && (actual <= expected + expected / 16));
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.services.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link MetricsRegistry} and {@link RequestMetrics}.
+ */
+public class MetricsRegistryTest {
+
+	private MetricsRegistry registry;
+
+	@Before
+	public void setUp() {
+		registry = new MetricsRegistry();
+	}
+
+	@Test
+	public void testMetricsByClassAndName() {
+		RequestMetrics metrics = registry.getMetrics(MetricsRegistryTest.class);
+
+		assertSame(metrics, registry.getMetrics("MetricsRegistryTest"));
+		assertSame(metrics, registry.getMetrics(MetricsRegistryTest.class));
+		assertEquals(1, registry.getAllMetrics().size());
+	}
+
+	@Test
+	public void testRecordByPhase() {
+		RequestMetrics metrics = registry.getMetrics("ShowPhotoPageHandler");
+		metrics.record(RequestPhase.HANDLE_GET, TimeUnit.MILLISECONDS.toNanos(2), false);
+		metrics.record(RequestPhase.HANDLE_GET, TimeUnit.MILLISECONDS.toNanos(4), true);
+		metrics.recordError(RequestPhase.HANDLE_GET);
+
+		assertEquals(2, metrics.getCount(RequestPhase.HANDLE_GET));
+		assertEquals(2, metrics.getErrorCount(RequestPhase.HANDLE_GET));
+		assertEquals(4000, metrics.getHistogram(RequestPhase.HANDLE_GET).getMaxMicros());
+		assertEquals(0, metrics.getCount(RequestPhase.HANDLE_POST));
+		assertNull(metrics.getHistogram(RequestPhase.MAKE_WEB_PART));
+	}
+
+	@Test
+	public void testAsTextAndAsJson() {
+		registry.getMetrics("b").record(RequestPhase.HANDLE_POST, 1000, false);
+		registry.getMetrics("a").record(RequestPhase.MAKE_WEB_PART, 2000, true);
+
+		String text = registry.asText();
+		assertTrue(text, text.startsWith("a makeWebPart count=1 errors=1 rate="));
+		assertTrue(text, text.contains("\nb handlePost count=1 errors=0 "));
+		assertTrue(text, text.contains(" p50=2 p90=2 p99=2 p999=2 max=2\n"));
+
+		String json = registry.asJson();
+		assertTrue(json, json.startsWith("{\"uptimeSeconds\":"));
+		assertTrue(json, json.contains("\"handlers\":{\"a\":{\"makeWebPart\":{\"count\":1,\"errors\":1,"));
+		assertTrue(json, json.contains(",\"b\":{\"handlePost\":{\"count\":1,\"errors\":0,"));
+		assertTrue(json, json.endsWith(",\"p999\":1,\"max\":1}}}}"));
+	}
+
+}
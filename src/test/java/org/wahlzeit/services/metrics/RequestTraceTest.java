@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.services.metrics;
+
+import org.junit.After;
+import org.junit.Test;
+import org.wahlzeit.services.SessionManager;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link RequestTrace}.
+ */
+public class RequestTraceTest {
+
+	@After
+	public void tearDown() {
+		SessionManager.dropThreadLocalTrace();
+	}
+
+	@Test
+	public void testStorageCallsAreAttributedToCurrentRequest() {
+		MetricsRegistry registry = new MetricsRegistry();
+		RequestTrace trace = RequestTrace.start("/showPhoto.html");
+		assertSame(trace, SessionManager.getThreadLocalTrace());
+
+		registry.recordStorageCall(String.class, StorageOperation.READ, 1, 1, 0, System.nanoTime());
+		registry.recordStorageCall(String.class, StorageOperation.READ, 1, 0, 0, System.nanoTime());
+		registry.recordStorageCall(Integer.class, StorageOperation.QUERY, 1, 40, 0, System.nanoTime());
+		RequestTrace.finish();
+		registry.recordStorageCall(Integer.class, StorageOperation.QUERY, 1, 40, 0, System.nanoTime());
+
+		assertNull(SessionManager.getThreadLocalTrace());
+		assertEquals(3, trace.getNumberOfCalls());
+		String breakdown = trace.asBreakdownString();
+		assertTrue(breakdown, breakdown.startsWith("[String read calls=2 entities=1 bytes=0 ms="));
+		assertTrue(breakdown, breakdown.contains(", Integer query calls=1 entities=40 bytes=0 ms="));
+
+		StorageMetrics queries = registry.getStorageMetrics(Integer.class, StorageOperation.QUERY);
+		assertEquals(2, queries.getCalls());
+		assertEquals(80, queries.getEntities());
+		assertEquals(2, registry.getAllStorageMetrics().size());
+	}
+
+	@Test
+	public void testIsExceeded() {
+		RequestTrace trace = new RequestTrace("/filterPhotos.form", "session");
+		for (int i = 0; i < 3; i++) {
+			trace.record("Photo", StorageOperation.READ, 1, 1, 0, TimeUnit.MILLISECONDS.toNanos(1));
+		}
+
+		assertFalse(trace.isExceeded(10000, 3));
+		assertTrue(trace.isExceeded(10000, 2));
+		assertTrue(trace.isExceeded(0, 3));
+	}
+
+	@Test
+	public void testStorageMetricsInText() {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.recordStorageCall(String.class, StorageOperation.WRITE, 2, 150, 4096, System.nanoTime());
+
+		assertTrue(registry.asText().contains("storage String write calls=2 entities=150 bytes=4096 "));
+		assertTrue(registry.asJson().contains(
+				"\"storage\":[{\"type\":\"String\",\"operation\":\"write\",\"calls\":2,\"entities\":150,\"bytes\":4096,"));
+	}
+
+	@Test
+	public void testUnknownBytesAreLeftOut() {
+		MetricsRegistry registry = new MetricsRegistry();
+		RequestTrace trace = RequestTrace.start("/showPhoto.html");
+		registry.recordStorageCall(String.class, StorageOperation.WRITE, 1, 3, System.nanoTime());
+		RequestTrace.finish();
+
+		assertFalse(registry.getStorageMetrics(String.class, StorageOperation.WRITE).hasBytes());
+		assertTrue(registry.asText().contains("storage String write calls=1 entities=3 mean="));
+		assertTrue(registry.asJson().contains("\"calls\":1,\"entities\":3,\"mean\":"));
+		String breakdown = trace.asBreakdownString();
+		assertTrue(breakdown, breakdown.startsWith("[String write calls=1 entities=3 ms="));
+	}
+
+}
@@ -0,0 +1,118 @@
+package org.wahlzeit.servlets;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for the HTTP caching helpers of {@link StaticDataServlet}.
+ */
+public class StaticDataServletTest {
+
+	@Test
+	public void testETagDependsOnContent() {
+		String etag = StaticDataServlet.createETag("x1-2", ByteBuffer.wrap(new byte[] {1, 2, 3}));
+
+		assertTrue(etag.startsWith("\"x1-2-"));
+		assertTrue(etag.endsWith("\""));
+		assertEquals(etag, StaticDataServlet.createETag("x1-2", ByteBuffer.wrap(new byte[] {1, 2, 3})));
+		assertNotEquals(etag, StaticDataServlet.createETag("x1-2", ByteBuffer.wrap(new byte[] {1, 2, 4})));
+	}
+
+	@Test
+	public void testCreateETagDoesNotConsumeBuffer() {
+		ByteBuffer data = ByteBuffer.wrap(new byte[] {1, 2, 3});
+		StaticDataServlet.createETag("x1-2", data);
+		assertEquals(3, data.remaining());
+	}
+
+	@Test
+	public void testMatchesETag() {
+		String etag = "\"x1-2-abc\"";
+
+		assertTrue(StaticDataServlet.matchesETag(etag, etag));
+		assertTrue(StaticDataServlet.matchesETag("\"other\", " + etag, etag));
+		assertTrue(StaticDataServlet.matchesETag("W/" + etag, etag));
+		assertTrue(StaticDataServlet.matchesETag("*", etag));
+		assertFalse(StaticDataServlet.matchesETag("\"x1-2-abd\"", etag));
+	}
+
+	@Test
+	public void testParseSingleRanges() {
+		assertRange(0, 99, StaticDataServlet.parseRanges("bytes=0-99", 1000));
+		assertRange(900, 999, StaticDataServlet.parseRanges("bytes=900-", 1000));
+		assertRange(950, 999, StaticDataServlet.parseRanges("bytes=-50", 1000));
+		assertRange(0, 999, StaticDataServlet.parseRanges("bytes=-5000", 1000));
+		assertRange(990, 999, StaticDataServlet.parseRanges("bytes=990-2000", 1000));
+	}
+
+	@Test
+	public void testParseMultipleRanges() {
+		List<long[]> ranges = StaticDataServlet.parseRanges("bytes=0-9, 20-29,1000-1010", 1000);
+
+		assertEquals(2, ranges.size());
+		assertArrayEquals(new long[] {20, 29}, ranges.get(1));
+	}
+
+	@Test
+	public void testParseUnsatisfiableAndMalformedRanges() {
+		assertTrue(StaticDataServlet.parseRanges("bytes=1000-1010", 1000).isEmpty());
+		assertTrue(StaticDataServlet.parseRanges("bytes=-0", 1000).isEmpty());
+		assertNull(StaticDataServlet.parseRanges("items=0-1", 1000));
+		assertNull(StaticDataServlet.parseRanges("bytes=5-1", 1000));
+		assertNull(StaticDataServlet.parseRanges("bytes=a-b", 1000));
+		assertNull(StaticDataServlet.parseRanges("bytes=1", 1000));
+	}
+
+	@Test
+	public void testIfRange() {
+		assertTrue(StaticDataServlet.isIfRangeSatisfied(null, "\"a\""));
+		assertTrue(StaticDataServlet.isIfRangeSatisfied("\"a\"", "\"a\""));
+		assertFalse(StaticDataServlet.isIfRangeSatisfied("\"b\"", "\"a\""));
+		assertFalse(StaticDataServlet.isIfRangeSatisfied("Tue, 15 Nov 1994 08:12:31 GMT", "\"a\""));
+	}
+
+	@Test
+	public void testWriteSliceInChunks() throws IOException {
+		byte[] data = new byte[100 * 1024];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+		direct.put(data).flip();
+
+		for (ByteBuffer buffer : new ByteBuffer[] {ByteBuffer.wrap(data), direct}) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			StaticDataServlet.writeImageData(StaticDataServlet.slice(buffer, new long[] {10, 50009}), out);
+
+			assertArrayEquals(Arrays.copyOfRange(data, 10, 50010), out.toByteArray());
+			assertEquals(data.length, buffer.remaining());
+		}
+	}
+
+	@Test
+	public void testGetContentType() {
+		assertEquals("image/jpeg", StaticDataServlet.getContentType("jpg"));
+		assertEquals("image/jpeg", StaticDataServlet.getContentType("JPEG"));
+		assertEquals("image/png", StaticDataServlet.getContentType("png"));
+		assertEquals("image/jpeg", StaticDataServlet.getContentType(null));
+		assertEquals(StaticDataServlet.DEFAULT_CONTENT_TYPE, StaticDataServlet.getContentType("xyz"));
+	}
+
+	private static void assertRange(long first, long last, List<long[]> ranges) {
+		assertEquals(1, ranges.size());
+		assertArrayEquals(new long[] {first, last}, ranges.get(0));
+	}
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the CompressedBitmap class.
+ */
+public class CompressedBitmapTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAddRemoveContains() {
+		CompressedBitmap bitmap = CompressedBitmap.of(5, 1, 70000, 5);
+		assertEquals(3, bitmap.getCardinality());
+		assertTrue(bitmap.contains(1));
+		assertTrue(bitmap.contains(70000));
+		assertFalse(bitmap.contains(2));
+
+		bitmap.remove(70000);
+		bitmap.remove(3);
+		assertArrayEquals(new int[] {1, 5}, bitmap.toArray());
+
+		bitmap.remove(1);
+		bitmap.remove(5);
+		assertTrue(bitmap.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSelect() {
+		CompressedBitmap bitmap = CompressedBitmap.of(3, 100000, 7, 65536);
+		assertEquals(3, bitmap.select(0));
+		assertEquals(7, bitmap.select(1));
+		assertEquals(65536, bitmap.select(2));
+		assertEquals(100000, bitmap.select(3));
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testSelectBeyondCardinality() {
+		CompressedBitmap.of(1, 2).select(2);
+	}
+
+	/**
+	 * Compares all operations to a BitSet for sparse and dense containers alike.
+	 */
+	@Test
+	public void testOperationsMatchBitSet() {
+		Random random = new Random(42);
+		BitSet expectedA = new BitSet();
+		BitSet expectedB = new BitSet();
+		CompressedBitmap a = new CompressedBitmap();
+		CompressedBitmap b = new CompressedBitmap();
+
+		// dense in the first container, sparse in the others
+		for (int i = 0; i < 30000; i++) {
+			int valueA = (i < 20000) ? random.nextInt(1 << 16) : random.nextInt(1 << 20);
+			int valueB = (i < 10000) ? random.nextInt(1 << 16) : random.nextInt(1 << 20);
+			a.add(valueA);
+			b.add(valueB);
+			expectedA.set(valueA);
+			expectedB.set(valueB);
+		}
+		for (int i = 0; i < 5000; i++) {
+			int value = random.nextInt(1 << 16);
+			a.remove(value);
+			expectedA.clear(value);
+		}
+
+		assertBitmapEquals(expectedA, a);
+		assertEquals(expectedA.cardinality(), a.getCardinality());
+
+		BitSet and = (BitSet) expectedA.clone();
+		and.and(expectedB);
+		assertBitmapEquals(and, a.and(b));
+
+		BitSet andNot = (BitSet) expectedA.clone();
+		andNot.andNot(expectedB);
+		assertBitmapEquals(andNot, a.andNot(b));
+
+		BitSet or = (BitSet) expectedA.clone();
+		or.or(expectedB);
+		assertBitmapEquals(or, a.or(b));
+
+		int rank = expectedA.cardinality() / 2;
+		int expected = expectedA.nextSetBit(0);
+		for (int i = 0; i < rank; i++) {
+			expected = expectedA.nextSetBit(expected + 1);
+		}
+		assertEquals(expected, a.select(rank));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCopyIsIndependent() {
+		CompressedBitmap bitmap = CompressedBitmap.of(1, 2);
+		CompressedBitmap copy = bitmap.copy();
+		copy.add(3);
+		assertEquals(2, bitmap.getCardinality());
+		assertEquals(3, copy.getCardinality());
+	}
+
+	/**
+	 *
+	 */
+	private static void assertBitmapEquals(BitSet expected, CompressedBitmap actual) {
+		assertArrayEquals(expected.stream().toArray(), actual.toArray());
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link FragmentCache}.
+ */
+public class FragmentCacheTest {
+
+	private FragmentCache fragmentCache;
+	private WebPartTemplate template;
+	private AtomicInteger numberOfBuilds;
+
+	@Before
+	public void setUp() {
+		fragmentCache = new FragmentCache(1024);
+		template = new WebPartTemplate("infos/TestInfo");
+		template.initialize("<p>Grüße, {$name}</p>");
+		numberOfBuilds = new AtomicInteger();
+	}
+
+	@Test
+	public void testFragmentIsBuiltOnce() throws IOException {
+		RenderedFragment first = fragmentCache.getFragment("de", "infos/TestInfo", "", () -> build("Zoë"));
+		RenderedFragment second = fragmentCache.getFragment("de", "infos/TestInfo", "", () -> build("Zoë"));
+
+		assertEquals(1, numberOfBuilds.get());
+		assertEquals("<p>Grüße, Zoë</p>", asString(second));
+		assertEquals(asString(first), asString(second));
+	}
+
+	@Test
+	public void testKeyContainsLanguageAndFingerprint() {
+		fragmentCache.getFragment("de", "infos/TestInfo", "", () -> build("a"));
+		fragmentCache.getFragment("en", "infos/TestInfo", "", () -> build("a"));
+		fragmentCache.getFragment("en", "infos/TestInfo", "x", () -> build("b"));
+
+		assertEquals(3, numberOfBuilds.get());
+	}
+
+	@Test
+	public void testInvalidate() {
+		fragmentCache.getFragment("de", "infos/TestInfo", "", () -> build("a"));
+		fragmentCache.getFragment("de", "infos/OtherInfo", "", () -> build("b"));
+
+		fragmentCache.invalidate("infos/TestInfo");
+		fragmentCache.getFragment("de", "infos/TestInfo", "", () -> build("a"));
+		fragmentCache.getFragment("de", "infos/OtherInfo", "", () -> build("b"));
+		assertEquals(3, numberOfBuilds.get());
+
+		fragmentCache.invalidateAll();
+		fragmentCache.getFragment("de", "infos/OtherInfo", "", () -> build("b"));
+		assertEquals(4, numberOfBuilds.get());
+	}
+
+	@Test
+	public void testSizeIsBounded() {
+		for (int i = 0; i < 100; i++) {
+			fragmentCache.getFragment("de", "infos/TestInfo", String.valueOf(i), () -> build("some longer name"));
+		}
+
+		assertTrue(fragmentCache.getStatistics().getWeight() <= 1024);
+	}
+
+	private WebPart build(String name) {
+		numberOfBuilds.incrementAndGet();
+		WebPart result = new WebPart(template);
+		result.addString("name", name);
+		return result;
+	}
+
+	private static String asString(Writable writable) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writable.writeOn(out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}
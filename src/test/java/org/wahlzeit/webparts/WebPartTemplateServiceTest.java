@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.webparts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.services.ConfigDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test class for {@link WebPartTemplateService}.
+ */
+public class WebPartTemplateServiceTest {
+
+	private Path rootDir;
+	private WebPartTemplateService service;
+
+	@Before
+	public void setUp() throws IOException {
+		rootDir = Files.createTempDirectory("wahlzeit-templates");
+		writeTemplate("default/en/infos/Hello.html", "Hello {$name}");
+		writeTemplate("custom/en/pages/Page.html", "<p>{$body}</p>");
+		writeTemplate("default/de/infos/Hello.html", "Hallo {$name}");
+
+		service = new WebPartTemplateService();
+		service.setTemplatesDir(new ConfigDir(rootDir.toString(), "templates"));
+	}
+
+	@After
+	public void tearDown() {
+		try (Stream<Path> files = Files.walk(rootDir)) {
+			files.map(Path::toFile).sorted((a, b) -> b.compareTo(a)).forEach(File::delete);
+		} catch (IOException e) {
+			// leave it to the system to clean up
+		}
+	}
+
+	@Test
+	public void testPreloadTemplates() throws IOException {
+		service.preloadTemplates();
+
+		assertEquals(3, service.templates.size());
+		WebPartTemplate hello = service.templates.get("en" + File.separator + "infos/Hello");
+		assertSame(hello, service.getTemplate("en", "infos/Hello"));
+		assertSame(service.templates.get("en" + File.separator + "pages/Page"), service.getTemplate("en", "pages/Page"));
+		assertEquals(1, hello.getNumberOfKeys());
+	}
+
+	@Test
+	public void testGetTemplateLoadsLazily() {
+		WebPartTemplate hello = service.getTemplate("de", "infos/Hello");
+
+		assertEquals(1, service.templates.size());
+		assertSame(hello, service.getTemplate("de", "infos/Hello"));
+		assertNull(service.getTemplate("de", "infos/Missing"));
+	}
+
+	@Test
+	public void testReloadTemplateReplacesPublishedTemplate() throws IOException {
+		WebPartTemplate old = service.getTemplate("en", "infos/Hello");
+		writeTemplate("default/en/infos/Hello.html", "Hi {$name}, {$greeting}");
+
+		service.reloadTemplate("en" + File.separator + "infos/Hello");
+
+		WebPartTemplate reloaded = service.getTemplate("en", "infos/Hello");
+		assertNotSame(old, reloaded);
+		assertEquals(2, reloaded.getNumberOfKeys());
+	}
+
+	@Test
+	public void testAsShortName() {
+		assertEquals("en" + File.separator + "pages/Page", WebPartTemplateService.asShortName(Paths.get("en", "pages", "Page.html")));
+		assertNull(WebPartTemplateService.asShortName(Paths.get("Page.html")));
+	}
+
+	/**
+	 *
+	 */
+	private void writeTemplate(String relativeName, String source) throws IOException {
+		Path file = rootDir.resolve("templates").resolve(relativeName);
+		Files.createDirectories(file.getParent());
+		Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2019 by Christoph Volkert
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test class for {@link WebPart} and the compiled form of {@link WebPartTemplate}.
+ */
+public class WebPartTest {
+
+	private WebPartTemplate pageTemplate;
+	private WebPartTemplate infoTemplate;
+
+	@Before
+	public void setUp() {
+		pageTemplate = new WebPartTemplate("page");
+		pageTemplate.initialize("<h1>{$title}</h1>\n<p>{$body}</p>\n<div>{$title}</div>\n<span>{$missing}</span>ü");
+		infoTemplate = new WebPartTemplate("info");
+		infoTemplate.initialize("Grüße, {$name}!");
+	}
+
+	@Test
+	public void testCompiledTemplate() {
+		assertEquals(3, pageTemplate.getNumberOfKeys());
+		assertEquals(0, pageTemplate.getKeyIndex("title"));
+		assertEquals(-1, pageTemplate.getKeyIndex("unknown"));
+		assertEquals(5, pageTemplate.getSegments().length);
+		assertEquals("</div>\n<span>", new String(pageTemplate.getSegments()[3], StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testAdjacentSlotsAndUnclosedSlot() throws IOException {
+		WebPartTemplate template = new WebPartTemplate("adjacent");
+		template.initialize("{$a}{$b}-{$a} {$open");
+
+		assertEquals(2, template.getNumberOfKeys());
+		assertEquals(4, template.getSegments().length);
+		assertEquals("", new String(template.getSegments()[1], StandardCharsets.UTF_8));
+		assertEquals(" {$open", new String(template.getSegments()[3], StandardCharsets.UTF_8));
+
+		WebPart part = new WebPart(template);
+		part.addString("a", "1");
+		part.addString("b", "2");
+		StringWriter writer = new StringWriter();
+		part.writeOn(writer);
+		assertEquals("12-1 {$open", writer.toString());
+	}
+
+	@Test
+	public void testWriteOnStreamEqualsWriteOnWriter() throws IOException {
+		WebPart info = new WebPart(infoTemplate);
+		info.addString("name", "Zoë");
+		WebPart page = new WebPart(pageTemplate);
+		page.addString("title", "Wahlzeit");
+		page.addWritable("body", new WritableList().append(info).append(info));
+
+		StringWriter writer = new StringWriter();
+		page.writeOn(writer);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		page.writeOn(out);
+
+		String expected = "<h1>Wahlzeit</h1>\n<p>Grüße, Zoë!Grüße, Zoë!</p>\n<div>Wahlzeit</div>\n<span></span>ü";
+		assertEquals(expected, writer.toString());
+		assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testValuesWithoutSlot() {
+		WebPart page = new WebPart(pageTemplate);
+		page.addString("unknown", "value");
+		page.addString("title", "Wahlzeit");
+
+		assertEquals("value", page.getValue("unknown"));
+		assertEquals("Wahlzeit", page.getValue("title"));
+		assertNull(page.getValue("body"));
+	}
+
+}